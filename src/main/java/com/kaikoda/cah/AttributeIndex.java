@@ -0,0 +1,441 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+import com.kaikoda.cah.Card.CardColor;
+
+/**
+ * An index of the attributes of each card, for finding every card that
+ * matches a combination of them, eg. all black cards that pick two, in
+ * en-gb, shorter than 90 characters.
+ * 
+ * Each value of each attribute maps to a bitset of the cards that have it,
+ * so a query is answered by combining bitsets, a word at a time, without
+ * looking at the cards themselves. A bitset costs one bit per card, however
+ * many cards have the value, and is only as long as the highest ID it
+ * holds. Lengths are counted as html5.xsl counts them: in characters, with
+ * each blank counted as a full-length line.
+ * 
+ * Not thread-safe for updates, but any number of threads may query at once
+ * while the index isn't being changed.
+ * 
+ * @author Sheila Thomson
+ */
+public class AttributeIndex {
+
+	/**
+	 * The cards that match a query. Instances are immutable.
+	 */
+	public static class Query {
+
+		private final BitSet cards;
+
+		private Query(BitSet cards) {
+			this.cards = cards;
+		}
+
+		/**
+		 * @param other another query on the same index.
+		 * @return the cards that match both queries.
+		 */
+		public Query and(Query other) {
+
+			BitSet result = (BitSet) this.cards.clone();
+			result.and(other.cards);
+			return new Query(result);
+
+		}
+
+		/**
+		 * @param other another query on the same index.
+		 * @return the cards that match this query but not the other.
+		 */
+		public Query andNot(Query other) {
+
+			BitSet result = (BitSet) this.cards.clone();
+			result.andNot(other.cards);
+			return new Query(result);
+
+		}
+
+		/**
+		 * @param card the ID of a card.
+		 * @return true if the card matches.
+		 */
+		public boolean contains(int card) {
+			return card >= 0 && this.cards.get(card);
+		}
+
+		/**
+		 * @return the number of cards that match.
+		 */
+		public int count() {
+			return this.cards.cardinality();
+		}
+
+		public boolean isEmpty() {
+			return this.cards.isEmpty();
+		}
+
+		/**
+		 * @return the IDs of the cards that match, in ascending order.
+		 */
+		public PrimitiveIterator.OfInt iterator() {
+
+			final BitSet cards = this.cards;
+			return new PrimitiveIterator.OfInt() {
+
+				private int next = cards.nextSetBit(0);
+
+				public boolean hasNext() {
+					return this.next >= 0;
+				}
+
+				public int nextInt() {
+
+					if (this.next < 0) {
+						throw new NoSuchElementException();
+					}
+
+					int result = this.next;
+					this.next = (result == Integer.MAX_VALUE) ? -1 : cards.nextSetBit(result + 1);
+					return result;
+
+				}
+
+			};
+
+		}
+
+		/**
+		 * @param other another query on the same index.
+		 * @return the cards that match either query.
+		 */
+		public Query or(Query other) {
+
+			BitSet result = (BitSet) this.cards.clone();
+			result.or(other.cards);
+			return new Query(result);
+
+		}
+
+		/**
+		 * @return the IDs of the cards that match, in ascending order.
+		 */
+		public int[] toArray() {
+
+			int[] result = new int[this.cards.cardinality()];
+			int i = 0;
+			for (int card = this.cards.nextSetBit(0); card >= 0; card = this.cards.nextSetBit(card + 1)) {
+				result[i++] = card;
+			}
+			return result;
+
+		}
+
+	}
+
+	/**
+	 * The number of different lengths counted in each length bucket.
+	 */
+	public static final int LENGTH_BUCKET_SIZE = 10;
+
+	private final ArrayList<Card> cards;
+
+	private final EnumMap<CardColor, BitSet> colors;
+
+	private final HashMap<String, BitSet> languages;
+
+	/**
+	 * Cards by length, in buckets of LENGTH_BUCKET_SIZE characters.
+	 */
+	private final ArrayList<BitSet> lengthBuckets;
+
+	/**
+	 * The length of each card, by ID.
+	 */
+	private int[] lengths;
+
+	private final HashMap<String, BitSet> packs;
+
+	/**
+	 * Cards by the number of white cards to pick.
+	 */
+	private final ArrayList<BitSet> picks;
+
+	/**
+	 * Cards by size class, with an empty String for cards without one.
+	 */
+	private final HashMap<String, BitSet> sizes;
+
+	public AttributeIndex() {
+
+		this.cards = new ArrayList<Card>();
+		this.colors = new EnumMap<CardColor, BitSet>(CardColor.class);
+		this.languages = new HashMap<String, BitSet>();
+		this.lengthBuckets = new ArrayList<BitSet>();
+		this.lengths = new int[64];
+		this.packs = new HashMap<String, BitSet>();
+		this.picks = new ArrayList<BitSet>();
+		this.sizes = new HashMap<String, BitSet>();
+
+	}
+
+	/**
+	 * @param deck the cards to index.
+	 */
+	public AttributeIndex(Deck deck) {
+		this();
+		this.add(deck);
+	}
+
+	/**
+	 * @param card a card.
+	 * @return the number of characters the card takes up once printed,
+	 *         counting each blank as a full-length line.
+	 */
+	public static int getLength(Card card) {
+
+		String text = card.getText();
+		return text.codePointCount(0, text.length()) + (card.getBlanks() * HtmlRenderer.BLANK.length());
+
+	}
+
+	private static BitSet get(ArrayList<BitSet> sets, int index) {
+
+		while (sets.size() <= index) {
+			sets.add(new BitSet());
+		}
+		return sets.get(index);
+
+	}
+
+	private static BitSet get(HashMap<String, BitSet> sets, String key) {
+
+		BitSet result = sets.get(key);
+		if (result == null) {
+			result = new BitSet();
+			sets.put(key, result);
+		}
+		return result;
+
+	}
+
+	private static String toLanguageKey(Locale language) {
+		return (language == null) ? "" : language.toLanguageTag().toLowerCase(Locale.ROOT);
+	}
+
+	private static Query toQuery(BitSet cards) {
+		return new Query((cards == null) ? new BitSet() : (BitSet) cards.clone());
+	}
+
+	/**
+	 * Adds a card to the index.
+	 * 
+	 * @param card the card to add.
+	 * @param language the language of the card, or null if not known.
+	 * @param pack the name of the pack the card came from, or null if not
+	 *        known.
+	 * @return the ID of the card within the index.
+	 */
+	public int add(Card card, Locale language, String pack) {
+
+		if (card == null) {
+			throw new IllegalArgumentException("Card required.");
+		}
+
+		int id = this.cards.size();
+		this.cards.add(card);
+
+		int length = AttributeIndex.getLength(card);
+		if (id == this.lengths.length) {
+			this.lengths = Arrays.copyOf(this.lengths, id * 2);
+		}
+		this.lengths[id] = length;
+
+		BitSet color = this.colors.get(card.getColor());
+		if (color == null) {
+			color = new BitSet();
+			this.colors.put(card.getColor(), color);
+		}
+		color.set(id);
+
+		AttributeIndex.get(this.picks, card.getPick()).set(id);
+		AttributeIndex.get(this.lengthBuckets, length / LENGTH_BUCKET_SIZE).set(id);
+
+		String size = HtmlRenderer.getSizeClass(length);
+		AttributeIndex.get(this.sizes, (size == null) ? "" : size).set(id);
+
+		AttributeIndex.get(this.languages, AttributeIndex.toLanguageKey(language)).set(id);
+		AttributeIndex.get(this.packs, (pack == null) ? "" : pack).set(id);
+
+		return id;
+
+	}
+
+	/**
+	 * Adds every card in a deck to the index, under the name of the file the
+	 * deck was read from.
+	 * 
+	 * @param deck the cards to add.
+	 */
+	public void add(Deck deck) {
+		this.add(deck, deck.getName());
+	}
+
+	/**
+	 * Adds every card in a deck to the index.
+	 * 
+	 * @param deck the cards to add.
+	 * @param pack the name of the pack the cards came from, or null if not
+	 *        known.
+	 */
+	public void add(Deck deck, String pack) {
+
+		String lang = deck.getData().getDocumentElement().getAttribute("xml:lang");
+		Locale language = lang.equals("") ? null : Locale.forLanguageTag(lang);
+
+		for (Card card : deck.getCards()) {
+			this.add(card, language, pack);
+		}
+
+	}
+
+	/**
+	 * @return every card in the index.
+	 */
+	public Query all() {
+
+		BitSet result = new BitSet(this.cards.size());
+		result.set(0, this.cards.size());
+		return new Query(result);
+
+	}
+
+	/**
+	 * @param color a suit.
+	 * @return the cards in the suit.
+	 */
+	public Query color(CardColor color) {
+		return AttributeIndex.toQuery(this.colors.get(color));
+	}
+
+	/**
+	 * @param card the ID of a card.
+	 * @return the card.
+	 */
+	public Card getCard(int card) {
+		return this.cards.get(card);
+	}
+
+	/**
+	 * @param language a language, or null for cards in no known language.
+	 * @return the cards in the language.
+	 */
+	public Query language(Locale language) {
+		return AttributeIndex.toQuery(this.languages.get(AttributeIndex.toLanguageKey(language)));
+	}
+
+	/**
+	 * @param min the fewest characters, inclusive.
+	 * @param max the most characters, inclusive.
+	 * @return the cards with a length in the range, as printed.
+	 */
+	public Query length(int min, int max) {
+
+		min = Math.max(min, 0);
+		BitSet result = new BitSet();
+		if (max < min) {
+			return new Query(result);
+		}
+
+		int first = min / LENGTH_BUCKET_SIZE;
+		int last = Math.min(max / LENGTH_BUCKET_SIZE, this.lengthBuckets.size() - 1);
+		for (int bucket = first; bucket <= last; bucket++) {
+
+			BitSet cards = this.lengthBuckets.get(bucket);
+			int start = bucket * LENGTH_BUCKET_SIZE;
+			if (start >= min && start + LENGTH_BUCKET_SIZE - 1 <= max) {
+				result.or(cards);
+			} else {
+
+				// Only part of the bucket is in range.
+				for (int card = cards.nextSetBit(0); card >= 0; card = cards.nextSetBit(card + 1)) {
+					if (this.lengths[card] >= min && this.lengths[card] <= max) {
+						result.set(card);
+					}
+				}
+
+			}
+
+		}
+
+		return new Query(result);
+
+	}
+
+	/**
+	 * @param pack the name of a pack, or null for cards from no known pack.
+	 * @return the cards from the pack.
+	 */
+	public Query pack(String pack) {
+		return AttributeIndex.toQuery(this.packs.get((pack == null) ? "" : pack));
+	}
+
+	/**
+	 * @param pick the number of white cards to play.
+	 * @return the cards that call for that number of white cards.
+	 */
+	public Query pick(int pick) {
+		return AttributeIndex.toQuery((pick >= 0 && pick < this.picks.size()) ? this.picks.get(pick) : null);
+	}
+
+	/**
+	 * @param max the most characters, exclusive.
+	 * @return the cards shorter than the length given, as printed.
+	 */
+	public Query shorterThan(int max) {
+		return this.length(0, max - 1);
+	}
+
+	/**
+	 * @return the number of cards in the index.
+	 */
+	public int size() {
+		return this.cards.size();
+	}
+
+	/**
+	 * @param size a size class, eg. very-long, as given by html5.xsl, or null
+	 *        for cards short enough not to need one.
+	 * @return the cards with that size class.
+	 */
+	public Query sizeClass(String size) {
+		return AttributeIndex.toQuery(this.sizes.get((size == null) ? "" : size));
+	}
+
+}
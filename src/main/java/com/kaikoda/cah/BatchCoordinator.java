@@ -0,0 +1,832 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares the generation of a directory of card data files between any number
+ * of worker processes, each with a heap of its own.
+ * 
+ * Each card data file is a unit of work. Workers connect over a socket and
+ * pull one unit at a time, so faster workers simply take more. Once every
+ * unit has been handed out, a worker with nothing to do is given a copy of
+ * the unit that's been running longest, and whichever is ready first is
+ * kept, the other thrown away: a straggler can't hold up the whole batch. A unit held by a worker that
+ * disconnects, eg. because its JVM crashed, goes back in the queue; a unit
+ * that fails is retried on another worker up to MAX_ATTEMPTS times.
+ * 
+ * Completed units may be recorded in a journal, so a batch that's stopped
+ * part way through can be resumed without generating them again. Once the
+ * batch is done, the products of every unit may be gathered into a single
+ * archive.
+ * 
+ * The protocol is one line of UTF-8 text per message, so workers on other
+ * hosts may use it too, provided they see the card data at the same path:
+ * 
+ * <pre>
+ * worker:      NEXT
+ * coordinator: UNIT &lt;id&gt; &lt;path&gt;  or  DONE
+ * worker:      READY &lt;id&gt;  or  FAILED &lt;id&gt; &lt;reason&gt;
+ * coordinator: KEEP  or  DISCARD
+ * worker:      OK &lt;id&gt; &lt;milliseconds&gt; &lt;bytes&gt;  or  FAILED &lt;id&gt; &lt;reason&gt;
+ * </pre>
+ * 
+ * A worker is told to KEEP a unit it's ready with only if no other worker
+ * has been, so products already saved are never replaced by another copy.
+ * It then moves them into place, replacing any left by an earlier run, and
+ * reports the result.
+ * 
+ * @author Sheila Thomson
+ * @see BatchWorker
+ */
+public class BatchCoordinator {
+
+	/**
+	 * The number of times a unit may fail before it's given up on.
+	 */
+	public static final int MAX_ATTEMPTS = 3;
+
+	/**
+	 * How long to wait for workers to exit once every unit is done.
+	 */
+	private static final long SHUTDOWN_TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+
+	private static final int COMPLETE = 2;
+
+	private static final int FAILED = 3;
+
+	private static final int PENDING = 0;
+
+	private static final int RUNNING = 1;
+
+	/**
+	 * The number of times each unit has been attempted.
+	 */
+	private final int[] attempts;
+
+	/**
+	 * Whether a worker has been told to keep its products of each unit.
+	 */
+	private final boolean[] claimed;
+
+	private final ExecutorService connections;
+
+	/**
+	 * The number of workers holding each unit.
+	 */
+	private final int[] holders;
+
+	private final Deque<Integer> queue;
+
+	/**
+	 * The worker processes launched on this machine.
+	 */
+	private final List<Process> processes;
+
+	/**
+	 * When each unit was last handed out, in nanoseconds.
+	 */
+	private final long[] started;
+
+	private final int[] states;
+
+	private final File[] units;
+
+	private long bytes;
+
+	private int completed;
+
+	private long elapsed;
+
+	private int failed;
+
+	private Writer journal;
+
+	/**
+	 * The number of units put back in the queue after their worker
+	 * disconnected.
+	 */
+	private int reassigned;
+
+	private ServerSocket server;
+
+	/**
+	 * The number of copies of units handed to idle workers.
+	 */
+	private int stolen;
+
+	private int workersConnected;
+
+	/**
+	 * @param directory a directory of card data files: every .xml file in it
+	 *        is a unit of work.
+	 */
+	public BatchCoordinator(File directory) {
+		this(BatchCoordinator.listUnits(directory));
+	}
+
+	/**
+	 * @param units the card data files to generate.
+	 */
+	public BatchCoordinator(List<File> units) {
+
+		if (units == null || units.isEmpty()) {
+			throw new IllegalArgumentException("Card data required.");
+		}
+
+		this.units = new File[units.size()];
+		for (int i = 0; i < this.units.length; i++) {
+			this.units[i] = units.get(i).getAbsoluteFile();
+		}
+
+		this.attempts = new int[this.units.length];
+		this.claimed = new boolean[this.units.length];
+		this.holders = new int[this.units.length];
+		this.started = new long[this.units.length];
+		this.states = new int[this.units.length];
+		this.processes = new ArrayList<Process>();
+
+		this.queue = new ArrayDeque<Integer>();
+		for (int i = 0; i < this.units.length; i++) {
+			this.queue.add(i);
+		}
+
+		this.connections = Executors.newCachedThreadPool(new ThreadFactory() {
+
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "batch-coordinator");
+				thread.setDaemon(true);
+				return thread;
+			}
+
+		});
+
+	}
+
+	/**
+	 * @param directory a directory of card data files.
+	 * @return every .xml file in the directory, in order of name.
+	 */
+	public static List<File> listUnits(File directory) {
+
+		if (directory == null || !directory.isDirectory()) {
+			throw new IllegalArgumentException("Directory required.");
+		}
+
+		File[] files = directory.listFiles(new FileFilter() {
+
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().endsWith(".xml");
+			}
+
+		});
+		Arrays.sort(files);
+
+		return Arrays.asList(files);
+
+	}
+
+	/**
+	 * Adds the products of every completed unit to an archive, under the
+	 * directory each was generated in, eg. uk/cards_against_humanity.html
+	 * 
+	 * @param outputDirectory where the workers wrote their products.
+	 * @param archive where to add the products. It is left open.
+	 * @return the number of units added.
+	 * @throws IOException when it's not possible to read the products or add
+	 *         them to the archive.
+	 */
+	public int archive(File outputDirectory, ProductArchive archive) throws IOException {
+
+		List<File> completed = new ArrayList<File>();
+		synchronized (this) {
+			for (int i = 0; i < this.units.length; i++) {
+				if (this.states[i] == COMPLETE) {
+					completed.add(this.units[i]);
+				}
+			}
+		}
+
+		int total = 0;
+		for (File unit : completed) {
+
+			String name = CardGenerator.getBaseName(unit);
+			File directory = new File(outputDirectory, name);
+			if (!directory.isDirectory()) {
+				throw new IOException("Products not found: " + directory.getPath());
+			}
+
+			BatchCoordinator.archive(directory, archive, name + "/");
+			total++;
+
+		}
+		return total;
+
+	}
+
+	/**
+	 * Waits for every unit to be completed or given up on.
+	 * 
+	 * @param timeout the longest time to wait, or 0 for no limit.
+	 * @param unit the unit of the timeout.
+	 * @return true if every unit is done; false if timed out or if every
+	 *         worker launched has exited with units left to do.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public synchronized boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+		while (!this.isDone()) {
+
+			if (this.workersConnected == 0 && !this.processes.isEmpty() && !this.isAnyProcessAlive()) {
+				return false;
+			}
+
+			long remaining = TimeUnit.SECONDS.toNanos(1);
+			if (timeout > 0) {
+				remaining = Math.min(remaining, deadline - System.nanoTime());
+				if (remaining <= 0) {
+					return false;
+				}
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+
+		}
+
+		return true;
+
+	}
+
+	/**
+	 * Stops accepting workers, closes the journal and stops any worker
+	 * processes launched that haven't already exited. If every unit is done,
+	 * workers still finishing a copy of one are given a while to exit first.
+	 * 
+	 * @throws IOException when it's not possible to close the journal.
+	 */
+	public void close() throws IOException {
+
+		List<Process> launched = null;
+		boolean isDone = false;
+		synchronized (this) {
+			launched = new ArrayList<Process>(this.processes);
+			isDone = this.isDone();
+		}
+
+		if (isDone) {
+			try {
+				long deadline = System.nanoTime() + SHUTDOWN_TIMEOUT;
+				for (Process process : launched) {
+					process.waitFor(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		if (this.server != null) {
+			this.server.close();
+		}
+
+		this.connections.shutdownNow();
+
+		synchronized (this) {
+
+			for (Process process : this.processes) {
+				process.destroy();
+			}
+
+			if (this.journal != null) {
+				this.journal.close();
+				this.journal = null;
+			}
+
+			this.notifyAll();
+
+		}
+
+	}
+
+	/**
+	 * @return the address workers should connect to, or null if not yet
+	 *         listening.
+	 */
+	public InetSocketAddress getAddress() {
+
+		if (this.server == null) {
+			return null;
+		}
+		return new InetSocketAddress(this.server.getInetAddress(), this.server.getLocalPort());
+
+	}
+
+	/**
+	 * @return the total size of the products written by the workers.
+	 */
+	public synchronized long getBytes() {
+		return this.bytes;
+	}
+
+	public synchronized int getCompleted() {
+		return this.completed;
+	}
+
+	/**
+	 * @return the total time the workers spent generating, in milliseconds.
+	 */
+	public synchronized long getElapsed() {
+		return this.elapsed;
+	}
+
+	public synchronized int getFailed() {
+		return this.failed;
+	}
+
+	public synchronized int getReassigned() {
+		return this.reassigned;
+	}
+
+	public synchronized int getStolen() {
+		return this.stolen;
+	}
+
+	public int getTotalUnits() {
+		return this.units.length;
+	}
+
+	/**
+	 * Starts worker processes on this machine, each running CardGenerator in
+	 * a JVM of its own, with the same classpath as this one.
+	 * 
+	 * @param total the number of workers.
+	 * @param jvmOptions options for each worker's JVM, eg. -Xmx512m
+	 * @param arguments options for each worker's CardGenerator, eg. the
+	 *        products to generate.
+	 * @param outputDirectory where each worker writes its products.
+	 * @throws IOException when it's not possible to start a worker.
+	 */
+	public void launchWorkers(int total, List<String> jvmOptions, List<String> arguments, File outputDirectory) throws IOException {
+
+		InetSocketAddress address = this.getAddress();
+		if (address == null) {
+			throw new IllegalStateException("Not yet listening.");
+		}
+
+		for (int i = 0; i < total; i++) {
+
+			List<String> command = new ArrayList<String>();
+			command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+			command.addAll(jvmOptions);
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add(CardGenerator.class.getName());
+			command.add("-w");
+			command.add(address.getAddress().getHostAddress() + ":" + address.getPort());
+			command.addAll(arguments);
+
+			ProcessBuilder builder = new ProcessBuilder(command);
+			builder.directory(outputDirectory);
+			builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+			builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+
+			Process process = builder.start();
+			synchronized (this) {
+				this.processes.add(process);
+			}
+
+		}
+
+	}
+
+	/**
+	 * Starts accepting workers.
+	 * 
+	 * @param address where to listen, eg. localhost on port 0 for any free
+	 *        port.
+	 * @throws IOException when it's not possible to listen.
+	 */
+	public void open(InetSocketAddress address) throws IOException {
+
+		if (this.server != null) {
+			throw new IllegalStateException("Already listening.");
+		}
+
+		this.server = new ServerSocket();
+		this.server.bind(address);
+
+		final ServerSocket server = this.server;
+		this.connections.execute(new Runnable() {
+
+			public void run() {
+
+				try {
+					while (true) {
+
+						final Socket socket = server.accept();
+						BatchCoordinator.this.connections.execute(new Runnable() {
+
+							public void run() {
+								BatchCoordinator.this.serve(socket);
+							}
+
+						});
+
+					}
+				} catch (IOException e) {
+
+					// Closed.
+
+				}
+
+			}
+
+		});
+
+	}
+
+	/**
+	 * Records each unit completed in a journal, and skips any units already
+	 * recorded there by an earlier run.
+	 * 
+	 * @param file the journal.
+	 * @throws IOException when it's not possible to read or write the
+	 *         journal.
+	 */
+	public synchronized void setJournal(File file) throws IOException {
+
+		if (this.journal != null) {
+			throw new IllegalStateException("Journal already set.");
+		}
+
+		if (file.exists()) {
+
+			Set<String> done = new HashSet<String>();
+			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			try {
+				for (String line = in.readLine(); line != null; line = in.readLine()) {
+					done.add(line);
+				}
+			} finally {
+				in.close();
+			}
+
+			for (int i = 0; i < this.units.length; i++) {
+				if (this.states[i] == PENDING && done.contains(this.units[i].getPath())) {
+					this.states[i] = COMPLETE;
+					this.queue.remove(i);
+					this.completed++;
+				}
+			}
+
+		}
+
+		this.journal = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+		this.notifyAll();
+
+	}
+
+	/**
+	 * @return a one-line summary of the batch.
+	 */
+	@Override
+	public synchronized String toString() {
+		return "units: " + this.units.length + " total, " + this.completed + " completed, " + this.failed + " failed; reassigned: " + this.reassigned + "; stolen: " + this.stolen + "; generating: " + this.elapsed + "ms, " + this.bytes + " bytes";
+	}
+
+	/**
+	 * Lets a worker keep its products of a unit, unless another worker has
+	 * already been, or the unit is already done.
+	 * 
+	 * @return true if the worker should keep its products.
+	 */
+	private synchronized boolean claim(int unit) {
+
+		if (this.states[unit] != RUNNING || this.claimed[unit]) {
+			return false;
+		}
+
+		this.claimed[unit] = true;
+		return true;
+
+	}
+
+	/**
+	 * Records that a worker has thrown away its copy of a unit.
+	 */
+	private synchronized void discard(int unit) {
+
+		this.holders[unit]--;
+		this.notifyAll();
+
+	}
+
+	/**
+	 * Adds the files in a directory to an archive, in order of name.
+	 */
+	private static void archive(File directory, ProductArchive archive, String path) throws IOException {
+
+		File[] files = directory.listFiles();
+		Arrays.sort(files);
+
+		for (File file : files) {
+
+			if (file.isDirectory()) {
+				BatchCoordinator.archive(file, archive, path + file.getName() + "/");
+				continue;
+			}
+
+			InputStream in = new FileInputStream(file);
+			try {
+				archive.add(path + file.getName(), in);
+			} finally {
+				in.close();
+			}
+
+		}
+
+	}
+
+	/**
+	 * Records the result of a unit.
+	 * 
+	 * @param isClaimed true if the result is from the worker told to keep its
+	 *        products.
+	 * @return true if this was the first result for the unit.
+	 */
+	private synchronized boolean finish(int unit, boolean isSuccess, boolean isClaimed, long elapsed, long bytes) throws IOException {
+
+		this.holders[unit]--;
+		if (isClaimed) {
+			this.claimed[unit] = false;
+		}
+
+		if (this.states[unit] == COMPLETE || this.states[unit] == FAILED) {
+			this.notifyAll();
+			return false;
+		}
+
+		this.elapsed = this.elapsed + elapsed;
+
+		if (isSuccess) {
+
+			this.states[unit] = COMPLETE;
+			this.completed++;
+			this.bytes = this.bytes + bytes;
+
+			if (this.journal != null) {
+				this.journal.write(this.units[unit].getPath() + "\n");
+				this.journal.flush();
+			}
+
+		} else if (this.holders[unit] == 0) {
+
+			if (this.attempts[unit] < MAX_ATTEMPTS) {
+				this.states[unit] = PENDING;
+				this.queue.addFirst(unit);
+			} else {
+				this.states[unit] = FAILED;
+				this.failed++;
+			}
+
+		}
+
+		this.notifyAll();
+		return true;
+
+	}
+
+	private boolean isAnyProcessAlive() {
+
+		for (Process process : this.processes) {
+			if (process.isAlive()) {
+				return true;
+			}
+		}
+		return false;
+
+	}
+
+	private boolean isDone() {
+		return this.completed + this.failed == this.units.length;
+	}
+
+	/**
+	 * Chooses a unit for a worker, waiting if every unit left is already
+	 * running on two workers.
+	 * 
+	 * @return the unit, or -1 if there are none left.
+	 */
+	private synchronized int next() throws InterruptedException {
+
+		while (!this.isDone()) {
+
+			Integer unit = this.queue.poll();
+			if (unit != null) {
+
+				this.states[unit] = RUNNING;
+				this.attempts[unit]++;
+				this.holders[unit]++;
+				this.started[unit] = System.nanoTime();
+				return unit;
+
+			}
+
+			// Steal the unit that's been running longest.
+			int straggler = -1;
+			for (int i = 0; i < this.units.length; i++) {
+				if (this.states[i] == RUNNING && this.holders[i] == 1 && (straggler < 0 || this.started[i] < this.started[straggler])) {
+					straggler = i;
+				}
+			}
+
+			if (straggler >= 0) {
+				this.holders[straggler]++;
+				this.stolen++;
+				return straggler;
+			}
+
+			this.wait();
+
+		}
+
+		return -1;
+
+	}
+
+	/**
+	 * Puts the units a worker held back in the queue, unless another worker
+	 * holds them too. Any it was told to keep may be kept by another.
+	 */
+	private synchronized void release(Set<Integer> held, Set<Integer> claims) {
+
+		for (int unit : claims) {
+			this.claimed[unit] = false;
+		}
+
+		for (int unit : held) {
+
+			this.holders[unit]--;
+			if (this.states[unit] == RUNNING && this.holders[unit] == 0) {
+
+				// A unit that keeps taking its worker down with it is given up on.
+				if (this.attempts[unit] < MAX_ATTEMPTS) {
+					this.states[unit] = PENDING;
+					this.queue.addFirst(unit);
+					this.reassigned++;
+				} else {
+					this.states[unit] = FAILED;
+					this.failed++;
+				}
+
+			}
+
+		}
+
+		this.workersConnected--;
+		this.notifyAll();
+
+	}
+
+	/**
+	 * Hands out units to a worker until there are none left or it
+	 * disconnects.
+	 */
+	private void serve(Socket socket) {
+
+		synchronized (this) {
+			this.workersConnected++;
+		}
+
+		Set<Integer> held = new HashSet<Integer>();
+		Set<Integer> claims = new HashSet<Integer>();
+		try {
+
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"), true);
+
+			for (String line = in.readLine(); line != null; line = in.readLine()) {
+
+				String[] message = line.split(" ", 4);
+
+				if (message[0].equals("NEXT")) {
+
+					int unit = this.next();
+					if (unit < 0) {
+						out.println("DONE");
+						break;
+					}
+					held.add(unit);
+					out.println("UNIT " + unit + " " + this.units[unit].getPath());
+
+				} else if (message[0].equals("READY")) {
+
+					int unit = Integer.parseInt(message[1]);
+					if (!held.contains(unit) || claims.contains(unit)) {
+						throw new IOException("Unit not held: " + unit);
+					}
+
+					if (this.claim(unit)) {
+						claims.add(unit);
+						out.println("KEEP");
+					} else {
+						held.remove(unit);
+						this.discard(unit);
+						out.println("DISCARD");
+					}
+
+				} else if (message[0].equals("OK") || message[0].equals("FAILED")) {
+
+					int unit = Integer.parseInt(message[1]);
+					if (!held.contains(unit)) {
+						throw new IOException("Unit not held: " + unit);
+					}
+
+					boolean isSuccess = message[0].equals("OK");
+					if (isSuccess && !claims.contains(unit)) {
+						throw new IOException("Unit not kept: " + unit);
+					}
+
+					held.remove(unit);
+					boolean isClaimed = claims.remove(unit);
+
+					long elapsed = 0;
+					long bytes = 0;
+					if (isSuccess) {
+						elapsed = Long.parseLong(message[2]);
+						bytes = Long.parseLong(message[3]);
+					}
+					this.finish(unit, isSuccess, isClaimed, elapsed, bytes);
+
+				} else {
+					throw new IOException("Unknown message: " + line);
+				}
+
+			}
+
+		} catch (InterruptedException e) {
+
+			// Closing.
+
+		} catch (IOException e) {
+
+			// Disconnected, or broke the protocol.
+
+		} catch (NumberFormatException e) {
+
+			// Disconnect a worker that breaks the protocol.
+
+		} finally {
+
+			this.release(held, claims);
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// Already disconnected.
+			}
+
+		}
+
+	}
+
+}
@@ -0,0 +1,326 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+
+import com.kaikoda.cah.CardGenerator.CardGeneratorProduct;
+
+/**
+ * Generates units of work handed out by a BatchCoordinator, one at a time,
+ * until there are none left.
+ * 
+ * The products of each unit are written to a directory named after its card
+ * data file, eg. uk/cards_against_humanity.html. They're written to a
+ * temporary directory first, then moved into place once the coordinator says
+ * to keep them, so a unit given to two workers at once is only ever seen
+ * complete. Products left by an earlier run are replaced.
+ * 
+ * @author Sheila Thomson
+ * @see BatchCoordinator
+ */
+public class BatchWorker {
+
+	private final File dictionary;
+
+	private final CardGenerator generator;
+
+	private final File outputDirectory;
+
+	private final Set<CardGeneratorProduct> products;
+
+	private final Locale targetLanguage;
+
+	/**
+	 * Where the generator sends its feedback, tagged with each unit, or null
+	 * to leave it as it is.
+	 */
+	private ProgressSink sink;
+
+	/**
+	 * @param generator configured as required, eg. to sort the cards. Its
+	 *        output directory is set to each unit's in turn, and it's made
+	 *        strict, so that a unit with a stage that fails is reported as
+	 *        failed rather than done.
+	 * @param products the kinds of output to generate from each unit.
+	 * @param targetLanguage the language to translate into, or null.
+	 * @param dictionary the dictionary to translate with, or null.
+	 * @param outputDirectory where to write the products of each unit.
+	 */
+	public BatchWorker(CardGenerator generator, Set<CardGeneratorProduct> products, Locale targetLanguage, File dictionary, File outputDirectory) {
+
+		if (generator == null) {
+			throw new IllegalArgumentException("Generator required.");
+		}
+
+		if (products == null || products.isEmpty()) {
+			throw new IllegalArgumentException("Product required.");
+		}
+
+		if (outputDirectory == null) {
+			throw new IllegalArgumentException("Output directory required.");
+		}
+
+		this.generator = generator;
+		this.generator.setStrict(true);
+		this.products = products;
+		this.targetLanguage = targetLanguage;
+		this.dictionary = dictionary;
+		this.outputDirectory = outputDirectory;
+
+	}
+
+	/**
+	 * @param address a host and port, eg. localhost:4000
+	 * @return the address.
+	 */
+	public static InetSocketAddress parseAddress(String address) {
+
+		int separator = address.lastIndexOf(':');
+		if (separator < 0) {
+			throw new IllegalArgumentException("Port required: " + address);
+		}
+
+		String host = address.substring(0, separator);
+		if (host.equals("")) {
+			host = "localhost";
+		}
+		return new InetSocketAddress(host, Integer.parseInt(address.substring(separator + 1)));
+
+	}
+
+	/**
+	 * Generates the products of a single unit, replacing any already there.
+	 * 
+	 * @param data the card data file.
+	 * @return the total size of the products, in bytes.
+	 * @throws Exception when it's not possible to generate any one of the
+	 *         products.
+	 */
+	public long generate(File data) throws Exception {
+
+		File temp = this.generateUnit(data);
+		try {
+
+			long bytes = FileUtils.sizeOfDirectory(temp);
+			this.publish(temp, this.getTarget(data));
+			return bytes;
+
+		} finally {
+			if (temp.exists()) {
+				FileUtils.deleteDirectory(temp);
+			}
+		}
+
+	}
+
+	/**
+	 * @param sink where the generator sends its feedback, tagged with the
+	 *        name of each unit's card data file, or null to leave it as it
+	 *        is.
+	 */
+	public void setProgressSink(ProgressSink sink) {
+		this.sink = sink;
+	}
+
+	/**
+	 * Pulls units from a coordinator and generates them, until there are none
+	 * left. A unit that can't be generated is reported as failed, for the
+	 * coordinator to retry elsewhere; a copy of a unit that another worker
+	 * has already saved is thrown away.
+	 * 
+	 * @param coordinator where the coordinator is listening.
+	 * @return the number of units generated and kept.
+	 * @throws IOException when the coordinator can't be reached or
+	 *         disconnects.
+	 */
+	public int work(InetSocketAddress coordinator) throws IOException {
+
+		Socket socket = new Socket();
+		try {
+
+			socket.connect(coordinator);
+
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"), true);
+
+			int total = 0;
+			while (true) {
+
+				out.println("NEXT");
+
+				String line = in.readLine();
+				if (line == null) {
+					throw new EOFException("Coordinator disconnected.");
+				}
+
+				if (line.equals("DONE")) {
+					return total;
+				}
+
+				String[] message = line.split(" ", 3);
+				if (!message[0].equals("UNIT") || message.length < 3) {
+					throw new IOException("Unknown message: " + line);
+				}
+
+				File data = new File(message[2]);
+				long start = System.nanoTime();
+				File temp = null;
+				try {
+
+					try {
+						temp = this.generateUnit(data);
+					} catch (Exception e) {
+						out.println("FAILED " + message[1] + " " + BatchWorker.toReason(e));
+						continue;
+					}
+					long bytes = FileUtils.sizeOfDirectory(temp);
+
+					// Only one copy of a unit is kept.
+					out.println("READY " + message[1]);
+
+					String reply = in.readLine();
+					if (reply == null) {
+						throw new EOFException("Coordinator disconnected.");
+					}
+
+					if (reply.equals("DISCARD")) {
+						continue;
+					}
+
+					if (!reply.equals("KEEP")) {
+						throw new IOException("Unknown message: " + reply);
+					}
+
+					try {
+						this.publish(temp, this.getTarget(data));
+					} catch (IOException e) {
+						out.println("FAILED " + message[1] + " " + BatchWorker.toReason(e));
+						continue;
+					}
+
+					out.println("OK " + message[1] + " " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " " + bytes);
+					total++;
+
+				} finally {
+					if (temp != null && temp.exists()) {
+						FileUtils.deleteDirectory(temp);
+					}
+				}
+
+			}
+
+		} finally {
+			socket.close();
+		}
+
+	}
+
+	/**
+	 * @return the reason a unit failed, on a single line.
+	 */
+	private static String toReason(Exception e) {
+		return String.valueOf(e.getMessage()).replace('\n', ' ').replace('\r', ' ');
+	}
+
+	/**
+	 * Generates the products of a single unit in a temporary directory,
+	 * alongside the directory they'll be moved to.
+	 * 
+	 * @return the temporary directory.
+	 */
+	private File generateUnit(File data) throws Exception {
+
+		this.outputDirectory.mkdirs();
+		File temp = Files.createTempDirectory(this.outputDirectory.toPath(), CardGenerator.getBaseName(data) + ".").toFile();
+
+		boolean isGenerated = false;
+		try {
+
+			if (this.sink != null) {
+				this.generator.setProgressSink(this.sink, data.getName());
+			}
+
+			// Every product is generated from a single run through the
+			// pipeline.
+			this.generator.setOutputDirectory(temp);
+			if (this.generator.generate(data, this.targetLanguage, this.dictionary, this.products).containsValue(null)) {
+				throw new IOException("Unable to save products: " + data.getPath());
+			}
+
+			isGenerated = true;
+			return temp;
+
+		} finally {
+			if (!isGenerated) {
+				FileUtils.deleteDirectory(temp);
+			}
+		}
+
+	}
+
+	/**
+	 * @return where the products of a unit are kept.
+	 */
+	private File getTarget(File data) {
+		return new File(this.outputDirectory, CardGenerator.getBaseName(data));
+	}
+
+	/**
+	 * Moves the products of a unit into place, replacing any left there by an
+	 * earlier run. The old products are moved aside first, and put back if
+	 * the new ones can't be moved into place.
+	 */
+	private void publish(File temp, File target) throws IOException {
+
+		File old = null;
+		if (target.exists()) {
+			old = new File(temp.getPath() + ".old");
+			if (!target.renameTo(old)) {
+				throw new IOException("Unable to replace products: " + target.getPath());
+			}
+		}
+
+		if (!temp.renameTo(target)) {
+			if (old != null) {
+				old.renameTo(target);
+			}
+			throw new IOException("Unable to save products: " + target.getPath());
+		}
+
+		if (old != null) {
+			FileUtils.deleteQuietly(old);
+		}
+
+	}
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+/**
+ * A Bloom filter over 64-bit hashes: a compact set that can say for certain
+ * that a value has not been added, but only that it might have been.
+ * 
+ * @author Sheila Thomson
+ */
+class BloomFilter {
+
+	private final long[] bits;
+
+	private final int totalHashes;
+
+	/**
+	 * The number of bits, a multiple of 64.
+	 */
+	private final long totalBits;
+
+	/**
+	 * @param expectedInsertions roughly how many values will be added.
+	 * @param falsePositiveRate the acceptable chance of a value not added
+	 *        being reported as possibly added, eg. 0.01
+	 * @param maxBits the most bits to use, whatever the expected insertions.
+	 */
+	BloomFilter(long expectedInsertions, double falsePositiveRate, long maxBits) {
+
+		expectedInsertions = Math.max(1, expectedInsertions);
+
+		long optimalBits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		long totalBits = Math.max(64, Math.min(optimalBits, maxBits));
+		totalBits = ((totalBits + 63) / 64) * 64;
+
+		this.bits = new long[(int) Math.min(Integer.MAX_VALUE - 8, totalBits / 64)];
+		this.totalBits = this.bits.length * 64L;
+
+		int totalHashes = (int) Math.round((this.totalBits / (double) expectedInsertions) * Math.log(2));
+		this.totalHashes = Math.max(1, Math.min(16, totalHashes));
+
+	}
+
+	/**
+	 * Mixes the bits of a hash, so that every bit of the input affects every
+	 * bit of the output (the MurmurHash3 finaliser).
+	 */
+	static long mix(long hash) {
+
+		hash = hash ^ (hash >>> 33);
+		hash = hash * 0xff51afd7ed558ccdL;
+		hash = hash ^ (hash >>> 33);
+		hash = hash * 0xc4ceb9fe1a85ec53L;
+		hash = hash ^ (hash >>> 33);
+		return hash;
+
+	}
+
+	/**
+	 * @param hash a hash of the value to add.
+	 * @return true if the value had definitely not been added before.
+	 */
+	boolean put(long hash) {
+
+		boolean isNew = false;
+
+		long second = BloomFilter.mix(hash ^ 0x9e3779b97f4a7c15L) | 1;
+		for (int i = 0; i < this.totalHashes; i++) {
+
+			long bit = ((hash + i * second) & Long.MAX_VALUE) % this.totalBits;
+			int word = (int) (bit >>> 6);
+			long mask = 1L << bit;
+			if ((this.bits[word] & mask) == 0) {
+				this.bits[word] = this.bits[word] | mask;
+				isNew = true;
+			}
+
+		}
+		return isNew;
+
+	}
+
+}
@@ -0,0 +1,266 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * A single card from a deck of Cards Against Humanity.
+ * 
+ * The text of a card is held as the fragments either side of its blanks, so a
+ * card with two blanks has three fragments (any of which may be empty).
+ * Instances are immutable.
+ * 
+ * @author Sheila Thomson
+ */
+public class Card {
+
+	public enum CardColor {
+		BLACK, WHITE;
+
+		/**
+		 * @param value the value of a suit's color attribute, eg. black
+		 * @return the matching color.
+		 */
+		public static CardColor fromValue(String value) {
+			return CardColor.valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+		}
+
+		/**
+		 * @return the color as it appears in the card data, eg. black
+		 */
+		public String getValue() {
+			return this.name().toLowerCase(Locale.ENGLISH);
+		}
+	}
+
+	private final CardColor color;
+
+	/**
+	 * The text either side of each blank.
+	 */
+	private final String[] fragments;
+
+	/**
+	 * The text of the card, not including blanks.
+	 */
+	private final String text;
+
+	/**
+	 * @param color the suit the card belongs to.
+	 * @param fragments the text either side of each blank on the card.
+	 */
+	public Card(CardColor color, String... fragments) {
+
+		if (color == null) {
+			throw new IllegalArgumentException("Color required.");
+		}
+
+		if (fragments == null || fragments.length == 0) {
+			fragments = new String[] { "" };
+		}
+
+		StringBuilder text = new StringBuilder();
+		for (String fragment : fragments) {
+			if (fragment == null) {
+				throw new IllegalArgumentException("Card text can't be null.");
+			}
+			text.append(fragment);
+		}
+
+		this.color = color;
+		this.fragments = fragments.clone();
+		this.text = text.toString();
+
+	}
+
+	/**
+	 * Reads a card from the card data.
+	 * 
+	 * @param card a card element, within a suit.
+	 * @return the card.
+	 */
+	public static Card fromElement(Element card) {
+
+		Node suit = card.getParentNode();
+		if (suit == null || suit.getNodeType() != Node.ELEMENT_NODE) {
+			throw new IllegalArgumentException("Card isn't in a suit.");
+		}
+
+		return Card.fromElement(card, CardColor.fromValue(((Element) suit).getAttribute("color")));
+
+	}
+
+	/**
+	 * Reads a card from the card data.
+	 * 
+	 * @param card a card element.
+	 * @param color the suit the card belongs to.
+	 * @return the card.
+	 */
+	public static Card fromElement(Element card, CardColor color) {
+
+		ArrayList<String> fragments = new ArrayList<String>();
+		StringBuilder fragment = new StringBuilder();
+
+		for (Node child = card.getFirstChild(); child != null; child = child.getNextSibling()) {
+
+			short type = child.getNodeType();
+			if (type == Node.TEXT_NODE || type == Node.CDATA_SECTION_NODE) {
+				fragment.append(child.getNodeValue());
+			} else if (type == Node.ELEMENT_NODE) {
+				if (child.getNodeName().equals("blank")) {
+					fragments.add(fragment.toString());
+					fragment.setLength(0);
+				} else {
+					fragment.append(child.getTextContent());
+				}
+			}
+
+		}
+		fragments.add(fragment.toString());
+
+		return new Card(color, fragments.toArray(new String[fragments.size()]));
+
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+
+		if (this == obj) {
+			return true;
+		}
+
+		if (!(obj instanceof Card)) {
+			return false;
+		}
+
+		Card other = (Card) obj;
+		return this.color == other.color && Arrays.equals(this.fragments, other.fragments);
+
+	}
+
+	/**
+	 * @return the number of blanks on the card.
+	 */
+	public int getBlanks() {
+		return this.fragments.length - 1;
+	}
+
+	public CardColor getColor() {
+		return this.color;
+	}
+
+	/**
+	 * @return how many extra cards a player should draw before answering this
+	 *         card, as printed by html5.xsl.
+	 */
+	public int getDraw() {
+
+		int blanks = this.getBlanks();
+		if (blanks > 2) {
+			return blanks - 1;
+		}
+		return 0;
+
+	}
+
+	/**
+	 * @param index which fragment, starting at zero.
+	 * @return the text before the blank at the same index (or after the last
+	 *         blank).
+	 */
+	public String getFragment(int index) {
+		return this.fragments[index];
+	}
+
+	/**
+	 * @return how many white cards should be played in answer to this card,
+	 *         as printed by html5.xsl.
+	 */
+	public int getPick() {
+
+		int blanks = this.getBlanks();
+		if (blanks > 1) {
+			return blanks;
+		}
+		return 1;
+
+	}
+
+	/**
+	 * @return the text of the card, not including blanks; the same as the
+	 *         string value of the card element.
+	 */
+	public String getText() {
+		return this.text;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * this.color.hashCode() + Arrays.hashCode(this.fragments);
+	}
+
+	/**
+	 * Writes the card as card data.
+	 * 
+	 * @param document the document that will own the new element.
+	 * @return a card element.
+	 */
+	public Element toElement(Document document) {
+
+		Element card = document.createElement("card");
+
+		for (int i = 0; i < this.fragments.length; i++) {
+
+			if (i > 0) {
+				card.appendChild(document.createElement("blank"));
+			}
+
+			if (this.fragments[i].length() > 0) {
+				card.appendChild(document.createTextNode(this.fragments[i]));
+			}
+
+		}
+
+		return card;
+
+	}
+
+	/**
+	 * @return the text of the card, with each blank printed as a line.
+	 */
+	@Override
+	public String toString() {
+
+		StringBuilder result = new StringBuilder(this.fragments[0]);
+		for (int i = 1; i < this.fragments.length; i++) {
+			result.append(HtmlRenderer.BLANK);
+			result.append(this.fragments[i]);
+		}
+		return result.toString();
+
+	}
+
+}
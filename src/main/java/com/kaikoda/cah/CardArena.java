@@ -0,0 +1,936 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.kaikoda.cah.Card.CardColor;
+
+/**
+ * Holds the text of any number of cards outside the Java heap, so that even a
+ * corpus of tens of millions of cards adds next to nothing to the work of the
+ * garbage collector.
+ * 
+ * Card text is stored as UTF-8 in direct (or memory-mapped) buffers, each
+ * segmentSize bytes long. Each card is a record of an 8 byte header (a hash
+ * of its text, its length and its color) followed by its text, with a blank
+ * stored as a single zero byte, which can't otherwise appear in card data.
+ * Records start on an 8 byte boundary, so a 32-bit offset can address up to
+ * 32GB. The offsets of the cards, by ID, and the table used to find
+ * duplicates are also kept outside the heap. What's left on the heap is a
+ * small, fixed amount per segment, plus a buffer for the longest card seen.
+ * 
+ * As with Deck.blank(), a sequence of underscores is stored as a blank. As
+ * with Deck.dedupe(), a card with the same color and text (ignoring blanks)
+ * as one already held isn't stored again. Cards are kept in the order first
+ * added.
+ * 
+ * Cards may only be added from one thread at a time. Once they're all added,
+ * any number of threads may read them at once.
+ * 
+ * Memory outside the heap is freed once the arena is no longer referenced,
+ * rather than when it's closed; close() releases the backing file, if any.
+ * 
+ * @author Sheila Thomson
+ */
+public class CardArena implements Closeable {
+
+	/**
+	 * The default size of each segment: 64MB.
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 1 << 26;
+
+	/**
+	 * A blank, as stored.
+	 */
+	static final byte BLANK = 0;
+
+	/**
+	 * The size of the record header, in bytes.
+	 */
+	private static final int HEADER_SIZE = 8;
+
+	/**
+	 * The number of card offsets held by each segment of the index.
+	 */
+	private static final int INDEX_SEGMENT_SIZE = 1 << 20;
+
+	/**
+	 * The most slots the duplicate table can have and still fit in a single
+	 * buffer.
+	 */
+	private static final int MAX_TABLE_SIZE = 1 << 28;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Marks a white card in the length field of the record header.
+	 */
+	private static final int WHITE = 1 << 31;
+
+	/**
+	 * The backing file, if memory-mapped.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * The color of each suit added to so far, in order of first appearance.
+	 */
+	private final List<CardColor> colors;
+
+	/**
+	 * The offset of each card, by ID.
+	 */
+	private final List<ByteBuffer> index;
+
+	private final int segmentSize;
+
+	private final List<ByteBuffer> segments;
+
+	private String language;
+
+	/**
+	 * The text of the card being added, encoded.
+	 */
+	private byte[] scratch;
+
+	private int scratchLength;
+
+	/**
+	 * The first half of a surrogate pair, waiting for the second; zero if
+	 * none.
+	 */
+	private char highSurrogate;
+
+	/**
+	 * The ID (plus one) of each card held, by hash; zero where empty.
+	 */
+	private ByteBuffer table;
+
+	private int totalCards;
+
+	private long totalDuplicates;
+
+	/**
+	 * The number of underscores seen in a row, not yet written.
+	 */
+	private int underscores;
+
+	/**
+	 * Default constructor. Uses direct buffers of the default segment size.
+	 */
+	public CardArena() {
+		this(DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * @param segmentSize the size of each buffer, in bytes. No card may be
+	 *        longer.
+	 */
+	public CardArena(int segmentSize) {
+		this((FileChannel) null, segmentSize);
+	}
+
+	/**
+	 * @param backingFile a file to memory-map the card text to. It is
+	 *        overwritten, but not deleted.
+	 * @param segmentSize the size of each buffer, in bytes. No card may be
+	 *        longer.
+	 * @throws IOException when it's not possible to open the backing file.
+	 */
+	public CardArena(File backingFile, int segmentSize) throws IOException {
+		this(CardArena.open(backingFile), segmentSize);
+	}
+
+	private CardArena(FileChannel channel, int segmentSize) {
+
+		if (segmentSize < 1024) {
+			throw new IllegalArgumentException("Segment size must be at least 1024 bytes.");
+		}
+
+		// Records start on an 8 byte boundary
+		this.segmentSize = segmentSize & ~7;
+
+		this.channel = channel;
+		this.colors = new ArrayList<CardColor>();
+		this.index = new ArrayList<ByteBuffer>();
+		this.segments = new ArrayList<ByteBuffer>();
+		this.scratch = new byte[256];
+		this.table = ByteBuffer.allocateDirect(1024 * 4);
+		this.language = "";
+
+	}
+
+	/**
+	 * Reads every card from a card data file into a new arena, using direct
+	 * buffers.
+	 * 
+	 * @param data the card data file.
+	 * @return the arena.
+	 * @throws IOException when there's a problem reading the file.
+	 * @throws XMLStreamException when there's a problem parsing the card data.
+	 */
+	public static CardArena load(File data) throws IOException, XMLStreamException {
+
+		CardArena arena = new CardArena();
+		arena.read(data);
+		return arena;
+
+	}
+
+	/**
+	 * Compares two runs of encoded text, ignoring blanks.
+	 */
+	private static boolean equalsIgnoringBlanks(ByteBuffer a, int aStart, int aEnd, byte[] b, int bEnd) {
+
+		int i = aStart;
+		int j = 0;
+		while (true) {
+
+			while (i < aEnd && a.get(i) == BLANK) {
+				i++;
+			}
+			while (j < bEnd && b[j] == BLANK) {
+				j++;
+			}
+
+			if (i == aEnd || j == bEnd) {
+				return i == aEnd && j == bEnd;
+			}
+
+			if (a.get(i++) != b[j++]) {
+				return false;
+			}
+
+		}
+
+	}
+
+	/**
+	 * Hashes the text of a card, ignoring blanks (FNV-1a, mixed).
+	 */
+	private static int hash(CardColor color, byte[] text, int length) {
+
+		long hash = 0xcbf29ce484222325L ^ color.ordinal();
+		for (int i = 0; i < length; i++) {
+			if (text[i] != BLANK) {
+				hash = (hash ^ (text[i] & 0xFF)) * 0x100000001b3L;
+			}
+		}
+		return (int) BloomFilter.mix(hash);
+
+	}
+
+	/**
+	 * Opens a file for memory-mapping, emptying it first.
+	 */
+	@SuppressWarnings("resource")
+	private static FileChannel open(File backingFile) throws IOException {
+
+		if (backingFile == null) {
+			throw new IllegalArgumentException("Backing file required.");
+		}
+
+		RandomAccessFile file = new RandomAccessFile(backingFile, "rw");
+		file.setLength(0);
+		return file.getChannel();
+
+	}
+
+	/**
+	 * Adds a card.
+	 * 
+	 * @param card the card.
+	 * @return the ID of the card, or of the card already held with the same
+	 *         color and text.
+	 */
+	public int add(Card card) {
+
+		this.scratchLength = 0;
+		for (int i = 0; i <= card.getBlanks(); i++) {
+			if (i > 0) {
+				this.appendBlank();
+			}
+			String fragment = card.getFragment(i);
+			for (int j = 0; j < fragment.length(); j++) {
+				this.appendChar(fragment.charAt(j));
+			}
+		}
+		return this.addScratch(card.getColor());
+
+	}
+
+	/**
+	 * Adds a card, encoding its text without creating a String.
+	 * 
+	 * @param color the suit the card belongs to.
+	 * @param text the text of the card, with any blanks as a sequence of
+	 *        underscores.
+	 * @return the ID of the card, or of the card already held with the same
+	 *         color and text.
+	 */
+	public int add(CardColor color, CharSequence text) {
+
+		if (color == null) {
+			throw new IllegalArgumentException("Color required.");
+		}
+
+		this.scratchLength = 0;
+		for (int i = 0; i < text.length(); i++) {
+			this.appendChar(text.charAt(i));
+		}
+		return this.addScratch(color);
+
+	}
+
+	/**
+	 * Releases the backing file, if any.
+	 */
+	public void close() throws IOException {
+		if (this.channel != null) {
+			this.channel.close();
+		}
+	}
+
+	/**
+	 * @param card the ID of a card.
+	 * @return the number of blanks on the card.
+	 */
+	public int getBlanks(int card) {
+
+		ByteBuffer segment = this.getSegment(card);
+		int start = this.getStart(card);
+		int end = start + this.getLength(card);
+
+		int total = 0;
+		for (int i = start; i < end; i++) {
+			if (segment.get(i) == BLANK) {
+				total++;
+			}
+		}
+		return total;
+
+	}
+
+	/**
+	 * @param card the ID of a card.
+	 * @return the suit the card belongs to.
+	 */
+	public CardColor getColor(int card) {
+		return ((this.getSegment(card).getInt(this.getOffset(card) + 4) & WHITE) == 0) ? CardColor.BLACK : CardColor.WHITE;
+	}
+
+	/**
+	 * @return the color of each suit added to so far, in order of first
+	 *         appearance.
+	 */
+	public List<CardColor> getColors() {
+		return Collections.unmodifiableList(this.colors);
+	}
+
+	/**
+	 * @return the language of the cards, as specified by xml:lang, or an empty
+	 *         String if not specified.
+	 */
+	public String getLanguage() {
+		return this.language;
+	}
+
+	/**
+	 * @return the number of bytes of card text held, including headers.
+	 */
+	public long getSize() {
+
+		if (this.segments.isEmpty()) {
+			return 0;
+		}
+		return ((long) (this.segments.size() - 1) * this.segmentSize) + this.segments.get(this.segments.size() - 1).position();
+
+	}
+
+	public int getTotalCards() {
+		return this.totalCards;
+	}
+
+	/**
+	 * @return the number of cards added that weren't stored because the same
+	 *         card was already held.
+	 */
+	public long getTotalDuplicates() {
+		return this.totalDuplicates;
+	}
+
+	/**
+	 * Adds the cards in a card data file, from every deck, in document order.
+	 * 
+	 * @param data the card data file.
+	 * @throws IOException when there's a problem reading the file.
+	 * @throws XMLStreamException when there's a problem parsing the card data.
+	 */
+	public void read(File data) throws IOException, XMLStreamException {
+
+		if (data == null) {
+			throw new IllegalArgumentException("Data required.");
+		}
+
+		if (!data.exists()) {
+			throw new IllegalArgumentException("File not found: " + data.getPath());
+		}
+
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+
+		InputStream in = new BufferedInputStream(new FileInputStream(data));
+		try {
+
+			XMLStreamReader reader = factory.createXMLStreamReader(data.toURI().toString(), in);
+			try {
+				this.read(reader);
+			} finally {
+				reader.close();
+			}
+
+		} finally {
+			in.close();
+		}
+
+	}
+
+	/**
+	 * @param language the language of the cards.
+	 */
+	public void setLanguage(String language) {
+		this.language = (language == null) ? "" : language;
+	}
+
+	/**
+	 * @param card the ID of a card.
+	 * @return the card, on the heap.
+	 */
+	public Card toCard(int card) {
+
+		ByteBuffer segment = this.getSegment(card);
+		int start = this.getStart(card);
+		int end = start + this.getLength(card);
+
+		ArrayList<String> fragments = new ArrayList<String>();
+		byte[] bytes = new byte[end - start];
+		int length = 0;
+		for (int i = start; i < end; i++) {
+			byte b = segment.get(i);
+			if (b == BLANK) {
+				fragments.add(new String(bytes, 0, length, UTF_8));
+				length = 0;
+			} else {
+				bytes[length++] = b;
+			}
+		}
+		fragments.add(new String(bytes, 0, length, UTF_8));
+
+		return new Card(this.getColor(card), fragments.toArray(new String[fragments.size()]));
+
+	}
+
+	/**
+	 * Adds every card to another arena, translated to a different language.
+	 * 
+	 * Every term in the source language is found in a single pass over the
+	 * encoded text of each card. Where terms overlap, the one that starts
+	 * first (then the longest) is replaced. Cards that end up the same as
+	 * another once translated are only added once.
+	 * 
+	 * @param dictionary the terms to replace.
+	 * @param targetLanguage the language to translate to.
+	 * @param target where to add the translated cards. Its language is set to
+	 *        the target language.
+	 * @return the number of cards changed.
+	 */
+	public int translate(Dictionary dictionary, String targetLanguage, CardArena target) {
+
+		if (dictionary == null) {
+			throw new IllegalArgumentException("Dictionary required.");
+		}
+
+		if (targetLanguage == null) {
+			throw new IllegalArgumentException("New language not specified.");
+		}
+
+		if (target == null || target == this) {
+			throw new IllegalArgumentException("Another arena required.");
+		}
+
+		List<Dictionary.Entry> entries = dictionary.getEntries(this.language, targetLanguage);
+
+		ArrayList<String> terms = new ArrayList<String>(entries.size());
+		final byte[][] replacements = new byte[entries.size()][];
+		for (int i = 0; i < entries.size(); i++) {
+			terms.add(entries.get(i).getTerm(this.language));
+			replacements[i] = entries.get(i).getTerm(targetLanguage).getBytes(UTF_8);
+		}
+
+		TermMatcher matcher = TermMatcher.utf8(terms);
+
+		for (CardColor color : this.colors) {
+			if (!target.colors.contains(color)) {
+				target.colors.add(color);
+			}
+		}
+		target.setLanguage(targetLanguage);
+
+		// The chosen match starting at each position, if any
+		final int[][] chosen = { new int[0], new int[0] };
+
+		int totalChanged = 0;
+		for (int card = 0; card < this.totalCards; card++) {
+
+			final ByteBuffer segment = this.getSegment(card);
+			final int start = this.getStart(card);
+			final int length = this.getLength(card);
+
+			if (chosen[0].length < length) {
+				chosen[0] = new int[length];
+				chosen[1] = new int[length];
+			}
+			Arrays.fill(chosen[0], 0, length, -1);
+
+			final boolean[] isMatched = { false };
+			matcher.find(segment, start, start + length, new TermMatcher.MatchHandler() {
+
+				public void match(int term, int matchStart, int matchEnd) {
+					if (chosen[0][matchStart] < 0 || matchEnd > chosen[1][matchStart]) {
+						chosen[0][matchStart] = term;
+						chosen[1][matchStart] = matchEnd;
+						isMatched[0] = true;
+					}
+				}
+
+			});
+
+			target.scratchLength = 0;
+			if (isMatched[0]) {
+
+				totalChanged++;
+				for (int i = 0; i < length;) {
+					if (chosen[0][i] >= 0) {
+						byte[] replacement = replacements[chosen[0][i]];
+						target.reserveScratch(replacement.length);
+						System.arraycopy(replacement, 0, target.scratch, target.scratchLength, replacement.length);
+						target.scratchLength = target.scratchLength + replacement.length;
+						i = chosen[1][i];
+					} else {
+						target.reserveScratch(1);
+						target.scratch[target.scratchLength++] = segment.get(start + i);
+						i++;
+					}
+				}
+
+			} else {
+
+				target.reserveScratch(length);
+				for (int i = 0; i < length; i++) {
+					target.scratch[target.scratchLength++] = segment.get(start + i);
+				}
+
+			}
+
+			target.addScratch(this.getColor(card));
+
+		}
+
+		return totalChanged;
+
+	}
+
+	/**
+	 * @param card the ID of a card.
+	 * @return the length of the encoded text of the card, in bytes.
+	 */
+	int getLength(int card) {
+		return this.getSegment(card).getInt(this.getOffset(card) + 4) & ~WHITE;
+	}
+
+	/**
+	 * @param card the ID of a card.
+	 * @return the buffer holding the encoded text of the card.
+	 */
+	ByteBuffer getSegment(int card) {
+		return this.segments.get((int) (this.getAddress(card) / this.segmentSize));
+	}
+
+	/**
+	 * @param card the ID of a card.
+	 * @return where the encoded text of the card starts in its buffer.
+	 */
+	int getStart(int card) {
+		return this.getOffset(card) + HEADER_SIZE;
+	}
+
+	/**
+	 * Stores the encoded text in the scratch buffer as a new card, unless
+	 * it's already held.
+	 */
+	private int addScratch(CardColor color) {
+
+		this.flushUnderscores();
+
+		if (!this.colors.contains(color)) {
+			this.colors.add(color);
+		}
+
+		int hash = CardArena.hash(color, this.scratch, this.scratchLength);
+
+		int mask = (this.table.capacity() / 4) - 1;
+		int slot = hash & mask;
+		while (true) {
+
+			int existing = this.table.getInt(slot * 4) - 1;
+			if (existing < 0) {
+				break;
+			}
+
+			ByteBuffer segment = this.getSegment(existing);
+			int offset = this.getOffset(existing);
+			if (segment.getInt(offset) == hash && this.getColor(existing) == color) {
+				int start = offset + HEADER_SIZE;
+				if (CardArena.equalsIgnoringBlanks(segment, start, start + this.getLength(existing), this.scratch, this.scratchLength)) {
+					this.totalDuplicates++;
+					return existing;
+				}
+			}
+
+			slot = (slot + 1) & mask;
+
+		}
+
+		int card = this.totalCards;
+		this.store(card, color, hash);
+		this.table.putInt(slot * 4, card + 1);
+		this.totalCards++;
+
+		if (this.totalCards * 2 > mask + 1) {
+			this.growTable();
+		}
+
+		return card;
+
+	}
+
+	/**
+	 * Encodes a blank into the scratch buffer.
+	 */
+	private void appendBlank() {
+		this.flushUnderscores();
+		this.reserveScratch(1);
+		this.scratch[this.scratchLength++] = BLANK;
+	}
+
+	/**
+	 * Encodes a character into the scratch buffer as UTF-8. A surrogate pair
+	 * is encoded once the second half arrives; half a pair is encoded as a
+	 * question mark, as by String.getBytes().
+	 */
+	private void appendChar(char c) {
+
+		if (this.highSurrogate != 0) {
+
+			char high = this.highSurrogate;
+			this.highSurrogate = 0;
+
+			if (Character.isLowSurrogate(c)) {
+				int codePoint = Character.toCodePoint(high, c);
+				this.reserveScratch(4);
+				this.scratch[this.scratchLength++] = (byte) (0xF0 | (codePoint >> 18));
+				this.scratch[this.scratchLength++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				this.scratch[this.scratchLength++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				this.scratch[this.scratchLength++] = (byte) (0x80 | (codePoint & 0x3F));
+				return;
+			}
+
+			this.reserveScratch(1);
+			this.scratch[this.scratchLength++] = '?';
+
+		}
+
+		if (c == '_') {
+			this.underscores++;
+			return;
+		}
+
+		this.flushUnderscores();
+
+		if (Character.isHighSurrogate(c)) {
+			this.highSurrogate = c;
+			return;
+		}
+
+		this.reserveScratch(3);
+
+		if (c < 0x80) {
+			this.scratch[this.scratchLength++] = (byte) c;
+		} else if (c < 0x800) {
+			this.scratch[this.scratchLength++] = (byte) (0xC0 | (c >> 6));
+			this.scratch[this.scratchLength++] = (byte) (0x80 | (c & 0x3F));
+		} else if (Character.isLowSurrogate(c)) {
+			this.scratch[this.scratchLength++] = '?';
+		} else {
+			this.scratch[this.scratchLength++] = (byte) (0xE0 | (c >> 12));
+			this.scratch[this.scratchLength++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+			this.scratch[this.scratchLength++] = (byte) (0x80 | (c & 0x3F));
+		}
+
+	}
+
+	/**
+	 * Writes any underscores seen in a row: two or more as a blank.
+	 */
+	private void flushUnderscores() {
+
+		if (this.highSurrogate != 0) {
+			this.highSurrogate = 0;
+			this.reserveScratch(1);
+			this.scratch[this.scratchLength++] = '?';
+		}
+
+		if (this.underscores == 0) {
+			return;
+		}
+
+		if (this.underscores > 1) {
+			this.reserveScratch(1);
+			this.scratch[this.scratchLength++] = BLANK;
+		} else {
+			this.reserveScratch(1);
+			this.scratch[this.scratchLength++] = '_';
+		}
+		this.underscores = 0;
+
+	}
+
+	/**
+	 * @return where the record of a card starts, counting from the start of
+	 *         the first segment.
+	 */
+	private long getAddress(int card) {
+
+		if (card < 0 || card >= this.totalCards) {
+			throw new IndexOutOfBoundsException("Unknown card: " + card);
+		}
+
+		return (this.index.get(card / INDEX_SEGMENT_SIZE).getInt((card % INDEX_SEGMENT_SIZE) * 4) & 0xFFFFFFFFL) << 3;
+
+	}
+
+	/**
+	 * @return where the record of a card starts in its segment.
+	 */
+	private int getOffset(int card) {
+		return (int) (this.getAddress(card) % this.segmentSize);
+	}
+
+	/**
+	 * Doubles the size of the duplicate table.
+	 */
+	private void growTable() {
+
+		int size = this.table.capacity() / 4;
+		if (size >= MAX_TABLE_SIZE) {
+			throw new IllegalStateException("Too many cards.");
+		}
+
+		ByteBuffer table = ByteBuffer.allocateDirect(size * 2 * 4);
+		int mask = (size * 2) - 1;
+		for (int card = 0; card < this.totalCards; card++) {
+
+			int slot = this.getSegment(card).getInt(this.getOffset(card)) & mask;
+			while (table.getInt(slot * 4) != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table.putInt(slot * 4, card + 1);
+
+		}
+		this.table = table;
+
+	}
+
+	/**
+	 * @return a new segment, of the type this arena uses.
+	 */
+	private ByteBuffer newSegment() throws IOException {
+
+		if (this.channel == null) {
+			return ByteBuffer.allocateDirect(this.segmentSize);
+		}
+		return this.channel.map(FileChannel.MapMode.READ_WRITE, (long) this.segments.size() * this.segmentSize, this.segmentSize);
+
+	}
+
+	/**
+	 * Adds the cards from card data, stopping at the end of the document.
+	 */
+	private void read(XMLStreamReader reader) throws XMLStreamException {
+
+		CardColor color = null;
+
+		while (reader.hasNext()) {
+
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+
+				String name = reader.getLocalName();
+				if (name.equals("game")) {
+
+					String language = reader.getAttributeValue(XMLConstants.XML_NS_URI, "lang");
+					language = (language == null) ? "" : language;
+					if (this.totalCards == 0 && this.colors.isEmpty()) {
+						this.language = language;
+					} else if (!language.equals(this.language)) {
+						throw new IllegalArgumentException("Decks must all be in the same language.");
+					}
+
+				} else if (name.equals("suit")) {
+
+					color = CardColor.fromValue(reader.getAttributeValue(null, "color"));
+					if (!this.colors.contains(color)) {
+						this.colors.add(color);
+					}
+
+				} else if (name.equals("card") && color != null) {
+
+					this.readCard(reader, color);
+
+				}
+
+			} else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("suit")) {
+
+				color = null;
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * Reads the card at the current position, up to and including its end
+	 * tag, encoding its text straight from the parser's character buffer.
+	 */
+	private void readCard(XMLStreamReader reader, CardColor color) throws XMLStreamException {
+
+		this.scratchLength = 0;
+
+		// How deeply nested within the card the reader is
+		int depth = 0;
+
+		while (reader.hasNext()) {
+
+			int event = reader.next();
+			if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE) {
+
+				char[] text = reader.getTextCharacters();
+				int end = reader.getTextStart() + reader.getTextLength();
+				for (int i = reader.getTextStart(); i < end; i++) {
+					this.appendChar(text[i]);
+				}
+
+			} else if (event == XMLStreamConstants.START_ELEMENT) {
+
+				if (depth == 0 && reader.getLocalName().equals("blank")) {
+					this.appendBlank();
+				}
+				depth++;
+
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+
+				if (depth == 0) {
+					break;
+				}
+				depth--;
+
+			}
+
+		}
+
+		this.addScratch(color);
+
+	}
+
+	private void reserveScratch(int length) {
+		if (this.scratchLength + length > this.scratch.length) {
+			this.scratch = Arrays.copyOf(this.scratch, Math.max(this.scratch.length * 2, this.scratchLength + length));
+		}
+	}
+
+	/**
+	 * Copies the scratch buffer into the current segment (or a new one) as
+	 * the record of a card.
+	 */
+	private void store(int card, CardColor color, int hash) {
+
+		int recordSize = (HEADER_SIZE + this.scratchLength + 7) & ~7;
+		if (recordSize > this.segmentSize) {
+			throw new IllegalArgumentException("Card longer than segment size: " + this.scratchLength + " bytes.");
+		}
+
+		ByteBuffer segment = this.segments.isEmpty() ? null : this.segments.get(this.segments.size() - 1);
+		if (segment == null || segment.remaining() < recordSize) {
+			try {
+				segment = this.newSegment();
+			} catch (IOException e) {
+				throw new IllegalStateException("Unable to map segment.", e);
+			}
+			this.segments.add(segment);
+		}
+
+		long address = ((long) (this.segments.size() - 1) * this.segmentSize) + segment.position();
+		if ((address >>> 3) > 0xFFFFFFFFL) {
+			throw new IllegalStateException("Arena full.");
+		}
+
+		segment.putInt(hash);
+		segment.putInt(this.scratchLength | ((color == CardColor.WHITE) ? WHITE : 0));
+		segment.put(this.scratch, 0, this.scratchLength);
+		segment.position(segment.position() + (recordSize - HEADER_SIZE - this.scratchLength));
+
+		if (card % INDEX_SEGMENT_SIZE == 0) {
+			this.index.add(ByteBuffer.allocateDirect(INDEX_SEGMENT_SIZE * 4));
+		}
+		this.index.get(card / INDEX_SEGMENT_SIZE).putInt((card % INDEX_SEGMENT_SIZE) * 4, (int) (address >>> 3));
+
+	}
+
+}
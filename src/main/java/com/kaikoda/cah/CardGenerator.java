@@ -17,16 +17,53 @@
  */
 package com.kaikoda.cah;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.TransformerException;
 
 import org.apache.commons.cli.ParseException;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
 
@@ -41,14 +78,124 @@ import com.kaikoda.cah.ProgressReporter.ProgressReporterMode;
 public class CardGenerator {
 
 	protected enum CardGeneratorProduct {		
-		HTML, PDF, XML;		
+		HTML, PACK, PDF, XML;		
 	}
 
+	/**
+	 * How to compress the products generated.
+	 */
+	protected enum CardGeneratorCompression {
+		NONE, GZIP, ZIP, TAR_GZ;
+
+		/**
+		 * @param value eg. gzip or tar.gz
+		 * @return the matching compression.
+		 */
+		public static CardGeneratorCompression fromValue(String value) {
+			return CardGeneratorCompression.valueOf(value.trim().toUpperCase(Locale.ENGLISH).replace('.', '_'));
+		}
+	}
+
+	/**
+	 * The stages of card generation, in the order they're run.
+	 */
+	public enum CardGeneratorStage {
+		READING, TRANSLATING, BLANKING, DEDUPING, SORTING, GENERATING;
+	}
+
+	/**
+	 * Stops reading as soon as the generation it's part of is cancelled.
+	 */
+	private static class CancellableInputStream extends FilterInputStream {
+
+		private final Future<?> generation;
+
+		private CancellableInputStream(InputStream in, Future<?> generation) {
+			super(in);
+			this.generation = generation;
+		}
+
+		@Override
+		public int read() throws IOException {
+			CardGenerator.checkInterrupted(this.generation);
+			return super.read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			CardGenerator.checkInterrupted(this.generation);
+			return super.read(b, off, len);
+		}
+
+	}
+
+	/**
+	 * Stops writing as soon as the generation it's part of is cancelled.
+	 */
+	private static class CancellableOutputStream extends FilterOutputStream {
+
+		private final Future<?> generation;
+
+		private CancellableOutputStream(OutputStream out, Future<?> generation) {
+			super(out);
+			this.generation = generation;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			CardGenerator.checkInterrupted(this.generation);
+			this.out.write(b, off, len);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			CardGenerator.checkInterrupted(this.generation);
+			this.out.write(b);
+		}
+
+	}
+
+	/**
+	 * A stage of card generation that works on a deck in place.
+	 */
+	private interface DeckTask {
+		void run(Deck deck) throws Exception;
+	}
+
+	/**
+	 * The files that style the HTML.
+	 */
+	private static final String[] ASSETS = { "style.css", "branding_on_black.png", "branding_on_white.png", "branding_on_black_cards.png" };
+
+	/**
+	 * Times out asynchronous generations.
+	 */
+	private static final ScheduledThreadPoolExecutor TIMER = CardGenerator.newTimer();
+
 	/**
 	 * A utility for providing feedback to the user of this application.
 	 */
 	ProgressReporter progressReporter;
 
+	private CardGeneratorCompression compression = CardGeneratorCompression.NONE;
+
+	/**
+	 * Whether to sort the cards in each suit before generating.
+	 */
+	private boolean isSorted;
+
+	/**
+	 * Whether a stage that fails stops the generation, rather than it carrying
+	 * on with the cards as they are.
+	 */
+	private boolean isStrict;
+
+	/**
+	 * Where generate() writes its products, or null for the current
+	 * directory.
+	 */
+	private File outputDirectory;
+
 	/**
 	 * Default constructor.
 	 * 
@@ -102,13 +249,56 @@ public class CardGenerator {
 
 			}
 
+		} else if (params.containsKey("worker")) {
+
+			// Generate units of work from a coordinator until there are none
+			// left.
+			EnumSet<CardGeneratorProduct> products = EnumSet.of(CardGeneratorProduct.HTML);
+			if (params.containsKey("product")) {
+				products = CardGenerator.parseProducts(params.get("product"));
+			}
+
+			Locale targetLanguage = null;
+			if (params.containsKey("output-language")) {
+				targetLanguage = Locale.forLanguageTag(params.get("output-language"));
+			}
+
+			File dictionary = null;
+			if (params.containsKey("path-to-dictionary")) {
+				dictionary = new File(params.get("path-to-dictionary"));
+			}
+
+			generator.setSorted(params.containsKey("sort"));
+
+			if (params.containsKey("compression")) {
+				generator.setCompression(CardGeneratorCompression.fromValue(params.get("compression")));
+			}
+
+			BatchWorker worker = new BatchWorker(generator, products, targetLanguage, dictionary, new File(System.getProperty("user.dir")));
+
+			ProgressSink sink = null;
+			if (params.containsKey("json")) {
+				sink = new ProgressSink(System.out, ProgressSink.ProgressSinkFormat.JSON);
+				worker.setProgressSink(sink);
+			}
+
+			try {
+				worker.work(BatchWorker.parseAddress(params.get("worker")));
+			} finally {
+				CardGenerator.close(sink);
+			}
+
+		} else if (params.containsKey("workers")) {
+
+			CardGenerator.coordinate(params, verbosity);
+
 		} else {
 
 			File data = new File(params.remove("path-to-data"));
 			
-			CardGeneratorProduct product = CardGeneratorProduct.HTML;
+			EnumSet<CardGeneratorProduct> products = EnumSet.of(CardGeneratorProduct.HTML);
 			if (params.containsKey("product")) {
-				product = CardGeneratorProduct.valueOf(params.remove("product").toUpperCase());
+				products = CardGenerator.parseProducts(params.remove("product"));
 			}
 			
 			Locale targetLanguage = null;
@@ -121,225 +311,1102 @@ public class CardGenerator {
 				dictionary = new File(params.remove("path-to-dictionary"));
 			}
 
-			generator.generate(data, targetLanguage, dictionary, product);
+			generator.setSorted(params.containsKey("sort"));
+
+			if (params.containsKey("compression")) {
+				generator.setCompression(CardGeneratorCompression.fromValue(params.remove("compression")));
+			}
+
+			ProgressSink sink = null;
+			if (params.containsKey("json")) {
+				sink = new ProgressSink(System.out, ProgressSink.ProgressSinkFormat.JSON);
+				generator.setProgressSink(sink, data.getName());
+			}
+
+			try {
+				generator.generate(data, targetLanguage, dictionary, products);
+			} finally {
+				CardGenerator.close(sink);
+			}
 
 		}
 	}
 	
-	public File generate(File data, Locale targetLanguage, File dictionary) throws SAXException, IOException, ParserConfigurationException {
-		return this.generate(data, targetLanguage, dictionary, CardGeneratorProduct.HTML);
-	}
-	
 	/**
-	 * Generates a printable deck of Cards Against Humanity.
+	 * Generates every card data file in a directory, sharing them between
+	 * worker processes on this machine. Any workers on other hosts may join
+	 * in. Units already recorded in batch.journal, in the current directory,
+	 * are skipped. If the products are to be archived, every unit's products
+	 * are added to a single archive once the batch is complete.
 	 * 
-	 * @param data
-	 * @param targetLanguage
-	 * @param dictionary
-	 * @param product 
-	 * @return a pointer to the main file output.
-	 * @throws SAXException when there's a problem parsing the card data or dictionary.
-	 * @throws IOException when there's a problem reading the card data or dictionary or when saving the output.
-	 * @throws ParserConfigurationException when there's a problem configuring
-	 *         the data parser.
+	 * @param params the options parsed from the command-line.
+	 * @param verbosity whether to report the results of the batch.
+	 * @throws IOException when it's not possible to listen for workers, start
+	 *         them, keep the journal or archive the products.
 	 */
-	public File generate(File data, Locale targetLanguage, File dictionary, CardGeneratorProduct product) throws SAXException, IOException, ParserConfigurationException {
+	private static void coordinate(TreeMap<String, String> params, ProgressReporterMode verbosity) throws IOException {
 
-		if (!data.exists()) {
+		File outputDirectory = new File(System.getProperty("user.dir"));
 
-			throw new IllegalArgumentException("File not found: " + data.getPath());
+		CardGeneratorCompression compression = CardGeneratorCompression.NONE;
+		if (params.containsKey("compression")) {
+			compression = CardGeneratorCompression.fromValue(params.get("compression"));
+		}
 
+		ProgressReporter progressReporter = new ProgressReporter(verbosity);
+		ProgressSink sink = null;
+		if (params.containsKey("json")) {
+			sink = new ProgressSink(System.out, ProgressSink.ProgressSinkFormat.JSON);
+			progressReporter.setSink(sink, "batch");
 		}
 
-		Document xml = null;
-		this.feedback("Reading card data...");
+		BatchCoordinator coordinator = new BatchCoordinator(new File(params.get("path-to-data")));
 		try {
 
-			xml = Deck.parse(data);
-			this.feedback("...data read.\n");
+			coordinator.setJournal(new File(outputDirectory, "batch.journal"));
+			coordinator.open(params.containsKey("listen") ? BatchWorker.parseAddress(params.get("listen")) : new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
 
-		} catch (SAXException e) {
-			this.feedback("Unable to parse card data.", true);
-			throw e;
-		} catch (IOException e) {
-			this.feedback("Unable to read card data.", true);
-			throw e;
-		} catch (ParserConfigurationException e) {
-			this.feedback("Unable to read card data.", true);
-			throw e;
-		}
+			// Each worker generates with the same options as this one, but
+			// leaves archiving the batch to the coordinator.
+			List<String> arguments = new ArrayList<String>();
+			if (sink != null && verbosity.equals(ProgressReporterMode.NORMAL)) {
+				arguments.add("-j");
+			} else {
+				arguments.add("-v");
+				arguments.add("silent");
+			}
+			if (params.containsKey("product")) {
+				arguments.add("-p");
+				arguments.add(params.get("product"));
+			}
+			if (params.containsKey("output-language")) {
+				arguments.add("-l");
+				arguments.add(params.get("output-language"));
+			}
+			if (params.containsKey("path-to-dictionary")) {
+				arguments.add("-d");
+				arguments.add(params.get("path-to-dictionary"));
+			}
+			if (params.containsKey("sort")) {
+				arguments.add("-s");
+			}
+			if (compression == CardGeneratorCompression.GZIP) {
+				arguments.add("-c");
+				arguments.add(params.get("compression"));
+			}
 
-		Deck deck = new Deck(xml);
-		deck.setErrorListener(this.progressReporter);
+			coordinator.launchWorkers(Integer.parseInt(params.get("workers")), new ArrayList<String>(), arguments, outputDirectory);
 
-		if (targetLanguage != null && targetLanguage != deck.getLocale()) {
+			boolean isComplete = coordinator.await(0, TimeUnit.MILLISECONDS);
 
-			this.feedback("Translating data...");
-			try {
+			progressReporter.feedback(coordinator.toString());
 
-				deck.translate(targetLanguage, dictionary);
-				this.feedback("...translation complete.\n");
+			if (!isComplete) {
+				progressReporter.feedback("Every worker has stopped with units left to do.", true);
+			} else if (compression == CardGeneratorCompression.ZIP || compression == CardGeneratorCompression.TAR_GZ) {
+
+				ProductArchive.ArchiveFormat format = (compression == CardGeneratorCompression.ZIP) ? ProductArchive.ArchiveFormat.ZIP : ProductArchive.ArchiveFormat.TAR_GZ;
+				File file = new File(outputDirectory, "cards_against_humanity." + format.getExtension()).getAbsoluteFile();
+
+				try {
+
+					ProductArchive archive = new ProductArchive(file);
+					try {
+						coordinator.archive(outputDirectory, archive);
+					} finally {
+						archive.close();
+					}
+
+				} catch (IOException e) {
+					progressReporter.feedback("Unable to save cards to archive.", true);
+					throw e;
+				}
+
+				progressReporter.feedback("...archive saved:");
+				progressReporter.feedback(file.getPath());
 
-			} catch (SAXException e) {
-				this.feedback("Unable to complete translation.");
-			} catch (IOException e) {
-				this.feedback("Unable to complete translation.");
-			} catch (TransformerException e) {
-				this.feedback("Unable to complete translation.");
-			} catch (ParserConfigurationException e) {
-				this.feedback("Unable to complete translation.");
 			}
 
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			coordinator.close();
+			CardGenerator.close(sink);
 		}
 
-		this.feedback("Standardising blanks...");
-		try {
-			deck.blank();
-			this.feedback("...blanks standardised.\n");
-		} catch (TransformerException e) {
-			this.feedback("OCD FAIL. Unable to standardise blanks.", true);
-		} catch (SAXException e) {
-			this.feedback("OCD FAIL. Unable to standardise blanks.", true);
-		} catch (IOException e) {
-			this.feedback("OCD FAIL. Unable to standardise blanks.", true);
-		} catch (ParserConfigurationException e) {
-			this.feedback("OCD FAIL. Unable to standardise blanks.", true);
+	}
+
+	/**
+	 * Writes any feedback still queued in a sink, then closes it.
+	 * 
+	 * @param sink the sink, or null.
+	 */
+	private static void close(ProgressSink sink) {
+
+		if (sink == null) {
+			return;
 		}
 
-		this.feedback("Checking for duplicates...");
 		try {
-			deck.dedupe();
-			this.feedback("...de-duping complete.\n");
-		} catch (TransformerException e) {
-			this.feedback("Unable to complete de-duping process.", true);
-		} catch (SAXException e) {
-			this.feedback("Unable to complete de-duping process.", true);
-		} catch (IOException e) {
-			this.feedback("Unable to complete de-duping process.", true);
-		} catch (ParserConfigurationException e) {
-			this.feedback("Unable to complete de-duping process.", true);
+			sink.close();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 
-		File productLocation = null;
-		if (product.equals(CardGeneratorProduct.XML)) {
-			productLocation = this.generateXml(deck);
-		} else {
-			productLocation = this.generateHTML(deck);
+	}
+
+	/**
+	 * Copies the files that style the HTML.
+	 * 
+	 * @param directory where to copy the files.
+	 * @throws IOException when it's not possible to copy the files.
+	 */
+	private static void copyAssets(File directory) throws IOException {
+
+		GenerationEvents.AssetCopyEvent event = new GenerationEvents.AssetCopyEvent();
+		event.begin();
+
+		directory.mkdirs();
+
+		for (String asset : ASSETS) {
+			FileUtils.copyURLToFile(CardGenerator.class.getResource("/assets/" + asset), new File(directory, asset));
 		}
 
-		this.feedback("Card generation complete.");
+		if (event.shouldCommit()) {
+			for (String asset : ASSETS) {
+				event.bytes = event.bytes + new File(directory, asset).length();
+			}
+			event.product = "html";
+			event.commit();
+		}
 
-		return productLocation;
 	}
-	
-	public ProgressReporterMode getVerbosity() {
-		return this.progressReporter.getMode();
+
+	/**
+	 * Adds the files that style the HTML to an archive, straight from the
+	 * classpath.
+	 * 
+	 * @param archive where to add the files.
+	 * @param directory the path within the archive to add them under, ending
+	 *        with a slash.
+	 * @throws IOException when it's not possible to add the files.
+	 */
+	private static void copyAssets(ProductArchive archive, String directory) throws IOException {
+
+		GenerationEvents.AssetCopyEvent event = new GenerationEvents.AssetCopyEvent();
+		event.begin();
+
+		long total = 0;
+		for (String asset : ASSETS) {
+			InputStream in = CardGenerator.class.getResourceAsStream("/assets/" + asset);
+			try {
+				total = total + archive.add(directory + asset, in);
+			} finally {
+				in.close();
+			}
+		}
+
+		if (event.shouldCommit()) {
+			event.bytes = total;
+			event.product = "html";
+			event.commit();
+		}
+
 	}
-	
-	public void setVerbosity(ProgressReporterMode verbosity) {
-		this.progressReporter.setMode(verbosity);
+
+	/**
+	 * Stops a stage from starting once the generation it's part of is done,
+	 * whether cancelled, timed out or failed.
+	 */
+	private static void checkCancelled(Future<?> generation) {
+		if (generation.isDone()) {
+			throw new CancellationException("Card generation cancelled.");
+		}
 	}
 
 	/**
-	 * Provide feedback to the user of this application (not including errors).
-	 * 
-	 * @param message a message to the user.
+	 * Stops a stage part way through once the generation it's part of is
+	 * done.
 	 */
-	private void feedback(String message) {
-		this.feedback(message, false);
+	private static void checkInterrupted(Future<?> generation) throws InterruptedIOException {
+		if (generation.isDone()) {
+			throw new InterruptedIOException("Card generation cancelled.");
+		}
 	}
 
 	/**
-	 * Provide feedback to the user of this application (including errors).
-	 * 
-	 * @param message a message to the user.
-	 * @param isError true if the message should be reported as an error. Is
-	 *        false by default.
+	 * Wraps a task as a stage of asynchronous card generation.
 	 */
-	private void feedback(String message, boolean isError) {
-		this.progressReporter.feedback(message, isError);
+	private static Function<Deck, Deck> newStage(final CardGeneratorStage stage, final Future<?> generation, final DeckTask task) {
+
+		return new Function<Deck, Deck>() {
+
+			public Deck apply(Deck deck) {
+
+				CardGenerator.checkCancelled(generation);
+				try {
+					task.run(deck);
+					return deck;
+				} catch (Exception e) {
+					throw new CompletionException(new CardGeneratorStageException(stage, e));
+				}
+
+			}
+
+		};
+
 	}
 
-	private File generateHTML(Deck deck) {
-		
-		this.feedback("Generating HTML...");
-		File htmlOutputLocation = null;
-		try {
+	private static ScheduledThreadPoolExecutor newTimer() {
 
-			String html = deck.toHtml();
+		ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
 
-			htmlOutputLocation = new File("cards_against_humanity.html");
-			FileUtils.writeStringToFile(htmlOutputLocation, html, "UTF-8");
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "card-generator-timer");
+				thread.setDaemon(true);
+				return thread;
+			}
 
-			this.feedback("...file saved:");
-			this.feedback(htmlOutputLocation.getAbsolutePath() + "\n");
+		});
+		timer.setRemoveOnCancelPolicy(true);
+		return timer;
 
-		} catch (SAXException e) {
-			this.feedback("Unable to save cards to file.", true);
-		} catch (IOException e) {
-			this.feedback("Unable to save cards to file.", true);
-		} catch (TransformerException e) {
-			this.feedback("Unable to save cards to file.", true);
-		} catch (ParserConfigurationException e) {
-			this.feedback("Unable to save cards to file.", true);
+	}
+
+	/**
+	 * @param products a comma-separated list of products, eg. html,xml
+	 * @return the products listed.
+	 */
+	static EnumSet<CardGeneratorProduct> parseProducts(String products) {
+
+		EnumSet<CardGeneratorProduct> result = EnumSet.noneOf(CardGeneratorProduct.class);
+		for (String product : products.split(",")) {
+			if (!product.trim().equals("")) {
+				result.add(CardGeneratorProduct.valueOf(product.trim().toUpperCase()));
+			}
 		}
 
-		this.feedback("Adding a dash of style...");
-		try {
+		if (result.isEmpty()) {
+			throw new IllegalArgumentException("Product required.");
+		}
 
-			String directoryPath = "assets";
+		return result;
+
+	}
 
-			File outputDirectory = new File(directoryPath);
-			outputDirectory.mkdir();
+	/**
+	 * @return the name of a card data file without its extension, eg. uk
+	 */
+	static String getBaseName(File data) {
 
-			// TODO: Implement solution that either copies the entire directory
-			// or loops through its contents.
+		String name = data.getName();
+		if (name.lastIndexOf('.') > 0) {
+			name = name.substring(0, name.lastIndexOf('.'));
+		}
+		return name;
 
-			String path = outputDirectory.getName() + File.separator + "style.css";
-			FileUtils.copyURLToFile(this.getClass().getResource(File.separator + path), new File(path));
+	}
 
-			path = outputDirectory.getName() + File.separator + "branding_on_black.png";
-			FileUtils.copyURLToFile(this.getClass().getResource(File.separator + path), new File(path));
+	/**
+	 * @return the name of the file a product is written to, eg.
+	 *         cards_against_humanity.html
+	 */
+	private static String getFileName(CardGeneratorProduct product) {
+		return "cards_against_humanity." + ((product == CardGeneratorProduct.PDF) ? "html" : product.toString().toLowerCase());
+	}
 
-			path = outputDirectory.getName() + File.separator + "branding_on_white.png";
-			FileUtils.copyURLToFile(this.getClass().getResource(File.separator + path), new File(path));
+	/**
+	 * Writes a product to file.
+	 * 
+	 * @param deck the processed cards.
+	 * @param product the product to write.
+	 * @param directory where to write the file.
+	 * @param isGzipped true to compress the file with gzip.
+	 * @param generation the generation the product is part of, to stop
+	 *        writing part way through if it's cancelled, or null.
+	 * @return the file written.
+	 * @throws IOException when it's not possible to write the file.
+	 */
+	private static File writeProduct(Deck deck, CardGeneratorProduct product, File directory, boolean isGzipped, Future<?> generation) throws IOException {
 
-			path = outputDirectory.getName() + File.separator + "branding_on_black_cards.png";
-			FileUtils.copyURLToFile(this.getClass().getResource(File.separator + path), new File(path));
+		directory.mkdirs();
 
-			this.feedback("...file saved:");
-			this.feedback(outputDirectory.getAbsolutePath());
+		File file = new File(directory, CardGenerator.getFileName(product) + (isGzipped ? ".gz" : ""));
 
-		} catch (IOException e) {
-			e.printStackTrace();
-			this.feedback("Unable to style.  Do it yourself.", true);
+		boolean isWritten = false;
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		try {
+			if (generation != null) {
+				out = new CancellableOutputStream(out, generation);
+			}
+			if (isGzipped) {
+				out = new GzipCompressorOutputStream(out);
+			}
+			CardGenerator.writeProduct(deck, product, out);
+			isWritten = true;
+		} finally {
+			out.close();
+			if (!isWritten) {
+				file.delete();
+			}
 		}
-		
-		return htmlOutputLocation;
-		
+
+		return file;
+
 	}
 
-	private File generateXml(Deck deck) {
+	/**
+	 * Writes a product to a stream: the HTML by way of html5.xsl, the XML
+	 * straight from the document. Either is streamed through to the output as
+	 * it's transformed, rather than built in memory first.
+	 * 
+	 * @param deck the processed cards.
+	 * @param product the product to write.
+	 * @param out where to write the product. It is flushed, but not closed.
+	 * @throws IOException when it's not possible to write to the stream, or
+	 *         to transform the cards into HTML.
+	 */
+	private static void writeProduct(Deck deck, CardGeneratorProduct product, OutputStream out) throws IOException {
 
-		this.feedback("Generating XML...");
-		File productOutputLocation = null;
+		GenerationEvents.FileWriteEvent event = new GenerationEvents.FileWriteEvent();
+		event.begin();
 
-			String xml = deck.toString();
-			
-			try {
-				
-				productOutputLocation = new File("cards_against_humanity.xml");
-				FileUtils.writeStringToFile(productOutputLocation, xml, "UTF-8");
-				
-			} catch (IOException e) {
-				this.feedback("Unable to save cards to file.", true);
+		CountingOutputStream counter = new CountingOutputStream(out);
+		try {
+			if (product == CardGeneratorProduct.XML) {
+				deck.writeXml(counter);
+			} else if (product == CardGeneratorProduct.PACK) {
+				CardPack.write(deck.snapshot(), counter);
+			} else {
+				deck.writeHtml(counter);
 			}
+		} catch (TransformerException e) {
+			throw new IOException("Unable to transform cards to HTML.", e);
+		} catch (SAXException e) {
+			throw new IOException("Unable to transform cards to HTML.", e);
+		} catch (ParserConfigurationException e) {
+			throw new IOException("Unable to transform cards to HTML.", e);
+		}
+		counter.flush();
+
+		if (event.shouldCommit()) {
+			event.setDeck(deck);
+			event.product = product.toString().toLowerCase();
+			event.bytes = counter.getByteCount();
+			event.commit();
+		}
+
+	}
+
+	/**
+	 * Adds a product to an archive, with the files that style it if it's
+	 * HTML.
+	 * 
+	 * @param deck the processed cards.
+	 * @param product the product to add.
+	 * @param archive where to add the product.
+	 * @param directory the path within the archive to add it under, ending
+	 *        with a slash, or an empty string.
+	 * @return the path of the product within the archive.
+	 * @throws IOException when it's not possible to add the product.
+	 */
+	private static String addProduct(Deck deck, CardGeneratorProduct product, ProductArchive archive, String directory) throws IOException {
+
+		String entry = directory + CardGenerator.getFileName(product);
+
+		OutputStream out = archive.newEntry(entry);
+		try {
+			CardGenerator.writeProduct(deck, product, out);
+		} finally {
+			out.close();
+		}
+
+		if (product == CardGeneratorProduct.HTML || product == CardGeneratorProduct.PDF) {
+			CardGenerator.copyAssets(archive, directory + "assets/");
+		}
+
+		return entry;
+
+	}
+
+	/**
+	 * Makes a copy of a deck, which may be read at the same time as the
+	 * original: a DOM isn't safe to read from more than one thread at once.
+	 */
+	private static Deck copy(Deck deck) {
+
+		Document data = (Document) deck.getData().cloneNode(true);
+		data.setDocumentURI(deck.getData().getDocumentURI());
+
+		Deck copy = new Deck(data);
+		if (deck.hasErrorListener()) {
+			copy.setErrorListener(deck.getErrorListener());
+		}
+		return copy;
+
+	}
+
+	public File generate(File data, Locale targetLanguage, File dictionary) throws SAXException, IOException, ParserConfigurationException {
+		return this.generate(data, targetLanguage, dictionary, CardGeneratorProduct.HTML);
+	}
+	
+	/**
+	 * Generates a printable deck of Cards Against Humanity.
+	 * 
+	 * @param data
+	 * @param targetLanguage
+	 * @param dictionary
+	 * @param product 
+	 * @return a pointer to the main file output.
+	 * @throws SAXException when there's a problem parsing the card data or dictionary.
+	 * @throws IOException when there's a problem reading the card data or dictionary or when saving the output.
+	 * @throws ParserConfigurationException when there's a problem configuring
+	 *         the data parser.
+	 */
+	public File generate(File data, Locale targetLanguage, File dictionary, CardGeneratorProduct product) throws SAXException, IOException, ParserConfigurationException {
+		return this.generate(data, targetLanguage, dictionary, EnumSet.of(product)).get(product);
+	}
+
+	/**
+	 * Generates any number of products from a single run: the card data is
+	 * read, translated, blanked and de-duped once, then each product is
+	 * written at the same time as the others, from the same snapshot of the
+	 * cards. PDF is printed from the HTML, so the two share a file.
+	 * 
+	 * @param data the card data file.
+	 * @param targetLanguage the language to translate into, or null.
+	 * @param dictionary the dictionary to translate with, or null.
+	 * @param products the kinds of output to generate.
+	 * @return a pointer to the file output for each product, or null for any
+	 *         that couldn't be saved.
+	 * @throws SAXException when there's a problem parsing the card data or
+	 *         dictionary.
+	 * @throws IOException when there's a problem reading the card data or
+	 *         dictionary, or, if strict, when any stage fails.
+	 * @throws ParserConfigurationException when there's a problem configuring
+	 *         the data parser.
+	 */
+	public Map<CardGeneratorProduct, File> generate(File data, Locale targetLanguage, File dictionary, Set<CardGeneratorProduct> products) throws SAXException, IOException, ParserConfigurationException {
+
+		if (products == null || products.isEmpty()) {
+			throw new IllegalArgumentException("Product required.");
+		}
+
+		Deck deck = this.process(data, targetLanguage, dictionary);
+
+		Map<CardGeneratorProduct, File> productLocations = null;
+		if (this.compression == CardGeneratorCompression.ZIP || this.compression == CardGeneratorCompression.TAR_GZ) {
+
+			ProductArchive.ArchiveFormat format = (this.compression == CardGeneratorCompression.ZIP) ? ProductArchive.ArchiveFormat.ZIP : ProductArchive.ArchiveFormat.TAR_GZ;
+			File file = new File(this.getOutputDirectory(), "cards_against_humanity." + format.getExtension()).getAbsoluteFile();
+
+			try {
+
+				ProductArchive archive = new ProductArchive(file);
+				try {
+					this.archiveProducts(deck, products, archive, "");
+				} finally {
+					archive.close();
+				}
+
+			} catch (IOException e) {
+				this.feedback("Unable to save cards to archive.", true);
+				throw e;
+			}
+
+			this.feedback("...archive saved:");
+			this.feedback(file.getPath() + "\n");
+
+			productLocations = new EnumMap<CardGeneratorProduct, File>(CardGeneratorProduct.class);
+			for (CardGeneratorProduct product : products) {
+				productLocations.put(product, file);
+			}
+
+		} else {
+			productLocations = this.generateProducts(deck, products);
+		}
+
+		this.feedback("Card generation complete.");
+
+		return productLocations;
+	}
+
+	/**
+	 * Generates any number of products into an archive, which may be shared
+	 * with other generations: eg. a batch of editions. The products are added
+	 * under a directory named after the card data file, without its
+	 * extension, eg. uk/cards_against_humanity.html
+	 * 
+	 * @param data the card data file.
+	 * @param targetLanguage the language to translate into, or null.
+	 * @param dictionary the dictionary to translate with, or null.
+	 * @param products the kinds of output to generate.
+	 * @param archive where to add the products. It is left open.
+	 * @return the path of each product within the archive.
+	 * @throws SAXException when there's a problem parsing the card data or
+	 *         dictionary.
+	 * @throws IOException when there's a problem reading the card data or
+	 *         dictionary, or adding to the archive, or, if strict, when any
+	 *         stage fails.
+	 * @throws ParserConfigurationException when there's a problem configuring
+	 *         the data parser.
+	 */
+	public Map<CardGeneratorProduct, String> generate(File data, Locale targetLanguage, File dictionary, Set<CardGeneratorProduct> products, ProductArchive archive) throws SAXException, IOException, ParserConfigurationException {
+
+		if (products == null || products.isEmpty()) {
+			throw new IllegalArgumentException("Product required.");
+		}
+
+		if (archive == null) {
+			throw new IllegalArgumentException("Archive required.");
+		}
+
+		Deck deck = this.process(data, targetLanguage, dictionary);
+
+		Map<CardGeneratorProduct, String> entries = this.archiveProducts(deck, products, archive, CardGenerator.getBaseName(data) + "/");
+
+		this.feedback("Card generation complete.");
+
+		return entries;
+
+	}
+
+	
+	/**
+	 * Generates a printable deck of Cards Against Humanity without waiting for
+	 * the result.
+	 * 
+	 * @see #generateAsync(File, Locale, File, CardGeneratorProduct, File,
+	 *      Executor, long, TimeUnit)
+	 */
+	public CompletableFuture<File> generateAsync(File data, Locale targetLanguage, File dictionary, CardGeneratorProduct product, File outputDirectory, Executor executor) {
+		return this.generateAsync(data, targetLanguage, dictionary, product, outputDirectory, executor, 0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Generates a printable deck of Cards Against Humanity without waiting for
+	 * the result.
+	 * 
+	 * Each stage is run as a separate task on the executor supplied. Cancelling
+	 * the result, or letting it time out, stops the generation before the next
+	 * stage starts; reading the card data and writing the product also stop
+	 * part way through. Unlike generate(), a stage that fails fails the whole
+	 * generation, with a CardGeneratorStageException identifying the stage.
+	 * No feedback is given along the way. The product is written, and
+	 * compressed, just as generate() would write it.
+	 * 
+	 * @param data the card data file.
+	 * @param targetLanguage the language to translate into, or null.
+	 * @param dictionary the dictionary to translate with, or null.
+	 * @param product the kind of output to generate; HTML if null.
+	 * @param outputDirectory where to save the output, or null for the
+	 *        current directory. Generations running at the same time should
+	 *        each have their own.
+	 * @param executor where to run each stage.
+	 * @param timeout how long to allow for the whole generation, or 0 for no
+	 *        limit.
+	 * @param unit the unit of the timeout.
+	 * @return a pointer to the main file output, or the archive holding it,
+	 *         once complete.
+	 */
+	public CompletableFuture<File> generateAsync(final File data, final Locale targetLanguage, final File dictionary, CardGeneratorProduct product, File outputDirectory, Executor executor, long timeout, TimeUnit unit) {
+
+		if (data == null) {
+			throw new IllegalArgumentException("Data required.");
+		}
+
+		if (executor == null) {
+			throw new IllegalArgumentException("Executor required.");
+		}
+
+		final CardGeneratorProduct format = (product == null) ? CardGeneratorProduct.HTML : product;
+		final File directory = (outputDirectory == null) ? new File(System.getProperty("user.dir")) : outputDirectory;
+
+		// Completed by the final stage, unless cancelled or timed out first.
+		final CompletableFuture<File> generation = new CompletableFuture<File>();
+
+		if (timeout > 0) {
+
+			final ScheduledFuture<?> timer = CardGenerator.TIMER.schedule(new Runnable() {
+
+				public void run() {
+					generation.completeExceptionally(new TimeoutException("Card generation timed out."));
+				}
+
+			}, timeout, unit);
+
+			generation.whenComplete(new BiConsumer<File, Throwable>() {
+
+				public void accept(File file, Throwable error) {
+					timer.cancel(false);
+				}
+
+			});
+
+		}
+
+		CompletableFuture<Deck> read = CompletableFuture.supplyAsync(new Supplier<Deck>() {
+
+			public Deck get() {
+
+				CardGenerator.checkCancelled(generation);
+				try {
+
+					if (!data.exists()) {
+						throw new FileNotFoundException("File not found: " + data.getPath());
+					}
+
+					InputStream in = new CancellableInputStream(new FileInputStream(data), generation);
+					try {
+						return new Deck(Deck.parse(data, in));
+					} finally {
+						in.close();
+					}
+
+				} catch (Exception e) {
+					throw new CompletionException(new CardGeneratorStageException(CardGeneratorStage.READING, e));
+				}
+
+			}
+
+		}, executor);
+
+		CompletableFuture<Deck> translated = read.thenApplyAsync(CardGenerator.newStage(CardGeneratorStage.TRANSLATING, generation, new DeckTask() {
+
+			public void run(Deck deck) throws Exception {
+				if (targetLanguage != null && !targetLanguage.equals(deck.getLocale())) {
+					deck.translate(targetLanguage, dictionary);
+				}
+			}
+
+		}), executor);
+
+		CompletableFuture<Deck> blanked = translated.thenApplyAsync(CardGenerator.newStage(CardGeneratorStage.BLANKING, generation, new DeckTask() {
+
+			public void run(Deck deck) throws Exception {
+				deck.blank();
+			}
+
+		}), executor);
+
+		CompletableFuture<Deck> deduped = blanked.thenApplyAsync(CardGenerator.newStage(CardGeneratorStage.DEDUPING, generation, new DeckTask() {
+
+			public void run(Deck deck) throws Exception {
+				deck.dedupe();
+			}
+
+		}), executor);
+
+		final boolean isSorted = this.isSorted;
+		final CardGeneratorCompression compression = this.compression;
+		CompletableFuture<Deck> sorted = deduped.thenApplyAsync(CardGenerator.newStage(CardGeneratorStage.SORTING, generation, new DeckTask() {
+
+			public void run(Deck deck) throws Exception {
+				if (isSorted) {
+					deck.sort();
+				}
+			}
+
+		}), executor);
+
+		CompletableFuture<File> generated = sorted.thenApplyAsync(new Function<Deck, File>() {
+
+			public File apply(Deck deck) {
+
+				CardGenerator.checkCancelled(generation);
+
+				try {
+
+					if (compression == CardGeneratorCompression.ZIP || compression == CardGeneratorCompression.TAR_GZ) {
+
+						ProductArchive.ArchiveFormat archiveFormat = (compression == CardGeneratorCompression.ZIP) ? ProductArchive.ArchiveFormat.ZIP : ProductArchive.ArchiveFormat.TAR_GZ;
+
+						directory.mkdirs();
+						File file = new File(directory, "cards_against_humanity." + archiveFormat.getExtension());
+
+						boolean isWritten = false;
+						ProductArchive archive = new ProductArchive(new CancellableOutputStream(new BufferedOutputStream(new FileOutputStream(file)), generation), archiveFormat);
+						try {
+							CardGenerator.addProduct(deck, format, archive, "");
+							isWritten = true;
+						} finally {
+							archive.close();
+							if (!isWritten) {
+								file.delete();
+							}
+						}
+						return file;
+
+					}
+
+					File file = CardGenerator.writeProduct(deck, format, directory, compression == CardGeneratorCompression.GZIP, generation);
+
+					if (format == CardGeneratorProduct.HTML || format == CardGeneratorProduct.PDF) {
+						CardGenerator.copyAssets(new File(directory, "assets"));
+					}
+
+					return file;
+
+				} catch (Exception e) {
+					throw new CompletionException(new CardGeneratorStageException(CardGeneratorStage.GENERATING, e));
+				}
+
+			}
+
+		}, executor);
+
+		generated.whenComplete(new BiConsumer<File, Throwable>() {
+
+			public void accept(File file, Throwable error) {
+
+				if (error == null) {
+					generation.complete(file);
+				} else if (error instanceof CompletionException && error.getCause() != null) {
+					generation.completeExceptionally(error.getCause());
+				} else {
+					generation.completeExceptionally(error);
+				}
+
+			}
+
+		});
+
+		return generation;
+
+	}
+
+	/**
+	 * @return where generate() writes its products.
+	 */
+	public File getOutputDirectory() {
+		return (this.outputDirectory == null) ? new File(System.getProperty("user.dir")) : this.outputDirectory;
+	}
+
+	public ProgressReporterMode getVerbosity() {
+		return this.progressReporter.getMode();
+	}
+	
+	/**
+	 * @param compression how to compress the products generated: each file
+	 *        with gzip, or all of them in a single zip or tar.gz archive.
+	 */
+	public void setCompression(CardGeneratorCompression compression) {
+		this.compression = (compression == null) ? CardGeneratorCompression.NONE : compression;
+	}
+
+	/**
+	 * @param outputDirectory where generate() writes its products, or null
+	 *        for the current directory.
+	 */
+	public void setOutputDirectory(File outputDirectory) {
+		this.outputDirectory = outputDirectory;
+	}
+
+	/**
+	 * @param isSorted true to sort the cards in each suit alphabetically, by
+	 *        the rules of their language, before generating.
+	 */
+	public void setSorted(boolean isSorted) {
+		this.isSorted = isSorted;
+	}
+
+	/**
+	 * @param isStrict true for generate() to stop at the first stage that
+	 *        fails, eg. translating, with an IOException caused by a
+	 *        CardGeneratorStageException; false to report the failure and
+	 *        carry on with the cards as they are.
+	 */
+	public void setStrict(boolean isStrict) {
+		this.isStrict = isStrict;
+	}
+
+	/**
+	 * Sends feedback to a sink shared with other generators, rather than
+	 * printing it straight away.
+	 * 
+	 * @param sink where to send feedback, or null to print it straight away.
+	 * @param job what this generator is working on, to tag its feedback with,
+	 *        eg. the name of the card data file.
+	 */
+	public void setProgressSink(ProgressSink sink, String job) {
+		this.progressReporter.setSink(sink, job);
+	}
+
+	public void setVerbosity(ProgressReporterMode verbosity) {
+		this.progressReporter.setMode(verbosity);
+	}
+
+	/**
+	 * Provide feedback to the user of this application (not including errors).
+	 * 
+	 * @param message a message to the user.
+	 */
+	private void feedback(String message) {
+		this.feedback(message, false);
+	}
+
+	/**
+	 * Provide feedback to the user of this application (including errors).
+	 * 
+	 * @param message a message to the user.
+	 * @param isError true if the message should be reported as an error. Is
+	 *        false by default.
+	 */
+	private void feedback(String message, boolean isError) {
+		this.progressReporter.feedback(message, isError);
+	}
+
+	/**
+	 * Adds each product to an archive in turn, streaming it through the
+	 * compressor.
+	 * 
+	 * @return the path of each product within the archive.
+	 */
+	private Map<CardGeneratorProduct, String> archiveProducts(Deck deck, Set<CardGeneratorProduct> products, ProductArchive archive, String directory) throws IOException {
+
+		EnumSet<CardGeneratorProduct> outputs = EnumSet.noneOf(CardGeneratorProduct.class);
+		for (CardGeneratorProduct product : products) {
+			outputs.add((product == CardGeneratorProduct.PDF) ? CardGeneratorProduct.HTML : product);
+		}
+
+		EnumMap<CardGeneratorProduct, String> entries = new EnumMap<CardGeneratorProduct, String>(CardGeneratorProduct.class);
+		for (CardGeneratorProduct output : outputs) {
+
+			this.feedback("Generating " + output + "...");
+			String entry = CardGenerator.addProduct(deck, output, archive, directory);
+			entries.put(output, entry);
+
+			this.feedback("...added to archive:");
+			this.feedback(entry + "\n");
+
+			if (output == CardGeneratorProduct.HTML) {
+				this.feedback("...styled with:");
+				this.feedback(directory + "assets/");
+			}
+
+		}
+
+		EnumMap<CardGeneratorProduct, String> result = new EnumMap<CardGeneratorProduct, String>(CardGeneratorProduct.class);
+		for (CardGeneratorProduct product : products) {
+			result.put(product, entries.get((product == CardGeneratorProduct.PDF) ? CardGeneratorProduct.HTML : product));
+		}
+		return result;
+
+	}
+
+	/**
+	 * Writes each product at the same time, each from its own copy of the
+	 * deck, giving feedback on each in turn.
+	 */
+	private Map<CardGeneratorProduct, File> generateProducts(Deck deck, Set<CardGeneratorProduct> products) {
+
+		final File directory = this.getOutputDirectory();
+		final boolean isGzipped = (this.compression == CardGeneratorCompression.GZIP);
+
+		EnumSet<CardGeneratorProduct> outputs = EnumSet.noneOf(CardGeneratorProduct.class);
+		for (CardGeneratorProduct product : products) {
+			outputs.add((product == CardGeneratorProduct.PDF) ? CardGeneratorProduct.HTML : product);
+		}
+
+		ExecutorService executor = null;
+		if (outputs.size() > 1) {
+			executor = Executors.newFixedThreadPool(outputs.size());
+		}
+
+		EnumMap<CardGeneratorProduct, File> files = new EnumMap<CardGeneratorProduct, File>(CardGeneratorProduct.class);
+		try {
+
+			EnumMap<CardGeneratorProduct, Future<File>> writing = new EnumMap<CardGeneratorProduct, Future<File>>(CardGeneratorProduct.class);
+			// Every copy is made before any product is written, as none of
+			// them may be made while the original is being read.
+			EnumMap<CardGeneratorProduct, Deck> sources = new EnumMap<CardGeneratorProduct, Deck>(CardGeneratorProduct.class);
+			for (CardGeneratorProduct output : outputs) {
+				sources.put(output, sources.isEmpty() ? deck : CardGenerator.copy(deck));
+			}
+
+			for (final CardGeneratorProduct output : outputs) {
+
+				final Deck source = sources.get(output);
+
+				Callable<File> task = new Callable<File>() {
+
+					public File call() throws IOException {
+						return CardGenerator.writeProduct(source, output, directory, isGzipped, null);
+					}
+
+				};
+
+				if (executor == null) {
+					FutureTask<File> future = new FutureTask<File>(task);
+					future.run();
+					writing.put(output, future);
+				} else {
+					writing.put(output, executor.submit(task));
+				}
+
+			}
+
+			for (CardGeneratorProduct output : outputs) {
+
+				this.feedback("Generating " + output + "...");
+				try {
+
+					File file = writing.get(output).get().getAbsoluteFile();
+					files.put(output, file);
+
+					this.feedback("...file saved:");
+					this.feedback(file.getPath() + "\n");
+
+				} catch (ExecutionException e) {
+					this.feedback("Unable to save cards to file.", true);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					this.feedback("Unable to save cards to file.", true);
+				}
+
+				if (output == CardGeneratorProduct.HTML) {
+
+					this.feedback("Adding a dash of style...");
+					try {
+
+						File assets = new File(directory, "assets");
+						CardGenerator.copyAssets(assets);
+
+						this.feedback("...file saved:");
+						this.feedback(assets.getAbsolutePath());
+
+					} catch (IOException e) {
+						this.feedback("Unable to style.  Do it yourself: " + e.getMessage(), true);
+					}
+
+				}
 
-			this.feedback("...file saved:");
-			this.feedback(productOutputLocation.getAbsolutePath() + "\n");
+			}
+
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+		}
+
+		EnumMap<CardGeneratorProduct, File> result = new EnumMap<CardGeneratorProduct, File>(CardGeneratorProduct.class);
+		for (CardGeneratorProduct product : products) {
+			result.put(product, files.get((product == CardGeneratorProduct.PDF) ? CardGeneratorProduct.HTML : product));
+		}
+		return result;
+
+	}
+
+	/**
+	 * Reads card data and prepares it for generating: translated, if
+	 * required, with blanks standardised, duplicates removed and, if
+	 * required, sorted.
+	 */
+	private Deck process(File data, Locale targetLanguage, File dictionary) throws SAXException, IOException, ParserConfigurationException {
+
+		if (!data.exists()) {
+
+			throw new IllegalArgumentException("File not found: " + data.getPath());
+
+		}
+
+		Document xml = null;
+		this.feedback("Reading card data...");
+		try {
+
+			xml = Deck.parse(data);
+			this.feedback("...data read.\n");
+
+		} catch (SAXException e) {
+			this.feedback("Unable to parse card data.", true);
+			throw e;
+		} catch (IOException e) {
+			this.feedback("Unable to read card data.", true);
+			throw e;
+		} catch (ParserConfigurationException e) {
+			this.feedback("Unable to read card data.", true);
+			throw e;
+		}
+
+		Deck deck = new Deck(xml);
+		deck.setErrorListener(this.progressReporter);
+
+		if (targetLanguage != null && targetLanguage != deck.getLocale()) {
+
+			this.feedback("Translating data...");
+			try {
+
+				deck.translate(targetLanguage, dictionary);
+				this.feedback("...translation complete.\n");
+
+			} catch (SAXException e) {
+				this.stageFailed(CardGeneratorStage.TRANSLATING, "Unable to complete translation.", false, e);
+			} catch (IOException e) {
+				this.stageFailed(CardGeneratorStage.TRANSLATING, "Unable to complete translation.", false, e);
+			} catch (TransformerException e) {
+				this.stageFailed(CardGeneratorStage.TRANSLATING, "Unable to complete translation.", false, e);
+			} catch (ParserConfigurationException e) {
+				this.stageFailed(CardGeneratorStage.TRANSLATING, "Unable to complete translation.", false, e);
+			}
+
+		}
+
+		this.feedback("Standardising blanks...");
+		try {
+			deck.blank();
+			this.feedback("...blanks standardised.\n");
+		} catch (TransformerException e) {
+			this.stageFailed(CardGeneratorStage.BLANKING, "OCD FAIL. Unable to standardise blanks.", true, e);
+		} catch (SAXException e) {
+			this.stageFailed(CardGeneratorStage.BLANKING, "OCD FAIL. Unable to standardise blanks.", true, e);
+		} catch (IOException e) {
+			this.stageFailed(CardGeneratorStage.BLANKING, "OCD FAIL. Unable to standardise blanks.", true, e);
+		} catch (ParserConfigurationException e) {
+			this.stageFailed(CardGeneratorStage.BLANKING, "OCD FAIL. Unable to standardise blanks.", true, e);
+		}
+
+		this.feedback("Checking for duplicates...");
+		try {
+			deck.dedupe();
+			this.feedback("...de-duping complete.\n");
+		} catch (TransformerException e) {
+			this.stageFailed(CardGeneratorStage.DEDUPING, "Unable to complete de-duping process.", true, e);
+		} catch (SAXException e) {
+			this.stageFailed(CardGeneratorStage.DEDUPING, "Unable to complete de-duping process.", true, e);
+		} catch (IOException e) {
+			this.stageFailed(CardGeneratorStage.DEDUPING, "Unable to complete de-duping process.", true, e);
+		} catch (ParserConfigurationException e) {
+			this.stageFailed(CardGeneratorStage.DEDUPING, "Unable to complete de-duping process.", true, e);
+		}
+
+		if (this.isSorted) {
+
+			this.feedback("Sorting cards...");
+			try {
+				deck.sort();
+				this.feedback("...cards sorted.\n");
+			} catch (ParserConfigurationException e) {
+				this.stageFailed(CardGeneratorStage.SORTING, "Unable to sort cards.", true, e);
+			}
+
+		}
+
+		return deck;
+
+	}
+
+	/**
+	 * Reports a stage of process() that failed and, if strict, stops there.
+	 */
+	private void stageFailed(CardGeneratorStage stage, String message, boolean isError, Exception cause) throws IOException {
+
+		this.feedback(message, isError);
+
+		if (this.isStrict) {
+			CardGeneratorStageException e = new CardGeneratorStageException(stage, cause);
+			throw new IOException(e.getMessage(), e);
+		}
 
-		
-		return productOutputLocation;
 	}
 
 }
@@ -121,13 +121,21 @@ public class CardGeneratorOptions {
 			product = line.getOptionValue("p");
 		}
 
+		// Check whether this is a worker in a batch, which is given its
+		// input by the coordinator.
+		if (line.hasOption("w")) {
+			params.put("worker", line.getOptionValue("w"));
+		}
+
 		// Check whether an input location has been specified (required).
-		if (inputLocation == null) {
+		if (inputLocation == null && !params.containsKey("worker")) {
 			throw new IllegalArgumentException("Nothing to process; no file or directory was specified.");
 		}
 		
 		// Add the input location to the parsed option data.
-		params.put("path-to-data", inputLocation.getAbsolutePath());
+		if (inputLocation != null) {
+			params.put("path-to-data", inputLocation.getAbsolutePath());
+		}
 		
 		// Check whether a dictionary has been specified
 		if (dictionaryLocation != null) {
@@ -153,6 +161,31 @@ public class CardGeneratorOptions {
 
 		}
 
+		// Check whether compression has been requested
+		if (line.hasOption("c")) {
+			params.put("compression", line.getOptionValue("c"));
+		}
+
+		// Check whether sorting has been requested
+		if (line.hasOption("s")) {
+			params.put("sort", "true");
+		}
+
+		// Check whether a directory is to be shared between workers
+		if (line.hasOption("n")) {
+			params.put("workers", line.getOptionValue("n"));
+		}
+
+		// Check where to listen for workers
+		if (line.hasOption("b")) {
+			params.put("listen", line.getOptionValue("b"));
+		}
+
+		// Check whether feedback should be given as JSON
+		if (line.hasOption("j")) {
+			params.put("json", "true");
+		}
+
 		// Return the parsed option data
 		return params;
 	}
@@ -196,8 +229,22 @@ public class CardGeneratorOptions {
 		options.addOption("l", true, "locale, representing the culture that you would like the cards translated into.  Should be a code compatible with IETF BCP 47, Tags for Identifying Languages.  eg. en-GB (British English), en-NL (Dutch English), nl-NL (Dutch Dutch), en-x-pirate (Pirate English)");
 		
 		// The product required
-		options.addOption("p", true, "the product required: html (default), xml or pdf");
+		options.addOption("p", true, "the products required, separated by commas: html (default), xml, pack and/or pdf");
 		
+		// Compression
+		options.addOption("c", true, "how to compress the products: none (default), gzip, zip or tar.gz");
+
+		// Sorting
+		options.addOption("s", "sort", false, "sort the cards in each suit alphabetically, by the rules of their language");
+
+		// Feedback as JSON
+		options.addOption("j", "json", false, "give feedback as JSON lines, one per message, tagged with the name of the card data file");
+
+		// Batches
+		options.addOption("n", "workers", true, "generate every card data file in the directory given by -f, with this many worker processes.  A zip or tar.gz archive, if asked for, holds the products of every file");
+		options.addOption("b", "bind", true, "host:port to listen on for workers when generating a directory; localhost on any free port by default.  Workers on other hosts need the card data at the same path");
+		options.addOption("w", "worker", true, "host:port of a coordinator to work for, instead of generating the file given by -f");
+
 		// Verbosity
 		// TODO: Implement an enum representing the reporting modes available
 		// TODO: Update to match enum values.
@@ -0,0 +1,54 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.util.Locale;
+
+import com.kaikoda.cah.CardGenerator.CardGeneratorStage;
+
+/**
+ * Thrown when a stage of card generation fails, identifying which.
+ * 
+ * @author Sheila Thomson
+ */
+public class CardGeneratorStageException extends Exception {
+
+	/**
+	 * Version ID for serialisation.
+	 */
+	private static final long serialVersionUID = -4177120466127093416L;
+
+	private final CardGeneratorStage stage;
+
+	/**
+	 * @param stage the stage that failed.
+	 * @param cause the reason it failed.
+	 */
+	public CardGeneratorStageException(CardGeneratorStage stage, Throwable cause) {
+		super("Unable to complete " + stage.name().toLowerCase(Locale.ENGLISH) + " stage: " + cause.getMessage(), cause);
+		this.stage = stage;
+	}
+
+	/**
+	 * @return the stage that failed.
+	 */
+	public CardGeneratorStage getStage() {
+		return this.stage;
+	}
+
+}
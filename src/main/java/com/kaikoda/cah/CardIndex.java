@@ -0,0 +1,442 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.kaikoda.cah.Card.CardColor;
+
+/**
+ * A full-text index of card text, for finding which cards mention a term.
+ * 
+ * Text is split into tokens of letters and digits, which are lower-cased and
+ * stripped of accents. Each token maps to a compressed list of the cards it
+ * appears on, including its positions, so it's possible to search for a
+ * term, a prefix or a phrase. Results can be limited to a suit and/or a
+ * language.
+ * 
+ * Cards can be added, removed and updated at any time. A removed card keeps
+ * its ID, which is never re-used; an updated card is given a new one.
+ * 
+ * Not thread-safe for updates, but any number of threads may search at once
+ * while the index isn't being changed.
+ * 
+ * @author Sheila Thomson
+ */
+public class CardIndex {
+
+	private final ArrayList<Card> cards;
+
+	/**
+	 * The language of each card, as an index into the list of languages.
+	 */
+	private int[] cardLanguages;
+
+	/**
+	 * Cards that have been removed.
+	 */
+	private final BitSet deleted;
+
+	private final ArrayList<String> languages;
+
+	private final TreeMap<String, PostingList> terms;
+
+	public CardIndex() {
+
+		this.cards = new ArrayList<Card>();
+		this.cardLanguages = new int[64];
+		this.deleted = new BitSet();
+		this.languages = new ArrayList<String>();
+		this.terms = new TreeMap<String, PostingList>();
+
+	}
+
+	/**
+	 * @param deck the cards to index.
+	 */
+	public CardIndex(Deck deck) {
+		this();
+		this.add(deck);
+	}
+
+	/**
+	 * Puts text into the same form as an indexed term: lower case, without
+	 * accents.
+	 * 
+	 * @param text the text to normalise.
+	 * @return the normalised text.
+	 */
+	public static String normalise(String text) {
+
+		String decomposed = Normalizer.normalize(text, Normalizer.Form.NFKD);
+
+		StringBuilder result = new StringBuilder(decomposed.length());
+		for (int i = 0; i < decomposed.length(); i++) {
+			char c = decomposed.charAt(i);
+			if (Character.getType(c) != Character.NON_SPACING_MARK) {
+				result.append(c);
+			}
+		}
+		return result.toString().toLowerCase(Locale.ROOT);
+
+	}
+
+	/**
+	 * Splits text into normalised terms.
+	 * 
+	 * @param text the text to split.
+	 * @return the terms, in the order they appear.
+	 */
+	public static List<String> tokenize(String text) {
+
+		String normalised = CardIndex.normalise(text);
+		List<String> tokens = new ArrayList<String>();
+
+		int start = -1;
+		for (int i = 0; i <= normalised.length(); i++) {
+
+			boolean isPartOfToken = i < normalised.length() && Character.isLetterOrDigit(normalised.charAt(i));
+			if (isPartOfToken && start < 0) {
+				start = i;
+			} else if (!isPartOfToken && start >= 0) {
+				tokens.add(normalised.substring(start, i));
+				start = -1;
+			}
+
+		}
+		return tokens;
+
+	}
+
+	private static String toLanguageKey(Locale language) {
+		return language.toLanguageTag().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Adds a card to the index.
+	 * 
+	 * @param card the card to add.
+	 * @param language the language of the card, or null if not known.
+	 * @return the ID of the card within the index.
+	 */
+	public int add(Card card, Locale language) {
+
+		String languageKey = (language == null) ? "" : CardIndex.toLanguageKey(language);
+		int languageId = this.languages.indexOf(languageKey);
+		if (languageId < 0) {
+			languageId = this.languages.size();
+			this.languages.add(languageKey);
+		}
+
+		int id = this.cards.size();
+		this.cards.add(card);
+
+		if (id == this.cardLanguages.length) {
+			this.cardLanguages = Arrays.copyOf(this.cardLanguages, id * 2);
+		}
+		this.cardLanguages[id] = languageId;
+
+		// Group the positions of each term on the card.
+		TreeMap<String, int[]> positions = new TreeMap<String, int[]>();
+		List<String> tokens = CardIndex.tokenize(card.getText());
+		for (int position = 0; position < tokens.size(); position++) {
+
+			String token = tokens.get(position);
+			int[] found = positions.get(token);
+			if (found == null) {
+				found = new int[] { 0 };
+			}
+
+			// The first entry is the number of positions that follow.
+			found = Arrays.copyOf(found, found[0] + 2);
+			found[0]++;
+			found[found[0]] = position;
+			positions.put(token, found);
+
+		}
+
+		for (Map.Entry<String, int[]> entry : positions.entrySet()) {
+
+			PostingList postings = this.terms.get(entry.getKey());
+			if (postings == null) {
+				postings = new PostingList();
+				this.terms.put(entry.getKey(), postings);
+			}
+
+			int[] found = entry.getValue();
+			postings.add(id, Arrays.copyOfRange(found, 1, found.length), found[0]);
+
+		}
+
+		return id;
+
+	}
+
+	/**
+	 * Adds every card in a deck to the index.
+	 * 
+	 * @param deck the cards to add.
+	 */
+	public void add(Deck deck) {
+
+		String lang = deck.getData().getDocumentElement().getAttribute("xml:lang");
+		Locale language = lang.equals("") ? null : Locale.forLanguageTag(lang);
+
+		for (Card card : deck.getCards()) {
+			this.add(card, language);
+		}
+
+	}
+
+	/**
+	 * @param phrase one or more terms, which must appear next to each other
+	 *        and in the same order.
+	 * @param color the suit to search, or null for both.
+	 * @param language the language to search, or null for all.
+	 * @return the IDs of the cards found, in ascending order.
+	 */
+	public int[] findPhrase(String phrase, CardColor color, Locale language) {
+
+		List<String> tokens = CardIndex.tokenize(phrase);
+		if (tokens.isEmpty()) {
+			return new int[0];
+		}
+
+		PostingList.Reader[] readers = new PostingList.Reader[tokens.size()];
+		for (int i = 0; i < readers.length; i++) {
+
+			PostingList postings = this.terms.get(tokens.get(i));
+			if (postings == null) {
+				return new int[0];
+			}
+			readers[i] = postings.reader();
+			readers[i].next();
+
+		}
+
+		int languageId = this.getLanguageId(language);
+		int[] results = new int[16];
+		int total = 0;
+		int[][] positions = new int[readers.length][];
+
+		while (true) {
+
+			// Advance every reader to the highest card among them.
+			int card = -1;
+			boolean isAligned = false;
+			while (!isAligned) {
+
+				isAligned = true;
+				for (PostingList.Reader reader : readers) {
+					card = Math.max(card, reader.card());
+				}
+				for (PostingList.Reader reader : readers) {
+					while (reader.card() < card) {
+						reader.next();
+					}
+					if (reader.card() != card) {
+						isAligned = false;
+					}
+				}
+
+			}
+
+			if (card == Integer.MAX_VALUE) {
+				break;
+			}
+
+			if (this.accept(card, color, languageId) && CardIndex.isPhrase(readers, positions)) {
+				if (total == results.length) {
+					results = Arrays.copyOf(results, total * 2);
+				}
+				results[total++] = card;
+			}
+
+			readers[0].next();
+
+		}
+
+		return Arrays.copyOf(results, total);
+
+	}
+
+	/**
+	 * @param prefix the start of one or more terms.
+	 * @param color the suit to search, or null for both.
+	 * @param language the language to search, or null for all.
+	 * @return the IDs of the cards found, in ascending order.
+	 */
+	public int[] findPrefix(String prefix, CardColor color, Locale language) {
+
+		String normalised = CardIndex.normalise(prefix);
+		SortedMap<String, PostingList> matches = this.terms.subMap(normalised, normalised + Character.MAX_VALUE);
+
+		int languageId = this.getLanguageId(language);
+		BitSet found = new BitSet();
+		for (PostingList postings : matches.values()) {
+
+			PostingList.Reader reader = postings.reader();
+			while (reader.next()) {
+				if (this.accept(reader.card(), color, languageId)) {
+					found.set(reader.card());
+				}
+			}
+
+		}
+
+		return found.stream().toArray();
+
+	}
+
+	/**
+	 * @param term a single term.
+	 * @param color the suit to search, or null for both.
+	 * @param language the language to search, or null for all.
+	 * @return the IDs of the cards found, in ascending order.
+	 */
+	public int[] findTerm(String term, CardColor color, Locale language) {
+		return this.findPhrase(term, color, language);
+	}
+
+	/**
+	 * @param card the ID of a card.
+	 * @return the card, or null if it has been removed.
+	 */
+	public Card getCard(int card) {
+
+		if (this.deleted.get(card)) {
+			return null;
+		}
+		return this.cards.get(card);
+
+	}
+
+	/**
+	 * Removes a card from the index. Its entries are skipped when searching.
+	 * 
+	 * @param card the ID of the card.
+	 */
+	public void remove(int card) {
+
+		if (card < 0 || card >= this.cards.size()) {
+			throw new IllegalArgumentException("Unknown card: " + card);
+		}
+		this.deleted.set(card);
+
+	}
+
+	/**
+	 * @return the number of cards in the index, not including those removed.
+	 */
+	public int size() {
+		return this.cards.size() - this.deleted.cardinality();
+	}
+
+	/**
+	 * Replaces a card with a new version.
+	 * 
+	 * @param card the ID of the card to replace.
+	 * @param replacement the new version of the card.
+	 * @return the ID of the new version.
+	 */
+	public int update(int card, Card replacement) {
+
+		this.remove(card);
+
+		String languageKey = this.languages.get(this.cardLanguages[card]);
+		Locale language = languageKey.equals("") ? null : Locale.forLanguageTag(languageKey);
+		return this.add(replacement, language);
+
+	}
+
+	private boolean accept(int card, CardColor color, int languageId) {
+
+		if (this.deleted.get(card)) {
+			return false;
+		}
+
+		if (color != null && this.cards.get(card).getColor() != color) {
+			return false;
+		}
+
+		return languageId == -1 || this.cardLanguages[card] == languageId;
+
+	}
+
+	/**
+	 * @return the ID of the language, -1 for any language or -2 for a
+	 *         language not in the index.
+	 */
+	private int getLanguageId(Locale language) {
+
+		if (language == null) {
+			return -1;
+		}
+
+		int id = this.languages.indexOf(CardIndex.toLanguageKey(language));
+		return (id < 0) ? -2 : id;
+
+	}
+
+	/**
+	 * Checks whether the terms read appear one after another on the current
+	 * card.
+	 */
+	private static boolean isPhrase(PostingList.Reader[] readers, int[][] positions) {
+
+		if (readers.length == 1) {
+			return true;
+		}
+
+		for (int i = 0; i < readers.length; i++) {
+
+			int frequency = readers[i].frequency();
+			if (positions[i] == null || positions[i].length < frequency) {
+				positions[i] = new int[Math.max(frequency, 4)];
+			}
+			for (int j = 0; j < frequency; j++) {
+				positions[i][j] = readers[i].nextPosition();
+			}
+
+		}
+
+		for (int j = 0; j < readers[0].frequency(); j++) {
+
+			int start = positions[0][j];
+			boolean isMatch = true;
+			for (int i = 1; i < readers.length && isMatch; i++) {
+				isMatch = Arrays.binarySearch(positions[i], 0, readers[i].frequency(), start + i) >= 0;
+			}
+			if (isMatch) {
+				return true;
+			}
+
+		}
+		return false;
+
+	}
+
+}
@@ -0,0 +1,625 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.kaikoda.cah.Card.CardColor;
+import com.kaikoda.cah.DeckSnapshot.Suit;
+
+/**
+ * A compact, binary copy of card data, for loading without parsing any XML.
+ * 
+ * A pack is written once, when the card data is published, and may then be
+ * memory-mapped, so that opening one costs next to nothing however many
+ * cards it holds and any card may be read by its ID without reading the
+ * others. IDs are given to the cards in document order, starting at zero.
+ * 
+ * All numbers are big-endian. A pack starts with a fixed 48 byte header:
+ * 
+ * <pre>
+ *  0  magic number, "CAHP"
+ *  4  version (short), then two unused bytes
+ *  8  total decks
+ * 12  total suits
+ * 16  total cards
+ * 20  offset of the suit table
+ * 24  offset of the card index
+ * 28  offset of the blank table
+ * 32  offset of the text
+ * 36  length of the text, in bytes
+ * 40  unused
+ * </pre>
+ * 
+ * followed by the language, the link to the licence and the text of the
+ * licence, each as a length in bytes (or -1 for none) and UTF-8. The suit
+ * table has a 16 byte entry per suit: its deck, its color (as an ordinal),
+ * the ID of its first card and its number of cards. The card index has a 16
+ * byte entry per card: the offset and length of its text, the position in
+ * the blank table of its first blank, its color, its number of blanks and
+ * the number of cards to pick and draw, as printed by html5.xsl. The text of
+ * each card doesn't include its blanks; instead, the blank table holds the
+ * position of each, as a byte offset within the text of the card.
+ * 
+ * The text, and so the whole pack, may be up to 2GB. Once opened, a pack may
+ * be read by any number of threads at once.
+ * 
+ * @author Sheila Thomson
+ */
+public class CardPack implements Closeable {
+
+	/**
+	 * The first four bytes of every pack: "CAHP".
+	 */
+	public static final int MAGIC = 0x43414850;
+
+	/**
+	 * The version of the format written.
+	 */
+	public static final short VERSION = 1;
+
+	/**
+	 * The size of an entry in the card index, in bytes.
+	 */
+	private static final int CARD_SIZE = 16;
+
+	private static final int HEADER_SIZE = 48;
+
+	/**
+	 * The size of an entry in the suit table, in bytes.
+	 */
+	private static final int SUIT_SIZE = 16;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * The position of each blank, by card.
+	 */
+	private final ByteBuffer blanks;
+
+	/**
+	 * The file the pack was mapped from, if any.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * The entry for each card, by ID.
+	 */
+	private final ByteBuffer index;
+
+	private final String language;
+
+	private final String licence;
+
+	private final String licenceHref;
+
+	private final ByteBuffer suits;
+
+	/**
+	 * The text of every card, end to end.
+	 */
+	private final ByteBuffer text;
+
+	private final int totalCards;
+
+	private final int totalDecks;
+
+	private final int totalSuits;
+
+	/**
+	 * @param data a complete pack, from position zero. Its position and limit
+	 *        aren't changed.
+	 * @throws IOException when the data isn't a pack, or is of a version that
+	 *         can't be read.
+	 */
+	public CardPack(ByteBuffer data) throws IOException {
+		this(data, null);
+	}
+
+	private CardPack(ByteBuffer data, FileChannel channel) throws IOException {
+
+		if (data == null) {
+			throw new IllegalArgumentException("Data required.");
+		}
+
+		ByteBuffer pack = data.duplicate();
+		pack.position(0);
+
+		if (pack.limit() < HEADER_SIZE || pack.getInt(0) != MAGIC) {
+			throw new IOException("Not a card pack.");
+		}
+
+		if (pack.getShort(4) != VERSION) {
+			throw new IOException("Unsupported card pack version: " + pack.getShort(4));
+		}
+
+		this.channel = channel;
+		this.totalDecks = pack.getInt(8);
+		this.totalSuits = pack.getInt(12);
+		this.totalCards = pack.getInt(16);
+
+		int suitTable = pack.getInt(20);
+		int cardIndex = pack.getInt(24);
+		int blankTable = pack.getInt(28);
+		int textStart = pack.getInt(32);
+		int textLength = pack.getInt(36);
+
+		if (suitTable < HEADER_SIZE || cardIndex < suitTable || blankTable < cardIndex || textStart < blankTable || (long) textStart + textLength > pack.limit()) {
+			throw new IOException("Card pack is truncated or corrupt.");
+		}
+
+		pack.position(HEADER_SIZE);
+		this.language = CardPack.readString(pack);
+		this.licenceHref = CardPack.readString(pack);
+		this.licence = CardPack.readString(pack);
+
+		this.suits = CardPack.slice(pack, suitTable, cardIndex - suitTable);
+		this.index = CardPack.slice(pack, cardIndex, blankTable - cardIndex);
+		this.blanks = CardPack.slice(pack, blankTable, textStart - blankTable);
+		this.text = CardPack.slice(pack, textStart, textLength);
+
+		if (this.suits.limit() < this.totalSuits * SUIT_SIZE || this.index.limit() < this.totalCards * CARD_SIZE) {
+			throw new IOException("Card pack is truncated or corrupt.");
+		}
+
+	}
+
+	/**
+	 * @param file a file that might be a card pack.
+	 * @return true if the file starts as a card pack does.
+	 * @throws IOException when it's not possible to read the file.
+	 */
+	public static boolean isPack(File file) throws IOException {
+
+		if (file.length() < HEADER_SIZE) {
+			return false;
+		}
+
+		InputStream in = new FileInputStream(file);
+		try {
+
+			byte[] magic = new byte[4];
+			int total = 0;
+			while (total < magic.length) {
+				int read = in.read(magic, total, magic.length - total);
+				if (read < 0) {
+					return false;
+				}
+				total = total + read;
+			}
+			return ByteBuffer.wrap(magic).getInt() == MAGIC;
+
+		} finally {
+			in.close();
+		}
+
+	}
+
+	/**
+	 * Memory-maps a pack.
+	 * 
+	 * @param file the pack.
+	 * @return the pack, ready to read. Close it once done with.
+	 * @throws IOException when it's not possible to map the file, or it isn't
+	 *         a pack.
+	 */
+	public static CardPack open(File file) throws IOException {
+
+		if (file == null) {
+			throw new IllegalArgumentException("File required.");
+		}
+
+		if (!file.exists()) {
+			throw new IllegalArgumentException("File not found: " + file.getPath());
+		}
+
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		FileChannel channel = in.getChannel();
+		try {
+
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Card pack is too large: " + file.getPath());
+			}
+			return new CardPack(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), channel);
+
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		} catch (RuntimeException e) {
+			in.close();
+			throw e;
+		}
+
+	}
+
+	/**
+	 * Writes card data as a pack.
+	 * 
+	 * @param deck the card data.
+	 * @param out where to write the pack. It is flushed, but not closed.
+	 * @throws IOException when it's not possible to write to the output
+	 *         stream.
+	 */
+	public static void write(DeckSnapshot deck, OutputStream out) throws IOException {
+
+		if (deck == null) {
+			throw new IllegalArgumentException("Data required.");
+		}
+
+		// Encode everything first, so that the offsets are known.
+		byte[] language = CardPack.encode(deck.getLanguage());
+		byte[] licenceHref = CardPack.encode(deck.getLicenceHref());
+		byte[] licence = CardPack.encode(deck.getLicence());
+
+		int totalSuits = 0;
+		int totalCards = 0;
+		int totalBlanks = 0;
+		for (int i = 0; i < deck.getTotalDecks(); i++) {
+			for (Suit suit : deck.getSuits(i)) {
+				totalSuits++;
+				for (Card card : suit.getCards()) {
+
+					// The index has a single byte for the blanks, pick and draw.
+					if (card.getBlanks() > 255) {
+						throw new IOException("Too many blanks on a single card: " + card.getText());
+					}
+
+					totalCards++;
+					totalBlanks = totalBlanks + card.getBlanks();
+
+				}
+			}
+		}
+
+		byte[][] texts = new byte[totalCards][];
+		int[][] positions = new int[totalCards][];
+		long textLength = 0;
+
+		int id = 0;
+		for (int i = 0; i < deck.getTotalDecks(); i++) {
+			for (Suit suit : deck.getSuits(i)) {
+				for (Card card : suit.getCards()) {
+
+					// Encode each fragment separately, to find the blanks.
+					int[] blanks = new int[card.getBlanks()];
+					byte[][] fragments = new byte[card.getBlanks() + 1][];
+					int length = 0;
+					for (int j = 0; j < fragments.length; j++) {
+						if (j > 0) {
+							blanks[j - 1] = length;
+						}
+						fragments[j] = card.getFragment(j).getBytes(UTF_8);
+						length = length + fragments[j].length;
+					}
+
+					byte[] text = new byte[length];
+					int position = 0;
+					for (byte[] fragment : fragments) {
+						System.arraycopy(fragment, 0, text, position, fragment.length);
+						position = position + fragment.length;
+					}
+
+					texts[id] = text;
+					positions[id] = blanks;
+					textLength = textLength + length;
+					id++;
+
+				}
+			}
+		}
+
+		long suitTable = CardPack.align(HEADER_SIZE + 12L + CardPack.length(language) + CardPack.length(licenceHref) + CardPack.length(licence));
+		long cardIndex = suitTable + (long) totalSuits * SUIT_SIZE;
+		long blankTable = cardIndex + (long) totalCards * CARD_SIZE;
+		long textStart = blankTable + totalBlanks * 4L;
+
+		if (textStart + textLength > Integer.MAX_VALUE) {
+			throw new IOException("Too many cards for a single pack.");
+		}
+
+		DataOutputStream data = new DataOutputStream(out);
+
+		data.writeInt(MAGIC);
+		data.writeShort(VERSION);
+		data.writeShort(0);
+		data.writeInt(deck.getTotalDecks());
+		data.writeInt(totalSuits);
+		data.writeInt(totalCards);
+		data.writeInt((int) suitTable);
+		data.writeInt((int) cardIndex);
+		data.writeInt((int) blankTable);
+		data.writeInt((int) textStart);
+		data.writeInt((int) textLength);
+		data.writeLong(0);
+
+		CardPack.writeString(data, language);
+		CardPack.writeString(data, licenceHref);
+		CardPack.writeString(data, licence);
+		while (data.size() < suitTable) {
+			data.writeByte(0);
+		}
+
+		int first = 0;
+		for (int i = 0; i < deck.getTotalDecks(); i++) {
+			for (Suit suit : deck.getSuits(i)) {
+				data.writeInt(i);
+				data.writeInt(suit.getColor().ordinal());
+				data.writeInt(first);
+				data.writeInt(suit.getCards().size());
+				first = first + suit.getCards().size();
+			}
+		}
+
+		id = 0;
+		int offset = 0;
+		int blank = 0;
+		for (int i = 0; i < deck.getTotalDecks(); i++) {
+			for (Suit suit : deck.getSuits(i)) {
+				for (Card card : suit.getCards()) {
+
+					data.writeInt(offset);
+					data.writeInt(texts[id].length);
+					data.writeInt(blank);
+					data.writeByte(card.getColor().ordinal());
+					data.writeByte(card.getBlanks());
+					data.writeByte(card.getPick());
+					data.writeByte(card.getDraw());
+
+					offset = offset + texts[id].length;
+					blank = blank + card.getBlanks();
+					id++;
+
+				}
+			}
+		}
+
+		for (int[] blanks : positions) {
+			for (int position : blanks) {
+				data.writeInt(position);
+			}
+		}
+
+		for (byte[] text : texts) {
+			data.write(text);
+		}
+
+		data.flush();
+
+	}
+
+	/**
+	 * Rounds up to an 8 byte boundary.
+	 */
+	private static long align(long offset) {
+		return (offset + 7) & ~7L;
+	}
+
+	private static byte[] encode(String value) {
+		return (value == null) ? null : value.getBytes(UTF_8);
+	}
+
+	private static int length(byte[] value) {
+		return (value == null) ? 0 : value.length;
+	}
+
+	private static String readString(ByteBuffer pack) throws IOException {
+
+		int length = pack.getInt();
+		if (length < 0) {
+			return null;
+		}
+
+		if (length > pack.remaining()) {
+			throw new IOException("Card pack is truncated or corrupt.");
+		}
+
+		byte[] value = new byte[length];
+		pack.get(value);
+		return new String(value, UTF_8);
+
+	}
+
+	private static ByteBuffer slice(ByteBuffer pack, int offset, int length) {
+
+		ByteBuffer result = pack.duplicate();
+		result.limit(offset + length);
+		result.position(offset);
+		return result.slice();
+
+	}
+
+	private static void writeString(DataOutputStream data, byte[] value) throws IOException {
+
+		if (value == null) {
+			data.writeInt(-1);
+		} else {
+			data.writeInt(value.length);
+			data.write(value);
+		}
+
+	}
+
+	/**
+	 * Releases the file the pack was mapped from, if any. The mapping itself
+	 * is released once the pack is no longer referenced.
+	 */
+	public void close() throws IOException {
+		if (this.channel != null) {
+			this.channel.close();
+		}
+	}
+
+	/**
+	 * @param id the ID of the card.
+	 * @return the number of blanks on the card.
+	 */
+	public int getBlanks(int id) {
+		return this.index.get(this.getEntry(id) + 13) & 0xff;
+	}
+
+	/**
+	 * @param id the ID of the card.
+	 * @return the card.
+	 */
+	public Card getCard(int id) {
+
+		int entry = this.getEntry(id);
+		byte[] text = this.getBytes(entry);
+
+		int blanks = this.index.get(entry + 13) & 0xff;
+		String[] fragments = new String[blanks + 1];
+
+		int blank = this.index.getInt(entry + 8);
+		int start = 0;
+		for (int i = 0; i < blanks; i++) {
+			int end = this.blanks.getInt((blank + i) * 4);
+			fragments[i] = new String(text, start, end - start, UTF_8);
+			start = end;
+		}
+		fragments[blanks] = new String(text, start, text.length - start, UTF_8);
+
+		return new Card(this.getColor(id), fragments);
+
+	}
+
+	/**
+	 * @param id the ID of the card.
+	 * @return the suit the card belongs to.
+	 */
+	public CardColor getColor(int id) {
+		return CardColor.values()[this.index.get(this.getEntry(id) + 12)];
+	}
+
+	/**
+	 * @param id the ID of the card.
+	 * @return how many extra cards a player should draw before answering the
+	 *         card.
+	 */
+	public int getDraw(int id) {
+		return this.index.get(this.getEntry(id) + 15) & 0xff;
+	}
+
+	/**
+	 * @return the language of the cards, eg. en-gb, or null if not specified.
+	 */
+	public String getLanguage() {
+		return this.language;
+	}
+
+	public String getLicence() {
+		return this.licence;
+	}
+
+	public String getLicenceHref() {
+		return this.licenceHref;
+	}
+
+	/**
+	 * @param id the ID of the card.
+	 * @return how many white cards should be played in answer to the card.
+	 */
+	public int getPick(int id) {
+		return this.index.get(this.getEntry(id) + 14) & 0xff;
+	}
+
+	/**
+	 * @param id the ID of the card.
+	 * @return the text of the card, not including blanks.
+	 */
+	public String getText(int id) {
+		return new String(this.getBytes(this.getEntry(id)), UTF_8);
+	}
+
+	public int getTotalCards() {
+		return this.totalCards;
+	}
+
+	public int getTotalDecks() {
+		return this.totalDecks;
+	}
+
+	/**
+	 * @return a copy of every card in the pack, in the same decks and suits.
+	 */
+	public DeckSnapshot toSnapshot() {
+
+		ArrayList<List<Suit>> decks = new ArrayList<List<Suit>>(this.totalDecks);
+		for (int i = 0; i < this.totalDecks; i++) {
+			decks.add(new ArrayList<Suit>());
+		}
+
+		for (int i = 0; i < this.totalSuits; i++) {
+
+			int entry = i * SUIT_SIZE;
+			int deck = this.suits.getInt(entry);
+			CardColor color = CardColor.values()[this.suits.getInt(entry + 4)];
+			int first = this.suits.getInt(entry + 8);
+			int total = this.suits.getInt(entry + 12);
+
+			ArrayList<Card> cards = new ArrayList<Card>(total);
+			for (int id = first; id < first + total; id++) {
+				cards.add(this.getCard(id));
+			}
+			decks.get(deck).add(new Suit(color, cards));
+
+		}
+
+		return new DeckSnapshot(this.language, this.licenceHref, this.licence, decks);
+
+	}
+
+	/**
+	 * @return the text of a card, as UTF-8.
+	 */
+	private byte[] getBytes(int entry) {
+
+		byte[] result = new byte[this.index.getInt(entry + 4)];
+
+		// A duplicate, so that any number of threads can read at once.
+		ByteBuffer text = this.text.duplicate();
+		text.position(this.index.getInt(entry));
+		text.get(result);
+		return result;
+
+	}
+
+	/**
+	 * @return the position of a card's entry in the index.
+	 */
+	private int getEntry(int id) {
+
+		if (id < 0 || id >= this.totalCards) {
+			throw new IndexOutOfBoundsException("Unknown card: " + id);
+		}
+		return id * CARD_SIZE;
+
+	}
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.util.SplittableRandom;
+
+/**
+ * A pile of cards, identified by number, held in a fixed-size ring buffer.
+ * Cards are drawn from the top and added to the bottom.
+ * 
+ * @author Sheila Thomson
+ */
+class CardPile {
+
+	private final int[] cards;
+
+	/**
+	 * Used in place of modulo, as the capacity is always a power of two.
+	 */
+	private final int mask;
+
+	/**
+	 * The position of the card on top of the pile.
+	 */
+	private int head;
+
+	private int size;
+
+	/**
+	 * @param capacity the most cards the pile will ever need to hold.
+	 */
+	CardPile(int capacity) {
+
+		int length = 1;
+		while (length < capacity) {
+			length = length << 1;
+		}
+
+		this.cards = new int[length];
+		this.mask = length - 1;
+
+	}
+
+	/**
+	 * Puts a card on the bottom of the pile.
+	 * 
+	 * @param card the ID of the card.
+	 */
+	void add(int card) {
+
+		if (this.size == this.cards.length) {
+			throw new IllegalStateException("Pile is full.");
+		}
+
+		this.cards[(this.head + this.size) & this.mask] = card;
+		this.size++;
+
+	}
+
+	void clear() {
+		this.head = 0;
+		this.size = 0;
+	}
+
+	/**
+	 * Takes the card from the top of the pile.
+	 * 
+	 * @return the ID of the card, or -1 if the pile is empty.
+	 */
+	int draw() {
+
+		if (this.size == 0) {
+			return -1;
+		}
+
+		int card = this.cards[this.head];
+		this.head = (this.head + 1) & this.mask;
+		this.size--;
+		return card;
+
+	}
+
+	boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	/**
+	 * Moves every card in this pile to the bottom of another, leaving this
+	 * pile empty.
+	 * 
+	 * @param pile where to put the cards.
+	 */
+	void moveTo(CardPile pile) {
+
+		while (this.size > 0) {
+			pile.add(this.draw());
+		}
+
+	}
+
+	/**
+	 * Puts the cards in the pile into a random order (Fisher-Yates).
+	 * 
+	 * @param random the source of randomness.
+	 */
+	void shuffle(SplittableRandom random) {
+
+		for (int i = this.size - 1; i > 0; i--) {
+
+			int j = random.nextInt(i + 1);
+
+			int a = (this.head + i) & this.mask;
+			int b = (this.head + j) & this.mask;
+
+			int card = this.cards[a];
+			this.cards[a] = this.cards[b];
+			this.cards[b] = card;
+
+		}
+
+	}
+
+	int size() {
+		return this.size;
+	}
+
+}
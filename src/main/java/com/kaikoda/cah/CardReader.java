@@ -0,0 +1,258 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.kaikoda.cah.Card.CardColor;
+
+/**
+ * Reads cards one at a time from a card data file, without loading the whole
+ * file into memory.
+ * 
+ * Cards are read from every deck in the file, in document order. Blanks are
+ * standardised as they're read: a sequence of underscores is treated the same
+ * as a blank element, as by Deck.blank().
+ * 
+ * @author Sheila Thomson
+ */
+public class CardReader implements Closeable {
+
+	/**
+	 * A blank represented as a sequence of underscores.
+	 */
+	private static final Pattern UNDERSCORE_BLANK = Pattern.compile("__+");
+
+	/**
+	 * The color of each suit read so far, in order of first appearance.
+	 */
+	private final List<CardColor> colors;
+
+	private final InputStream in;
+
+	private final String language;
+
+	private final XMLStreamReader reader;
+
+	/**
+	 * The color of the suit being read.
+	 */
+	private CardColor color;
+
+	private String licence;
+
+	private String licenceHref;
+
+	/**
+	 * @param data the card data file.
+	 * @throws IOException when there's a problem opening the file.
+	 * @throws XMLStreamException when there's a problem parsing the card data.
+	 */
+	public CardReader(File data) throws IOException, XMLStreamException {
+
+		if (data == null) {
+			throw new IllegalArgumentException("Data required.");
+		}
+
+		if (!data.exists()) {
+			throw new IllegalArgumentException("File not found: " + data.getPath());
+		}
+
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+
+		this.colors = new ArrayList<CardColor>();
+		this.in = new BufferedInputStream(new FileInputStream(data));
+
+		try {
+
+			this.reader = factory.createXMLStreamReader(data.toURI().toString(), this.in);
+
+			// Move to the game element
+			while (this.reader.hasNext() && this.reader.next() != XMLStreamConstants.START_ELEMENT) {
+				continue;
+			}
+
+			String language = this.reader.getAttributeValue(XMLConstants.XML_NS_URI, "lang");
+			this.language = (language == null) ? "" : language;
+
+		} catch (XMLStreamException e) {
+			this.in.close();
+			throw e;
+		}
+
+	}
+
+	/**
+	 * Splits text on any underscore blanks it contains and adds the pieces
+	 * to the fragments of a card.
+	 */
+	private static void addFragments(List<String> fragments, String text) {
+
+		String[] pieces = CardReader.UNDERSCORE_BLANK.split(text, -1);
+		for (String piece : pieces) {
+			fragments.add(piece);
+		}
+
+	}
+
+	public void close() throws IOException {
+
+		try {
+			this.reader.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		} finally {
+			this.in.close();
+		}
+
+	}
+
+	/**
+	 * @return the color of each suit read so far, including any without
+	 *         cards, in order of first appearance.
+	 */
+	public List<CardColor> getColors() {
+		return Collections.unmodifiableList(this.colors);
+	}
+
+	/**
+	 * @return the language of the card data, as specified by xml:lang, or an
+	 *         empty String if not specified.
+	 */
+	public String getLanguage() {
+		return this.language;
+	}
+
+	/**
+	 * @return the text of the licence, or null if none has been read so far.
+	 */
+	public String getLicence() {
+		return this.licence;
+	}
+
+	/**
+	 * @return a link to the licence, or null if none has been read so far.
+	 */
+	public String getLicenceHref() {
+		return this.licenceHref;
+	}
+
+	/**
+	 * @return the next card, or null if there are no more.
+	 * @throws XMLStreamException when there's a problem parsing the card data.
+	 */
+	public Card next() throws XMLStreamException {
+
+		while (this.reader.hasNext()) {
+
+			int event = this.reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+
+				String name = this.reader.getLocalName();
+				if (name.equals("suit")) {
+
+					this.color = CardColor.fromValue(this.reader.getAttributeValue(null, "color"));
+					if (!this.colors.contains(this.color)) {
+						this.colors.add(this.color);
+					}
+
+				} else if (name.equals("card") && this.color != null) {
+
+					return this.readCard();
+
+				} else if (name.equals("licence") && this.licence == null) {
+
+					this.licenceHref = this.reader.getAttributeValue(null, "href");
+					this.licence = this.reader.getElementText();
+
+				}
+
+			} else if (event == XMLStreamConstants.END_ELEMENT && this.reader.getLocalName().equals("suit")) {
+
+				this.color = null;
+
+			}
+
+		}
+
+		return null;
+
+	}
+
+	/**
+	 * Reads the card at the current position, up to and including its end
+	 * tag.
+	 */
+	private Card readCard() throws XMLStreamException {
+
+		ArrayList<String> fragments = new ArrayList<String>();
+		StringBuilder fragment = new StringBuilder();
+
+		// How deeply nested within the card the reader is
+		int depth = 0;
+
+		while (this.reader.hasNext()) {
+
+			int event = this.reader.next();
+			if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE) {
+
+				fragment.append(this.reader.getText());
+
+			} else if (event == XMLStreamConstants.START_ELEMENT) {
+
+				if (depth == 0 && this.reader.getLocalName().equals("blank")) {
+					CardReader.addFragments(fragments, fragment.toString());
+					fragment.setLength(0);
+				}
+				depth++;
+
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+
+				if (depth == 0) {
+					break;
+				}
+				depth--;
+
+			}
+
+		}
+
+		CardReader.addFragments(fragments, fragment.toString());
+
+		return new Card(this.color, fragments.toArray(new String[fragments.size()]));
+
+	}
+
+}
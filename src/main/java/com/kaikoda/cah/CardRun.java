@@ -0,0 +1,239 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.kaikoda.cah.Card.CardColor;
+
+/**
+ * A run of cards spilled to a temporary file, in order of card text, for
+ * merging with other runs.
+ * 
+ * Each card is written as its color, the number of fragments and then each
+ * fragment as a length-prefixed UTF-8 String.
+ * 
+ * @author Sheila Thomson
+ */
+class CardRun {
+
+	/**
+	 * Reads a run back, one card at a time.
+	 */
+	static class Reader implements Closeable {
+
+		private final DataInputStream in;
+
+		/**
+		 * The order in which the run was created, for breaking ties between
+		 * cards with the same text.
+		 */
+		private final int sequence;
+
+		private Card current;
+
+		/**
+		 * @param file the run.
+		 * @param sequence the order in which the run was created.
+		 * @throws IOException when there's a problem reading the first card.
+		 */
+		Reader(File file, int sequence) throws IOException {
+
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), CardRun.BUFFER_SIZE));
+			this.sequence = sequence;
+			this.advance();
+
+		}
+
+		/**
+		 * Moves on to the next card.
+		 * 
+		 * @return false if there are no more cards.
+		 * @throws IOException when there's a problem reading the card.
+		 */
+		boolean advance() throws IOException {
+			this.current = CardRun.read(this.in);
+			return this.current != null;
+		}
+
+		public void close() throws IOException {
+			this.in.close();
+		}
+
+		/**
+		 * @return the current card, or null if there are no more.
+		 */
+		Card current() {
+			return this.current;
+		}
+
+		int getSequence() {
+			return this.sequence;
+		}
+
+	}
+
+	/**
+	 * Writes a run, one card at a time.
+	 */
+	static class Writer implements Closeable {
+
+		private final DataOutputStream out;
+
+		/**
+		 * @param file where to write the run.
+		 * @throws IOException when it's not possible to open the file.
+		 */
+		Writer(File file) throws IOException {
+			this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), CardRun.BUFFER_SIZE));
+		}
+
+		public void close() throws IOException {
+			this.out.close();
+		}
+
+		/**
+		 * @param card the next card in the run.
+		 * @throws IOException when there's a problem writing the card.
+		 */
+		void write(Card card) throws IOException {
+			CardRun.write(this.out, card);
+		}
+
+	}
+
+	/**
+	 * Orders cards by text; the order used for every run.
+	 */
+	static final Comparator<Card> CARD_ORDER = new Comparator<Card>() {
+
+		public int compare(Card a, Card b) {
+			return a.getText().compareTo(b.getText());
+		}
+
+	};
+
+	/**
+	 * Orders the readers of several runs by current card, then by the order
+	 * in which the runs were created.
+	 */
+	static final Comparator<Reader> READER_ORDER = new Comparator<Reader>() {
+
+		public int compare(Reader a, Reader b) {
+
+			int result = CardRun.CARD_ORDER.compare(a.current(), b.current());
+			if (result == 0) {
+				result = (a.getSequence() < b.getSequence()) ? -1 : ((a.getSequence() == b.getSequence()) ? 0 : 1);
+			}
+			return result;
+
+		}
+
+	};
+
+	private static final int BUFFER_SIZE = 65536;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * @param in a run.
+	 * @return the next card in the run, or null if there are no more.
+	 * @throws IOException when there's a problem reading the card.
+	 */
+	static Card read(DataInputStream in) throws IOException {
+
+		int color = in.read();
+		if (color < 0) {
+			return null;
+		}
+
+		try {
+
+			String[] fragments = new String[in.readInt()];
+			for (int i = 0; i < fragments.length; i++) {
+
+				byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				fragments[i] = new String(bytes, CardRun.UTF_8);
+
+			}
+
+			return new Card(CardColor.values()[color], fragments);
+
+		} catch (EOFException e) {
+			throw new IOException("Run truncated.", e);
+		}
+
+	}
+
+	/**
+	 * Sorts cards by text, keeping only the first of any with the same text,
+	 * as remove_duplicates.xsl would.
+	 * 
+	 * @param cards the cards to sort, in the order they were read.
+	 * @return the number of cards remaining at the start of the list; any
+	 *         after that are to be ignored.
+	 */
+	static int sort(List<Card> cards) {
+
+		// A stable sort, so the first of any duplicates stays first.
+		Collections.sort(cards, CardRun.CARD_ORDER);
+
+		int total = 0;
+		for (int i = 0; i < cards.size(); i++) {
+			if (total == 0 || CardRun.CARD_ORDER.compare(cards.get(total - 1), cards.get(i)) != 0) {
+				cards.set(total++, cards.get(i));
+			}
+		}
+		return total;
+
+	}
+
+	/**
+	 * @param out a run.
+	 * @param card the card to add to the run.
+	 * @throws IOException when there's a problem writing the card.
+	 */
+	static void write(DataOutputStream out, Card card) throws IOException {
+
+		out.write(card.getColor().ordinal());
+		out.writeInt(card.getBlanks() + 1);
+		for (int i = 0; i <= card.getBlanks(); i++) {
+
+			byte[] bytes = card.getFragment(i).getBytes(CardRun.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+
+		}
+
+	}
+
+}
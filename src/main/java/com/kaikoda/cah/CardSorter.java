@@ -0,0 +1,528 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+import javax.xml.stream.XMLStreamException;
+
+import com.kaikoda.cah.Card.CardColor;
+import com.kaikoda.cah.DeckSnapshot.Suit;
+
+/**
+ * Sorts the cards in each suit alphabetically, by the rules of their
+ * language, eg. en-gb or nl-nl.
+ * 
+ * Cards are compared by collation key, which is worked out once per card and
+ * kept until the next sort, so sorting the same cards again after a few have
+ * been added, removed or changed only works out keys for the cards that are
+ * new. Suits of PARALLEL_THRESHOLD cards or more are sorted on several
+ * threads at once. Card data too large to hold in memory can be sorted from
+ * file, as by DeckMerger: runs of limited size are sorted and spilled to
+ * temporary files, then merged.
+ * 
+ * Cards with the same collation key are ordered by the text printed on them,
+ * then by the order they were in. Not thread-safe.
+ * 
+ * @author Sheila Thomson
+ */
+public class CardSorter {
+
+	/**
+	 * A card and its collation key.
+	 */
+	private static class Entry {
+
+		private final Card card;
+
+		private final CollationKey key;
+
+		private Entry(CollationKey key, Card card) {
+			this.key = key;
+			this.card = card;
+		}
+
+	}
+
+	/**
+	 * The card read most recently from a run, ready for merging.
+	 */
+	private static class RunReader {
+
+		private final CardRun.Reader reader;
+
+		private Entry current;
+
+		private RunReader(CardRun.Reader reader) {
+			this.reader = reader;
+		}
+
+	}
+
+	/**
+	 * The default maximum number of cards held in memory before spilling a
+	 * run, when sorting from file.
+	 */
+	public static final int DEFAULT_RUN_SIZE = 65536;
+
+	/**
+	 * The fewest cards in a suit for it to be sorted on several threads.
+	 */
+	public static final int PARALLEL_THRESHOLD = 8192;
+
+	private static final Comparator<Entry> ENTRY_ORDER = new Comparator<Entry>() {
+
+		public int compare(Entry a, Entry b) {
+
+			int result = a.key.compareTo(b.key);
+			if (result == 0) {
+				result = a.card.toString().compareTo(b.card.toString());
+			}
+			return result;
+
+		}
+
+	};
+
+	private static final Comparator<RunReader> READER_ORDER = new Comparator<RunReader>() {
+
+		public int compare(RunReader a, RunReader b) {
+
+			int result = CardSorter.ENTRY_ORDER.compare(a.current, b.current);
+			if (result == 0) {
+				result = (a.reader.getSequence() < b.reader.getSequence()) ? -1 : ((a.reader.getSequence() == b.reader.getSequence()) ? 0 : 1);
+			}
+			return result;
+
+		}
+
+	};
+
+	/**
+	 * The language to sort by, or null to sort by the language of the cards.
+	 */
+	private final Locale language;
+
+	private final int maxRunSize;
+
+	private final File tempDirectory;
+
+	private Collator collator;
+
+	/**
+	 * The language of the collator.
+	 */
+	private Locale collatorLanguage;
+
+	/**
+	 * The collation key of each card sorted most recently.
+	 */
+	private HashMap<Card, CollationKey> keys;
+
+	private long keysComputed;
+
+	private int totalRuns;
+
+	/**
+	 * Default constructor. Sorts by the language of the cards.
+	 */
+	public CardSorter() {
+		this(null);
+	}
+
+	/**
+	 * @param language the language to sort by, or null to sort by the
+	 *        language of the cards.
+	 */
+	public CardSorter(Locale language) {
+		this(language, CardSorter.DEFAULT_RUN_SIZE, null);
+	}
+
+	/**
+	 * @param language the language to sort by, or null to sort by the
+	 *        language of the cards.
+	 * @param maxRunSize the most cards to hold in memory before spilling a
+	 *        run, when sorting from file.
+	 * @param tempDirectory where to spill runs, or null for the system default.
+	 */
+	public CardSorter(Locale language, int maxRunSize, File tempDirectory) {
+
+		if (maxRunSize < 1) {
+			throw new IllegalArgumentException("Run size must be at least 1.");
+		}
+
+		this.language = language;
+		this.maxRunSize = maxRunSize;
+		this.tempDirectory = tempDirectory;
+		this.keys = new HashMap<Card, CollationKey>();
+
+	}
+
+	/**
+	 * Sorts entries, on several threads if there are enough of them.
+	 */
+	private static List<Card> sort(Entry[] entries) {
+
+		if (entries.length >= PARALLEL_THRESHOLD) {
+			Arrays.parallelSort(entries, CardSorter.ENTRY_ORDER);
+		} else {
+			Arrays.sort(entries, CardSorter.ENTRY_ORDER);
+		}
+
+		ArrayList<Card> result = new ArrayList<Card>(entries.length);
+		for (Entry entry : entries) {
+			result.add(entry.card);
+		}
+		return result;
+
+	}
+
+	private static Locale toLocale(String language) {
+		return (language == null || language.equals("")) ? null : Locale.forLanguageTag(language);
+	}
+
+	/**
+	 * @param card a card.
+	 * @param language the language of the card, or null if not known.
+	 * @return the card's collation key.
+	 */
+	public CollationKey getKey(Card card, Locale language) {
+
+		this.setLanguage(language);
+
+		CollationKey key = this.keys.get(card);
+		if (key == null) {
+			key = this.newKey(card);
+			this.keys.put(card, key);
+		}
+		return key;
+
+	}
+
+	/**
+	 * @return the total number of collation keys worked out so far.
+	 */
+	public long getKeysComputed() {
+		return this.keysComputed;
+	}
+
+	/**
+	 * @return the number of runs spilled by the most recent sort from file.
+	 */
+	public int getTotalRuns() {
+		return this.totalRuns;
+	}
+
+	/**
+	 * Sorts the cards in each suit of a snapshot. Decks and suits stay in the
+	 * same order.
+	 * 
+	 * @param deck the cards to sort.
+	 * @return a new snapshot, with the cards sorted.
+	 */
+	public DeckSnapshot sort(DeckSnapshot deck) {
+
+		if (deck == null) {
+			throw new IllegalArgumentException("Data required.");
+		}
+
+		this.setLanguage(CardSorter.toLocale(deck.getLanguage()));
+
+		// Keep only the keys of the cards being sorted.
+		HashMap<Card, CollationKey> keys = new HashMap<Card, CollationKey>();
+
+		ArrayList<List<Suit>> decks = new ArrayList<List<Suit>>(deck.getTotalDecks());
+		for (int i = 0; i < deck.getTotalDecks(); i++) {
+
+			ArrayList<Suit> suits = new ArrayList<Suit>();
+			for (Suit suit : deck.getSuits(i)) {
+
+				List<Card> cards = suit.getCards();
+				Entry[] entries = new Entry[cards.size()];
+				for (int j = 0; j < entries.length; j++) {
+
+					Card card = cards.get(j);
+					CollationKey key = keys.get(card);
+					if (key == null) {
+						key = this.keys.get(card);
+						if (key == null) {
+							key = this.newKey(card);
+						}
+						keys.put(card, key);
+					}
+					entries[j] = new Entry(key, card);
+
+				}
+
+				suits.add(new Suit(suit.getColor(), CardSorter.sort(entries)));
+
+			}
+			decks.add(suits);
+
+		}
+
+		this.keys = keys;
+
+		return new DeckSnapshot(deck.getLanguage(), deck.getLicenceHref(), deck.getLicence(), decks);
+
+	}
+
+	/**
+	 * Sorts card data too large to hold in memory. As with DeckMerger, blanks
+	 * are standardised as they're read and every deck is written as one;
+	 * unlike DeckMerger, duplicates are kept. The collation keys aren't kept.
+	 * 
+	 * @param data the card data file.
+	 * @param out where to write the sorted card data.
+	 * @throws IOException when there's a problem reading the card data or
+	 *         spilling a run.
+	 * @throws XMLStreamException when there's a problem parsing or writing the
+	 *         card data.
+	 */
+	public void sort(File data, OutputStream out) throws IOException, XMLStreamException {
+
+		EnumMap<CardColor, ArrayList<Card>> buffers = new EnumMap<CardColor, ArrayList<Card>>(CardColor.class);
+		EnumMap<CardColor, List<File>> runs = new EnumMap<CardColor, List<File>>(CardColor.class);
+		this.totalRuns = 0;
+
+		CardReader reader = new CardReader(data);
+		try {
+
+			this.setLanguage(CardSorter.toLocale(reader.getLanguage()));
+
+			int bufferedCards = 0;
+			Card card = reader.next();
+			while (card != null) {
+
+				ArrayList<Card> buffer = buffers.get(card.getColor());
+				if (buffer == null) {
+					buffer = new ArrayList<Card>();
+					buffers.put(card.getColor(), buffer);
+				}
+				buffer.add(card);
+
+				if (++bufferedCards >= this.maxRunSize) {
+					this.spill(buffers, runs);
+					bufferedCards = 0;
+				}
+
+				card = reader.next();
+
+			}
+
+			CardWriter writer = new CardWriter(out, reader.getLanguage(), reader.getLicenceHref(), reader.getLicence());
+			for (CardColor color : reader.getColors()) {
+
+				writer.startSuit(color);
+
+				ArrayList<Card> buffer = buffers.get(color);
+				List<File> suitRuns = runs.get(color);
+				if (suitRuns == null) {
+
+					// Everything fits in memory.
+					if (buffer != null) {
+						for (Card sorted : this.sort(buffer)) {
+							writer.write(sorted);
+						}
+					}
+
+				} else {
+
+					if (buffer != null && !buffer.isEmpty()) {
+						suitRuns.add(this.spill(buffer));
+					}
+					this.merge(suitRuns, writer);
+
+				}
+
+			}
+			writer.close();
+
+		} finally {
+
+			reader.close();
+
+			for (List<File> suitRuns : runs.values()) {
+				for (File run : suitRuns) {
+					run.delete();
+				}
+			}
+
+		}
+
+	}
+
+	/**
+	 * Moves a run on to its next card.
+	 * 
+	 * @return false if there are no more cards.
+	 */
+	private boolean advance(RunReader run) throws IOException {
+
+		Card card = run.reader.current();
+		if (card == null) {
+			run.current = null;
+			return false;
+		}
+
+		run.current = new Entry(this.newKey(card), card);
+		run.reader.advance();
+		return true;
+
+	}
+
+	/**
+	 * Merges the runs of a single suit.
+	 */
+	private void merge(List<File> runs, CardWriter writer) throws IOException, XMLStreamException {
+
+		PriorityQueue<RunReader> heap = new PriorityQueue<RunReader>(runs.size(), CardSorter.READER_ORDER);
+		try {
+
+			for (int i = 0; i < runs.size(); i++) {
+
+				RunReader run = new RunReader(new CardRun.Reader(runs.get(i), i));
+				if (this.advance(run)) {
+					heap.add(run);
+				} else {
+					run.reader.close();
+				}
+
+			}
+
+			while (!heap.isEmpty()) {
+
+				RunReader run = heap.poll();
+				writer.write(run.current.card);
+
+				if (this.advance(run)) {
+					heap.add(run);
+				} else {
+					run.reader.close();
+				}
+
+			}
+
+		} finally {
+			for (RunReader run : heap) {
+				run.reader.close();
+			}
+		}
+
+	}
+
+	private CollationKey newKey(Card card) {
+		this.keysComputed++;
+		return this.collator.getCollationKey(card.getText());
+	}
+
+	/**
+	 * Switches to the collator for a language, if not already using it,
+	 * forgetting any keys worked out by another.
+	 * 
+	 * @param language the language of the cards, or null if not known.
+	 */
+	private void setLanguage(Locale language) {
+
+		if (this.language != null) {
+			language = this.language;
+		} else if (language == null) {
+			language = Locale.ROOT;
+		}
+
+		if (!language.equals(this.collatorLanguage)) {
+			this.collator = Collator.getInstance(language);
+			this.collatorLanguage = language;
+			this.keys = new HashMap<Card, CollationKey>();
+		}
+
+	}
+
+	/**
+	 * Sorts cards held in memory, without keeping their keys.
+	 */
+	private List<Card> sort(List<Card> cards) {
+
+		Entry[] entries = new Entry[cards.size()];
+		for (int i = 0; i < entries.length; i++) {
+			entries[i] = new Entry(this.newKey(cards.get(i)), cards.get(i));
+		}
+		return CardSorter.sort(entries);
+
+	}
+
+	/**
+	 * Sorts the cards held in memory and writes them out as a run per suit.
+	 */
+	private void spill(EnumMap<CardColor, ArrayList<Card>> buffers, EnumMap<CardColor, List<File>> runs) throws IOException {
+
+		for (CardColor color : buffers.keySet()) {
+
+			ArrayList<Card> buffer = buffers.get(color);
+			if (buffer.isEmpty()) {
+				continue;
+			}
+
+			List<File> suitRuns = runs.get(color);
+			if (suitRuns == null) {
+				suitRuns = new ArrayList<File>();
+				runs.put(color, suitRuns);
+			}
+			suitRuns.add(this.spill(buffer));
+
+		}
+
+	}
+
+	/**
+	 * Sorts the cards of a single suit and writes them out as a run.
+	 * 
+	 * @return the run.
+	 */
+	private File spill(ArrayList<Card> buffer) throws IOException {
+
+		File file = File.createTempFile("cah-run", ".tmp", this.tempDirectory);
+		this.totalRuns++;
+
+		CardRun.Writer writer = new CardRun.Writer(file);
+		try {
+			for (Card card : this.sort(buffer)) {
+				writer.write(card);
+			}
+		} finally {
+			writer.close();
+		}
+
+		buffer.clear();
+		return file;
+
+	}
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.kaikoda.cah.Card.CardColor;
+
+/**
+ * Writes card data one card at a time, without building the whole document
+ * in memory. All the cards are written to a single deck.
+ * 
+ * @author Sheila Thomson
+ */
+public class CardWriter implements Closeable {
+
+	private final XMLStreamWriter writer;
+
+	/**
+	 * Whether a suit has been started and not yet ended.
+	 */
+	private boolean isInSuit;
+
+	/**
+	 * @param out where to write the card data. Remains open once the writer
+	 *        is closed.
+	 * @param language the language of the card data, eg. en-gb, or null if not
+	 *        known.
+	 * @param licenceHref a link to the licence, or null.
+	 * @param licence the text of the licence, or null if there isn't one.
+	 * @throws XMLStreamException when it's not possible to start writing.
+	 */
+	public CardWriter(OutputStream out, String language, String licenceHref, String licence) throws XMLStreamException {
+
+		if (out == null) {
+			throw new IllegalArgumentException("Output required.");
+		}
+
+		this.writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+
+		this.writer.writeStartDocument("UTF-8", "1.0");
+		this.writer.writeCharacters("\n");
+		this.writer.writeStartElement("game");
+		if (language != null && !language.equals("")) {
+			this.writer.writeAttribute(XMLConstants.XML_NS_PREFIX, XMLConstants.XML_NS_URI, "lang", language);
+		}
+
+		if (licence != null) {
+
+			this.writer.writeCharacters("\n\t");
+			this.writer.writeStartElement("licence");
+			if (licenceHref != null) {
+				this.writer.writeAttribute("href", licenceHref);
+			}
+			this.writer.writeCharacters(licence);
+			this.writer.writeEndElement();
+
+		}
+
+		this.writer.writeCharacters("\n\t");
+		this.writer.writeStartElement("deck");
+
+	}
+
+	/**
+	 * Ends the document.
+	 * 
+	 * @throws IOException when it's not possible to complete the document.
+	 */
+	public void close() throws IOException {
+
+		try {
+
+			this.endSuit();
+
+			this.writer.writeCharacters("\n\t");
+			this.writer.writeEndElement();
+			this.writer.writeCharacters("\n");
+			this.writer.writeEndElement();
+			this.writer.writeEndDocument();
+			this.writer.close();
+
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+
+	}
+
+	/**
+	 * Ends the current suit, if any, and starts another.
+	 * 
+	 * @param color the color of the new suit.
+	 * @throws XMLStreamException when it's not possible to write the suit.
+	 */
+	public void startSuit(CardColor color) throws XMLStreamException {
+
+		this.endSuit();
+
+		this.writer.writeCharacters("\n\t\t");
+		this.writer.writeStartElement("suit");
+		this.writer.writeAttribute("color", color.getValue());
+		this.isInSuit = true;
+
+	}
+
+	/**
+	 * Adds a card to the current suit.
+	 * 
+	 * @param card the card to write.
+	 * @throws XMLStreamException when it's not possible to write the card.
+	 */
+	public void write(Card card) throws XMLStreamException {
+
+		if (!this.isInSuit) {
+			throw new IllegalStateException("No suit started.");
+		}
+
+		this.writer.writeCharacters("\n\t\t\t");
+		this.writer.writeStartElement("card");
+		for (int i = 0; i <= card.getBlanks(); i++) {
+
+			if (i > 0) {
+				this.writer.writeEmptyElement("blank");
+			}
+			this.writer.writeCharacters(card.getFragment(i));
+
+		}
+		this.writer.writeEndElement();
+
+	}
+
+	private void endSuit() throws XMLStreamException {
+
+		if (this.isInSuit) {
+			this.writer.writeCharacters("\n\t\t");
+			this.writer.writeEndElement();
+			this.isInSuit = false;
+		}
+
+	}
+
+}
@@ -0,0 +1,343 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import com.kaikoda.cah.Card.CardColor;
+
+/**
+ * Deals cards from a deck, for playing a game.
+ * 
+ * Each card is identified by a number, starting from zero within its suit, so
+ * that dealing only ever moves numbers between piles and hands; nothing is
+ * allocated per deal. When a draw pile runs out, its discard pile is shuffled
+ * and becomes the new draw pile.
+ * 
+ * The cards themselves are never modified and are shared by every Dealer
+ * created from another, but a Dealer is not thread-safe: use one per table.
+ * 
+ * @author Sheila Thomson
+ */
+public class Dealer {
+
+	private final Card[] blackCards;
+
+	private final CardPile blackDiscardPile;
+
+	private final CardPile blackDrawPile;
+
+	/**
+	 * Whether each black card is in play: drawn and not yet discarded.
+	 */
+	private final boolean[] blackInPlay;
+
+	/**
+	 * The number of extra cards to draw for each black card.
+	 */
+	private final int[] draws;
+
+	/**
+	 * The number of white cards to play in answer to each black card.
+	 */
+	private final int[] picks;
+
+	private final SplittableRandom random;
+
+	private final Card[] whiteCards;
+
+	private final CardPile whiteDiscardPile;
+
+	private final CardPile whiteDrawPile;
+
+	/**
+	 * Whether each white card is in play: drawn and not yet discarded.
+	 */
+	private final boolean[] whiteInPlay;
+
+	/**
+	 * @param deck the cards to deal. Blanks should already be standardised.
+	 */
+	public Dealer(Deck deck) {
+		this(deck, new SplittableRandom());
+	}
+
+	/**
+	 * @param deck the cards to deal. Blanks should already be standardised.
+	 * @param seed for a repeatable order of play.
+	 */
+	public Dealer(Deck deck, long seed) {
+		this(deck, new SplittableRandom(seed));
+	}
+
+	/**
+	 * Creates a new table for the same cards as another Dealer. The cards are
+	 * shared, but the piles are not.
+	 * 
+	 * @param dealer the Dealer to share cards with.
+	 * @param seed for a repeatable order of play.
+	 */
+	public Dealer(Dealer dealer, long seed) {
+		this(dealer.whiteCards, dealer.blackCards, dealer.picks, dealer.draws, new SplittableRandom(seed));
+	}
+
+	private Dealer(Card[] whiteCards, Card[] blackCards, int[] picks, int[] draws, SplittableRandom random) {
+
+		this.whiteCards = whiteCards;
+		this.blackCards = blackCards;
+		this.picks = picks;
+		this.draws = draws;
+		this.random = random;
+
+		this.whiteDrawPile = new CardPile(whiteCards.length);
+		this.whiteDiscardPile = new CardPile(whiteCards.length);
+		this.blackDrawPile = new CardPile(blackCards.length);
+		this.blackDiscardPile = new CardPile(blackCards.length);
+		this.whiteInPlay = new boolean[whiteCards.length];
+		this.blackInPlay = new boolean[blackCards.length];
+
+		this.reset();
+
+	}
+
+	private Dealer(Deck deck, SplittableRandom random) {
+		this(Dealer.getCards(deck, CardColor.WHITE), Dealer.getCards(deck, CardColor.BLACK), random);
+	}
+
+	private Dealer(Card[] whiteCards, Card[] blackCards, SplittableRandom random) {
+		this(whiteCards, blackCards, Dealer.getPicks(blackCards), Dealer.getDraws(blackCards), random);
+	}
+
+	private static Card[] getCards(Deck deck, CardColor color) {
+
+		if (deck == null) {
+			throw new IllegalArgumentException("Deck required.");
+		}
+
+		List<Card> cards = new ArrayList<Card>();
+		for (Card card : deck.getCards()) {
+			if (card.getColor() == color) {
+				cards.add(card);
+			}
+		}
+		return cards.toArray(new Card[cards.size()]);
+
+	}
+
+	private static int[] getDraws(Card[] blackCards) {
+
+		int[] draws = new int[blackCards.length];
+		for (int i = 0; i < blackCards.length; i++) {
+			draws[i] = blackCards[i].getDraw();
+		}
+		return draws;
+
+	}
+
+	private static int[] getPicks(Card[] blackCards) {
+
+		int[] picks = new int[blackCards.length];
+		for (int i = 0; i < blackCards.length; i++) {
+			picks[i] = blackCards[i].getPick();
+		}
+		return picks;
+
+	}
+
+	/**
+	 * Deals white cards into a hand.
+	 * 
+	 * @param hand where to put the cards dealt.
+	 * @param offset the position in the hand of the first card dealt.
+	 * @param total how many cards to deal.
+	 * @return the number of cards actually dealt, which is fewer than the
+	 *         total requested only if the white cards have run out.
+	 */
+	public int deal(int[] hand, int offset, int total) {
+
+		for (int i = 0; i < total; i++) {
+
+			int card = this.drawWhite();
+			if (card < 0) {
+				return i;
+			}
+			hand[offset + i] = card;
+
+		}
+		return total;
+
+	}
+
+	/**
+	 * @param card the ID of a black card that's finished with. It must be in
+	 *        play: drawn and not already discarded.
+	 */
+	public void discardBlack(int card) {
+		Dealer.discard(card, this.blackDiscardPile, this.blackInPlay);
+	}
+
+	/**
+	 * @param card the ID of a white card that's finished with. It must be in
+	 *        play: drawn and not already discarded.
+	 */
+	public void discardWhite(int card) {
+		Dealer.discard(card, this.whiteDiscardPile, this.whiteInPlay);
+	}
+
+	/**
+	 * @return the ID of the next black card, or -1 if there are none left in
+	 *         either the draw or the discard pile.
+	 */
+	public int drawBlack() {
+		return Dealer.draw(this.blackDrawPile, this.blackDiscardPile, this.blackInPlay, this.random);
+	}
+
+	/**
+	 * @return the ID of the next white card, or -1 if there are none left in
+	 *         either the draw or the discard pile.
+	 */
+	public int drawWhite() {
+		return Dealer.draw(this.whiteDrawPile, this.whiteDiscardPile, this.whiteInPlay, this.random);
+	}
+
+	/**
+	 * @param card the ID of a black card.
+	 * @return the card.
+	 */
+	public Card getBlackCard(int card) {
+		return this.blackCards[card];
+	}
+
+	/**
+	 * @return the number of black cards waiting to be drawn, not including
+	 *         those discarded.
+	 */
+	public int getBlackCardsRemaining() {
+		return this.blackDrawPile.size();
+	}
+
+	/**
+	 * @param blackCard the ID of a black card.
+	 * @return how many extra white cards each player should draw before
+	 *         answering.
+	 */
+	public int getDraw(int blackCard) {
+		return this.draws[blackCard];
+	}
+
+	/**
+	 * @param blackCard the ID of a black card.
+	 * @return how many white cards each player should play in answer.
+	 */
+	public int getPick(int blackCard) {
+		return this.picks[blackCard];
+	}
+
+	public int getTotalBlackCards() {
+		return this.blackCards.length;
+	}
+
+	public int getTotalWhiteCards() {
+		return this.whiteCards.length;
+	}
+
+	/**
+	 * @param card the ID of a white card.
+	 * @return the card.
+	 */
+	public Card getWhiteCard(int card) {
+		return this.whiteCards[card];
+	}
+
+	/**
+	 * @return the number of white cards waiting to be drawn, not including
+	 *         those discarded.
+	 */
+	public int getWhiteCardsRemaining() {
+		return this.whiteDrawPile.size();
+	}
+
+	/**
+	 * Gathers up every card, including any still in players' hands, and
+	 * shuffles both suits ready for a new game.
+	 */
+	public void reset() {
+
+		Dealer.reset(this.whiteDrawPile, this.whiteDiscardPile, this.whiteInPlay, this.random);
+		Dealer.reset(this.blackDrawPile, this.blackDiscardPile, this.blackInPlay, this.random);
+
+	}
+
+	private static void checkId(int card, int total) {
+		if (card < 0 || card >= total) {
+			throw new IllegalArgumentException("Unknown card: " + card);
+		}
+	}
+
+	/**
+	 * Puts a card in play on the discard pile. A card can only be discarded
+	 * once each time it's drawn, so the pile never holds more than the deck.
+	 */
+	private static void discard(int card, CardPile discardPile, boolean[] inPlay) {
+
+		Dealer.checkId(card, inPlay.length);
+		if (!inPlay[card]) {
+			throw new IllegalArgumentException("Card not in play: " + card);
+		}
+
+		inPlay[card] = false;
+		discardPile.add(card);
+
+	}
+
+	private static int draw(CardPile drawPile, CardPile discardPile, boolean[] inPlay, SplittableRandom random) {
+
+		if (drawPile.isEmpty()) {
+
+			// Re-use the discarded cards
+			discardPile.moveTo(drawPile);
+			drawPile.shuffle(random);
+
+		}
+
+		int card = drawPile.draw();
+		if (card >= 0) {
+			inPlay[card] = true;
+		}
+		return card;
+
+	}
+
+	private static void reset(CardPile drawPile, CardPile discardPile, boolean[] inPlay, SplittableRandom random) {
+
+		drawPile.clear();
+		discardPile.clear();
+		Arrays.fill(inPlay, false);
+
+		for (int card = 0; card < inPlay.length; card++) {
+			drawPile.add(card);
+		}
+
+		drawPile.shuffle(random);
+
+	}
+
+}
@@ -18,15 +18,24 @@
 package com.kaikoda.cah;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Observable;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
@@ -41,8 +50,11 @@ import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
+import org.apache.commons.io.output.CountingOutputStream;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 import org.w3c.dom.ls.DOMImplementationLS;
 import org.w3c.dom.ls.LSSerializer;
 import org.xml.sax.InputSource;
@@ -52,7 +64,7 @@ import org.xml.sax.SAXException;
  * Represents a deck of Cards Against Humanity.
  * 
  * @author Sheila Thomson
- *
+ * 
  */
 public class Deck extends Observable {
 
@@ -76,6 +88,29 @@ public class Deck extends Observable {
 	 */
 	protected static final String PATH_TO_TRANSLATION_XSL = "/xsl/translate.xsl";
 
+	/**
+	 * Any character with a special meaning in a regular expression.
+	 */
+	private static final Pattern REGEX_SPECIAL_CHARACTERS = Pattern.compile("[\\\\^$.|?*+()\\[\\]{}]");
+
+	/**
+	 * A blank represented as a sequence of underscores.
+	 */
+	private static final Pattern UNDERSCORE_BLANK = Pattern.compile("__+");
+
+	/**
+	 * Whether the data is free of underscore blanks, if known.
+	 */
+	private Boolean blanked;
+
+	/**
+	 * The first card with each color and string value, as grouped by dedupe().
+	 * Built when a card is first added, removed or updated, and kept up to
+	 * date by those methods; dropped whenever the data is replaced. Changes
+	 * made directly to the Document returned by getData() aren't seen by it.
+	 */
+	private HashMap<String, Element> cardIndex;
+
 	/**
 	 * The card data for this deck.
 	 */
@@ -83,6 +118,11 @@ public class Deck extends Observable {
 
 	private ErrorListener errorListener;
 
+	/**
+	 * The name of the file the card data was read from, if known.
+	 */
+	private final String name;
+
 	/**
 	 * Default constructor. Stores the card data.
 	 * 
@@ -96,6 +136,9 @@ public class Deck extends Observable {
 			throw new IllegalArgumentException("Data required.");
 		}
 
+		String uri = this.data.getDocumentURI();
+		this.name = (uri == null) ? null : uri.substring(uri.lastIndexOf('/') + 1);
+
 	}
 
 	/**
@@ -116,9 +159,79 @@ public class Deck extends Observable {
 
 	}
 
+	/**
+	 * Reads card data from file: either XML or a card pack, which is read
+	 * without parsing any XML. A pack is still read in full and turned into a
+	 * document, so this is no quicker to start with than XML. Use
+	 * CardPack.open() instead, and toSnapshot() if need be, to read cards from
+	 * a pack without building a document.
+	 * 
+	 * @param xml the card data file.
+	 * @return the card data.
+	 * @throws SAXException when there's a problem parsing the card data.
+	 * @throws IOException when there's a problem reading the card data.
+	 * @throws ParserConfigurationException when there's a problem configuring
+	 *         the data parser.
+	 */
 	public static Document parse(File xml) throws SAXException, IOException, ParserConfigurationException {
-		DocumentBuilder builder = Deck.newDocumentBuilder();
-		return builder.parse(xml);
+
+		InputStream in = new FileInputStream(xml);
+		try {
+			return Deck.parse(xml, in);
+		} finally {
+			in.close();
+		}
+
+	}
+
+	/**
+	 * Reads card data from file, as parse(File), but reads XML from a stream
+	 * of the file's content: eg. one that stops once a generation is
+	 * cancelled.
+	 * 
+	 * @param xml the card data file.
+	 * @param in the content of the file. It isn't closed.
+	 * @return the card data.
+	 * @throws SAXException when there's a problem parsing the card data.
+	 * @throws IOException when there's a problem reading the card data.
+	 * @throws ParserConfigurationException when there's a problem configuring
+	 *         the data parser.
+	 */
+	static Document parse(File xml, InputStream in) throws SAXException, IOException, ParserConfigurationException {
+
+		GenerationEvents.ParseEvent event = new GenerationEvents.ParseEvent();
+		event.begin();
+
+		Document document = null;
+		if (CardPack.isPack(xml)) {
+
+			CardPack pack = CardPack.open(xml);
+			try {
+				document = pack.toSnapshot().toDocument();
+				document.setDocumentURI(xml.toURI().toString());
+			} finally {
+				pack.close();
+			}
+
+		} else {
+
+			InputSource source = new InputSource(in);
+			source.setSystemId(xml.toURI().toString());
+
+			DocumentBuilder builder = Deck.newDocumentBuilder();
+			document = builder.parse(source);
+
+		}
+
+		if (event.shouldCommit()) {
+			event.deck = xml.getName();
+			event.setDeck(document);
+			event.bytes = xml.length();
+			event.commit();
+		}
+
+		return document;
+
 	}
 
 	public static Document parse(String xml) throws SAXException, IOException, ParserConfigurationException {
@@ -165,11 +278,134 @@ public class Deck extends Observable {
 
 	}
 
+	/**
+	 * @return the color of the suit a card belongs to.
+	 */
+	private static Card.CardColor getColor(Element card) {
+		return Card.CardColor.fromValue(((Element) card.getParentNode()).getAttribute("color"));
+	}
+
+	/**
+	 * @return the key under which a card is indexed: its color and string
+	 *         value, as grouped by dedupe().
+	 */
+	private static String getKey(Card.CardColor color, String text) {
+		return color.getValue() + '\n' + text;
+	}
+
+	/**
+	 * @return the card with each underscore blank replaced by a blank, as
+	 *         blank() would leave it.
+	 */
+	private static Card toBlanked(Card card) {
+
+		ArrayList<String> fragments = new ArrayList<String>();
+		for (int i = 0; i <= card.getBlanks(); i++) {
+			fragments.addAll(Arrays.asList(Deck.UNDERSCORE_BLANK.split(card.getFragment(i), -1)));
+		}
+
+		return new Card(card.getColor(), fragments.toArray(new String[fragments.size()]));
+
+	}
+
+	/**
+	 * Translates the text within a node, as translate.xsl does: each text
+	 * node that isn't just whitespace has each term replaced in turn.
+	 * 
+	 * @param cache where to look up and remember translations, or null.
+	 * @return true if any text changed.
+	 */
+	private static boolean translateText(Node node, Pattern[] terms, String[] replacements, TranslationCache cache, String from, String to, long dictionary) {
+
+		boolean isChanged = false;
+		for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+
+			short type = child.getNodeType();
+			if (type == Node.TEXT_NODE || type == Node.CDATA_SECTION_NODE) {
+
+				String text = child.getNodeValue();
+				if (text.trim().isEmpty()) {
+					continue;
+				}
+
+				String result = (cache == null) ? null : cache.get(text, from, to, dictionary);
+				if (result == null) {
+
+					result = text;
+					for (int i = 0; i < terms.length; i++) {
+						result = terms[i].matcher(result).replaceAll(replacements[i]);
+					}
+
+					if (cache != null) {
+						cache.put(text, from, to, dictionary, result);
+					}
+
+				}
+
+				if (!result.equals(text)) {
+					child.setNodeValue(result);
+					isChanged = true;
+				}
+
+			} else if (type == Node.ELEMENT_NODE) {
+
+				isChanged = Deck.translateText(child, terms, replacements, cache, from, to, dictionary) || isChanged;
+
+			}
+
+		}
+		return isChanged;
+
+	}
+
+	/**
+	 * Adds a card to the end of the suit of the same color, unless it's a
+	 * duplicate of a card already in the deck. If the deck is already blanked,
+	 * any underscore blanks on the card are replaced with <blank /> first.
+	 * 
+	 * Duplicates are found with an index that's kept up to date by this
+	 * method, removeCard() and updateCard(), so a change to a single card
+	 * doesn't call for another dedupe(). The first change made to a deck
+	 * builds the index, de-duping the data first if there are any duplicates.
+	 * 
+	 * @param card the card to add.
+	 * @return true if the card was added, false if it's a duplicate.
+	 * @throws TransformerException when it's not possible to de-dupe the data.
+	 * @throws ParserConfigurationException when it's not possible to de-dupe
+	 *         the data.
+	 * @throws SAXException when it's not possible to de-dupe the data.
+	 * @throws IOException when it's not possible to de-dupe the data.
+	 */
+	public boolean addCard(Card card) throws TransformerException, ParserConfigurationException, SAXException, IOException {
+
+		if (card == null) {
+			throw new IllegalArgumentException("Card required.");
+		}
+
+		HashMap<String, Element> index = this.getCardIndex();
+
+		card = this.toCurrentBlanks(card);
+		String key = Deck.getKey(card.getColor(), card.getText());
+		if (index.containsKey(key)) {
+			return false;
+		}
+
+		Element element = card.toElement(this.data);
+		this.appendCard(element, card.getColor());
+		index.put(key, element);
+
+		return true;
+
+	}
+
 	/**
 	 * Replace underscore blanks with <blank />
 	 */
 	public void blank() throws SAXException, IOException, ParserConfigurationException, TransformerException {
 
+		GenerationEvents.BlankEvent event = new GenerationEvents.BlankEvent();
+		event.begin();
+
 		// Check that the data contains a blank represented as a sequence of
 		// underscores.
 		if (this.isBlanked()) {
@@ -197,6 +433,11 @@ public class Deck extends Observable {
 		// De-dupe in case duplicates created as a result of blanking
 		this.dedupe();
 
+		if (event.shouldCommit()) {
+			event.setDeck(this);
+			event.commit();
+		}
+
 	}
 
 	/**
@@ -209,6 +450,9 @@ public class Deck extends Observable {
 	 */
 	public void dedupe() throws TransformerException, ParserConfigurationException, SAXException, IOException {
 
+		GenerationEvents.DedupeEvent event = new GenerationEvents.DedupeEvent();
+		event.begin();
+
 		// Retrieve the XSLT stylesheet that will execute the merge
 		Source xsl = Deck.getXsl(Deck.PATH_TO_DEDUPING_XSL);
 
@@ -223,8 +467,70 @@ public class Deck extends Observable {
 		// Replace the stored data with the newly de-duped version
 		this.setData(document);
 
+		if (event.shouldCommit()) {
+			event.setDeck(this);
+			event.commit();
+		}
+
+	}
+
+	/**
+	 * Compares this deck with a newer version of it.
+	 * 
+	 * @param newer the newer version.
+	 * @return the cards added, removed and moved in the newer version.
+	 */
+	public DeckDiff diff(Deck newer) {
+
+		if (newer == null) {
+			throw new IllegalArgumentException("Deck required.");
+		}
+
+		return new DeckDiff(this.getCards(), newer.getCards());
+
 	}
 
+	/**
+	 * @return every card in the deck, in document order.
+	 */
+	public List<Card> getCards() {
+
+		ArrayList<Card> cards = new ArrayList<Card>();
+
+		Element game = this.data.getDocumentElement();
+		for (Node deck = game.getFirstChild(); deck != null; deck = deck.getNextSibling()) {
+
+			if (deck.getNodeType() != Node.ELEMENT_NODE || !deck.getNodeName().equals("deck")) {
+				continue;
+			}
+
+			for (Node suit = deck.getFirstChild(); suit != null; suit = suit.getNextSibling()) {
+
+				if (suit.getNodeType() != Node.ELEMENT_NODE || !suit.getNodeName().equals("suit")) {
+					continue;
+				}
+
+				Card.CardColor color = Card.CardColor.fromValue(((Element) suit).getAttribute("color"));
+
+				for (Node card = suit.getFirstChild(); card != null; card = card.getNextSibling()) {
+					if (card.getNodeType() == Node.ELEMENT_NODE && card.getNodeName().equals("card")) {
+						cards.add(Card.fromElement((Element) card, color));
+					}
+				}
+
+			}
+
+		}
+
+		return cards;
+
+	}
+
+	/**
+	 * @return the card data. Changes made to it directly aren't seen by
+	 *         isBlanked() or the index used by addCard(), removeCard() and
+	 *         updateCard(); use a new Deck for data edited this way.
+	 */
 	public Document getData() {
 		return this.data;
 	}
@@ -249,6 +555,14 @@ public class Deck extends Observable {
 
 	}
 
+	/**
+	 * @return the name of the file the card data was read from, or null if
+	 *         not known.
+	 */
+	public String getName() {
+		return this.name;
+	}
+
 	public boolean hasErrorListener() {
 		if (this.errorListener != null) {
 			return true;
@@ -259,22 +573,98 @@ public class Deck extends Observable {
 	/**
 	 * Check whether the data contains any unconverted underscore blanks.
 	 * 
+	 * The answer is remembered, and kept up to date by every method of Deck
+	 * that changes the data. It reflects only changes made through Deck:
+	 * edits made directly to the document returned by getData() aren't seen.
+	 * 
 	 * @return true if the data contains any blanks represented by multiple
 	 *         underscores instead of a single <blank /> element. False if all
 	 *         blanks are represented by a <blank /> element.
 	 */
 	public boolean isBlanked() {
 
+		// Known without re-serialising if nothing has changed since last
+		// checked, other than cards added, removed or updated.
+		if (this.blanked != null) {
+			return this.blanked.booleanValue();
+		}
+
 		String xml = this.toString();
 
-		Pattern regexp = Pattern.compile("__+");
-		Matcher matcher = regexp.matcher(xml);
+		Matcher matcher = Deck.UNDERSCORE_BLANK.matcher(xml);
 
-		if (matcher.find()) {
+		this.blanked = Boolean.valueOf(!matcher.find());
+		return this.blanked.booleanValue();
+	}
+
+	/**
+	 * Removes a card, or the card it's a duplicate of, from the deck.
+	 * 
+	 * @param card the card to remove.
+	 * @return true if the card was removed, false if it isn't in the deck.
+	 * @throws TransformerException when it's not possible to de-dupe the data.
+	 * @throws ParserConfigurationException when it's not possible to de-dupe
+	 *         the data.
+	 * @throws SAXException when it's not possible to de-dupe the data.
+	 * @throws IOException when it's not possible to de-dupe the data.
+	 * @see #addCard(Card)
+	 */
+	public boolean removeCard(Card card) throws TransformerException, ParserConfigurationException, SAXException, IOException {
+
+		if (card == null) {
+			throw new IllegalArgumentException("Card required.");
+		}
+
+		HashMap<String, Element> index = this.getCardIndex();
+
+		card = this.toCurrentBlanks(card);
+		Element element = index.remove(Deck.getKey(card.getColor(), card.getText()));
+		if (element == null) {
 			return false;
 		}
 
+		this.removeCard(element);
+
 		return true;
+
+	}
+
+	/**
+	 * Reports on what translating into the target language with the
+	 * dictionary specified would change, without changing anything.
+	 * 
+	 * @param targetLanguage the language to translate into.
+	 * @param dictionary the dictionary to translate with.
+	 * @return which entries match which cards.
+	 * @throws SAXException when there's a problem parsing the dictionary.
+	 * @throws IOException when there's a problem reading the dictionary.
+	 * @throws ParserConfigurationException when there's a problem configuring
+	 *         the parser.
+	 */
+	public TranslationReport reportTranslation(Locale targetLanguage, File dictionary) throws SAXException, IOException, ParserConfigurationException {
+
+		// Check that a target language has been specified.
+		if (targetLanguage == null) {
+			throw new IllegalArgumentException("New language not specified.");
+		}
+
+		// Check that the language of the data is known
+		this.getLocale();
+
+		// Check that a dictionary has been specified
+		if (dictionary == null) {
+			throw new IllegalArgumentException("Dictionary required.");
+		}
+
+		// Check that the dictionary exists
+		if (!dictionary.exists()) {
+			throw new IllegalArgumentException("Dictionary not found.");
+		}
+
+		String sourceLanguage = this.data.getDocumentElement().getAttribute("xml:lang");
+
+		return new TranslationReport(this.getCards(), Dictionary.load(dictionary), sourceLanguage, targetLanguage.toLanguageTag());
+
 	}
 
 	/**
@@ -287,11 +677,52 @@ public class Deck extends Observable {
 		this.errorListener = listener;
 	}
 
+	/**
+	 * Takes an immutable copy of the current data, which may be read by any
+	 * number of threads at once, even while this Deck is changed.
+	 * 
+	 * @return a snapshot of the current data.
+	 */
+	public DeckSnapshot snapshot() {
+		return DeckSnapshot.fromDocument(this.data);
+	}
+
+	/**
+	 * Sorts the cards in each suit alphabetically, by the rules of the deck's
+	 * language.
+	 * 
+	 * @throws ParserConfigurationException when it's not possible to create a
+	 *         new Document.
+	 */
+	public void sort() throws ParserConfigurationException {
+		this.sort(new CardSorter());
+	}
+
+	/**
+	 * Sorts the cards in each suit alphabetically. Sorting again with the
+	 * same sorter, after changes, re-uses the collation keys of any cards
+	 * that haven't changed.
+	 * 
+	 * @param sorter the sorter to use.
+	 * @throws ParserConfigurationException when it's not possible to create a
+	 *         new Document.
+	 */
+	public void sort(CardSorter sorter) throws ParserConfigurationException {
+
+		Document sorted = sorter.sort(this.snapshot()).toDocument();
+		sorted.setDocumentURI(this.data.getDocumentURI());
+		this.setData(sorted);
+
+	}
+
 	/**
 	 * @return the current data as an HTML5 String.
 	 */
 	public String toHtml() throws SAXException, IOException, ParserConfigurationException, TransformerException {
 
+		GenerationEvents.RenderEvent event = new GenerationEvents.RenderEvent();
+		event.begin();
+
 		// Create a container to hold the result of the transformation
 		StringWriter writer = new StringWriter();
 		StreamResult result = new StreamResult(writer);
@@ -301,8 +732,117 @@ public class Deck extends Observable {
 		// Transform the current data into an XML string.
 		this.transform(new DOMSource(this.data), xsl, result, null);
 
+		String html = writer.toString();
+
+		if (event.shouldCommit()) {
+			event.setDeck(this);
+			event.product = "html";
+			event.bytes = html.getBytes("UTF-8").length;
+			event.commit();
+		}
+
 		// Return the XML String
-		return writer.toString();
+		return html;
+
+	}
+
+	/**
+	 * Writes the current data as HTML5, without using XSLT.
+	 * 
+	 * The result is identical to that of toHtml(), but is streamed straight to
+	 * the output as UTF-8 and takes a fraction of the time to produce.
+	 * 
+	 * @param out where to write the HTML. It is flushed, but not closed.
+	 * @throws IOException when it's not possible to write to the output
+	 *         stream.
+	 */
+	public void toHtml(OutputStream out) throws IOException {
+
+		GenerationEvents.RenderEvent event = new GenerationEvents.RenderEvent();
+		event.begin();
+
+		HtmlRenderer renderer = new HtmlRenderer();
+		renderer.render(this.data, out);
+
+		if (event.shouldCommit()) {
+			event.setDeck(this);
+			event.product = "html";
+			event.bytes = renderer.getBytesWritten();
+			event.commit();
+		}
+
+	}
+
+	/**
+	 * Writes the current data as HTML5, rendering the pages of each suit at
+	 * the same time. The result is identical to that of toHtml().
+	 * 
+	 * @param out where to write the HTML. It is flushed, but not closed.
+	 * @param pool where to render the pages.
+	 * @throws IOException when it's not possible to write to the output
+	 *         stream.
+	 */
+	public void toHtml(OutputStream out, ForkJoinPool pool) throws IOException {
+
+		GenerationEvents.RenderEvent event = new GenerationEvents.RenderEvent();
+		event.begin();
+
+		HtmlRenderer renderer = new HtmlRenderer();
+		renderer.render(this.snapshot(), out, pool);
+
+		if (event.shouldCommit()) {
+			event.setDeck(this);
+			event.product = "html";
+			event.bytes = renderer.getBytesWritten();
+			event.commit();
+		}
+
+	}
+
+	/**
+	 * Writes the current data as HTML5, by way of html5.xsl. The result is
+	 * identical to that of toHtml(), but is streamed straight to the output
+	 * as UTF-8 rather than built in memory first.
+	 * 
+	 * @param out where to write the HTML. It is flushed, but not closed.
+	 * @throws TransformerException when it's not possible to complete the
+	 *         transformation.
+	 * @throws IOException when it's not possible to write to the output
+	 *         stream.
+	 */
+	void writeHtml(OutputStream out) throws SAXException, IOException, ParserConfigurationException, TransformerException {
+
+		GenerationEvents.RenderEvent event = new GenerationEvents.RenderEvent();
+		event.begin();
+
+		CountingOutputStream counter = new CountingOutputStream(out);
+		this.transform(new DOMSource(this.data), Deck.getXsl(Deck.PATH_TO_HTML_XSL), new StreamResult(counter), null);
+		counter.flush();
+
+		if (event.shouldCommit()) {
+			event.setDeck(this);
+			event.product = "html";
+			event.bytes = counter.getByteCount();
+			event.commit();
+		}
+
+	}
+
+	/**
+	 * Writes the current data as XML. The result is identical to that of
+	 * toString(), but is streamed straight to the output as UTF-8 rather than
+	 * built in memory first.
+	 * 
+	 * @param out where to write the XML. It is flushed, but not closed.
+	 * @throws TransformerException when it's not possible to complete the
+	 *         transformation.
+	 * @throws IOException when it's not possible to write to the output
+	 *         stream.
+	 */
+	void writeXml(OutputStream out) throws SAXException, IOException, ParserConfigurationException, TransformerException {
+
+		this.transform(new DOMSource(this.data), null, new StreamResult(out), null);
+		out.flush();
 
 	}
 
@@ -350,6 +890,9 @@ public class Deck extends Observable {
 			throw new IllegalArgumentException("New language not specified.");
 		}
 
+		GenerationEvents.TranslateEvent event = new GenerationEvents.TranslateEvent();
+		event.begin();
+
 		// Check that the data is not already in the target language
 		if (targetLanguage.equals(this.getLocale())) {
 
@@ -390,6 +933,233 @@ public class Deck extends Observable {
 		// De-dupe in case duplicates created as a result of translation
 		this.dedupe();
 
+		if (event.shouldCommit()) {
+			event.setDeck(this);
+			event.commit();
+		}
+
+	}
+
+	/**
+	 * Translate from original language into target language, rewriting only
+	 * the cards that contain a term from the dictionary.
+	 * 
+	 * The terms in the source language are first matched against every card
+	 * in a single pass. The cards that contain none are left as they are;
+	 * those that do have each of their text nodes translated as by
+	 * translate.xsl, one dictionary entry at a time. Only the cards that
+	 * change are then checked for duplicates, as long as the rest of the data
+	 * is already free of them (as it is after a translation or dedupe());
+	 * otherwise all the cards are de-duped, as by translate(Locale, File).
+	 * 
+	 * Unlike translate(Locale, File), the current data is changed in place.
+	 * 
+	 * @param targetLanguage the language to translate into.
+	 * @param dictionary the dictionary to translate with.
+	 * @throws SAXException when it's not possible to complete a full dedupe.
+	 * @throws IOException when it's not possible to complete a full dedupe.
+	 * @throws TransformerException when it's not possible to complete a full
+	 *         dedupe.
+	 * @throws ParserConfigurationException when it's not possible to complete
+	 *         a full dedupe.
+	 */
+	public void translateSelectively(Locale targetLanguage, Dictionary dictionary) throws SAXException, IOException, TransformerException, ParserConfigurationException {
+		this.translateSelectively(targetLanguage, dictionary, null);
+	}
+
+	/**
+	 * Translates as translateSelectively(Locale, Dictionary), looking up the
+	 * translation of each run of text in a cache first. A cache shared between
+	 * decks means that text common to them is only translated once.
+	 * 
+	 * @param targetLanguage the language to translate into.
+	 * @param dictionary the dictionary to translate with.
+	 * @param cache where to look up and remember translations, or null.
+	 * @throws SAXException when it's not possible to complete a full dedupe.
+	 * @throws IOException when it's not possible to complete a full dedupe.
+	 * @throws TransformerException when it's not possible to complete a full
+	 *         dedupe.
+	 * @throws ParserConfigurationException when it's not possible to complete
+	 *         a full dedupe.
+	 */
+	public void translateSelectively(Locale targetLanguage, Dictionary dictionary, TranslationCache cache) throws SAXException, IOException, TransformerException, ParserConfigurationException {
+
+		// Check that a target language has been specified.
+		if (targetLanguage == null) {
+			throw new IllegalArgumentException("New language not specified.");
+		}
+
+		GenerationEvents.TranslateEvent event = new GenerationEvents.TranslateEvent();
+		event.begin();
+
+		// Check that the data is not already in the target language
+		if (targetLanguage.equals(this.getLocale())) {
+
+			// No translation required.
+			return;
+
+		}
+
+		// Check that a dictionary has been specified
+		if (dictionary == null) {
+			throw new IllegalArgumentException("Dictionary required.");
+		}
+
+		Element game = this.data.getDocumentElement();
+		String from = Dictionary.toLanguageKey(game.getAttribute("xml:lang"));
+		String to = Dictionary.toLanguageKey(targetLanguage.toLanguageTag());
+
+		// Each entry is applied as a regular expression by translate.xsl; most
+		// are plain text, so can be found without one.
+		List<Dictionary.Entry> entries = dictionary.getEntries(from, to);
+		Pattern[] terms = new Pattern[entries.size()];
+		String[] replacements = new String[entries.size()];
+		ArrayList<String> literals = new ArrayList<String>();
+		ArrayList<Pattern> expressions = new ArrayList<Pattern>();
+
+		for (int i = 0; i < entries.size(); i++) {
+
+			String term = entries.get(i).getTerm(from);
+			terms[i] = Pattern.compile(term);
+			replacements[i] = entries.get(i).getTerm(to);
+
+			if (Deck.REGEX_SPECIAL_CHARACTERS.matcher(term).find()) {
+				expressions.add(terms[i]);
+			} else {
+				literals.add(term);
+			}
+
+		}
+
+		TermMatcher matcher = new TermMatcher(literals);
+
+		// The index of the cards is kept up to date as they change, or built
+		// along the way if there isn't one yet.
+		HashMap<String, Element> index = this.cardIndex;
+		boolean isIndexed = index != null;
+		boolean isDuplicated = false;
+		if (!isIndexed) {
+			index = new HashMap<String, Element>();
+		}
+
+		// Find and translate the cards affected, noting the key each was
+		// indexed under.
+		ArrayList<Element> changed = new ArrayList<Element>();
+		ArrayList<String> keys = new ArrayList<String>();
+		NodeList cards = game.getElementsByTagName("card");
+		for (int i = 0; i < cards.getLength(); i++) {
+
+			Element card = (Element) cards.item(i);
+			String text = card.getTextContent();
+
+			boolean isAffected = matcher.matches(text);
+			for (int j = 0; j < expressions.size() && !isAffected; j++) {
+				isAffected = expressions.get(j).matcher(text).find();
+			}
+
+			String key = null;
+			if (isAffected || !isIndexed) {
+				key = Deck.getKey(Deck.getColor(card), text);
+			}
+			if (!isIndexed && index.put(key, card) != null) {
+				isDuplicated = true;
+			}
+
+			if (isAffected && Deck.translateText(card, terms, replacements, cache, from, to, dictionary.getFingerprint())) {
+				changed.add(card);
+				keys.add(key);
+			}
+
+		}
+
+		game.setAttributeNS(XMLConstants.XML_NS_URI, "xml:lang", to);
+
+		// The text of the cards has changed in place.
+		this.blanked = null;
+		this.cardIndex = index;
+
+		// De-dupe in case duplicates created as a result of translation
+		if (isDuplicated) {
+			this.dedupe();
+		} else if (!changed.isEmpty()) {
+			this.dedupe(changed, keys);
+		}
+
+		if (event.shouldCommit()) {
+			event.setDeck(this);
+			event.commit();
+		}
+
+	}
+
+	/**
+	 * Replaces a card with another, in the same place if the color is
+	 * unchanged and otherwise at the end of the suit of the new color. If the
+	 * new card is a duplicate of another card in the deck, only the first of
+	 * the two in document order is kept, as by dedupe().
+	 * 
+	 * @param card the card to replace.
+	 * @param replacement the new card.
+	 * @return true if the card was replaced, false if it isn't in the deck.
+	 * @throws TransformerException when it's not possible to de-dupe the data.
+	 * @throws ParserConfigurationException when it's not possible to de-dupe
+	 *         the data.
+	 * @throws SAXException when it's not possible to de-dupe the data.
+	 * @throws IOException when it's not possible to de-dupe the data.
+	 * @see #addCard(Card)
+	 */
+	public boolean updateCard(Card card, Card replacement) throws TransformerException, ParserConfigurationException, SAXException, IOException {
+
+		if (card == null || replacement == null) {
+			throw new IllegalArgumentException("Card required.");
+		}
+
+		HashMap<String, Element> index = this.getCardIndex();
+
+		card = this.toCurrentBlanks(card);
+		String key = Deck.getKey(card.getColor(), card.getText());
+		Element element = index.get(key);
+		if (element == null) {
+			return false;
+		}
+
+		replacement = this.toCurrentBlanks(replacement);
+		String newKey = Deck.getKey(replacement.getColor(), replacement.getText());
+		Element duplicate = index.get(newKey);
+		if (duplicate == element) {
+			duplicate = null;
+		}
+
+		// The replacement is a duplicate of an earlier card, which is kept.
+		// Which comes first depends on where the replacement would go: in
+		// place of the card, or at the end of the suit of its new color,
+		// after any duplicate there.
+		boolean isMoved = replacement.getColor() != card.getColor();
+		if (duplicate != null && (isMoved || (duplicate.compareDocumentPosition(element) & Node.DOCUMENT_POSITION_FOLLOWING) != 0)) {
+			index.remove(key);
+			this.removeCard(element);
+			return true;
+		}
+
+		Element newElement = replacement.toElement(this.data);
+		if (!isMoved) {
+			element.getParentNode().replaceChild(newElement, element);
+		} else {
+			this.removeCard(element);
+			this.appendCard(newElement, replacement.getColor());
+		}
+
+		// The replacement is a duplicate of a later card, which isn't kept.
+		if (duplicate != null) {
+			this.removeCard(duplicate);
+		}
+
+		this.checkBlanks(element);
+		index.remove(key);
+		index.put(newKey, newElement);
+
+		return true;
+
 	}
 
 	/**
@@ -438,6 +1208,211 @@ public class Deck extends Observable {
 
 	}
 
+	/**
+	 * Adds a card element to the end of the first suit of the color given,
+	 * in the first deck, adding the suit (and deck) if there isn't one yet.
+	 * The card is indented in the same way as the last card in the suit.
+	 */
+	private void appendCard(Element card, Card.CardColor color) {
+
+		Element game = this.data.getDocumentElement();
+
+		Element deck = null;
+		NodeList decks = game.getElementsByTagName("deck");
+		if (decks.getLength() > 0) {
+			deck = (Element) decks.item(0);
+		} else {
+			deck = this.data.createElement("deck");
+			game.appendChild(deck);
+		}
+
+		Element suit = null;
+		for (Node child = deck.getFirstChild(); child != null && suit == null; child = child.getNextSibling()) {
+			if (child.getNodeType() == Node.ELEMENT_NODE && child.getNodeName().equals("suit") && Card.CardColor.fromValue(((Element) child).getAttribute("color")) == color) {
+				suit = (Element) child;
+			}
+		}
+
+		if (suit == null) {
+			suit = this.data.createElement("suit");
+			suit.setAttribute("color", color.getValue());
+			deck.appendChild(suit);
+		}
+
+		Node last = suit.getLastChild();
+		while (last != null && !(last.getNodeType() == Node.ELEMENT_NODE && last.getNodeName().equals("card"))) {
+			last = last.getPreviousSibling();
+		}
+
+		if (last == null) {
+			suit.appendChild(card);
+			return;
+		}
+
+		Node next = last.getNextSibling();
+		Node indent = last.getPreviousSibling();
+		if (indent != null && indent.getNodeType() == Node.TEXT_NODE && indent.getNodeValue().trim().isEmpty()) {
+			suit.insertBefore(indent.cloneNode(false), next);
+		}
+		suit.insertBefore(card, next);
+
+	}
+
+	/**
+	 * Forgets whether the data is free of underscore blanks if a card that
+	 * had some has been removed or replaced, as it might now be.
+	 */
+	private void checkBlanks(Element card) {
+
+		if (this.blanked != null && !this.blanked.booleanValue() && Deck.UNDERSCORE_BLANK.matcher(card.getTextContent()).find()) {
+			this.blanked = null;
+		}
+
+	}
+
+	/**
+	 * Removes any duplicates of the cards that have changed, keeping the first
+	 * of each in document order. Only the changed cards are looked up, in the
+	 * index, which is brought up to date as they are. Falls back on a full
+	 * dedupe if the data isn't already in the form dedupe() leaves it in: a
+	 * single deck, with one suit of each color.
+	 * 
+	 * @param changed the cards that have changed, in document order.
+	 * @param keys the key each of the changed cards was indexed under.
+	 */
+	private void dedupe(List<Element> changed, List<String> keys) throws TransformerException, ParserConfigurationException, SAXException, IOException {
+
+		GenerationEvents.DedupeEvent event = new GenerationEvents.DedupeEvent();
+		event.begin();
+
+		if (!this.isMerged()) {
+			this.dedupe();
+			return;
+		}
+
+		HashMap<String, Element> index = this.cardIndex;
+		for (int i = 0; i < changed.size(); i++) {
+			if (index.get(keys.get(i)) == changed.get(i)) {
+				index.remove(keys.get(i));
+			}
+		}
+
+		for (Element card : changed) {
+
+			String key = Deck.getKey(Deck.getColor(card), card.getTextContent());
+			Element first = index.get(key);
+
+			if (first == null) {
+				index.put(key, card);
+			} else if ((first.compareDocumentPosition(card) & Node.DOCUMENT_POSITION_FOLLOWING) != 0) {
+				this.removeCard(card);
+			} else {
+				this.removeCard(first);
+				index.put(key, card);
+			}
+
+		}
+
+		if (event.shouldCommit()) {
+			event.setDeck(this);
+			event.commit();
+		}
+
+	}
+
+	/**
+	 * @return the index of the cards in the deck, building it first if need
+	 *         be.
+	 */
+	private HashMap<String, Element> getCardIndex() throws TransformerException, ParserConfigurationException, SAXException, IOException {
+
+		if (this.cardIndex != null) {
+			return this.cardIndex;
+		}
+
+		HashMap<String, Element> index = new HashMap<String, Element>();
+
+		NodeList suits = this.data.getDocumentElement().getElementsByTagName("suit");
+		for (int i = 0; i < suits.getLength(); i++) {
+
+			Element suit = (Element) suits.item(i);
+			Card.CardColor color = Card.CardColor.fromValue(suit.getAttribute("color"));
+
+			for (Node card = suit.getFirstChild(); card != null; card = card.getNextSibling()) {
+
+				if (card.getNodeType() != Node.ELEMENT_NODE || !card.getNodeName().equals("card")) {
+					continue;
+				}
+
+				String key = Deck.getKey(color, card.getTextContent());
+				if (index.containsKey(key)) {
+
+					// Start from data without duplicates.
+					this.dedupe();
+					return this.getCardIndex();
+
+				}
+				index.put(key, (Element) card);
+
+			}
+
+		}
+
+		this.cardIndex = index;
+		return index;
+
+	}
+
+	/**
+	 * @return true if the data is a single deck, with no more than one suit of
+	 *         each color, as dedupe() leaves it.
+	 */
+	private boolean isMerged() {
+
+		Element deck = null;
+		for (Node node = this.data.getDocumentElement().getFirstChild(); node != null; node = node.getNextSibling()) {
+			if (node.getNodeType() == Node.ELEMENT_NODE && node.getNodeName().equals("deck")) {
+				if (deck != null) {
+					return false;
+				}
+				deck = (Element) node;
+			}
+		}
+
+		if (deck == null) {
+			return false;
+		}
+
+		ArrayList<String> colors = new ArrayList<String>();
+		for (Node suit = deck.getFirstChild(); suit != null; suit = suit.getNextSibling()) {
+			if (suit.getNodeType() == Node.ELEMENT_NODE && suit.getNodeName().equals("suit")) {
+				String color = ((Element) suit).getAttribute("color");
+				if (colors.contains(color)) {
+					return false;
+				}
+				colors.add(color);
+			}
+		}
+
+		return true;
+
+	}
+
+	/**
+	 * Removes a card element, taking any indentation with it.
+	 */
+	private void removeCard(Element card) {
+
+		Node previous = card.getPreviousSibling();
+		if (previous != null && previous.getNodeType() == Node.TEXT_NODE && previous.getNodeValue().trim().isEmpty()) {
+			previous.getParentNode().removeChild(previous);
+		}
+		card.getParentNode().removeChild(card);
+
+		this.checkBlanks(card);
+
+	}
+
 	private String serialise() {
 
 		// Unable to create XML string, fall back.
@@ -452,7 +1427,22 @@ public class Deck extends Observable {
 		// If there is new data, replace the old data with it.
 		if (xml != null) {
 			this.data = xml;
+			this.blanked = null;
+			this.cardIndex = null;
+		}
+
+	}
+
+	/**
+	 * @return the card as it would be if added to the deck as it is now: with
+	 *         any underscore blanks replaced if the deck is already blanked.
+	 */
+	private Card toCurrentBlanks(Card card) {
+
+		if (Deck.UNDERSCORE_BLANK.matcher(card.getText()).find() && this.isBlanked()) {
+			return Deck.toBlanked(card);
 		}
+		return card;
 
 	}
 
@@ -0,0 +1,488 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.kaikoda.cah.Card.CardColor;
+
+/**
+ * The changes between two versions of a deck: which cards have been added,
+ * removed or moved within each suit.
+ * 
+ * Suits are compared by color, as they'd be merged by dedupe(). Each card is
+ * identified by a 64-bit fingerprint of its color and text, with runs of
+ * whitespace counted as a single space and blanks counted wherever they fall;
+ * so re-indenting the card data doesn't count as a change, but moving a blank
+ * does. A card whose text has changed is both removed and added.
+ * 
+ * Cards are matched between versions with a hash join, in time linear in the
+ * number of cards. Of the cards in both, as few as possible are reported as
+ * moved: those outside the longest run of cards kept in the same relative
+ * order.
+ * 
+ * @author Sheila Thomson
+ */
+public class DeckDiff {
+
+	/**
+	 * A card added, removed or moved.
+	 */
+	public static class Change {
+
+		private final Card card;
+
+		private final long fingerprint;
+
+		private final int newIndex;
+
+		private final int oldIndex;
+
+		/**
+		 * @param card the card.
+		 * @param fingerprint the fingerprint of the card.
+		 * @param oldIndex the position of the card in its suit before the
+		 *        change, or -1 if it's been added.
+		 * @param newIndex the position of the card in its suit after the
+		 *        change, or -1 if it's been removed.
+		 */
+		public Change(Card card, long fingerprint, int oldIndex, int newIndex) {
+			this.card = card;
+			this.fingerprint = fingerprint;
+			this.oldIndex = oldIndex;
+			this.newIndex = newIndex;
+		}
+
+		public Card getCard() {
+			return this.card;
+		}
+
+		public long getFingerprint() {
+			return this.fingerprint;
+		}
+
+		/**
+		 * @return the position of the card in its suit after the change, or -1
+		 *         if it's been removed.
+		 */
+		public int getNewIndex() {
+			return this.newIndex;
+		}
+
+		/**
+		 * @return the position of the card in its suit before the change, or
+		 *         -1 if it's been added.
+		 */
+		public int getOldIndex() {
+			return this.oldIndex;
+		}
+
+	}
+
+	private final EnumMap<CardColor, List<Change>> added;
+
+	private final EnumMap<CardColor, List<Change>> moved;
+
+	private final EnumMap<CardColor, List<Change>> removed;
+
+	/**
+	 * @param before the cards in the older version of the deck.
+	 * @param after the cards in the newer version of the deck.
+	 */
+	public DeckDiff(List<Card> before, List<Card> after) {
+
+		if (before == null || after == null) {
+			throw new IllegalArgumentException("Cards required.");
+		}
+
+		this.added = new EnumMap<CardColor, List<Change>>(CardColor.class);
+		this.moved = new EnumMap<CardColor, List<Change>>(CardColor.class);
+		this.removed = new EnumMap<CardColor, List<Change>>(CardColor.class);
+
+		for (CardColor color : CardColor.values()) {
+			this.compare(DeckDiff.getSuit(before, color), DeckDiff.getSuit(after, color), color);
+		}
+
+	}
+
+	/**
+	 * @param card a card.
+	 * @return a 64-bit hash of the color and text of the card, the same for
+	 *         any card that differs only in whitespace.
+	 */
+	public static long fingerprint(Card card) {
+
+		// FNV-1a
+		long hash = 0xcbf29ce484222325L;
+		hash = (hash ^ card.getColor().ordinal()) * 0x100000001b3L;
+
+		boolean isSpace = false;
+		boolean isStart = true;
+		for (int fragment = 0; fragment <= card.getBlanks(); fragment++) {
+
+			if (fragment > 0) {
+
+				if (isSpace) {
+					hash = (hash ^ ' ') * 0x100000001b3L;
+					isSpace = false;
+				}
+
+				// A blank, as a character that can't appear in XML text.
+				hash = (hash ^ 0) * 0x100000001b3L;
+				isStart = false;
+
+			}
+
+			String text = card.getFragment(fragment);
+			for (int i = 0; i < text.length(); i++) {
+
+				char c = text.charAt(i);
+				if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+					isSpace = !isStart;
+					continue;
+				}
+
+				if (isSpace) {
+					hash = (hash ^ ' ') * 0x100000001b3L;
+					isSpace = false;
+				}
+				hash = (hash ^ c) * 0x100000001b3L;
+				isStart = false;
+
+			}
+
+		}
+
+		return BloomFilter.mix(hash);
+
+	}
+
+	/**
+	 * @return the slot holding the fingerprint, or the empty slot where it
+	 *         belongs.
+	 */
+	private static int findSlot(long[] keys, boolean[] isUsed, long fingerprint) {
+
+		int mask = keys.length - 1;
+		int slot = (int) fingerprint & mask;
+		while (isUsed[slot] && keys[slot] != fingerprint) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+
+	}
+
+	/**
+	 * @return the positions in the sequence that make up its longest strictly
+	 *         increasing subsequence.
+	 */
+	private static boolean[] getLongestIncreasing(int[] sequence) {
+
+		// The last position of the best subsequence found of each length.
+		int[] tails = new int[sequence.length];
+		int[] previous = new int[sequence.length];
+		int length = 0;
+
+		for (int i = 0; i < sequence.length; i++) {
+
+			int low = 0;
+			int high = length;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (sequence[tails[middle]] < sequence[i]) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+
+			previous[i] = (low > 0) ? tails[low - 1] : -1;
+			tails[low] = i;
+			if (low == length) {
+				length++;
+			}
+
+		}
+
+		boolean[] result = new boolean[sequence.length];
+		for (int i = (length > 0) ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+			result[i] = true;
+		}
+		return result;
+
+	}
+
+	/**
+	 * @return the cards of one color, in order.
+	 */
+	private static List<Card> getSuit(List<Card> cards, CardColor color) {
+
+		ArrayList<Card> result = new ArrayList<Card>();
+		for (Card card : cards) {
+			if (card.getColor() == color) {
+				result.add(card);
+			}
+		}
+		return result;
+
+	}
+
+	private static String toHex(long fingerprint) {
+
+		String hex = Long.toHexString(fingerprint);
+		while (hex.length() < 16) {
+			hex = "0" + hex;
+		}
+		return hex;
+
+	}
+
+	/**
+	 * @param color a suit color.
+	 * @return the cards added to the suit, in their new order.
+	 */
+	public List<Change> getAdded(CardColor color) {
+		return this.added.get(color);
+	}
+
+	/**
+	 * @param color a suit color.
+	 * @return the cards moved within the suit, in their new order.
+	 */
+	public List<Change> getMoved(CardColor color) {
+		return this.moved.get(color);
+	}
+
+	/**
+	 * @param color a suit color.
+	 * @return the cards removed from the suit, in their old order.
+	 */
+	public List<Change> getRemoved(CardColor color) {
+		return this.removed.get(color);
+	}
+
+	/**
+	 * @return the total number of cards added, removed or moved.
+	 */
+	public int getTotalChanges() {
+
+		int total = 0;
+		for (CardColor color : CardColor.values()) {
+			total = total + this.added.get(color).size() + this.moved.get(color).size() + this.removed.get(color).size();
+		}
+		return total;
+
+	}
+
+	/**
+	 * @return true if both versions have the same cards in the same order.
+	 */
+	public boolean isEmpty() {
+		return this.getTotalChanges() == 0;
+	}
+
+	/**
+	 * @return the changes as a JSON object, with a property for each suit.
+	 */
+	public String toJson() {
+
+		StringBuilder json = new StringBuilder();
+		json.append('{');
+
+		CardColor[] colors = CardColor.values();
+		for (int i = 0; i < colors.length; i++) {
+
+			if (i > 0) {
+				json.append(',');
+			}
+			TranslationReport.appendJson(json, colors[i].getValue());
+			json.append(":{\"added\":");
+			this.appendJson(json, this.added.get(colors[i]));
+			json.append(",\"removed\":");
+			this.appendJson(json, this.removed.get(colors[i]));
+			json.append(",\"moved\":");
+			this.appendJson(json, this.moved.get(colors[i]));
+			json.append('}');
+
+		}
+
+		json.append('}');
+		return json.toString();
+
+	}
+
+	/**
+	 * @return the changes as XML.
+	 * @throws ParserConfigurationException when it's not possible to create a
+	 *         new Document.
+	 */
+	public Document toXml() throws ParserConfigurationException {
+
+		Document document = Deck.newDocumentBuilder().newDocument();
+
+		Element diff = document.createElement("deck-diff");
+		diff.setAttribute("changes", Integer.toString(this.getTotalChanges()));
+		document.appendChild(diff);
+
+		for (CardColor color : CardColor.values()) {
+
+			Element suit = document.createElement("suit");
+			suit.setAttribute("color", color.getValue());
+			diff.appendChild(suit);
+
+			this.appendXml(suit, "added", this.added.get(color));
+			this.appendXml(suit, "removed", this.removed.get(color));
+			this.appendXml(suit, "moved", this.moved.get(color));
+
+		}
+
+		return document;
+
+	}
+
+	private void appendJson(StringBuilder json, List<Change> changes) {
+
+		json.append('[');
+		for (int i = 0; i < changes.size(); i++) {
+
+			Change change = changes.get(i);
+			if (i > 0) {
+				json.append(',');
+			}
+			json.append("{\"fingerprint\":\"").append(DeckDiff.toHex(change.getFingerprint())).append('"');
+			if (change.getOldIndex() >= 0) {
+				json.append(",\"from\":").append(change.getOldIndex());
+			}
+			if (change.getNewIndex() >= 0) {
+				json.append(",\"to\":").append(change.getNewIndex());
+			}
+			json.append(",\"text\":");
+			TranslationReport.appendJson(json, change.getCard().toString());
+			json.append('}');
+
+		}
+		json.append(']');
+
+	}
+
+	private void appendXml(Element suit, String name, List<Change> changes) {
+
+		Document document = suit.getOwnerDocument();
+		for (Change change : changes) {
+
+			Element element = change.getCard().toElement(document);
+			element.setAttribute("change", name);
+			element.setAttribute("fingerprint", DeckDiff.toHex(change.getFingerprint()));
+			if (change.getOldIndex() >= 0) {
+				element.setAttribute("from", Integer.toString(change.getOldIndex()));
+			}
+			if (change.getNewIndex() >= 0) {
+				element.setAttribute("to", Integer.toString(change.getNewIndex()));
+			}
+			suit.appendChild(element);
+
+		}
+
+	}
+
+	/**
+	 * Matches the cards of one suit between versions.
+	 */
+	private void compare(List<Card> before, List<Card> after, CardColor color) {
+
+		long[] oldPrints = new long[before.size()];
+		for (int i = 0; i < oldPrints.length; i++) {
+			oldPrints[i] = DeckDiff.fingerprint(before.get(i));
+		}
+
+		// An open-addressing hash table from fingerprint to the first of the
+		// old cards with it not yet matched; the rest follow in a chain.
+		int capacity = Integer.highestOneBit(Math.max(2, oldPrints.length * 2 - 1)) << 1;
+		long[] keys = new long[capacity];
+		boolean[] isUsed = new boolean[capacity];
+		int[] heads = new int[capacity];
+		int[] next = new int[oldPrints.length];
+
+		for (int i = oldPrints.length - 1; i >= 0; i--) {
+			int slot = DeckDiff.findSlot(keys, isUsed, oldPrints[i]);
+			next[i] = isUsed[slot] ? heads[slot] : -1;
+			keys[slot] = oldPrints[i];
+			isUsed[slot] = true;
+			heads[slot] = i;
+		}
+
+		// Match each new card with an old card that has the same fingerprint.
+		ArrayList<Change> addedCards = new ArrayList<Change>();
+		boolean[] isMatched = new boolean[oldPrints.length];
+		int[] matches = new int[after.size()];
+		int[] matchedIndexes = new int[after.size()];
+		long[] matchedPrints = new long[after.size()];
+		int totalMatched = 0;
+
+		for (int j = 0; j < after.size(); j++) {
+
+			long fingerprint = DeckDiff.fingerprint(after.get(j));
+			int slot = DeckDiff.findSlot(keys, isUsed, fingerprint);
+			int i = isUsed[slot] ? heads[slot] : -1;
+
+			if (i < 0) {
+				addedCards.add(new Change(after.get(j), fingerprint, -1, j));
+				continue;
+			}
+
+			heads[slot] = next[i];
+			isMatched[i] = true;
+			matches[totalMatched] = i;
+			matchedIndexes[totalMatched] = j;
+			matchedPrints[totalMatched] = fingerprint;
+			totalMatched++;
+
+		}
+
+		ArrayList<Change> removedCards = new ArrayList<Change>();
+		for (int i = 0; i < oldPrints.length; i++) {
+			if (!isMatched[i]) {
+				removedCards.add(new Change(before.get(i), oldPrints[i], i, -1));
+			}
+		}
+
+		// Cards kept in the same relative order haven't moved.
+		ArrayList<Change> movedCards = new ArrayList<Change>();
+		boolean[] isInOrder = DeckDiff.getLongestIncreasing(Arrays.copyOf(matches, totalMatched));
+		for (int k = 0; k < totalMatched; k++) {
+			if (!isInOrder[k]) {
+				movedCards.add(new Change(after.get(matchedIndexes[k]), matchedPrints[k], matches[k], matchedIndexes[k]));
+			}
+		}
+
+		this.added.put(color, Collections.unmodifiableList(addedCards));
+		this.moved.put(color, Collections.unmodifiableList(movedCards));
+		this.removed.put(color, Collections.unmodifiableList(removedCards));
+
+	}
+
+}
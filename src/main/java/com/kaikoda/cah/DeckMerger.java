@@ -0,0 +1,339 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+
+import org.xml.sax.SAXException;
+
+import com.kaikoda.cah.Card.CardColor;
+
+/**
+ * Combines any number of card data files into a single deck, standardising
+ * blanks and removing duplicates along the way.
+ * 
+ * Each file is streamed rather than parsed into a DOM. Its cards are gathered
+ * by suit into runs of limited size, which are sorted, de-duped and spilled
+ * to temporary files. The runs for each suit are then merged with a heap,
+ * holding only one card per run in memory at a time, so memory use depends
+ * on the number of runs rather than the total number of cards.
+ * 
+ * As with Deck.dedupe(), cards with the same text are duplicates, whatever
+ * their blanks, and the first read is kept. Unlike Deck.dedupe(), the cards
+ * in each suit are written in order of text.
+ * 
+ * @author Sheila Thomson
+ */
+public class DeckMerger {
+
+	/**
+	 * The default maximum number of cards held in memory before spilling a
+	 * run.
+	 */
+	public static final int DEFAULT_RUN_SIZE = 65536;
+
+	/**
+	 * The cards read but not yet spilled, by suit.
+	 */
+	private final EnumMap<CardColor, ArrayList<Card>> buffers;
+
+	/**
+	 * The color of each suit read, in order of first appearance.
+	 */
+	private final List<CardColor> colors;
+
+	private final int maxRunSize;
+
+	/**
+	 * The runs spilled so far, by suit.
+	 */
+	private final EnumMap<CardColor, List<File>> runs;
+
+	private final File tempDirectory;
+
+	private int bufferedCards;
+
+	private boolean isMerged;
+
+	private String language;
+
+	private String licence;
+
+	private String licenceHref;
+
+	/**
+	 * The total number of runs spilled so far.
+	 */
+	private int totalRuns;
+
+	public DeckMerger() {
+		this(DeckMerger.DEFAULT_RUN_SIZE, null);
+	}
+
+	/**
+	 * @param maxRunSize the most cards to hold in memory before spilling a
+	 *        run.
+	 * @param tempDirectory where to spill runs, or null for the system default.
+	 */
+	public DeckMerger(int maxRunSize, File tempDirectory) {
+
+		if (maxRunSize < 1) {
+			throw new IllegalArgumentException("Run size must be at least 1.");
+		}
+
+		this.maxRunSize = maxRunSize;
+		this.tempDirectory = tempDirectory;
+		this.buffers = new EnumMap<CardColor, ArrayList<Card>>(CardColor.class);
+		this.runs = new EnumMap<CardColor, List<File>>(CardColor.class);
+		this.colors = new ArrayList<CardColor>();
+		this.language = "";
+
+	}
+
+	/**
+	 * Reads every card from a card data file, which may contain any number of
+	 * decks.
+	 * 
+	 * @param data the card data file.
+	 * @throws IOException when there's a problem reading the card data or
+	 *         spilling a run.
+	 * @throws XMLStreamException when there's a problem parsing the card data.
+	 */
+	public void add(File data) throws IOException, XMLStreamException {
+
+		if (this.isMerged) {
+			throw new IllegalStateException("Already merged.");
+		}
+
+		CardReader reader = new CardReader(data);
+		try {
+
+			String language = reader.getLanguage();
+			if (!language.equals("")) {
+				if (this.language.equals("")) {
+					this.language = language;
+				} else if (!Dictionary.toLanguageKey(language).equals(Dictionary.toLanguageKey(this.language))) {
+					throw new IllegalArgumentException("Decks must all be in the same language.");
+				}
+			}
+
+			Card card = reader.next();
+			while (card != null) {
+
+				ArrayList<Card> buffer = this.buffers.get(card.getColor());
+				if (buffer == null) {
+					buffer = new ArrayList<Card>();
+					this.buffers.put(card.getColor(), buffer);
+				}
+				buffer.add(card);
+
+				if (++this.bufferedCards >= this.maxRunSize) {
+					this.spill();
+				}
+
+				card = reader.next();
+
+			}
+
+			for (CardColor color : reader.getColors()) {
+				if (!this.colors.contains(color)) {
+					this.colors.add(color);
+				}
+			}
+
+			if (this.licence == null && reader.getLicence() != null) {
+				this.licence = reader.getLicence();
+				this.licenceHref = reader.getLicenceHref();
+			}
+
+		} finally {
+			reader.close();
+		}
+
+	}
+
+	/**
+	 * @return the total number of runs spilled so far.
+	 */
+	public int getTotalRuns() {
+		return this.totalRuns;
+	}
+
+	/**
+	 * Merges the cards read so far into a new deck, in memory.
+	 * 
+	 * @return the merged deck.
+	 * @throws IOException when there's a problem reading a run.
+	 * @throws XMLStreamException when there's a problem writing the merged card
+	 *         data.
+	 * @throws SAXException when there's a problem parsing the merged card data.
+	 * @throws ParserConfigurationException when there's a problem configuring
+	 *         the parser.
+	 */
+	public Deck merge() throws IOException, XMLStreamException, SAXException, ParserConfigurationException {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		this.merge(out);
+		return new Deck(Deck.parse(out.toString("UTF-8")));
+
+	}
+
+	/**
+	 * Merges the cards read so far, writing the result as card data. Once
+	 * merged, no more cards may be added.
+	 * 
+	 * @param out where to write the card data.
+	 * @throws IOException when there's a problem reading a run.
+	 * @throws XMLStreamException when there's a problem writing the card data.
+	 */
+	public void merge(OutputStream out) throws IOException, XMLStreamException {
+
+		if (this.isMerged) {
+			throw new IllegalStateException("Already merged.");
+		}
+		this.isMerged = true;
+
+		try {
+
+			this.spill();
+
+			CardWriter writer = new CardWriter(out, this.language, this.licenceHref, this.licence);
+			for (CardColor color : this.colors) {
+
+				writer.startSuit(color);
+
+				List<File> runs = this.runs.get(color);
+				if (runs != null) {
+					this.merge(runs, writer);
+				}
+
+			}
+			writer.close();
+
+		} finally {
+
+			for (List<File> runs : this.runs.values()) {
+				for (File run : runs) {
+					run.delete();
+				}
+			}
+			this.runs.clear();
+
+		}
+
+	}
+
+	/**
+	 * Merges the runs of a single suit.
+	 */
+	private void merge(List<File> runs, CardWriter writer) throws IOException, XMLStreamException {
+
+		PriorityQueue<CardRun.Reader> heap = new PriorityQueue<CardRun.Reader>(runs.size(), CardRun.READER_ORDER);
+		try {
+
+			for (int i = 0; i < runs.size(); i++) {
+
+				CardRun.Reader reader = new CardRun.Reader(runs.get(i), i);
+				if (reader.current() == null) {
+					reader.close();
+				} else {
+					heap.add(reader);
+				}
+
+			}
+
+			Card previous = null;
+			while (!heap.isEmpty()) {
+
+				CardRun.Reader reader = heap.poll();
+				Card card = reader.current();
+
+				// Runs are polled in order of creation for the same text, so
+				// the first card read is the one kept.
+				if (previous == null || CardRun.CARD_ORDER.compare(previous, card) != 0) {
+					writer.write(card);
+					previous = card;
+				}
+
+				if (reader.advance()) {
+					heap.add(reader);
+				} else {
+					reader.close();
+				}
+
+			}
+
+		} finally {
+			for (CardRun.Reader reader : heap) {
+				reader.close();
+			}
+		}
+
+	}
+
+	/**
+	 * Sorts the cards held in memory and writes them out as a run per suit.
+	 */
+	private void spill() throws IOException {
+
+		for (CardColor color : this.buffers.keySet()) {
+
+			ArrayList<Card> buffer = this.buffers.get(color);
+			if (buffer.isEmpty()) {
+				continue;
+			}
+
+			int total = CardRun.sort(buffer);
+
+			File file = File.createTempFile("cah-run", ".tmp", this.tempDirectory);
+			List<File> runs = this.runs.get(color);
+			if (runs == null) {
+				runs = new ArrayList<File>();
+				this.runs.put(color, runs);
+			}
+			runs.add(file);
+			this.totalRuns++;
+
+			CardRun.Writer writer = new CardRun.Writer(file);
+			try {
+				for (int i = 0; i < total; i++) {
+					writer.write(buffer.get(i));
+				}
+			} finally {
+				writer.close();
+			}
+
+			buffer.clear();
+
+		}
+
+		this.bufferedCards = 0;
+
+	}
+
+}
@@ -0,0 +1,576 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import com.kaikoda.cah.Card.CardColor;
+
+/**
+ * An immutable copy of a deck, safe to read from any number of threads at
+ * once.
+ * 
+ * Rather than changing the cards in place, as Deck does, blanking, de-duping
+ * and translating each return a new snapshot. Cards and suits that are
+ * unchanged are shared between the old snapshot and the new one, so deriving
+ * a snapshot costs little more than the cards that actually change.
+ * 
+ * @author Sheila Thomson
+ */
+public class DeckSnapshot {
+
+	/**
+	 * An immutable suit of cards.
+	 */
+	public static class Suit {
+
+		private final List<Card> cards;
+
+		private final CardColor color;
+
+		/**
+		 * @param color the color of the suit.
+		 * @param cards the cards in the suit.
+		 */
+		public Suit(CardColor color, List<Card> cards) {
+
+			if (color == null) {
+				throw new IllegalArgumentException("Color required.");
+			}
+
+			this.color = color;
+			this.cards = Collections.unmodifiableList(new ArrayList<Card>(cards));
+
+		}
+
+		public List<Card> getCards() {
+			return this.cards;
+		}
+
+		public CardColor getColor() {
+			return this.color;
+		}
+
+	}
+
+	/**
+	 * A blank represented as a sequence of underscores.
+	 */
+	private static final Pattern UNDERSCORE_BLANK = Pattern.compile("__+");
+
+	/**
+	 * The suits in each deck.
+	 */
+	private final List<List<Suit>> decks;
+
+	/**
+	 * The language of the cards, or null if not specified.
+	 */
+	private final String language;
+
+	private final String licence;
+
+	private final String licenceHref;
+
+	/**
+	 * @param language the language of the cards, eg. en-gb, or null if not
+	 *        specified.
+	 * @param licenceHref a link to the licence, or null.
+	 * @param licence the text of the licence, or null if there isn't one.
+	 * @param decks the suits in each deck.
+	 */
+	public DeckSnapshot(String language, String licenceHref, String licence, List<List<Suit>> decks) {
+
+		ArrayList<List<Suit>> copy = new ArrayList<List<Suit>>(decks.size());
+		for (List<Suit> deck : decks) {
+			copy.add(Collections.unmodifiableList(new ArrayList<Suit>(deck)));
+		}
+
+		this.language = language;
+		this.licenceHref = licenceHref;
+		this.licence = licence;
+		this.decks = Collections.unmodifiableList(copy);
+
+	}
+
+	/**
+	 * Copies the card data from a document.
+	 * 
+	 * @param data the card data.
+	 * @return a snapshot of the card data.
+	 */
+	public static DeckSnapshot fromDocument(Document data) {
+
+		if (data == null) {
+			throw new IllegalArgumentException("Data required.");
+		}
+
+		Element game = data.getDocumentElement();
+
+		String language = game.hasAttribute("xml:lang") ? game.getAttribute("xml:lang") : null;
+		String licenceHref = null;
+		String licence = null;
+
+		ArrayList<List<Suit>> decks = new ArrayList<List<Suit>>();
+		for (Node child = game.getFirstChild(); child != null; child = child.getNextSibling()) {
+
+			if (child.getNodeType() != Node.ELEMENT_NODE) {
+				continue;
+			}
+
+			if (child.getNodeName().equals("licence") && licence == null) {
+
+				Element element = (Element) child;
+				licenceHref = element.hasAttribute("href") ? element.getAttribute("href") : null;
+				licence = element.getTextContent();
+
+			} else if (child.getNodeName().equals("deck")) {
+
+				ArrayList<Suit> suits = new ArrayList<Suit>();
+				for (Node suit = child.getFirstChild(); suit != null; suit = suit.getNextSibling()) {
+
+					if (suit.getNodeType() != Node.ELEMENT_NODE || !suit.getNodeName().equals("suit")) {
+						continue;
+					}
+
+					CardColor color = CardColor.fromValue(((Element) suit).getAttribute("color"));
+
+					ArrayList<Card> cards = new ArrayList<Card>();
+					for (Node card = suit.getFirstChild(); card != null; card = card.getNextSibling()) {
+						if (card.getNodeType() == Node.ELEMENT_NODE && card.getNodeName().equals("card")) {
+							cards.add(Card.fromElement((Element) card, color));
+						}
+					}
+
+					suits.add(new Suit(color, cards));
+
+				}
+				decks.add(suits);
+
+			}
+
+		}
+
+		return new DeckSnapshot(language, licenceHref, licence, decks);
+
+	}
+
+	/**
+	 * Replaces underscore blanks with blanks, then de-dupes, as Deck.blank().
+	 * 
+	 * @return a new snapshot, or this one if there were no underscore blanks.
+	 */
+	public DeckSnapshot blank() {
+
+		if (this.isBlanked()) {
+			return this;
+		}
+
+		ArrayList<List<Suit>> decks = new ArrayList<List<Suit>>(this.decks.size());
+		for (List<Suit> deck : this.decks) {
+
+			ArrayList<Suit> suits = new ArrayList<Suit>(deck.size());
+			for (Suit suit : deck) {
+
+				boolean isChanged = false;
+				ArrayList<Card> cards = new ArrayList<Card>(suit.getCards().size());
+				for (Card card : suit.getCards()) {
+					Card blanked = DeckSnapshot.blank(card);
+					isChanged = isChanged || blanked != card;
+					cards.add(blanked);
+				}
+
+				suits.add(isChanged ? new Suit(suit.getColor(), cards) : suit);
+
+			}
+			decks.add(suits);
+
+		}
+
+		return new DeckSnapshot(this.language, this.licenceHref, this.licence, decks).dedupe();
+
+	}
+
+	/**
+	 * Merges duplicate cards, as Deck.dedupe(): all the suits of each color
+	 * are combined into one, in a single deck, and only the first of any cards
+	 * with the same text is kept.
+	 * 
+	 * @return a new snapshot, or this one if it's already de-duped.
+	 */
+	public DeckSnapshot dedupe() {
+
+		if (this.decks.isEmpty()) {
+			return this;
+		}
+
+		// The cards of each color, by text, in order of first appearance.
+		LinkedHashMap<CardColor, LinkedHashMap<String, Card>> colors = new LinkedHashMap<CardColor, LinkedHashMap<String, Card>>();
+
+		// The first suit of each color, for re-use if it has no duplicates.
+		HashMap<CardColor, Suit> firstSuits = new HashMap<CardColor, Suit>();
+		int totalSuits = 0;
+		int totalCards = 0;
+
+		for (List<Suit> deck : this.decks) {
+			for (Suit suit : deck) {
+
+				LinkedHashMap<String, Card> cards = colors.get(suit.getColor());
+				if (cards == null) {
+					cards = new LinkedHashMap<String, Card>();
+					colors.put(suit.getColor(), cards);
+					firstSuits.put(suit.getColor(), suit);
+				}
+
+				for (Card card : suit.getCards()) {
+					if (!cards.containsKey(card.getText())) {
+						cards.put(card.getText(), card);
+					}
+				}
+
+				totalSuits++;
+				totalCards = totalCards + suit.getCards().size();
+
+			}
+		}
+
+		ArrayList<Suit> suits = new ArrayList<Suit>(colors.size());
+		int totalUnique = 0;
+		for (CardColor color : colors.keySet()) {
+
+			ArrayList<Card> cards = new ArrayList<Card>(colors.get(color).values());
+			Suit first = firstSuits.get(color);
+			if (first.getCards().equals(cards)) {
+				suits.add(first);
+			} else {
+				suits.add(new Suit(color, cards));
+			}
+			totalUnique = totalUnique + cards.size();
+
+		}
+
+		if (this.decks.size() == 1 && totalSuits == suits.size() && totalCards == totalUnique) {
+			return this;
+		}
+
+		List<List<Suit>> decks = new ArrayList<List<Suit>>();
+		decks.add(suits);
+		return new DeckSnapshot(this.language, this.licenceHref, this.licence, decks);
+
+	}
+
+	/**
+	 * @return every card, in document order.
+	 */
+	public List<Card> getCards() {
+
+		ArrayList<Card> cards = new ArrayList<Card>();
+		for (List<Suit> deck : this.decks) {
+			for (Suit suit : deck) {
+				cards.addAll(suit.getCards());
+			}
+		}
+		return cards;
+
+	}
+
+	/**
+	 * @return the language of the cards, as specified by xml:lang, or null if
+	 *         not specified.
+	 */
+	public String getLanguage() {
+		return this.language;
+	}
+
+	public String getLicence() {
+		return this.licence;
+	}
+
+	public String getLicenceHref() {
+		return this.licenceHref;
+	}
+
+	public Locale getLocale() {
+
+		if (this.language == null || this.language.equals("")) {
+			throw new IllegalArgumentException("The language of the card deck isn't specified.");
+		}
+
+		return Locale.forLanguageTag(this.language);
+
+	}
+
+	/**
+	 * @param deck which deck, starting at zero.
+	 * @return the suits in the deck.
+	 */
+	public List<Suit> getSuits(int deck) {
+		return this.decks.get(deck);
+	}
+
+	public int getTotalDecks() {
+		return this.decks.size();
+	}
+
+	/**
+	 * @return true if no card contains an underscore blank.
+	 */
+	public boolean isBlanked() {
+
+		for (List<Suit> deck : this.decks) {
+			for (Suit suit : deck) {
+				for (Card card : suit.getCards()) {
+					if (DeckSnapshot.blank(card) != card) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+
+	}
+
+	/**
+	 * @return a new, mutable Deck with the same cards.
+	 * @throws ParserConfigurationException when it's not possible to create a
+	 *         new Document.
+	 */
+	public Deck toDeck() throws ParserConfigurationException {
+		return new Deck(this.toDocument());
+	}
+
+	/**
+	 * @return a new Document holding the card data; a fresh copy each time.
+	 * @throws ParserConfigurationException when it's not possible to create a
+	 *         new Document.
+	 */
+	public Document toDocument() throws ParserConfigurationException {
+
+		Document document = Deck.newDocumentBuilder().newDocument();
+
+		Element game = document.createElement("game");
+		if (this.language != null) {
+			game.setAttribute("xml:lang", this.language);
+		}
+		document.appendChild(game);
+
+		if (this.licence != null) {
+			Element licence = document.createElement("licence");
+			if (this.licenceHref != null) {
+				licence.setAttribute("href", this.licenceHref);
+			}
+			licence.setTextContent(this.licence);
+			game.appendChild(licence);
+		}
+
+		for (List<Suit> suits : this.decks) {
+
+			Element deck = document.createElement("deck");
+			for (Suit suit : suits) {
+
+				Element element = document.createElement("suit");
+				element.setAttribute("color", suit.getColor().getValue());
+				for (Card card : suit.getCards()) {
+					element.appendChild(card.toElement(document));
+				}
+				deck.appendChild(element);
+
+			}
+			game.appendChild(deck);
+
+		}
+
+		return document;
+
+	}
+
+	/**
+	 * @return the cards as an HTML5 String, the same as Deck.toHtml().
+	 * @throws IOException when it's not possible to write the HTML.
+	 */
+	public String toHtml() throws IOException {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		this.toHtml(out);
+		return out.toString("UTF-8");
+
+	}
+
+	/**
+	 * Writes the cards as HTML5, the same as Deck.toHtml(OutputStream).
+	 * 
+	 * @param out where to write the HTML. It is flushed, but not closed.
+	 * @throws IOException when it's not possible to write to the output
+	 *         stream.
+	 */
+	public void toHtml(OutputStream out) throws IOException {
+
+		HtmlRenderer renderer = new HtmlRenderer();
+		renderer.render(this, out);
+
+	}
+
+	/**
+	 * Writes the cards as HTML5, the same as Deck.toHtml(OutputStream), but
+	 * rendering the pages of each suit at the same time.
+	 * 
+	 * @param out where to write the HTML. It is flushed, but not closed.
+	 * @param pool where to render the pages.
+	 * @throws IOException when it's not possible to write to the output
+	 *         stream.
+	 */
+	public void toHtml(OutputStream out, ForkJoinPool pool) throws IOException {
+
+		HtmlRenderer renderer = new HtmlRenderer();
+		renderer.render(this, out, pool);
+
+	}
+
+	/**
+	 * @return the cards as an XML String, the same as Deck.toString().
+	 */
+	@Override
+	public String toString() {
+
+		try {
+			return this.toDeck().toString();
+		} catch (ParserConfigurationException e) {
+			throw new IllegalStateException(e);
+		}
+
+	}
+
+	/**
+	 * Translates the cards into another language, as Deck.translate().
+	 * 
+	 * @param targetLanguage the language to translate into.
+	 * @param dictionary the dictionary to translate with.
+	 * @return a new snapshot, sharing any cards that weren't changed, or this
+	 *         one if already in the target language.
+	 * @throws SAXException when there's a problem parsing the dictionary.
+	 * @throws IOException when there's a problem reading the dictionary.
+	 * @throws TransformerException when it's not possible to complete the
+	 *         translation.
+	 * @throws ParserConfigurationException when there's a problem configuring
+	 *         the parser.
+	 */
+	public DeckSnapshot translate(Locale targetLanguage, File dictionary) throws SAXException, IOException, TransformerException, ParserConfigurationException {
+
+		if (targetLanguage != null && targetLanguage.equals(this.getLocale())) {
+			return this;
+		}
+
+		Deck deck = this.toDeck();
+		deck.translate(targetLanguage, dictionary);
+
+		return deck.snapshot().share(this);
+
+	}
+
+	/**
+	 * @return the card with any underscore blanks replaced, or the same card
+	 *         if it has none.
+	 */
+	private static Card blank(Card card) {
+
+		boolean hasUnderscores = false;
+		for (int i = 0; i <= card.getBlanks(); i++) {
+			if (DeckSnapshot.UNDERSCORE_BLANK.matcher(card.getFragment(i)).find()) {
+				hasUnderscores = true;
+				break;
+			}
+		}
+
+		if (!hasUnderscores) {
+			return card;
+		}
+
+		ArrayList<String> fragments = new ArrayList<String>();
+		for (int i = 0; i <= card.getBlanks(); i++) {
+			Collections.addAll(fragments, DeckSnapshot.UNDERSCORE_BLANK.split(card.getFragment(i), -1));
+		}
+
+		return new Card(card.getColor(), fragments.toArray(new String[fragments.size()]));
+
+	}
+
+	/**
+	 * Re-uses the cards and suits of another snapshot wherever they're the
+	 * same as those of this one.
+	 */
+	private DeckSnapshot share(DeckSnapshot other) {
+
+		HashMap<Card, Card> cards = new HashMap<Card, Card>();
+		HashMap<List<Card>, Suit> suits = new HashMap<List<Card>, Suit>();
+		for (List<Suit> deck : other.decks) {
+			for (Suit suit : deck) {
+				suits.put(suit.getCards(), suit);
+				for (Card card : suit.getCards()) {
+					cards.put(card, card);
+				}
+			}
+		}
+
+		ArrayList<List<Suit>> decks = new ArrayList<List<Suit>>(this.decks.size());
+		for (List<Suit> deck : this.decks) {
+
+			ArrayList<Suit> shared = new ArrayList<Suit>(deck.size());
+			for (Suit suit : deck) {
+
+				Suit existing = suits.get(suit.getCards());
+				if (existing != null && existing.getColor() == suit.getColor()) {
+					shared.add(existing);
+					continue;
+				}
+
+				ArrayList<Card> sharedCards = new ArrayList<Card>(suit.getCards().size());
+				for (Card card : suit.getCards()) {
+					Card match = cards.get(card);
+					sharedCards.add((match == null) ? card : match);
+				}
+				shared.add(new Suit(suit.getColor(), sharedCards));
+
+			}
+			decks.add(shared);
+
+		}
+
+		return new DeckSnapshot(this.language, this.licenceHref, this.licence, decks);
+
+	}
+
+}
@@ -0,0 +1,220 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+/**
+ * A dictionary for translating card data from one culture to another, as
+ * used by translate.xsl.
+ * 
+ * @author Sheila Thomson
+ */
+public class Dictionary {
+
+	/**
+	 * The same term, in each of the languages it's known in.
+	 */
+	public static class Entry {
+
+		private final int index;
+
+		/**
+		 * The term, by lower-case language code.
+		 */
+		private final TreeMap<String, String> terms;
+
+		private Entry(int index) {
+			this.index = index;
+			this.terms = new TreeMap<String, String>();
+		}
+
+		/**
+		 * @return the position of the entry in the dictionary, starting at
+		 *         zero.
+		 */
+		public int getIndex() {
+			return this.index;
+		}
+
+		/**
+		 * @param language a language code, eg. en-gb
+		 * @return the term in that language, or null if not known.
+		 */
+		public String getTerm(String language) {
+			return this.terms.get(Dictionary.toLanguageKey(language));
+		}
+
+		/**
+		 * @param language a language.
+		 * @return the term in that language, or null if not known.
+		 */
+		public String getTerm(Locale language) {
+			return this.getTerm(language.toLanguageTag());
+		}
+
+	}
+
+	private final List<Entry> entries;
+
+	/**
+	 * A hash of every term in every entry.
+	 */
+	private final long fingerprint;
+
+	/**
+	 * @param xml the dictionary data.
+	 */
+	public Dictionary(Document xml) {
+
+		if (xml == null) {
+			throw new IllegalArgumentException("Data required.");
+		}
+
+		ArrayList<Entry> entries = new ArrayList<Entry>();
+
+		Element dictionary = xml.getDocumentElement();
+		for (Node node = dictionary.getFirstChild(); node != null; node = node.getNextSibling()) {
+
+			if (node.getNodeType() != Node.ELEMENT_NODE || !node.getNodeName().equals("entry")) {
+				continue;
+			}
+
+			Entry entry = new Entry(entries.size());
+			for (Node term = node.getFirstChild(); term != null; term = term.getNextSibling()) {
+
+				if (term.getNodeType() != Node.ELEMENT_NODE || !term.getNodeName().equals("term")) {
+					continue;
+				}
+
+				String language = Dictionary.toLanguageKey(((Element) term).getAttribute("xml:lang"));
+				if (!entry.terms.containsKey(language)) {
+					entry.terms.put(language, term.getTextContent());
+				}
+
+			}
+			entries.add(entry);
+
+		}
+
+		this.entries = Collections.unmodifiableList(entries);
+		this.fingerprint = Dictionary.fingerprint(entries);
+
+	}
+
+	/**
+	 * Reads a dictionary from file.
+	 * 
+	 * @param dictionary the dictionary file.
+	 * @return the dictionary.
+	 * @throws SAXException when there's a problem parsing the dictionary.
+	 * @throws IOException when there's a problem reading the dictionary.
+	 * @throws ParserConfigurationException when there's a problem configuring
+	 *         the parser.
+	 */
+	public static Dictionary load(File dictionary) throws SAXException, IOException, ParserConfigurationException {
+		return new Dictionary(Deck.parse(dictionary));
+	}
+
+	/**
+	 * Puts a language code into the form used for comparison by
+	 * translate.xsl.
+	 * 
+	 * @param language a language code, eg. en-GB
+	 * @return the same code, trimmed and in lower case.
+	 */
+	protected static String toLanguageKey(String language) {
+		return language.trim().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * @return a hash of the language and text of every term, in order.
+	 */
+	private static long fingerprint(List<Entry> entries) {
+
+		// FNV-1a, with a character that can't appear in XML text after each
+		// part, so that moving text from one part to the next changes it.
+		long hash = 0xcbf29ce484222325L;
+		for (Entry entry : entries) {
+
+			for (String language : entry.terms.keySet()) {
+
+				String[] parts = { language, entry.terms.get(language) };
+				for (String part : parts) {
+					for (int i = 0; i < part.length(); i++) {
+						hash = (hash ^ part.charAt(i)) * 0x100000001b3L;
+					}
+					hash = (hash ^ 0) * 0x100000001b3L;
+				}
+
+			}
+			hash = (hash ^ 1) * 0x100000001b3L;
+
+		}
+
+		return BloomFilter.mix(hash);
+
+	}
+
+	/**
+	 * @return every entry, in dictionary order.
+	 */
+	public List<Entry> getEntries() {
+		return this.entries;
+	}
+
+	/**
+	 * @param from the source language.
+	 * @param to the target language.
+	 * @return the entries that have a term in both languages, in dictionary
+	 *         order; those that translate.xsl would apply.
+	 */
+	public List<Entry> getEntries(String from, String to) {
+
+		ArrayList<Entry> result = new ArrayList<Entry>();
+		for (Entry entry : this.entries) {
+			if (entry.getTerm(from) != null && entry.getTerm(to) != null) {
+				result.add(entry);
+			}
+		}
+		return result;
+
+	}
+
+	/**
+	 * @return a hash of every term in every entry; the same for any
+	 *         dictionary with the same entries.
+	 */
+	public long getFingerprint() {
+		return this.fingerprint;
+	}
+
+}
@@ -0,0 +1,577 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.stream.XMLStreamException;
+
+import com.kaikoda.cah.Card.CardColor;
+
+/**
+ * Removes duplicate cards from card data too large to hold in memory.
+ * 
+ * Cards are streamed from the card data and spread by hash across a number of
+ * partition files, chosen to suit the memory budget, so that duplicates always
+ * share a partition. On the way, each card is checked against a Bloom filter:
+ * a card the filter has definitely not seen before can't be a duplicate, so
+ * only the rest need checking exactly. Each partition is then de-duped and
+ * sorted on its own, several at once, and the sorted partitions merged.
+ * 
+ * Cards are read as by CardReader, which turns each run of underscores into
+ * a blank. In document order, the result is therefore the same as
+ * Deck.blank() followed by Deck.dedupe() (ie. remove_duplicates.xsl) would
+ * produce if the data fitted in memory: every deck is merged into one, with a single suit per colour in the order the
+ * colours were first found, and two cards are duplicates if they share a
+ * colour and text. The first of any duplicates is kept, in the position it
+ * was first found. Alternatively the cards in each suit may be sorted by
+ * text.
+ * 
+ * @author Sheila Thomson
+ */
+public class ExternalDeduper {
+
+	public enum DedupeOrder {
+
+		/**
+		 * The order in which the cards were first found, as Deck.dedupe().
+		 */
+		DOCUMENT,
+
+		/**
+		 * By text.
+		 */
+		TEXT;
+
+	}
+
+	/**
+	 * A card, where it was found and whether it may be a duplicate.
+	 */
+	private static class Record {
+
+		private final Card card;
+
+		private final boolean isSuspect;
+
+		private final long sequence;
+
+		private Record(long sequence, boolean isSuspect, Card card) {
+			this.sequence = sequence;
+			this.isSuspect = isSuspect;
+			this.card = card;
+		}
+
+	}
+
+	/**
+	 * Reads back a sorted partition, one record at a time.
+	 */
+	private static class RecordReader {
+
+		private final DataInputStream in;
+
+		private Record current;
+
+		private RecordReader(File file) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			this.advance();
+		}
+
+		private boolean advance() throws IOException {
+			this.current = ExternalDeduper.read(this.in);
+			return this.current != null;
+		}
+
+		private void close() throws IOException {
+			this.in.close();
+		}
+
+	}
+
+	public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+	/**
+	 * A rough guess at the number of bytes of card data per card, for sizing
+	 * the Bloom filter.
+	 */
+	private static final int BYTES_PER_CARD = 48;
+
+	/**
+	 * A rough guess at the memory taken up by a card, relative to the size of
+	 * its card data.
+	 */
+	private static final int MEMORY_PER_BYTE = 6;
+
+	private final long memoryBudget;
+
+	private final File tempDirectory;
+
+	private final int threads;
+
+	/**
+	 * The number of cards checked exactly in the last de-dupe.
+	 */
+	private long exactChecks;
+
+	private int totalCards;
+
+	private int totalDuplicates;
+
+	private int totalPartitions;
+
+	public ExternalDeduper() {
+		this(ExternalDeduper.DEFAULT_MEMORY_BUDGET, null, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param memoryBudget roughly how much memory to use, in bytes.
+	 * @param tempDirectory where to spill partitions, or null for the system
+	 *        default.
+	 * @param threads the most partitions to process at once.
+	 */
+	public ExternalDeduper(long memoryBudget, File tempDirectory, int threads) {
+
+		if (memoryBudget < 1024) {
+			throw new IllegalArgumentException("Memory budget must be at least 1024 bytes.");
+		}
+
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least 1 thread required.");
+		}
+
+		this.memoryBudget = memoryBudget;
+		this.tempDirectory = tempDirectory;
+		this.threads = threads;
+
+	}
+
+	/**
+	 * @return a hash of the text and color of a card; the same for any
+	 *         duplicates.
+	 */
+	private static long hash(Card card) {
+
+		// FNV-1a
+		long hash = 0xcbf29ce484222325L;
+		hash = (hash ^ card.getColor().ordinal()) * 0x100000001b3L;
+
+		String text = card.getText();
+		for (int i = 0; i < text.length(); i++) {
+			hash = (hash ^ text.charAt(i)) * 0x100000001b3L;
+		}
+
+		return BloomFilter.mix(hash);
+
+	}
+
+	/**
+	 * @return the next record, or null if there are no more.
+	 */
+	private static Record read(DataInputStream in) throws IOException {
+
+		int isSuspect = in.read();
+		if (isSuspect < 0) {
+			return null;
+		}
+
+		try {
+
+			long sequence = in.readLong();
+			Card card = CardRun.read(in);
+			if (card == null) {
+				throw new EOFException();
+			}
+			return new Record(sequence, isSuspect == 1, card);
+
+		} catch (EOFException e) {
+			throw new IOException("Partition truncated.", e);
+		}
+
+	}
+
+	private static void write(DataOutputStream out, Record record) throws IOException {
+		out.write(record.isSuspect ? 1 : 0);
+		out.writeLong(record.sequence);
+		CardRun.write(out, record.card);
+	}
+
+	/**
+	 * Removes duplicate cards from card data, writing the result as card data.
+	 * 
+	 * @param data the card data file.
+	 * @param out where to write the de-duped card data.
+	 * @param order the order in which to write the cards in each suit.
+	 * @throws IOException when there's a problem reading the card data or a
+	 *         partition.
+	 * @throws XMLStreamException when there's a problem parsing or writing
+	 *         card data.
+	 */
+	public void dedupe(File data, OutputStream out, DedupeOrder order) throws IOException, XMLStreamException {
+
+		if (order == null) {
+			throw new IllegalArgumentException("Order required.");
+		}
+
+		ArrayList<File> partitions = new ArrayList<File>();
+		ArrayList<File> sorted = new ArrayList<File>();
+		try {
+
+			CardReader reader = new CardReader(data);
+			try {
+
+				this.partition(data.length(), reader, partitions);
+
+				// The position of each suit in the output.
+				final EnumMap<CardColor, Integer> suits = new EnumMap<CardColor, Integer>(CardColor.class);
+				for (CardColor color : reader.getColors()) {
+					suits.put(color, suits.size());
+				}
+
+				Comparator<Record> comparator = ExternalDeduper.newComparator(suits, order);
+
+				this.dedupe(partitions, comparator, sorted);
+
+				CardWriter writer = new CardWriter(out, reader.getLanguage(), reader.getLicenceHref(), reader.getLicence());
+				this.merge(sorted, comparator, reader.getColors(), writer);
+				writer.close();
+
+			} finally {
+				reader.close();
+			}
+
+		} finally {
+
+			for (File file : partitions) {
+				file.delete();
+			}
+			for (File file : sorted) {
+				file.delete();
+			}
+
+		}
+
+	}
+
+	/**
+	 * @return the number of cards the Bloom filter couldn't rule out as
+	 *         duplicates in the last card data de-duped, each of which had to
+	 *         be checked exactly.
+	 */
+	public long getExactChecks() {
+		return this.exactChecks;
+	}
+
+	/**
+	 * @return the number of cards in the last card data de-duped, including
+	 *         duplicates.
+	 */
+	public int getTotalCards() {
+		return this.totalCards;
+	}
+
+	/**
+	 * @return the number of duplicates removed from the last card data
+	 *         de-duped.
+	 */
+	public int getTotalDuplicates() {
+		return this.totalDuplicates;
+	}
+
+	/**
+	 * @return the number of partitions the last card data was spread across.
+	 */
+	public int getTotalPartitions() {
+		return this.totalPartitions;
+	}
+
+	private static Comparator<Record> newComparator(final EnumMap<CardColor, Integer> suits, final DedupeOrder order) {
+
+		return new Comparator<Record>() {
+
+			public int compare(Record a, Record b) {
+
+				int result = suits.get(a.card.getColor()).compareTo(suits.get(b.card.getColor()));
+				if (result == 0 && order == DedupeOrder.TEXT) {
+					result = CardRun.CARD_ORDER.compare(a.card, b.card);
+				}
+				if (result == 0) {
+					result = (a.sequence < b.sequence) ? -1 : ((a.sequence == b.sequence) ? 0 : 1);
+				}
+				return result;
+
+			}
+
+		};
+
+	}
+
+	/**
+	 * De-dupes and sorts every partition, several at once.
+	 */
+	private void dedupe(List<File> partitions, final Comparator<Record> comparator, List<File> sorted) throws IOException {
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.threads, partitions.size()));
+		try {
+
+			ArrayList<Future<int[]>> results = new ArrayList<Future<int[]>>();
+			for (final File partition : partitions) {
+
+				final File output = File.createTempFile("cah-sorted", ".tmp", this.tempDirectory);
+				sorted.add(output);
+
+				results.add(executor.submit(new Callable<int[]>() {
+
+					public int[] call() throws IOException {
+						return ExternalDeduper.dedupe(partition, comparator, output);
+					}
+
+				}));
+
+			}
+
+			this.totalDuplicates = 0;
+			this.exactChecks = 0;
+			for (Future<int[]> result : results) {
+				int[] counts = result.get();
+				this.totalDuplicates = this.totalDuplicates + counts[0];
+				this.exactChecks = this.exactChecks + counts[1];
+			}
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while de-duping.");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+	}
+
+	/**
+	 * De-dupes and sorts a single partition.
+	 * 
+	 * @return the number of duplicates removed and the number of exact checks
+	 *         made.
+	 */
+	private static int[] dedupe(File partition, Comparator<Record> comparator, File output) throws IOException {
+
+		ArrayList<Record> records = new ArrayList<Record>();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(partition)));
+		try {
+			Record record = ExternalDeduper.read(in);
+			while (record != null) {
+				records.add(record);
+				record = ExternalDeduper.read(in);
+			}
+		} finally {
+			in.close();
+		}
+
+		// Only cards that might duplicate another need checking exactly, and
+		// only against cards with the same key.
+		int checks = 0;
+		HashSet<String> suspects = new HashSet<String>();
+		for (Record record : records) {
+			if (record.isSuspect) {
+				suspects.add(ExternalDeduper.getKey(record.card));
+				checks++;
+			}
+		}
+
+		int duplicates = 0;
+		HashSet<String> seen = new HashSet<String>();
+		ArrayList<Record> unique = new ArrayList<Record>(records.size());
+
+		// Records are in the order found, so the first of any duplicates is
+		// kept.
+		for (Record record : records) {
+
+			if (!record.isSuspect) {
+
+				unique.add(record);
+				if (!suspects.isEmpty()) {
+					String key = ExternalDeduper.getKey(record.card);
+					if (suspects.contains(key)) {
+						seen.add(key);
+					}
+				}
+
+			} else if (seen.add(ExternalDeduper.getKey(record.card))) {
+				unique.add(record);
+			} else {
+				duplicates++;
+			}
+
+		}
+
+		Collections.sort(unique, comparator);
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output)));
+		try {
+			for (Record record : unique) {
+				ExternalDeduper.write(out, record);
+			}
+		} finally {
+			out.close();
+		}
+
+		return new int[] { duplicates, checks };
+
+	}
+
+	/**
+	 * @return a key that's the same for any duplicates.
+	 */
+	private static String getKey(Card card) {
+		return card.getColor().ordinal() + card.getText();
+	}
+
+	/**
+	 * Merges the sorted partitions into a single deck.
+	 */
+	private void merge(List<File> sorted, Comparator<Record> comparator, List<CardColor> colors, CardWriter writer) throws IOException, XMLStreamException {
+
+		final Comparator<Record> recordOrder = comparator;
+		PriorityQueue<RecordReader> heap = new PriorityQueue<RecordReader>(Math.max(1, sorted.size()), new Comparator<RecordReader>() {
+
+			public int compare(RecordReader a, RecordReader b) {
+				return recordOrder.compare(a.current, b.current);
+			}
+
+		});
+
+		try {
+
+			for (File file : sorted) {
+
+				RecordReader reader = new RecordReader(file);
+				if (reader.current == null) {
+					reader.close();
+				} else {
+					heap.add(reader);
+				}
+
+			}
+
+			for (CardColor color : colors) {
+
+				writer.startSuit(color);
+
+				while (!heap.isEmpty() && heap.peek().current.card.getColor() == color) {
+
+					RecordReader reader = heap.poll();
+					writer.write(reader.current.card);
+
+					if (reader.advance()) {
+						heap.add(reader);
+					} else {
+						reader.close();
+					}
+
+				}
+
+			}
+
+		} finally {
+			for (RecordReader reader : heap) {
+				reader.close();
+			}
+		}
+
+	}
+
+	/**
+	 * Streams the cards into partitions, marking those the Bloom filter can't
+	 * rule out as duplicates.
+	 */
+	private void partition(long dataSize, CardReader reader, List<File> partitions) throws IOException, XMLStreamException {
+
+		// Each partition must fit in memory alongside those being processed
+		// at the same time.
+		long partitionBudget = Math.max(1, this.memoryBudget / this.threads);
+		long totalPartitions = (dataSize * ExternalDeduper.MEMORY_PER_BYTE + partitionBudget - 1) / partitionBudget;
+		this.totalPartitions = (int) Math.max(1, Math.min(4096, totalPartitions));
+
+		// Share a quarter of the budget between the output buffers.
+		int bufferSize = (int) Math.max(512, Math.min(65536, this.memoryBudget / 4 / this.totalPartitions));
+
+		// Allow a quarter of the budget for the Bloom filter.
+		BloomFilter bloomFilter = new BloomFilter(dataSize / ExternalDeduper.BYTES_PER_CARD, 0.01, this.memoryBudget * 2);
+
+		DataOutputStream[] outs = new DataOutputStream[this.totalPartitions];
+		try {
+
+			for (int i = 0; i < outs.length; i++) {
+				File partition = File.createTempFile("cah-partition", ".tmp", this.tempDirectory);
+				partitions.add(partition);
+				outs[i] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partition), bufferSize));
+			}
+
+			this.totalCards = 0;
+
+			Card card = reader.next();
+			while (card != null) {
+
+				long hash = ExternalDeduper.hash(card);
+				boolean isSuspect = !bloomFilter.put(hash);
+
+				int partition = (int) ((hash >>> 1) % outs.length);
+				ExternalDeduper.write(outs[partition], new Record(this.totalCards++, isSuspect, card));
+
+				card = reader.next();
+
+			}
+
+		} finally {
+			for (DataOutputStream out : outs) {
+				if (out != null) {
+					out.close();
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput and latency figures for games in progress. Safe to update from
+ * any number of threads at once.
+ * 
+ * Latencies are counted in buckets by power of two nanoseconds, so
+ * percentiles are approximate (to within a factor of two) but recording one
+ * costs next to nothing.
+ * 
+ * @author Sheila Thomson
+ */
+public class GameMetrics {
+
+	private final AtomicLongArray latencies;
+
+	private final LongAdder roundsPlayed;
+
+	private final LongAdder sessionsFailed;
+
+	private final LongAdder sessionsFinished;
+
+	private final LongAdder sessionsStarted;
+
+	private final long startTime;
+
+	private final LongAdder totalLatency;
+
+	public GameMetrics() {
+
+		this.latencies = new AtomicLongArray(64);
+		this.roundsPlayed = new LongAdder();
+		this.sessionsFailed = new LongAdder();
+		this.sessionsFinished = new LongAdder();
+		this.sessionsStarted = new LongAdder();
+		this.totalLatency = new LongAdder();
+		this.startTime = System.nanoTime();
+
+	}
+
+	/**
+	 * @param percentile eg. 99.9
+	 * @return an upper bound on the time taken by the given percentage of
+	 *         rounds, in nanoseconds.
+	 */
+	public long getLatencyPercentile(double percentile) {
+
+		long total = this.getRoundsPlayed();
+		if (total == 0) {
+			return 0;
+		}
+
+		long target = (long) Math.ceil(total * (percentile / 100.0));
+		long count = 0;
+		for (int bucket = 0; bucket < 64; bucket++) {
+			count = count + this.latencies.get(bucket);
+			if (count >= target) {
+				return (bucket >= 63) ? Long.MAX_VALUE : (1L << bucket);
+			}
+		}
+		return Long.MAX_VALUE;
+
+	}
+
+	/**
+	 * @return the mean time taken to play a round, in nanoseconds.
+	 */
+	public long getMeanLatency() {
+
+		long total = this.getRoundsPlayed();
+		if (total == 0) {
+			return 0;
+		}
+		return this.totalLatency.sum() / total;
+
+	}
+
+	public long getRoundsPlayed() {
+		return this.roundsPlayed.sum();
+	}
+
+	public long getSessionsFailed() {
+		return this.sessionsFailed.sum();
+	}
+
+	public long getSessionsFinished() {
+		return this.sessionsFinished.sum();
+	}
+
+	/**
+	 * @return the number of sessions started but not yet finished or failed.
+	 */
+	public long getSessionsInProgress() {
+		return this.sessionsStarted.sum() - this.sessionsFinished.sum() - this.sessionsFailed.sum();
+	}
+
+	public long getSessionsStarted() {
+		return this.sessionsStarted.sum();
+	}
+
+	/**
+	 * @return the average number of rounds played per second since these
+	 *         metrics were created.
+	 */
+	public double getThroughput() {
+
+		long elapsed = System.nanoTime() - this.startTime;
+		if (elapsed <= 0) {
+			return 0;
+		}
+		return this.getRoundsPlayed() / (elapsed / (double) TimeUnit.SECONDS.toNanos(1));
+
+	}
+
+	/**
+	 * @param latency the time taken to play the round, in nanoseconds.
+	 */
+	public void roundPlayed(long latency) {
+
+		if (latency < 0) {
+			latency = 0;
+		}
+
+		// The smallest power of two that's at least the latency.
+		int bucket = (latency <= 1) ? 0 : 64 - Long.numberOfLeadingZeros(latency - 1);
+		this.latencies.incrementAndGet(Math.min(bucket, 63));
+		this.totalLatency.add(latency);
+		this.roundsPlayed.increment();
+
+	}
+
+	public void sessionFailed() {
+		this.sessionsFailed.increment();
+	}
+
+	public void sessionFinished() {
+		this.sessionsFinished.increment();
+	}
+
+	public void sessionStarted() {
+		this.sessionsStarted.increment();
+	}
+
+	/**
+	 * @return a one-line summary of the figures.
+	 */
+	@Override
+	public String toString() {
+		return "sessions: " + this.getSessionsStarted() + " started, " + this.getSessionsFinished() + " finished, " + this.getSessionsFailed() + " failed; rounds: " + this.getRoundsPlayed() + " (" + Math.round(this.getThroughput()) + "/s); latency: mean " + this.getMeanLatency() + "ns, p99 <= " + this.getLatencyPercentile(99) + "ns";
+	}
+
+}
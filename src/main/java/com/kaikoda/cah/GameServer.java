@@ -0,0 +1,193 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Hosts any number of simultaneous games, all played with the same cards.
+ * 
+ * The deck is loaded once; every session shares its cards, which are never
+ * modified, and keeps only its own piles and hands. Each session runs as a
+ * task of its own: on a virtual thread where the Java runtime supports them
+ * (Java 21 onwards), otherwise on a fixed pool of platform threads, one per
+ * processor, where sessions wait their turn.
+ * 
+ * @author Sheila Thomson
+ */
+public class GameServer {
+
+	/**
+	 * The cards shared by every session.
+	 */
+	private final Dealer dealer;
+
+	private final ExecutorService executor;
+
+	private final GameMetrics metrics;
+
+	/**
+	 * For giving each session a different seed.
+	 */
+	private final AtomicLong seeds;
+
+	/**
+	 * @param deck the cards to play with. Blanks should already be
+	 *        standardised.
+	 */
+	public GameServer(Deck deck) {
+		this(deck, GameServer.newDefaultExecutor());
+	}
+
+	/**
+	 * @param deck the cards to play with. Blanks should already be
+	 *        standardised.
+	 * @param executor where to run each session.
+	 */
+	public GameServer(Deck deck, ExecutorService executor) {
+
+		if (executor == null) {
+			throw new IllegalArgumentException("Executor required.");
+		}
+
+		this.dealer = new Dealer(deck, 0L);
+		this.executor = executor;
+		this.metrics = new GameMetrics();
+		this.seeds = new AtomicLong(System.nanoTime());
+
+	}
+
+	/**
+	 * Reads card data and prepares it for play, in the same way as
+	 * CardGenerator.
+	 * 
+	 * @param data the card data file.
+	 * @return the deck, ready to play.
+	 * @throws SAXException when there's a problem parsing the card data.
+	 * @throws IOException when there's a problem reading the card data.
+	 * @throws ParserConfigurationException when there's a problem configuring
+	 *         the data parser.
+	 * @throws TransformerException when it's not possible to standardise the
+	 *         blanks or remove duplicates.
+	 */
+	public static Deck load(File data) throws SAXException, IOException, ParserConfigurationException, TransformerException {
+
+		if (!data.exists()) {
+			throw new IllegalArgumentException("File not found: " + data.getPath());
+		}
+
+		Deck deck = new Deck(Deck.parse(data));
+
+		// blank() de-dupes as well, unless there are no blanks to standardise.
+		if (deck.isBlanked()) {
+			deck.dedupe();
+		} else {
+			deck.blank();
+		}
+		return deck;
+
+	}
+
+	/**
+	 * @return a virtual thread per task executor if the Java runtime has one,
+	 *         otherwise a pool of platform threads, one per processor.
+	 */
+	protected static ExecutorService newDefaultExecutor() {
+
+		try {
+
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+
+		} catch (Exception e) {
+
+			// Virtual threads aren't available before Java 21. A platform
+			// thread per session would run out of memory long before
+			// thousands of sessions were started.
+			return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+		}
+
+	}
+
+	/**
+	 * Waits for every session already started to finish, then stops.
+	 * 
+	 * @param timeout the longest time to wait.
+	 * @param unit the unit of the timeout.
+	 * @return true if every session finished in time.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		this.executor.shutdown();
+		return this.executor.awaitTermination(timeout, unit);
+	}
+
+	public GameMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * @param totalPlayers the number of players, including the judge.
+	 * @param totalRounds the number of rounds to play.
+	 * @return a new game, ready to deal.
+	 */
+	public GameSession newSession(int totalPlayers, int totalRounds) {
+		return this.newSession(totalPlayers, totalRounds, this.seeds.incrementAndGet());
+	}
+
+	/**
+	 * @param totalPlayers the number of players, including the judge.
+	 * @param totalRounds the number of rounds to play.
+	 * @param seed for a repeatable game.
+	 * @return a new game, ready to deal.
+	 */
+	public GameSession newSession(int totalPlayers, int totalRounds, long seed) {
+		return new GameSession(this.dealer, totalPlayers, totalRounds, seed, this.metrics);
+	}
+
+	/**
+	 * Stops immediately, interrupting any sessions still running.
+	 */
+	public void shutdown() {
+		this.executor.shutdownNow();
+	}
+
+	/**
+	 * Plays a session to the end with simulated players, on its own thread.
+	 * 
+	 * @param session the game to play.
+	 * @return a means of waiting for the game to finish.
+	 */
+	public Future<?> start(GameSession session) {
+		return this.executor.submit(session);
+	}
+
+}
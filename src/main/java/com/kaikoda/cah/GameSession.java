@@ -0,0 +1,442 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A single game of Cards Against Humanity.
+ * 
+ * Each round moves through the same states: the cards are dealt, every player
+ * but the judge submits an answer, the judge picks a winner and the winner
+ * scores. Moving from one state to the next is a compare-and-set, so players
+ * can submit from any thread without locking; the other steps may also be
+ * called from any thread, but only one call will succeed per round.
+ * 
+ * Run as a Runnable, the session plays itself with simulated players, which
+ * is useful for simulations and load testing.
+ * 
+ * @author Sheila Thomson
+ */
+public class GameSession implements Runnable {
+
+	public enum GameState {
+		DEALING, SUBMITTING, JUDGING, SCORING, FINISHED,
+
+		/**
+		 * Part way between two other states.
+		 */
+		BUSY;
+	}
+
+	/**
+	 * The number of white cards each player holds at the start of a round.
+	 */
+	public static final int HAND_SIZE = 10;
+
+	private final Dealer dealer;
+
+	/**
+	 * The number of cards in each player's hand.
+	 */
+	private final int[] handSizes;
+
+	private final int[][] hands;
+
+	private final AtomicInteger judge;
+
+	private final GameMetrics metrics;
+
+	private final SplittableRandom random;
+
+	private final AtomicInteger roundsPlayed;
+
+	private final AtomicIntegerArray scores;
+
+	private final AtomicReference<GameState> state;
+
+	/**
+	 * Whether each player has submitted an answer this round (1) or not (0).
+	 */
+	private final AtomicIntegerArray submitted;
+
+	private final AtomicInteger submissionsReceived;
+
+	private final int[][] submissions;
+
+	private final int totalPlayers;
+
+	private final int totalRounds;
+
+	/**
+	 * The ID of the black card in play.
+	 */
+	private volatile int blackCard;
+
+	private volatile int winner;
+
+	/**
+	 * @param dealer a Dealer with the cards to play with; the new session
+	 *        shares its cards, but not its piles.
+	 * @param totalPlayers the number of players, including the judge.
+	 * @param totalRounds the number of rounds to play before the game is over.
+	 * @param seed for a repeatable game.
+	 * @param metrics where to record the progress of the game, or null.
+	 */
+	public GameSession(Dealer dealer, int totalPlayers, int totalRounds, long seed, GameMetrics metrics) {
+
+		if (totalPlayers < 3) {
+			throw new IllegalArgumentException("At least 3 players required.");
+		}
+
+		if (totalRounds < 1) {
+			throw new IllegalArgumentException("At least 1 round required.");
+		}
+
+		if (dealer.getTotalBlackCards() == 0) {
+			throw new IllegalArgumentException("No black cards.");
+		}
+
+		int maxPick = 1;
+		int maxDraw = 0;
+		for (int card = 0; card < dealer.getTotalBlackCards(); card++) {
+			maxPick = Math.max(maxPick, dealer.getPick(card));
+			maxDraw = Math.max(maxDraw, dealer.getDraw(card));
+		}
+
+		int handCapacity = HAND_SIZE + maxDraw;
+		if (dealer.getTotalWhiteCards() < totalPlayers * (handCapacity + maxPick)) {
+			throw new IllegalArgumentException("Not enough white cards for " + totalPlayers + " players.");
+		}
+
+		this.dealer = new Dealer(dealer, seed);
+		this.random = new SplittableRandom(seed);
+		this.metrics = metrics;
+		this.totalPlayers = totalPlayers;
+		this.totalRounds = totalRounds;
+
+		this.hands = new int[totalPlayers][handCapacity];
+		this.handSizes = new int[totalPlayers];
+		this.submissions = new int[totalPlayers][maxPick];
+		this.submitted = new AtomicIntegerArray(totalPlayers);
+		this.submissionsReceived = new AtomicInteger();
+		this.scores = new AtomicIntegerArray(totalPlayers);
+		this.roundsPlayed = new AtomicInteger();
+		this.judge = new AtomicInteger();
+		this.blackCard = -1;
+		this.winner = -1;
+
+		this.state = new AtomicReference<GameState>(GameState.DEALING);
+
+	}
+
+	/**
+	 * Tops up every player's hand, turns over a new black card and deals any
+	 * extra cards it calls for.
+	 */
+	public void deal() {
+
+		this.begin(GameState.DEALING);
+
+		int card = this.dealer.drawBlack();
+		this.blackCard = card;
+		int extra = this.dealer.getDraw(card);
+		int judge = this.judge.get();
+
+		for (int player = 0; player < this.totalPlayers; player++) {
+
+			int total = HAND_SIZE - this.handSizes[player];
+			if (player != judge) {
+				total = total + extra;
+			}
+
+			if (total > 0) {
+				this.handSizes[player] = this.handSizes[player] + this.dealer.deal(this.hands[player], this.handSizes[player], total);
+			}
+
+		}
+
+		this.submissionsReceived.set(0);
+		for (int player = 0; player < this.totalPlayers; player++) {
+			this.submitted.set(player, 0);
+		}
+
+		this.end(GameState.SUBMITTING);
+
+	}
+
+	/**
+	 * @return the ID of the black card in play.
+	 */
+	public int getBlackCard() {
+		return this.blackCard;
+	}
+
+	public Dealer getDealer() {
+		return this.dealer;
+	}
+
+	/**
+	 * @param player which player.
+	 * @param position which card in the player's hand.
+	 * @return the ID of the white card.
+	 */
+	public int getHandCard(int player, int position) {
+
+		if (position >= this.handSizes[player]) {
+			throw new IndexOutOfBoundsException("Player " + player + " holds only " + this.handSizes[player] + " cards.");
+		}
+		return this.hands[player][position];
+
+	}
+
+	public int getHandSize(int player) {
+		return this.handSizes[player];
+	}
+
+	/**
+	 * @return the player judging the current round.
+	 */
+	public int getJudge() {
+		return this.judge.get();
+	}
+
+	/**
+	 * @return the number of white cards each player must submit this round.
+	 */
+	public int getPick() {
+		return this.dealer.getPick(this.blackCard);
+	}
+
+	public int getRoundsPlayed() {
+		return this.roundsPlayed.get();
+	}
+
+	public int getScore(int player) {
+		return this.scores.get(player);
+	}
+
+	public GameState getState() {
+		return this.state.get();
+	}
+
+	public int getTotalPlayers() {
+		return this.totalPlayers;
+	}
+
+	/**
+	 * Records the judge's choice of the best answer.
+	 * 
+	 * @param player the player who submitted the winning answer.
+	 */
+	public void judge(int player) {
+
+		if (player == this.judge.get() || player < 0 || player >= this.totalPlayers) {
+			throw new IllegalArgumentException("Player " + player + " can't win this round.");
+		}
+
+		this.begin(GameState.JUDGING);
+		this.winner = player;
+		this.end(GameState.SCORING);
+
+	}
+
+	/**
+	 * Plays every remaining round with simulated players, picking up part way
+	 * through the current round if it's already been dealt.
+	 */
+	@Override
+	public void run() {
+
+		if (this.metrics != null) {
+			this.metrics.sessionStarted();
+		}
+
+		try {
+
+			int[] answer = new int[this.submissions[0].length];
+
+			while (this.state.get() != GameState.FINISHED) {
+
+				long start = System.nanoTime();
+
+				if (this.state.get() == GameState.DEALING) {
+					this.deal();
+				}
+
+				int judge = this.judge.get();
+				int pick = this.getPick();
+
+				for (int player = 0; player < this.totalPlayers; player++) {
+
+					if (player == judge || this.submitted.get(player) == 1) {
+						continue;
+					}
+
+					// Pick the first card at random and the rest in order.
+					int size = this.handSizes[player];
+					int first = this.random.nextInt(size);
+					for (int i = 0; i < pick; i++) {
+						answer[i] = this.hands[player][(first + i) % size];
+					}
+
+					this.submit(player, answer, pick);
+
+				}
+
+				int winner = this.random.nextInt(this.totalPlayers - 1);
+				if (winner >= judge) {
+					winner++;
+				}
+				this.judge(winner);
+
+				this.score();
+
+				if (this.metrics != null) {
+					this.metrics.roundPlayed(System.nanoTime() - start);
+				}
+
+			}
+
+			if (this.metrics != null) {
+				this.metrics.sessionFinished();
+			}
+
+		} catch (RuntimeException e) {
+
+			if (this.metrics != null) {
+				this.metrics.sessionFailed();
+			}
+			throw e;
+
+		}
+
+	}
+
+	/**
+	 * Awards the round to the winner, discards the cards played and passes
+	 * the role of judge to the next player.
+	 */
+	public void score() {
+
+		this.begin(GameState.SCORING);
+
+		this.scores.incrementAndGet(this.winner);
+
+		int pick = this.getPick();
+		int judge = this.judge.get();
+		for (int player = 0; player < this.totalPlayers; player++) {
+			if (player != judge) {
+				for (int i = 0; i < pick; i++) {
+					this.dealer.discardWhite(this.submissions[player][i]);
+				}
+			}
+		}
+
+		this.dealer.discardBlack(this.blackCard);
+		this.judge.set((judge + 1) % this.totalPlayers);
+		this.winner = -1;
+
+		if (this.roundsPlayed.incrementAndGet() >= this.totalRounds) {
+			this.end(GameState.FINISHED);
+		} else {
+			this.end(GameState.DEALING);
+		}
+
+	}
+
+	/**
+	 * Plays white cards from a player's hand in answer to the black card.
+	 * 
+	 * @param player the player submitting.
+	 * @param cards the IDs of the white cards, in the order they're to be
+	 *        read.
+	 * @param total how many of the cards to use.
+	 */
+	public void submit(int player, int[] cards, int total) {
+
+		if (this.state.get() != GameState.SUBMITTING) {
+			throw new IllegalStateException("Not accepting answers.");
+		}
+
+		if (player == this.judge.get() || player < 0 || player >= this.totalPlayers) {
+			throw new IllegalArgumentException("Player " + player + " can't answer this round.");
+		}
+
+		if (total != this.getPick()) {
+			throw new IllegalArgumentException("Expected " + this.getPick() + " cards.");
+		}
+
+		if (!this.submitted.compareAndSet(player, 0, 1)) {
+			throw new IllegalStateException("Player " + player + " has already answered.");
+		}
+
+		// Only this player touches their own hand while answers are accepted.
+		int[] hand = this.hands[player];
+		for (int i = 0; i < total; i++) {
+
+			int position = -1;
+			for (int j = 0; j < this.handSizes[player]; j++) {
+				if (hand[j] == cards[i]) {
+					position = j;
+					break;
+				}
+			}
+
+			if (position < 0) {
+
+				// Put back any cards already taken from the hand.
+				for (int j = 0; j < i; j++) {
+					hand[this.handSizes[player]++] = this.submissions[player][j];
+				}
+				this.submitted.set(player, 0);
+				throw new IllegalArgumentException("Player " + player + " doesn't hold card " + cards[i] + ".");
+
+			}
+
+			this.submissions[player][i] = cards[i];
+			hand[position] = hand[--this.handSizes[player]];
+
+		}
+
+		// The last player to answer moves the game on to judging.
+		if (this.submissionsReceived.incrementAndGet() == this.totalPlayers - 1) {
+			this.state.compareAndSet(GameState.SUBMITTING, GameState.JUDGING);
+		}
+
+	}
+
+	/**
+	 * Claims the right to move the game on from the state expected.
+	 */
+	private void begin(GameState expected) {
+
+		if (!this.state.compareAndSet(expected, GameState.BUSY)) {
+			throw new IllegalStateException("Expected " + expected + " but was " + this.state.get() + ".");
+		}
+
+	}
+
+	private void end(GameState next) {
+		this.state.set(next);
+	}
+
+}
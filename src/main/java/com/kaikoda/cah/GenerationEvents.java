@@ -0,0 +1,144 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Java Flight Recorder events for each stage of card generation, for viewing
+ * in JDK Mission Control.
+ * 
+ * Each stage creates an event and calls begin() before starting work, then
+ * fills in the details and commits only if shouldCommit() says the event is
+ * being recorded. When recording is off, that costs next to nothing; the
+ * details, such as the number of cards, are never worked out.
+ * 
+ * @author Sheila Thomson
+ */
+class GenerationEvents {
+
+	/**
+	 * The details common to every stage.
+	 */
+	@Category({ "Cards Against Humanity", "Generation" })
+	@StackTrace(false)
+	abstract static class GenerationEvent extends Event {
+
+		@Label("Bytes")
+		@DataAmount
+		long bytes;
+
+		@Label("Cards")
+		int cards;
+
+		@Label("Deck")
+		@Description("The name of the file the card data was read from")
+		String deck;
+
+		@Label("Locale")
+		String locale;
+
+		@Label("Product")
+		String product;
+
+		/**
+		 * Fills in the details of a deck.
+		 */
+		void setDeck(Deck deck) {
+			this.deck = deck.getName();
+			this.setDeck(deck.getData());
+		}
+
+		/**
+		 * Fills in the details of a snapshot of a deck.
+		 */
+		void setDeck(DeckSnapshot deck) {
+			this.locale = deck.getLanguage();
+			this.cards = deck.getCards().size();
+		}
+
+		/**
+		 * Fills in the details of card data.
+		 */
+		void setDeck(Document data) {
+
+			Element game = data.getDocumentElement();
+			if (game != null) {
+				this.locale = game.getAttribute("xml:lang");
+				this.cards = game.getElementsByTagName("card").getLength();
+			}
+
+		}
+
+	}
+
+	@Name("com.kaikoda.cah.AssetCopy")
+	@Label("Asset Copy")
+	@Description("Copying the files that style the HTML")
+	static class AssetCopyEvent extends GenerationEvent {
+	}
+
+	@Name("com.kaikoda.cah.Blank")
+	@Label("Blank")
+	@Description("Standardising blanks")
+	static class BlankEvent extends GenerationEvent {
+	}
+
+	@Name("com.kaikoda.cah.Dedupe")
+	@Label("Dedupe")
+	@Description("Removing duplicate cards")
+	static class DedupeEvent extends GenerationEvent {
+	}
+
+	@Name("com.kaikoda.cah.FileWrite")
+	@Label("File Write")
+	@Description("Saving a product to file")
+	static class FileWriteEvent extends GenerationEvent {
+	}
+
+	@Name("com.kaikoda.cah.Parse")
+	@Label("Parse")
+	@Description("Reading card data")
+	static class ParseEvent extends GenerationEvent {
+	}
+
+	@Name("com.kaikoda.cah.Render")
+	@Label("Render")
+	@Description("Writing card data as a product, such as HTML")
+	static class RenderEvent extends GenerationEvent {
+	}
+
+	@Name("com.kaikoda.cah.Translate")
+	@Label("Translate")
+	@Description("Translating card data from one culture to another")
+	static class TranslateEvent extends GenerationEvent {
+	}
+
+	private GenerationEvents() {
+	}
+
+}
@@ -0,0 +1,1240 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.kaikoda.cah.Card.CardColor;
+
+/**
+ * Writes card data as HTML5, without going through XSLT.
+ * 
+ * The markup written is the same, byte for byte, as that produced by
+ * html5.xsl. All static markup is encoded as UTF-8 once, up front, and card
+ * text is escaped and encoded straight into a re-usable buffer, so very little
+ * is allocated per card.
+ * 
+ * An instance is not thread-safe, but may be re-used for any number of
+ * (sequential) renders.
+ * 
+ * @author Sheila Thomson
+ */
+public class HtmlRenderer {
+
+	/**
+	 * Renders a run of whole pages of one suit, for writing in order once
+	 * every page before it is written.
+	 */
+	private static class PageTask extends RecursiveTask<byte[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<Card> cards;
+
+		private final HtmlRenderer renderer;
+
+		PageTask(HtmlRenderer renderer, List<Card> cards) {
+			this.renderer = renderer;
+			this.cards = cards;
+		}
+
+		@Override
+		protected byte[] compute() {
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			this.renderer.out = out;
+			this.renderer.position = 0;
+
+			try {
+
+				for (Card card : this.cards) {
+					this.renderer.renderCard(card);
+				}
+				this.renderer.flush();
+
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} finally {
+				this.renderer.out = null;
+			}
+
+			return out.toByteArray();
+
+		}
+
+	}
+
+	/**
+	 * The number of cards printed on each page, as grouped by html5.xsl: 5
+	 * rows of 4.
+	 */
+	public static final int CARDS_PER_PAGE = 20;
+
+	/**
+	 * The text used in place of a blank.
+	 */
+	protected static final String BLANK = "________";
+
+	/**
+	 * The number of runs of pages rendered, or waiting to be written, for
+	 * each thread in the pool at any one time.
+	 */
+	private static final int RUNS_IN_FLIGHT_PER_THREAD = 2;
+
+	/**
+	 * The number of runs each suit is split into for each thread in the
+	 * pool, so that a slow run doesn't hold up the rest.
+	 */
+	private static final int RUNS_PER_THREAD = 4;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final byte[] DOCUMENT_START = bytes("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<!DOCTYPE html>\n<html");
+
+	private static final byte[] DOCUMENT_EMPTY = bytes("/>\n");
+
+	private static final byte[] LANG_START = bytes(" xml:lang=\"");
+
+	private static final byte[] LANG_MIDDLE = bytes("\" lang=\"");
+
+	private static final byte[] QUOTE = bytes("\"");
+
+	private static final byte[] HEAD = bytes(">\n   <head>\n      <meta charset=\"UTF-8\"/>\n      <title>Cards Against Humanity</title>\n      <link href=\"http://creativecommons.org/licenses/by-nc-sa/2.0/\" rel=\"license\"/>\n      <link href=\"assets/style.css\"\n            media=\"all\"\n            rel=\"stylesheet\"\n            type=\"text/css\"/>\n   </head>");
+
+	private static final byte[] BODY_START = bytes("\n   <body>");
+
+	private static final byte[] BODY_EMPTY = bytes("\n   <body/>");
+
+	private static final byte[] BODY_END = bytes("\n   </body>");
+
+	private static final byte[] DOCUMENT_END = bytes("\n</html>\n");
+
+	private static final byte[] DECK_START = bytes("\n      <section class=\"deck\">");
+
+	private static final byte[] DECK_EMPTY = bytes("\n      <section class=\"deck\"/>");
+
+	private static final byte[] DECK_END = bytes("\n      </section>");
+
+	private static final byte[] SUIT_START = bytes("\n         <section class=\"");
+
+	private static final byte[] SUIT_START_END = bytes("\">");
+
+	private static final byte[] SUIT_EMPTY_END = bytes("\"/>");
+
+	private static final byte[] SUIT_END = bytes("\n         </section>");
+
+	private static final byte[] CARD_START = bytes("\n            <div class=\"card");
+
+	private static final byte[] CARD_INSTRUCTIONS = bytes(" has-instructions blanks-");
+
+	private static final byte[] CONTENT_START = bytes("\">\n               <div class=\"content\">\n                  <p");
+
+	private static final byte[] CONTENT_CLASS_START = bytes(" class=\"");
+
+	private static final byte[] CONTENT_TEXT_START = bytes("\">");
+
+	private static final byte[] CONTENT_TEXT_START_UNCLASSED = bytes(">");
+
+	private static final byte[] CONTENT_EMPTY = bytes("/>");
+
+	private static final byte[] CONTENT_END = bytes("</p>\n               </div>");
+
+	private static final byte[] CONTENT_EMPTY_END = bytes("\n               </div>");
+
+	private static final byte[] INSTRUCTIONS_START = bytes("\n               <div class=\"instructions\">");
+
+	private static final byte[] DRAW_START = bytes("\n                  <p class=\"draw\">Draw <span class=\"total\">");
+
+	private static final byte[] PICK_START = bytes("\n                  <p class=\"pick\">Pick <span class=\"total\">");
+
+	private static final byte[] TOTAL_END = bytes("</span>\n                  </p>");
+
+	private static final byte[] INSTRUCTIONS_END = bytes("\n               </div>");
+
+	private static final byte[] CARD_END = bytes("\n            </div>");
+
+	private static final byte[] BLANK_BYTES = bytes(BLANK);
+
+	private static final byte[] ESCAPED_AMP = bytes("&amp;");
+
+	private static final byte[] ESCAPED_LT = bytes("&lt;");
+
+	private static final byte[] ESCAPED_GT = bytes("&gt;");
+
+	private static final byte[] ESCAPED_QUOT = bytes("&#34;");
+
+	private static final byte[] ESCAPED_CR = bytes("&#xD;");
+
+	private static final byte[] ESCAPED_LF = bytes("&#xA;");
+
+	private static final byte[] ESCAPED_TAB = bytes("&#x9;");
+
+	private static final byte[] SIZE_LONG = bytes("long");
+
+	private static final byte[] SIZE_VERY_LONG = bytes("very-long");
+
+	private static final byte[] SIZE_VERY_VERY_LONG = bytes("very-very-long");
+
+	private static final byte[] SIZE_TOO_LONG = bytes("too-long");
+
+	private static final byte[] SIZE_FAR_TOO_LONG = bytes("far-too-long");
+
+	private static final byte[] HEX_DIGITS = bytes("0123456789ABCDEF");
+
+	/**
+	 * Holds encoded output until there's enough to be worth writing.
+	 */
+	private final byte[] buffer;
+
+	/**
+	 * The number of bytes written to the output stream by the last render.
+	 */
+	private long bytesWritten;
+
+	/**
+	 * The destination of the encoded output.
+	 */
+	private OutputStream out;
+
+	/**
+	 * The position of the next free byte in the buffer.
+	 */
+	private int position;
+
+	/**
+	 * Default constructor.
+	 */
+	public HtmlRenderer() {
+		this(8192);
+	}
+
+	/**
+	 * @param bufferSize the number of bytes to hold in memory before writing
+	 *        to the output stream.
+	 */
+	public HtmlRenderer(int bufferSize) {
+
+		if (bufferSize < 16) {
+			throw new IllegalArgumentException("Buffer size must be at least 16 bytes.");
+		}
+
+		this.buffer = new byte[bufferSize];
+
+	}
+
+	/**
+	 * Calculates the number of characters a card will take up once printed,
+	 * counting each blank as a full-length line.
+	 * 
+	 * @param card a card element.
+	 * @return the total number of characters.
+	 */
+	protected static int countCharacters(Element card) {
+		return HtmlRenderer.countTextCharacters(card) + (HtmlRenderer.countBlanks(card) * BLANK.length());
+	}
+
+	/**
+	 * @param card a card element.
+	 * @return the number of blanks on the card.
+	 */
+	protected static int countBlanks(Element card) {
+
+		int total = 0;
+		for (Node child = card.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child.getNodeType() == Node.ELEMENT_NODE && child.getNodeName().equals("blank")) {
+				total++;
+			}
+		}
+		return total;
+
+	}
+
+	/**
+	 * Describes how long a card is, for styling purposes.
+	 * 
+	 * @param totalCharacters the number of characters on the card.
+	 * @return the size class, or null if the card isn't long enough to need
+	 *         one.
+	 */
+	protected static String getSizeClass(int totalCharacters) {
+
+		byte[] size = HtmlRenderer.getSizeClassBytes(totalCharacters);
+		if (size == null) {
+			return null;
+		}
+		return new String(size, UTF_8);
+
+	}
+
+	private static byte[] bytes(String fragment) {
+		return fragment.getBytes(UTF_8);
+	}
+
+	/**
+	 * Counts the characters (rather than UTF-16 code units) in all the text
+	 * within a node, as XPath string-length() does.
+	 */
+	private static int countTextCharacters(Node node) {
+
+		int total = 0;
+		for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+
+			short type = child.getNodeType();
+			if (type == Node.TEXT_NODE || type == Node.CDATA_SECTION_NODE) {
+				String text = child.getNodeValue();
+				total = total + text.codePointCount(0, text.length());
+			} else if (type == Node.ELEMENT_NODE) {
+				total = total + HtmlRenderer.countTextCharacters(child);
+			}
+
+		}
+		return total;
+
+	}
+
+	private static byte[] getSizeClassBytes(int totalCharacters) {
+
+		if (totalCharacters > 150) {
+			return SIZE_FAR_TOO_LONG;
+		} else if (totalCharacters > 125) {
+			return SIZE_TOO_LONG;
+		} else if (totalCharacters > 110) {
+			return SIZE_VERY_VERY_LONG;
+		} else if (totalCharacters > 90) {
+			return SIZE_VERY_LONG;
+		} else if (totalCharacters > 80) {
+			return SIZE_LONG;
+		}
+		return null;
+
+	}
+
+	/**
+	 * @return the suits of a deck in the order html5.xsl writes them: white,
+	 *         then black.
+	 */
+	private static List<DeckSnapshot.Suit> getSuitsInOrder(List<DeckSnapshot.Suit> suits) {
+
+		ArrayList<DeckSnapshot.Suit> result = new ArrayList<DeckSnapshot.Suit>(suits.size());
+		for (int i = 0; i < 2; i++) {
+			CardColor color = (i == 0) ? CardColor.WHITE : CardColor.BLACK;
+			for (DeckSnapshot.Suit suit : suits) {
+				if (suit.getColor() == color) {
+					result.add(suit);
+				}
+			}
+		}
+		return result;
+
+	}
+
+	/**
+	 * @param totalCards the number of cards in a suit.
+	 * @param parallelism the number of threads rendering.
+	 * @return the number of cards in each run of pages the suit is split
+	 *         into: a whole number of pages.
+	 */
+	private static int getRunSize(int totalCards, int parallelism) {
+
+		int totalPages = (totalCards + CARDS_PER_PAGE - 1) / CARDS_PER_PAGE;
+		return Math.max(1, totalPages / (parallelism * RUNS_PER_THREAD)) * CARDS_PER_PAGE;
+
+	}
+
+	/**
+	 * Waits for pages to be rendered.
+	 */
+	private static byte[] join(ForkJoinTask<byte[]> pages) throws IOException {
+
+		try {
+			return pages.join();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+	}
+
+	/**
+	 * @return the number of bytes written by the last render.
+	 */
+	public long getBytesWritten() {
+		return this.bytesWritten;
+	}
+
+	/**
+	 * Writes cards held outside the heap as HTML5, as a single deck. Card
+	 * text is escaped straight from the arena, without creating Strings.
+	 * 
+	 * @param data the cards.
+	 * @param out where to write the HTML. It is flushed, but not closed.
+	 * @throws IOException when it's not possible to write to the output
+	 *         stream.
+	 */
+	public void render(CardArena data, OutputStream out) throws IOException {
+
+		this.out = out;
+		this.position = 0;
+		this.bytesWritten = 0;
+
+		try {
+
+			this.write(DOCUMENT_START);
+
+			if (data.getLanguage().length() > 0) {
+				this.writeLanguage(data.getLanguage());
+			}
+
+			this.write(HEAD);
+			this.write(BODY_START);
+			this.renderDeck(data);
+			this.write(BODY_END);
+			this.write(DOCUMENT_END);
+
+			this.flush();
+			out.flush();
+
+		} finally {
+			this.out = null;
+		}
+
+	}
+
+	/**
+	 * Writes the card data specified as HTML5.
+	 * 
+	 * @param data the card data.
+	 * @param out where to write the HTML. It is flushed, but not closed.
+	 * @throws IOException when it's not possible to write to the output
+	 *         stream.
+	 */
+	public void render(Document data, OutputStream out) throws IOException {
+
+		this.out = out;
+		this.position = 0;
+		this.bytesWritten = 0;
+
+		try {
+
+			this.write(DOCUMENT_START);
+
+			Element game = data.getDocumentElement();
+			if (game == null || !game.getNodeName().equals("game")) {
+
+				// Nothing to render.
+				this.write(DOCUMENT_EMPTY);
+
+			} else {
+
+				if (game.hasAttribute("xml:lang")) {
+					this.writeLanguage(game.getAttribute("xml:lang"));
+				}
+
+				this.write(HEAD);
+				this.renderBody(game);
+				this.write(DOCUMENT_END);
+
+			}
+
+			this.flush();
+			out.flush();
+
+		} finally {
+			this.out = null;
+		}
+
+	}
+
+	/**
+	 * Writes a snapshot of card data as HTML5, rendering the pages of each
+	 * suit at the same time. The result is identical to that of
+	 * render(DeckSnapshot, OutputStream).
+	 * 
+	 * Each suit is split into runs of whole pages, about four per thread in
+	 * the pool, which are rendered as separate tasks by renderers of their
+	 * own (see newRenderer()). The runs are written in order, each as soon as
+	 * it and every run before it is ready. Only a couple of runs per thread
+	 * are rendered ahead of the one being written, so however large the
+	 * deck, only those are held in memory at once.
+	 * 
+	 * @param data the card data.
+	 * @param out where to write the HTML. It is flushed, but not closed.
+	 * @param pool where to render the pages.
+	 * @throws IOException when it's not possible to write to the output
+	 *         stream.
+	 */
+	public void render(DeckSnapshot data, OutputStream out, ForkJoinPool pool) throws IOException {
+
+		if (pool == null) {
+			throw new IllegalArgumentException("Pool required.");
+		}
+
+		// Split every suit into runs of pages, in the order they're to be
+		// written.
+		int parallelism = pool.getParallelism();
+		ArrayList<List<Card>> runs = new ArrayList<List<Card>>();
+		for (int deck = 0; deck < data.getTotalDecks(); deck++) {
+			for (DeckSnapshot.Suit suit : HtmlRenderer.getSuitsInOrder(data.getSuits(deck))) {
+
+				List<Card> cards = suit.getCards();
+				int runSize = HtmlRenderer.getRunSize(cards.size(), parallelism);
+				for (int start = 0; start < cards.size(); start = start + runSize) {
+					runs.add(cards.subList(start, Math.min(cards.size(), start + runSize)));
+				}
+
+			}
+		}
+
+		Iterator<List<Card>> pending = runs.iterator();
+		ArrayDeque<ForkJoinTask<byte[]>> pages = new ArrayDeque<ForkJoinTask<byte[]>>();
+		int maxInFlight = parallelism * RUNS_IN_FLIGHT_PER_THREAD;
+
+		this.out = out;
+		this.position = 0;
+		this.bytesWritten = 0;
+
+		try {
+
+			this.submit(pool, pending, pages, maxInFlight);
+
+			this.write(DOCUMENT_START);
+
+			if (data.getLanguage() != null) {
+				this.writeLanguage(data.getLanguage());
+			}
+
+			this.write(HEAD);
+
+			if (data.getTotalDecks() == 0) {
+				this.write(BODY_EMPTY);
+			} else {
+
+				this.write(BODY_START);
+				for (int deck = 0; deck < data.getTotalDecks(); deck++) {
+
+					List<DeckSnapshot.Suit> suits = HtmlRenderer.getSuitsInOrder(data.getSuits(deck));
+					if (suits.isEmpty()) {
+						this.write(DECK_EMPTY);
+						continue;
+					}
+
+					this.write(DECK_START);
+					for (DeckSnapshot.Suit suit : suits) {
+
+						this.write(SUIT_START);
+						this.writeEscaped(suit.getColor().getValue(), true);
+
+						if (suit.getCards().isEmpty()) {
+							this.write(SUIT_EMPTY_END);
+							continue;
+						}
+
+						this.write(SUIT_START_END);
+						int runSize = HtmlRenderer.getRunSize(suit.getCards().size(), parallelism);
+						for (int written = 0; written < suit.getCards().size(); written = written + runSize) {
+
+							// Start the next run before waiting on this one.
+							ForkJoinTask<byte[]> next = pages.poll();
+							this.submit(pool, pending, pages, maxInFlight);
+							this.write(HtmlRenderer.join(next));
+
+						}
+						this.write(SUIT_END);
+
+					}
+					this.write(DECK_END);
+
+				}
+				this.write(BODY_END);
+
+			}
+
+			this.write(DOCUMENT_END);
+
+			this.flush();
+			out.flush();
+
+		} finally {
+
+			this.out = null;
+
+			// Don't leave pages rendering if writing failed
+			for (ForkJoinTask<byte[]> page : pages) {
+				page.cancel(false);
+			}
+
+		}
+
+	}
+
+	/**
+	 * Writes a snapshot of card data as HTML5. Any number of renderers may
+	 * render the same snapshot at once.
+	 * 
+	 * @param data the card data.
+	 * @param out where to write the HTML. It is flushed, but not closed.
+	 * @throws IOException when it's not possible to write to the output
+	 *         stream.
+	 */
+	public void render(DeckSnapshot data, OutputStream out) throws IOException {
+
+		this.out = out;
+		this.position = 0;
+		this.bytesWritten = 0;
+
+		try {
+
+			this.write(DOCUMENT_START);
+
+			if (data.getLanguage() != null) {
+				this.writeLanguage(data.getLanguage());
+			}
+
+			this.write(HEAD);
+
+			if (data.getTotalDecks() == 0) {
+				this.write(BODY_EMPTY);
+			} else {
+				this.write(BODY_START);
+				for (int deck = 0; deck < data.getTotalDecks(); deck++) {
+					this.renderDeck(data.getSuits(deck));
+				}
+				this.write(BODY_END);
+			}
+
+			this.write(DOCUMENT_END);
+
+			this.flush();
+			out.flush();
+
+		} finally {
+			this.out = null;
+		}
+
+	}
+
+	/**
+	 * Creates a renderer for rendering pages in parallel. Override to have
+	 * pages rendered by a subclass.
+	 * 
+	 * @return a new renderer, with the same size of buffer.
+	 */
+	protected HtmlRenderer newRenderer() {
+		return new HtmlRenderer(this.buffer.length);
+	}
+
+	/**
+	 * Writes a single card, straight from its encoded text.
+	 * 
+	 * @param data the cards.
+	 * @param card the ID of the card.
+	 * @throws IOException when it's not possible to write to the output
+	 *         stream.
+	 */
+	protected void renderCard(CardArena data, int card) throws IOException {
+
+		ByteBuffer text = data.getSegment(card);
+		int start = data.getStart(card);
+		int end = start + data.getLength(card);
+
+		// Count the blanks, and the characters as the first byte of each
+		int totalBlanks = 0;
+		int totalCharacters = 0;
+		for (int i = start; i < end; i++) {
+			byte b = text.get(i);
+			if (b == CardArena.BLANK) {
+				totalBlanks++;
+			} else if ((b & 0xC0) != 0x80) {
+				totalCharacters++;
+			}
+		}
+
+		boolean hasContent = end > start;
+
+		this.startCard(totalBlanks, totalCharacters + (totalBlanks * BLANK.length()), hasContent);
+
+		if (hasContent) {
+			this.writeEscaped(text, start, end);
+		}
+
+		this.endCard(totalBlanks, hasContent);
+
+	}
+
+	/**
+	 * Writes a single card.
+	 * 
+	 * @param card a card.
+	 * @throws IOException when it's not possible to write to the output
+	 *         stream.
+	 */
+	protected void renderCard(Card card) throws IOException {
+
+		int totalBlanks = card.getBlanks();
+		String text = card.getText();
+		boolean hasContent = totalBlanks > 0 || text.length() > 0;
+
+		this.startCard(totalBlanks, text.codePointCount(0, text.length()) + (totalBlanks * BLANK.length()), hasContent);
+
+		if (hasContent) {
+			for (int i = 0; i <= totalBlanks; i++) {
+				if (i > 0) {
+					this.write(BLANK_BYTES);
+				}
+				this.writeEscaped(card.getFragment(i), false);
+			}
+		}
+
+		this.endCard(totalBlanks, hasContent);
+
+	}
+
+	/**
+	 * Writes a single card.
+	 * 
+	 * @param card a card element.
+	 * @throws IOException when it's not possible to write to the output
+	 *         stream.
+	 */
+	protected void renderCard(Element card) throws IOException {
+
+		int totalBlanks = HtmlRenderer.countBlanks(card);
+		boolean hasContent = card.hasChildNodes();
+
+		this.startCard(totalBlanks, HtmlRenderer.countCharacters(card), hasContent);
+
+		if (hasContent) {
+			this.renderContent(card);
+		}
+
+		this.endCard(totalBlanks, hasContent);
+
+	}
+
+	/**
+	 * Writes the contents of the buffer to the output stream.
+	 */
+	protected void flush() throws IOException {
+
+		if (this.position > 0) {
+			this.out.write(this.buffer, 0, this.position);
+			this.bytesWritten = this.bytesWritten + this.position;
+			this.position = 0;
+		}
+
+	}
+
+	private void renderBody(Element game) throws IOException {
+
+		boolean isEmpty = true;
+		for (Node child = game.getFirstChild(); child != null; child = child.getNextSibling()) {
+
+			if (child.getNodeType() != Node.ELEMENT_NODE || !child.getNodeName().equals("deck")) {
+				continue;
+			}
+
+			if (isEmpty) {
+				this.write(BODY_START);
+				isEmpty = false;
+			}
+
+			this.renderDeck((Element) child);
+
+		}
+
+		if (isEmpty) {
+			this.write(BODY_EMPTY);
+		} else {
+			this.write(BODY_END);
+		}
+
+	}
+
+	private void renderContent(Node node) throws IOException {
+
+		for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+
+			short type = child.getNodeType();
+			if (type == Node.TEXT_NODE || type == Node.CDATA_SECTION_NODE) {
+				this.writeEscaped(child.getNodeValue(), false);
+			} else if (type == Node.ELEMENT_NODE) {
+				if (child.getNodeName().equals("blank")) {
+					this.write(BLANK_BYTES);
+				} else {
+					this.renderContent(child);
+				}
+			}
+
+		}
+
+	}
+
+	private void renderDeck(CardArena data) throws IOException {
+
+		// White cards first, then black, as per html5.xsl
+		boolean hasSuits = false;
+		for (int i = 0; i < 2; i++) {
+
+			CardColor color = (i == 0) ? CardColor.WHITE : CardColor.BLACK;
+			if (!data.getColors().contains(color)) {
+				continue;
+			}
+
+			if (!hasSuits) {
+				this.write(DECK_START);
+				hasSuits = true;
+			}
+
+			this.write(SUIT_START);
+			this.writeEscaped(color.getValue(), true);
+
+			boolean hasCards = false;
+			for (int card = 0; card < data.getTotalCards(); card++) {
+
+				if (data.getColor(card) != color) {
+					continue;
+				}
+
+				if (!hasCards) {
+					this.write(SUIT_START_END);
+					hasCards = true;
+				}
+
+				this.renderCard(data, card);
+
+			}
+
+			if (hasCards) {
+				this.write(SUIT_END);
+			} else {
+				this.write(SUIT_EMPTY_END);
+			}
+
+		}
+
+		if (hasSuits) {
+			this.write(DECK_END);
+		} else {
+			this.write(DECK_EMPTY);
+		}
+
+	}
+
+	private void renderDeck(List<DeckSnapshot.Suit> suits) throws IOException {
+
+		// White cards first, then black, as per html5.xsl
+		boolean hasSuits = false;
+		for (int i = 0; i < 2; i++) {
+
+			CardColor color = (i == 0) ? CardColor.WHITE : CardColor.BLACK;
+			for (DeckSnapshot.Suit suit : suits) {
+
+				if (suit.getColor() != color) {
+					continue;
+				}
+
+				if (!hasSuits) {
+					this.write(DECK_START);
+					hasSuits = true;
+				}
+
+				this.write(SUIT_START);
+				this.writeEscaped(color.getValue(), true);
+
+				if (suit.getCards().isEmpty()) {
+					this.write(SUIT_EMPTY_END);
+				} else {
+					this.write(SUIT_START_END);
+					for (Card card : suit.getCards()) {
+						this.renderCard(card);
+					}
+					this.write(SUIT_END);
+				}
+
+			}
+
+		}
+
+		if (hasSuits) {
+			this.write(DECK_END);
+		} else {
+			this.write(DECK_EMPTY);
+		}
+
+	}
+
+	private void renderDeck(Element deck) throws IOException {
+
+		// White cards first, then black, as per html5.xsl
+		boolean hasSuits = false;
+		for (int i = 0; i < 2; i++) {
+
+			String color = (i == 0) ? "white" : "black";
+
+			for (Node child = deck.getFirstChild(); child != null; child = child.getNextSibling()) {
+
+				if (child.getNodeType() != Node.ELEMENT_NODE || !child.getNodeName().equals("suit")) {
+					continue;
+				}
+
+				Element suit = (Element) child;
+				if (!suit.getAttribute("color").equals(color)) {
+					continue;
+				}
+
+				if (!hasSuits) {
+					this.write(DECK_START);
+					hasSuits = true;
+				}
+
+				this.renderSuit(suit, color);
+
+			}
+
+		}
+
+		if (hasSuits) {
+			this.write(DECK_END);
+		} else {
+			this.write(DECK_EMPTY);
+		}
+
+	}
+
+	private void renderSuit(Element suit, String color) throws IOException {
+
+		this.write(SUIT_START);
+		this.writeEscaped(color, true);
+
+		boolean hasCards = false;
+		for (Node child = suit.getFirstChild(); child != null; child = child.getNextSibling()) {
+
+			if (child.getNodeType() != Node.ELEMENT_NODE || !child.getNodeName().equals("card")) {
+				continue;
+			}
+
+			if (!hasCards) {
+				this.write(SUIT_START_END);
+				hasCards = true;
+			}
+
+			this.renderCard((Element) child);
+
+		}
+
+		if (hasCards) {
+			this.write(SUIT_END);
+		} else {
+			this.write(SUIT_EMPTY_END);
+		}
+
+	}
+
+	/**
+	 * Writes the end of a card: its instructions, if any, and closing tags.
+	 */
+	private void endCard(int totalBlanks, boolean hasContent) throws IOException {
+
+		if (hasContent) {
+			this.write(CONTENT_END);
+		} else {
+			this.write(CONTENT_EMPTY);
+			this.write(CONTENT_EMPTY_END);
+		}
+
+		if (totalBlanks > 1) {
+
+			this.write(INSTRUCTIONS_START);
+
+			if (totalBlanks > 2) {
+				this.write(DRAW_START);
+				this.writeInt(totalBlanks - 1);
+				this.write(TOTAL_END);
+			}
+
+			this.write(PICK_START);
+			this.writeInt(totalBlanks);
+			this.write(TOTAL_END);
+
+			this.write(INSTRUCTIONS_END);
+
+		}
+
+		this.write(CARD_END);
+
+	}
+
+	private void reserve(int length) throws IOException {
+		if (this.position + length > this.buffer.length) {
+			this.flush();
+		}
+	}
+
+	/**
+	 * Starts rendering runs of pages, in order, until the most allowed are in
+	 * flight.
+	 */
+	private void submit(ForkJoinPool pool, Iterator<List<Card>> pending, ArrayDeque<ForkJoinTask<byte[]>> pages, int maxInFlight) {
+
+		while (pages.size() < maxInFlight && pending.hasNext()) {
+			pages.add(pool.submit(new PageTask(this.newRenderer(), pending.next())));
+		}
+
+	}
+
+	/**
+	 * Writes the start of a card, up to its content.
+	 */
+	private void startCard(int totalBlanks, int totalCharacters, boolean hasContent) throws IOException {
+
+		byte[] size = HtmlRenderer.getSizeClassBytes(totalCharacters);
+
+		this.write(CARD_START);
+		if (totalBlanks > 1) {
+			this.write(CARD_INSTRUCTIONS);
+			this.writeInt(totalBlanks);
+		}
+		this.write(CONTENT_START);
+
+		if (size != null) {
+			this.write(CONTENT_CLASS_START);
+			this.write(size);
+			this.write(CONTENT_TEXT_START);
+		} else if (hasContent) {
+			this.write(CONTENT_TEXT_START_UNCLASSED);
+		}
+
+	}
+
+	private void write(byte[] fragment) throws IOException {
+
+		if (fragment.length > this.buffer.length) {
+			this.flush();
+			this.out.write(fragment);
+			this.bytesWritten = this.bytesWritten + fragment.length;
+			return;
+		}
+
+		this.reserve(fragment.length);
+		System.arraycopy(fragment, 0, this.buffer, this.position, fragment.length);
+		this.position = this.position + fragment.length;
+
+	}
+
+	/**
+	 * Writes a character reference, eg. &#x85;
+	 */
+	private void writeCharacterReference(int codePoint) throws IOException {
+
+		this.reserve(12);
+		this.buffer[this.position++] = '&';
+		this.buffer[this.position++] = '#';
+		this.buffer[this.position++] = 'x';
+
+		boolean started = false;
+		for (int shift = 20; shift >= 0; shift = shift - 4) {
+			int digit = (codePoint >> shift) & 0xF;
+			if (digit != 0 || started || shift == 0) {
+				this.buffer[this.position++] = HEX_DIGITS[digit];
+				started = true;
+			}
+		}
+
+		this.buffer[this.position++] = ';';
+
+	}
+
+	/**
+	 * Escapes text already encoded as UTF-8, directly into the buffer.
+	 * Blanks are written as a line.
+	 */
+	private void writeEscaped(ByteBuffer text, int start, int end) throws IOException {
+
+		for (int i = start; i < end; i++) {
+
+			byte b = text.get(i);
+
+			switch (b) {
+			case CardArena.BLANK:
+				this.write(BLANK_BYTES);
+				continue;
+			case '&':
+				this.write(ESCAPED_AMP);
+				continue;
+			case '<':
+				this.write(ESCAPED_LT);
+				continue;
+			case '>':
+				this.write(ESCAPED_GT);
+				continue;
+			case '\r':
+				this.write(ESCAPED_CR);
+				continue;
+			default:
+				break;
+			}
+
+			// C1 control characters are written as character references
+			if (b == (byte) 0xC2 && i + 1 < end && (text.get(i + 1) & 0xFF) < 0xA0) {
+				this.writeCharacterReference(text.get(++i) & 0xFF);
+				continue;
+			}
+
+			this.reserve(1);
+			this.buffer[this.position++] = b;
+
+		}
+
+	}
+
+	/**
+	 * Escapes and encodes text as UTF-8, directly into the buffer.
+	 * 
+	 * @param text the text to write.
+	 * @param isAttribute true if the text is an attribute value, in which case
+	 *        quotes and whitespace other than a space are also escaped.
+	 */
+	private void writeEscaped(String text, boolean isAttribute) throws IOException {
+
+		int length = text.length();
+		for (int i = 0; i < length; i++) {
+
+			char c = text.charAt(i);
+
+			switch (c) {
+			case '&':
+				this.write(ESCAPED_AMP);
+				continue;
+			case '<':
+				this.write(ESCAPED_LT);
+				continue;
+			case '>':
+				this.write(ESCAPED_GT);
+				continue;
+			case '\r':
+				this.write(ESCAPED_CR);
+				continue;
+			case '"':
+				if (isAttribute) {
+					this.write(ESCAPED_QUOT);
+					continue;
+				}
+				break;
+			case '\n':
+				if (isAttribute) {
+					this.write(ESCAPED_LF);
+					continue;
+				}
+				break;
+			case '\t':
+				if (isAttribute) {
+					this.write(ESCAPED_TAB);
+					continue;
+				}
+				break;
+			default:
+				break;
+			}
+
+			this.reserve(4);
+
+			if (c < 0x80) {
+
+				this.buffer[this.position++] = (byte) c;
+
+			} else if (c < 0xA0) {
+
+				// C1 control characters are written as character references
+				this.writeCharacterReference(c);
+
+			} else if (c < 0x800) {
+
+				this.buffer[this.position++] = (byte) (0xC0 | (c >> 6));
+				this.buffer[this.position++] = (byte) (0x80 | (c & 0x3F));
+
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+
+				int codePoint = Character.toCodePoint(c, text.charAt(++i));
+				this.buffer[this.position++] = (byte) (0xF0 | (codePoint >> 18));
+				this.buffer[this.position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				this.buffer[this.position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				this.buffer[this.position++] = (byte) (0x80 | (codePoint & 0x3F));
+
+			} else {
+
+				this.buffer[this.position++] = (byte) (0xE0 | (c >> 12));
+				this.buffer[this.position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				this.buffer[this.position++] = (byte) (0x80 | (c & 0x3F));
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * Writes a non-negative integer as ASCII digits, without creating a
+	 * String.
+	 */
+	private void writeInt(int value) throws IOException {
+
+		this.reserve(10);
+
+		int digits = 1;
+		for (int remaining = value / 10; remaining > 0; remaining = remaining / 10) {
+			digits++;
+		}
+
+		int end = this.position + digits;
+		for (int i = end - 1; i >= this.position; i--) {
+			this.buffer[i] = (byte) ('0' + (value % 10));
+			value = value / 10;
+		}
+		this.position = end;
+
+	}
+
+	/**
+	 * Writes the xml:lang and lang attributes of the html element.
+	 */
+	private void writeLanguage(String language) throws IOException {
+
+		this.write(LANG_START);
+		this.writeEscaped(language, true);
+		this.write(LANG_MIDDLE);
+		this.writeEscaped(language, true);
+		this.write(QUOTE);
+
+	}
+
+}
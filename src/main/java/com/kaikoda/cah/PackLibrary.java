@@ -0,0 +1,428 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.xml.sax.SAXException;
+
+import com.kaikoda.cah.Card.CardColor;
+import com.kaikoda.cah.DeckSnapshot.Suit;
+
+/**
+ * A library of packs of cards, each loaded once, from which any number of
+ * editions can be composed without parsing anything again.
+ * 
+ * The cards of every pack are held in a single store, blanked and de-duped.
+ * Each pack is given a range of card IDs, in document order. A card that
+ * appears in more than one pack is stored once and shared between them, so
+ * that it's the same card in each.
+ * 
+ * An edition is described by a selection expression, naming packs and
+ * combining them from left to right:
+ * 
+ * <pre>
+ * original + tech - usa
+ * </pre>
+ * 
+ * where + includes the cards of a pack, - (or &#8722;) excludes them and &amp;
+ * keeps only the cards in both. Parentheses may be used for grouping. As a
+ * pack name may contain a hyphen, a minus sign should have a space either
+ * side.
+ * 
+ * Not thread-safe for adding packs, but any number of threads may select
+ * editions at once while no packs are being added.
+ * 
+ * @author Sheila Thomson
+ */
+public class PackLibrary {
+
+	/**
+	 * A pack of cards in the library.
+	 */
+	private static class Pack {
+
+		/**
+		 * The cards in the pack, by the ID first given to each.
+		 */
+		private final BitSet cards;
+
+		private final int end;
+
+		private final String language;
+
+		private final String licence;
+
+		private final String licenceHref;
+
+		private final int start;
+
+		private Pack(DeckSnapshot deck, int start, int end, BitSet cards) {
+			this.cards = cards;
+			this.end = end;
+			this.language = deck.getLanguage();
+			this.licence = deck.getLicence();
+			this.licenceHref = deck.getLicenceHref();
+			this.start = start;
+		}
+
+	}
+
+	/**
+	 * Reads a selection expression.
+	 */
+	private class Selection {
+
+		private final String expression;
+
+		/**
+		 * The first pack named in the expression.
+		 */
+		private Pack first;
+
+		private int position;
+
+		private Selection(String expression) {
+			this.expression = expression;
+			this.position = 0;
+		}
+
+		/**
+		 * expression := term (operator term)*
+		 */
+		private BitSet readExpression() {
+
+			BitSet result = this.readTerm();
+
+			char operator = this.readOperator();
+			while (operator != 0) {
+
+				BitSet term = this.readTerm();
+				if (operator == '+') {
+					result.or(term);
+				} else if (operator == '&') {
+					result.and(term);
+				} else {
+					result.andNot(term);
+				}
+
+				operator = this.readOperator();
+
+			}
+
+			return result;
+
+		}
+
+		/**
+		 * @return the next operator, or 0 if there isn't one.
+		 */
+		private char readOperator() {
+
+			this.skipSpace();
+			if (this.position >= this.expression.length()) {
+				return 0;
+			}
+
+			char c = this.expression.charAt(this.position);
+			if (c == '+' || c == '&' || c == '\u2212') {
+				this.position++;
+				return (c == '\u2212') ? '-' : c;
+			}
+
+			if (c == '-' && (this.position + 1 == this.expression.length() || Character.isWhitespace(this.expression.charAt(this.position + 1)) || this.expression.charAt(this.position + 1) == '(')) {
+				this.position++;
+				return '-';
+			}
+
+			return 0;
+
+		}
+
+		/**
+		 * term := name | ( expression )
+		 */
+		private BitSet readTerm() {
+
+			this.skipSpace();
+			if (this.position >= this.expression.length()) {
+				throw new IllegalArgumentException("Pack name expected at position " + this.position + ".");
+			}
+
+			if (this.expression.charAt(this.position) == '(') {
+
+				this.position++;
+				BitSet result = this.readExpression();
+
+				this.skipSpace();
+				if (this.position >= this.expression.length() || this.expression.charAt(this.position) != ')') {
+					throw new IllegalArgumentException("Closing parenthesis expected at position " + this.position + ".");
+				}
+				this.position++;
+
+				return result;
+
+			}
+
+			int start = this.position;
+			while (this.position < this.expression.length() && !PackLibrary.isDelimiter(this.expression.charAt(this.position))) {
+				this.position++;
+			}
+
+			if (this.position == start) {
+				throw new IllegalArgumentException("Pack name expected at position " + this.position + ".");
+			}
+
+			String name = this.expression.substring(start, this.position);
+			Pack pack = PackLibrary.this.packs.get(name);
+			if (pack == null) {
+				throw new IllegalArgumentException("Unknown pack: " + name);
+			}
+
+			if (this.first == null) {
+				this.first = pack;
+			}
+
+			return (BitSet) pack.cards.clone();
+
+		}
+
+		private void skipSpace() {
+			while (this.position < this.expression.length() && Character.isWhitespace(this.expression.charAt(this.position))) {
+				this.position++;
+			}
+		}
+
+	}
+
+	/**
+	 * Every card in the library, by ID; the same card may have more than one.
+	 */
+	private final ArrayList<Card> cards;
+
+	/**
+	 * The first ID given to each card.
+	 */
+	private final HashMap<Card, Integer> ids;
+
+	private final LinkedHashMap<String, Pack> packs;
+
+	public PackLibrary() {
+
+		this.cards = new ArrayList<Card>();
+		this.ids = new HashMap<Card, Integer>();
+		this.packs = new LinkedHashMap<String, Pack>();
+
+	}
+
+	/**
+	 * @return true if the character ends a pack name in a selection
+	 *         expression.
+	 */
+	private static boolean isDelimiter(char c) {
+		return Character.isWhitespace(c) || c == '(' || c == ')' || c == '+' || c == '&' || c == '\u2212';
+	}
+
+	/**
+	 * Adds a pack to the library. Its cards are blanked and de-duped first.
+	 * 
+	 * @param name the name of the pack, as used in selection expressions.
+	 * @param deck the cards in the pack.
+	 */
+	public void add(String name, DeckSnapshot deck) {
+
+		if (name == null || name.equals("")) {
+			throw new IllegalArgumentException("Pack name required.");
+		}
+
+		for (int i = 0; i < name.length(); i++) {
+			if (PackLibrary.isDelimiter(name.charAt(i))) {
+				throw new IllegalArgumentException("Pack name can't be used in a selection: " + name);
+			}
+		}
+
+		if (this.packs.containsKey(name)) {
+			throw new IllegalArgumentException("Pack already loaded: " + name);
+		}
+
+		if (deck == null) {
+			throw new IllegalArgumentException("Data required.");
+		}
+
+		deck = deck.blank().dedupe();
+
+		int start = this.cards.size();
+		BitSet members = new BitSet();
+		for (Card card : deck.getCards()) {
+
+			Integer id = this.ids.get(card);
+			if (id == null) {
+				id = Integer.valueOf(this.cards.size());
+				this.ids.put(card, id);
+			} else {
+
+				// Share the card already stored.
+				card = this.cards.get(id.intValue());
+
+			}
+
+			this.cards.add(card);
+			members.set(id.intValue());
+
+		}
+
+		this.packs.put(name, new Pack(deck, start, this.cards.size(), members));
+
+	}
+
+	/**
+	 * @param card the ID of a card.
+	 * @return the card.
+	 */
+	public Card getCard(int card) {
+		return this.cards.get(card);
+	}
+
+	/**
+	 * @param pack the name of a pack.
+	 * @return the ID of the first card in the pack; the rest follow in order.
+	 */
+	public int getFirstCard(String pack) {
+		return this.getPack(pack).start;
+	}
+
+	/**
+	 * @return the names of the packs in the library, in the order loaded.
+	 */
+	public List<String> getPackNames() {
+		return new ArrayList<String>(this.packs.keySet());
+	}
+
+	/**
+	 * @return the number of card IDs given out, across all packs.
+	 */
+	public int getTotalCards() {
+		return this.cards.size();
+	}
+
+	/**
+	 * @param pack the name of a pack.
+	 * @return the number of cards in the pack.
+	 */
+	public int getTotalCards(String pack) {
+		Pack result = this.getPack(pack);
+		return result.end - result.start;
+	}
+
+	/**
+	 * Loads a pack from a file of card data, named after the file without its
+	 * extension, eg. original for original.xml.
+	 * 
+	 * @param xml the card data.
+	 * @return the name of the pack.
+	 * @throws SAXException when there's a problem parsing the card data.
+	 * @throws IOException when there's a problem reading the card data.
+	 * @throws ParserConfigurationException when there's a problem configuring
+	 *         the data parser.
+	 */
+	public String load(File xml) throws SAXException, IOException, ParserConfigurationException {
+
+		if (!xml.exists()) {
+			throw new IllegalArgumentException("File not found: " + xml.getPath());
+		}
+
+		String name = xml.getName();
+		if (name.lastIndexOf('.') > 0) {
+			name = name.substring(0, name.lastIndexOf('.'));
+		}
+
+		this.add(name, DeckSnapshot.fromDocument(Deck.parse(xml)));
+		return name;
+
+	}
+
+	/**
+	 * Composes an edition from the packs in the library. The cards are shared
+	 * with the library rather than copied, so this costs little more than
+	 * listing them.
+	 * 
+	 * @param expression which packs to include and exclude, eg. original +
+	 *        tech - usa
+	 * @return a single deck of the cards selected, in the order of their IDs,
+	 *         with the language and licence of the first pack named.
+	 */
+	public DeckSnapshot select(String expression) {
+
+		if (expression == null) {
+			throw new IllegalArgumentException("Selection required.");
+		}
+
+		Selection selection = new Selection(expression);
+		BitSet selected = selection.readExpression();
+
+		selection.skipSpace();
+		if (selection.position < expression.length()) {
+			throw new IllegalArgumentException("Operator expected at position " + selection.position + ".");
+		}
+
+		// Suits in order of first appearance, as by dedupe().
+		LinkedHashMap<CardColor, ArrayList<Card>> suits = new LinkedHashMap<CardColor, ArrayList<Card>>();
+		for (int id = selected.nextSetBit(0); id >= 0; id = selected.nextSetBit(id + 1)) {
+
+			Card card = this.cards.get(id);
+			ArrayList<Card> suit = suits.get(card.getColor());
+			if (suit == null) {
+				suit = new ArrayList<Card>();
+				suits.put(card.getColor(), suit);
+			}
+			suit.add(card);
+
+		}
+
+		ArrayList<Suit> deck = new ArrayList<Suit>();
+		for (CardColor color : suits.keySet()) {
+			deck.add(new Suit(color, suits.get(color)));
+		}
+
+		ArrayList<List<Suit>> decks = new ArrayList<List<Suit>>();
+		decks.add(deck);
+
+		Pack first = selection.first;
+		return new DeckSnapshot(first.language, first.licenceHref, first.licence, decks);
+
+	}
+
+	private Pack getPack(String name) {
+
+		Pack pack = this.packs.get(name);
+		if (pack == null) {
+			throw new IllegalArgumentException("Unknown pack: " + name);
+		}
+		return pack;
+
+	}
+
+}
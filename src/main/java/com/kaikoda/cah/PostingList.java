@@ -0,0 +1,194 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.util.Arrays;
+
+/**
+ * The cards that contain a single term, and where on each card the term
+ * appears.
+ * 
+ * Entries are held in ascending order of card ID, compressed as variable
+ * length integers: the gap since the previous card ID, the number of times
+ * the term appears and then the gap between each position.
+ * 
+ * @author Sheila Thomson
+ */
+class PostingList {
+
+	private byte[] data;
+
+	private int lastCard;
+
+	/**
+	 * The number of bytes in use.
+	 */
+	private int length;
+
+	/**
+	 * The number of cards in the list.
+	 */
+	private int size;
+
+	PostingList() {
+		this.data = new byte[16];
+		this.lastCard = -1;
+	}
+
+	/**
+	 * Adds a card to the end of the list.
+	 * 
+	 * @param card the ID of the card, which must be higher than that of any
+	 *        card already in the list.
+	 * @param positions where the term appears on the card, in ascending order.
+	 * @param total the number of positions to use.
+	 */
+	void add(int card, int[] positions, int total) {
+
+		if (card <= this.lastCard) {
+			throw new IllegalArgumentException("Cards must be added in order.");
+		}
+
+		this.writeInt(card - this.lastCard);
+		this.writeInt(total);
+
+		int previous = 0;
+		for (int i = 0; i < total; i++) {
+			this.writeInt(positions[i] - previous);
+			previous = positions[i];
+		}
+
+		this.lastCard = card;
+		this.size++;
+
+	}
+
+	/**
+	 * @return a means of reading the list from the start.
+	 */
+	Reader reader() {
+		return new Reader();
+	}
+
+	int size() {
+		return this.size;
+	}
+
+	private void writeInt(int value) {
+
+		if (this.length + 5 > this.data.length) {
+			this.data = Arrays.copyOf(this.data, this.data.length * 2);
+		}
+
+		while ((value & ~0x7F) != 0) {
+			this.data[this.length++] = (byte) ((value & 0x7F) | 0x80);
+			value = value >>> 7;
+		}
+		this.data[this.length++] = (byte) value;
+
+	}
+
+	/**
+	 * Reads a posting list, one card at a time.
+	 */
+	class Reader {
+
+		private int card = -1;
+
+		private int offset;
+
+		/**
+		 * The number of positions for the current card not yet read.
+		 */
+		private int remaining;
+
+		private int position;
+
+		private int frequency;
+
+		/**
+		 * @return the ID of the current card.
+		 */
+		int card() {
+			return this.card;
+		}
+
+		/**
+		 * @return the number of times the term appears on the current card.
+		 */
+		int frequency() {
+			return this.frequency;
+		}
+
+		/**
+		 * Moves on to the next card, skipping any positions not read.
+		 * 
+		 * @return false if there are no more cards.
+		 */
+		boolean next() {
+
+			while (this.remaining > 0) {
+				this.readInt();
+				this.remaining--;
+			}
+
+			if (this.offset >= PostingList.this.length) {
+				this.card = Integer.MAX_VALUE;
+				return false;
+			}
+
+			this.card = this.card + this.readInt();
+			this.frequency = this.readInt();
+			this.remaining = this.frequency;
+			this.position = 0;
+			return true;
+
+		}
+
+		/**
+		 * @return the next position of the term on the current card.
+		 */
+		int nextPosition() {
+
+			if (this.remaining == 0) {
+				throw new IllegalStateException("No more positions.");
+			}
+
+			this.remaining--;
+			this.position = this.position + this.readInt();
+			return this.position;
+
+		}
+
+		private int readInt() {
+
+			int value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = PostingList.this.data[this.offset++];
+				value = value | ((b & 0x7F) << shift);
+				shift = shift + 7;
+			} while ((b & 0x80) != 0);
+			return value;
+
+		}
+
+	}
+
+}
@@ -0,0 +1,309 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Locale;
+
+import org.apache.commons.compress.archivers.ArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+
+/**
+ * A zip or tar.gz archive of generated products, written as a stream.
+ * 
+ * Entries are added one at a time, and written through the compressor as
+ * they're added, so nothing is written to temporary files. Zip entries are
+ * streamed straight into the archive; a tar entry must declare its size
+ * before its content, so each is held in memory until it's complete.
+ * 
+ * Any number of generations may be written to the same archive, each in a
+ * directory of its own. Not thread-safe.
+ * 
+ * @author Sheila Thomson
+ */
+public class ProductArchive implements Closeable {
+
+	public enum ArchiveFormat {
+		ZIP("zip"), TAR_GZ("tar.gz");
+
+		private final String extension;
+
+		private ArchiveFormat(String extension) {
+			this.extension = extension;
+		}
+
+		/**
+		 * @param value a file extension, eg. zip or tar.gz
+		 * @return the matching format.
+		 */
+		public static ArchiveFormat fromValue(String value) {
+
+			String extension = value.trim().toLowerCase(Locale.ENGLISH);
+			for (ArchiveFormat format : ArchiveFormat.values()) {
+				if (format.extension.equals(extension) || format.name().equalsIgnoreCase(extension)) {
+					return format;
+				}
+			}
+			throw new IllegalArgumentException("Unsupported archive format: " + value);
+
+		}
+
+		/**
+		 * @return the file extension for the format, eg. tar.gz
+		 */
+		public String getExtension() {
+			return this.extension;
+		}
+	}
+
+	/**
+	 * Closes the current entry, rather than the whole archive, when closed.
+	 */
+	private class EntryOutputStream extends FilterOutputStream {
+
+		private EntryOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void close() throws IOException {
+			ProductArchive.this.closeEntry(this);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+		}
+
+	}
+
+	private final ArchiveOutputStream archive;
+
+	private final ArchiveFormat format;
+
+	/**
+	 * The name of every entry added so far.
+	 */
+	private final HashSet<String> names;
+
+	/**
+	 * The entry being written, if any.
+	 */
+	private EntryOutputStream entry;
+
+	/**
+	 * The content of the entry being written, if it's held in memory until
+	 * complete.
+	 */
+	private ByteArrayOutputStream pendingContent;
+
+	private String pendingName;
+
+	/**
+	 * Creates an archive file, its format given by its extension.
+	 * 
+	 * @param file where to write the archive, eg. editions.zip
+	 * @throws IOException when it's not possible to create the file.
+	 */
+	public ProductArchive(File file) throws IOException {
+		this(ProductArchive.getFormat(file), file);
+	}
+
+	/**
+	 * The format is resolved before the file is opened, so that a file with
+	 * an unsupported extension isn't created, or emptied, in the attempt.
+	 */
+	private ProductArchive(ArchiveFormat format, File file) throws IOException {
+		this(new BufferedOutputStream(new FileOutputStream(file)), format);
+	}
+
+	/**
+	 * @param out where to write the archive. It is closed when the archive is
+	 *        closed.
+	 * @param format the kind of archive to write.
+	 * @throws IOException when it's not possible to start writing.
+	 */
+	public ProductArchive(OutputStream out, ArchiveFormat format) throws IOException {
+
+		if (out == null) {
+			throw new IllegalArgumentException("Output required.");
+		}
+
+		if (format == null) {
+			throw new IllegalArgumentException("Format required.");
+		}
+
+		if (format == ArchiveFormat.ZIP) {
+			this.archive = new ZipArchiveOutputStream(out);
+		} else {
+			TarArchiveOutputStream tar = new TarArchiveOutputStream(new GzipCompressorOutputStream(out));
+			tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
+			this.archive = tar;
+		}
+
+		this.format = format;
+		this.names = new HashSet<String>();
+
+	}
+
+	/**
+	 * @param file an archive file.
+	 * @return the format of the archive, going by its extension.
+	 */
+	public static ArchiveFormat getFormat(File file) {
+
+		String name = file.getName().toLowerCase(Locale.ENGLISH);
+		for (ArchiveFormat format : ArchiveFormat.values()) {
+			if (name.endsWith("." + format.getExtension())) {
+				return format;
+			}
+		}
+		throw new IllegalArgumentException("Unsupported archive format: " + file.getName());
+
+	}
+
+	/**
+	 * Adds an entry, copying its content from a stream.
+	 * 
+	 * @param name the path of the entry within the archive.
+	 * @param in the content of the entry. It isn't closed.
+	 * @return the number of bytes added.
+	 * @throws IOException when it's not possible to read the content or write
+	 *         the entry.
+	 */
+	public long add(String name, InputStream in) throws IOException {
+
+		OutputStream out = this.newEntry(name);
+		try {
+
+			long total = 0;
+			byte[] buffer = new byte[8192];
+			int read = in.read(buffer);
+			while (read >= 0) {
+				out.write(buffer, 0, read);
+				total = total + read;
+				read = in.read(buffer);
+			}
+			return total;
+
+		} finally {
+			out.close();
+		}
+
+	}
+
+	/**
+	 * Completes the archive and closes the stream it was written to.
+	 */
+	public void close() throws IOException {
+
+		try {
+			if (this.entry != null) {
+				this.entry.close();
+			}
+			this.archive.finish();
+		} finally {
+			this.archive.close();
+		}
+
+	}
+
+	/**
+	 * @param name the path of an entry within the archive.
+	 * @return true if an entry with that path has been added.
+	 */
+	public boolean contains(String name) {
+		return this.names.contains(name);
+	}
+
+	public ArchiveFormat getFormat() {
+		return this.format;
+	}
+
+	/**
+	 * Starts a new entry. Only one entry may be written at a time.
+	 * 
+	 * @param name the path of the entry within the archive, eg.
+	 *        uk/cards_against_humanity.html
+	 * @return where to write the content of the entry; close it once the entry
+	 *         is complete.
+	 * @throws IOException when it's not possible to start the entry.
+	 */
+	public OutputStream newEntry(String name) throws IOException {
+
+		if (name == null || name.equals("")) {
+			throw new IllegalArgumentException("Name required.");
+		}
+
+		if (this.entry != null) {
+			throw new IllegalStateException("Entry not yet closed.");
+		}
+
+		if (!this.names.add(name)) {
+			throw new IllegalArgumentException("Entry already added: " + name);
+		}
+
+		if (this.format == ArchiveFormat.ZIP) {
+			this.archive.putArchiveEntry(new ZipArchiveEntry(name));
+			this.entry = new EntryOutputStream(this.archive);
+		} else {
+			this.pendingName = name;
+			this.pendingContent = new ByteArrayOutputStream();
+			this.entry = new EntryOutputStream(this.pendingContent);
+		}
+		return this.entry;
+
+	}
+
+	private void closeEntry(EntryOutputStream entry) throws IOException {
+
+		if (entry != this.entry) {
+			return;
+		}
+		this.entry = null;
+
+		if (this.pendingContent != null) {
+
+			TarArchiveEntry tarEntry = new TarArchiveEntry(this.pendingName);
+			tarEntry.setSize(this.pendingContent.size());
+			this.archive.putArchiveEntry(tarEntry);
+			this.pendingContent.writeTo(this.archive);
+
+			this.pendingContent = null;
+			this.pendingName = null;
+
+		}
+
+		this.archive.closeArchiveEntry();
+
+	}
+
+}
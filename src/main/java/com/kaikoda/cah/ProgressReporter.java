@@ -25,6 +25,9 @@ import javax.xml.transform.TransformerException;
 /**
  * Provides feedback on the progress of a CardGenerator.
  * 
+ * By default, feedback is printed as it's given. Given a ProgressSink, it's
+ * queued instead, tagged with a job, and printed in the background.
+ * 
  * @author Sheila Thomson
  */
 public class ProgressReporter extends Observable implements ErrorListener {
@@ -33,8 +36,18 @@ public class ProgressReporter extends Observable implements ErrorListener {
 		CALLBACK, NORMAL, SILENT;
 	}
 
+	/**
+	 * What the feedback is about, when sent to a sink.
+	 */
+	private String job;
+
 	private ProgressReporterMode mode;
 
+	/**
+	 * Where to send feedback, or null to print it straight away.
+	 */
+	private ProgressSink sink;
+
 	public ProgressReporter() {
 		this(ProgressReporterMode.NORMAL);
 	}
@@ -89,6 +102,11 @@ public class ProgressReporter extends Observable implements ErrorListener {
 
 		}
 
+		if (this.sink != null) {
+			this.sink.offer(this.job, message, isError);
+			return;
+		}
+
 		if (isError) {
 			System.err.println(message);
 		} else {
@@ -97,14 +115,32 @@ public class ProgressReporter extends Observable implements ErrorListener {
 
 	}
 
+	public String getJob() {
+		return this.job;
+	}
+
 	public ProgressReporterMode getMode() {
 		return this.mode;
 	}
 
+	public ProgressSink getSink() {
+		return this.sink;
+	}
+
 	public void setMode(ProgressReporterMode verbosity) {
 		this.mode = verbosity;
 	}
 
+	/**
+	 * @param sink where to send feedback, or null to print it straight away.
+	 * @param job what the feedback is about, eg. the name of the card data
+	 *        file.
+	 */
+	public void setSink(ProgressSink sink, String job) {
+		this.sink = sink;
+		this.job = job;
+	}
+
 	public void warning(TransformerException exception) throws TransformerException {
 
 		this.feedback(exception.getMessage());
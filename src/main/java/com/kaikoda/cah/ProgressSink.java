@@ -0,0 +1,455 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes feedback from any number of generations without holding any of them
+ * up.
+ * 
+ * Messages are added to a lock-free queue and written in batches by a
+ * background thread, so a generation never waits on the console. Each message
+ * is tagged with the job it came from, eg. the name of the card data file,
+ * and within a batch the messages from each job are kept together, so output
+ * from different decks doesn't interleave line by line.
+ * 
+ * Messages may be rate limited, in which case any over the limit are dropped
+ * and a count of them written in their place. Errors are never dropped.
+ * 
+ * @author Sheila Thomson
+ */
+public class ProgressSink {
+
+	public enum ProgressSinkFormat {
+
+		/**
+		 * One line per message, prefixed with the job, eg. [uk.xml] Reading
+		 * card data...
+		 */
+		TEXT,
+
+		/**
+		 * One JSON object per line, with the time, job, level and message.
+		 */
+		JSON;
+
+	}
+
+	/**
+	 * A source of the time, for the rate limit.
+	 */
+	interface Clock {
+
+		/**
+		 * @return the current time in nanoseconds, as by System.nanoTime()
+		 */
+		long nanoTime();
+
+	}
+
+	/**
+	 * The number of messages written at a time, unless specified.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 64;
+
+	/**
+	 * How long the background thread waits for a full batch before writing
+	 * whatever it has.
+	 */
+	private static final long FLUSH_INTERVAL = TimeUnit.MILLISECONDS.toNanos(50);
+
+	private final int batchSize;
+
+	private final Clock clock;
+
+	/**
+	 * The number of messages dropped by the rate limit.
+	 */
+	private final AtomicLong dropped;
+
+	private final ProgressSinkFormat format;
+
+	private final int maxPerSecond;
+
+	/**
+	 * The number of calls to offer() in progress, so that the writer doesn't
+	 * stop while one of them is still queuing a message.
+	 */
+	private final AtomicInteger offering;
+
+	private final Writer out;
+
+	/**
+	 * The number of messages queued but not yet written.
+	 */
+	private final AtomicInteger pending;
+
+	private final ConcurrentLinkedQueue<Message> queue;
+
+	/**
+	 * The number of messages accepted in the current second.
+	 */
+	private final AtomicInteger rate;
+
+	/**
+	 * When the current second started, in nanoseconds.
+	 */
+	private final AtomicLong rateStart;
+
+	private final Thread writer;
+
+	/**
+	 * The number of dropped messages already reported.
+	 */
+	private long droppedReported;
+
+	private volatile boolean isOpen;
+
+	/**
+	 * The number of messages written.
+	 */
+	private volatile long written;
+
+	/**
+	 * @param out where to write the messages, eg. System.out
+	 * @param format how to write each message.
+	 */
+	public ProgressSink(OutputStream out, ProgressSinkFormat format) {
+		this(out, format, DEFAULT_BATCH_SIZE, 0);
+	}
+
+	/**
+	 * @param out where to write the messages, eg. System.out. It is flushed
+	 *        after each batch but never closed.
+	 * @param format how to write each message.
+	 * @param batchSize the most messages to write at a time.
+	 * @param maxPerSecond the most messages to accept each second, not
+	 *        including errors, or 0 for no limit.
+	 */
+	public ProgressSink(OutputStream out, ProgressSinkFormat format, int batchSize, int maxPerSecond) {
+		this(out, format, batchSize, maxPerSecond, new Clock() {
+
+			public long nanoTime() {
+				return System.nanoTime();
+			}
+
+		});
+	}
+
+	/**
+	 * @param out where to write the messages.
+	 * @param format how to write each message.
+	 * @param batchSize the most messages to write at a time.
+	 * @param maxPerSecond the most messages to accept each second, or 0 for
+	 *        no limit.
+	 * @param clock what to time the rate limit by.
+	 */
+	ProgressSink(OutputStream out, ProgressSinkFormat format, int batchSize, int maxPerSecond, Clock clock) {
+
+		if (out == null) {
+			throw new IllegalArgumentException("Output stream required.");
+		}
+
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be at least 1.");
+		}
+
+		if (maxPerSecond < 0) {
+			throw new IllegalArgumentException("Rate limit can't be negative.");
+		}
+
+		try {
+			this.out = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+
+		this.format = (format == null) ? ProgressSinkFormat.TEXT : format;
+		this.batchSize = batchSize;
+		this.maxPerSecond = maxPerSecond;
+		this.clock = clock;
+
+		this.queue = new ConcurrentLinkedQueue<Message>();
+		this.offering = new AtomicInteger();
+		this.pending = new AtomicInteger();
+		this.dropped = new AtomicLong();
+		this.rate = new AtomicInteger();
+		this.rateStart = new AtomicLong(clock.nanoTime());
+		this.isOpen = true;
+
+		this.writer = new Thread(new Runnable() {
+
+			public void run() {
+				ProgressSink.this.drain();
+			}
+
+		}, "progress-sink");
+		this.writer.setDaemon(true);
+		this.writer.start();
+
+	}
+
+	/**
+	 * Writes any messages still queued, then stops the background thread. The
+	 * output stream is flushed but left open.
+	 * 
+	 * @throws InterruptedException if interrupted while waiting for the
+	 *         messages to be written.
+	 */
+	public void close() throws InterruptedException {
+
+		this.isOpen = false;
+		LockSupport.unpark(this.writer);
+		this.writer.join();
+
+	}
+
+	/**
+	 * @return the number of messages dropped by the rate limit.
+	 */
+	public long getDropped() {
+		return this.dropped.get();
+	}
+
+	public ProgressSinkFormat getFormat() {
+		return this.format;
+	}
+
+	/**
+	 * @return the number of messages written so far.
+	 */
+	public long getWritten() {
+		return this.written;
+	}
+
+	/**
+	 * Queues a message to be written. Never blocks.
+	 * 
+	 * @param job what the message is about, eg. the name of the card data
+	 *        file, or null.
+	 * @param message the message.
+	 * @param isError true if the message reports an error.
+	 * @return false if the message was dropped, either by the rate limit or
+	 *         because the sink is closed.
+	 */
+	public boolean offer(String job, String message, boolean isError) {
+
+		this.offering.incrementAndGet();
+		try {
+
+			if (!this.isOpen) {
+				return false;
+			}
+
+			if (!isError && !this.acquire()) {
+				this.dropped.incrementAndGet();
+				return false;
+			}
+
+			this.queue.offer(new Message(System.currentTimeMillis(), job, message, isError));
+
+			// Wake the writer early once there's a full batch.
+			if (this.pending.incrementAndGet() >= this.batchSize) {
+				LockSupport.unpark(this.writer);
+			}
+
+			return true;
+
+		} finally {
+
+			// Let the writer finish, if it's waiting on this message.
+			if (this.offering.decrementAndGet() == 0 && !this.isOpen) {
+				LockSupport.unpark(this.writer);
+			}
+
+		}
+
+	}
+
+	/**
+	 * Appends a string to a JSON document, as by TranslationReport, or null.
+	 */
+	private static void appendJson(StringBuilder json, String value) {
+
+		if (value == null) {
+			json.append("null");
+		} else {
+			TranslationReport.appendJson(json, value);
+		}
+
+	}
+
+	/**
+	 * Takes one place in the current second's allowance of messages.
+	 * 
+	 * @return false if the allowance is used up.
+	 */
+	private boolean acquire() {
+
+		if (this.maxPerSecond == 0) {
+			return true;
+		}
+
+		long now = this.clock.nanoTime();
+		long start = this.rateStart.get();
+		if (now - start >= TimeUnit.SECONDS.toNanos(1) && this.rateStart.compareAndSet(start, now)) {
+			this.rate.set(0);
+		}
+
+		return this.rate.incrementAndGet() <= this.maxPerSecond;
+
+	}
+
+	/**
+	 * Writes messages in batches until the sink is closed and the queue is
+	 * empty. Any offer() still in progress once closed is waited for, as it
+	 * might yet queue a message.
+	 */
+	private void drain() {
+
+		while (true) {
+
+			boolean isFinal = !this.isOpen && this.offering.get() == 0;
+
+			int total = this.writeBatch();
+
+			if (total == 0) {
+
+				if (isFinal) {
+					break;
+				}
+				LockSupport.parkNanos(this, FLUSH_INTERVAL);
+
+			}
+
+		}
+
+	}
+
+	private void format(StringBuilder batch, Message message) {
+
+		if (this.format == ProgressSinkFormat.JSON) {
+
+			batch.append("{\"time\":").append(message.time).append(",\"job\":");
+			ProgressSink.appendJson(batch, message.job);
+			batch.append(",\"level\":\"").append(message.isError ? "error" : "info").append("\",\"message\":");
+			ProgressSink.appendJson(batch, message.text);
+			batch.append("}\n");
+
+		} else {
+
+			if (message.job != null) {
+				batch.append('[').append(message.job).append("] ");
+			}
+			if (message.isError) {
+				batch.append("Error: ");
+			}
+			batch.append(message.text).append('\n');
+
+		}
+
+	}
+
+	/**
+	 * Writes up to a batch of messages, grouped by job.
+	 * 
+	 * @return the number of messages written.
+	 */
+	private int writeBatch() {
+
+		Map<String, StringBuilder> jobs = new LinkedHashMap<String, StringBuilder>();
+
+		int total = 0;
+		Message message = null;
+		while (total < this.batchSize && (message = this.queue.poll()) != null) {
+
+			StringBuilder lines = jobs.get(message.job);
+			if (lines == null) {
+				lines = new StringBuilder();
+				jobs.put(message.job, lines);
+			}
+			this.format(lines, message);
+			total++;
+
+		}
+
+		long dropped = this.dropped.get();
+		if (total == 0 && dropped == this.droppedReported) {
+			return 0;
+		}
+
+		try {
+
+			for (StringBuilder lines : jobs.values()) {
+				this.out.write(lines.toString());
+			}
+
+			if (dropped > this.droppedReported) {
+				StringBuilder notice = new StringBuilder();
+				this.format(notice, new Message(System.currentTimeMillis(), null, (dropped - this.droppedReported) + " messages dropped.", false));
+				this.out.write(notice.toString());
+				this.droppedReported = dropped;
+			}
+
+			this.out.flush();
+
+		} catch (IOException e) {
+
+			// Nowhere left to report it.
+
+		}
+
+		this.pending.addAndGet(-total);
+		this.written = this.written + total;
+		return total;
+
+	}
+
+	private static class Message {
+
+		private final boolean isError;
+
+		private final String job;
+
+		private final String text;
+
+		private final long time;
+
+		private Message(long time, String job, String text, boolean isError) {
+			this.time = time;
+			this.job = job;
+			this.text = text;
+			this.isError = isError;
+		}
+
+	}
+
+}
@@ -0,0 +1,335 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds every occurrence of any number of terms in a single pass over some
+ * text (Aho-Corasick). Terms are matched exactly, including case.
+ * 
+ * Once built, a matcher is never modified, so may be shared between threads.
+ * 
+ * @author Sheila Thomson
+ */
+class TermMatcher {
+
+	/**
+	 * Receives each match found.
+	 */
+	interface MatchHandler {
+
+		/**
+		 * @param term the position of the term in the list the matcher was
+		 *        built from.
+		 * @param start where the match starts in the text.
+		 * @param end where the match ends in the text (exclusive).
+		 */
+		void match(int term, int start, int end);
+
+	}
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	private static final int[] NONE = new int[0];
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * The characters leading from each state, sorted.
+	 */
+	private char[][] keys;
+
+	/**
+	 * The state reached by each of the keys from each state.
+	 */
+	private int[][] children;
+
+	/**
+	 * The number of keys leading from each state.
+	 */
+	private int[] totalChildren;
+
+	/**
+	 * The state to fall back to when there's no key for the next character.
+	 */
+	private int[] failures;
+
+	/**
+	 * The terms that end at each state, including those ending at any state
+	 * it falls back to.
+	 */
+	private int[][] outputs;
+
+	private final int[] termLengths;
+
+	private int totalStates;
+
+	/**
+	 * @param terms the terms to look for. Empty terms are ignored.
+	 */
+	TermMatcher(List<String> terms) {
+
+		int capacity = 1;
+		for (String term : terms) {
+			capacity = capacity + term.length();
+		}
+
+		this.keys = new char[capacity][];
+		this.children = new int[capacity][];
+		this.totalChildren = new int[capacity];
+		this.failures = new int[capacity];
+		this.outputs = new int[capacity][];
+		this.termLengths = new int[terms.size()];
+		this.totalStates = 1;
+
+		for (int i = 0; i < terms.size(); i++) {
+			this.addTerm(terms.get(i), i);
+		}
+
+		this.link();
+
+	}
+
+	/**
+	 * Reports every occurrence of every term in the text, including those that
+	 * overlap.
+	 * 
+	 * @param text the text to search.
+	 * @param handler receives each match, in order of where it ends.
+	 */
+	void find(CharSequence text, MatchHandler handler) {
+
+		int state = 0;
+		for (int i = 0; i < text.length(); i++) {
+
+			state = this.step(state, text.charAt(i));
+
+			int[] found = this.outputs[state];
+			for (int term : found) {
+				handler.match(term, i + 1 - this.termLengths[term], i + 1);
+			}
+
+		}
+
+	}
+
+	/**
+	 * Reports every occurrence of every term in a run of bytes, including
+	 * those that overlap. Each byte is treated as a character from 0 to 255,
+	 * so the terms should have been prepared the same way; see utf8().
+	 * 
+	 * @param bytes the bytes to search.
+	 * @param start where to start searching.
+	 * @param end where to stop searching (exclusive).
+	 * @param handler receives each match, in order of where it ends. Positions
+	 *        are relative to the start.
+	 */
+	void find(ByteBuffer bytes, int start, int end, MatchHandler handler) {
+
+		int state = 0;
+		for (int i = start; i < end; i++) {
+
+			state = this.step(state, (char) (bytes.get(i) & 0xFF));
+
+			int[] found = this.outputs[state];
+			for (int term : found) {
+				handler.match(term, i + 1 - start - this.termLengths[term], i + 1 - start);
+			}
+
+		}
+
+	}
+
+	/**
+	 * @param text the text to search.
+	 * @return true if any of the terms appear in the text.
+	 */
+	boolean matches(CharSequence text) {
+
+		int state = 0;
+		for (int i = 0; i < text.length(); i++) {
+			state = this.step(state, text.charAt(i));
+			if (this.outputs[state].length > 0) {
+				return true;
+			}
+		}
+		return false;
+
+	}
+
+	/**
+	 * Builds a matcher for searching UTF-8 encoded text, a byte at a time.
+	 * 
+	 * @param terms the terms to look for. Empty terms are ignored.
+	 * @return the matcher. Positions and lengths of matches are in bytes.
+	 */
+	static TermMatcher utf8(List<String> terms) {
+
+		ArrayList<String> encoded = new ArrayList<String>(terms.size());
+		for (String term : terms) {
+			encoded.add(new String(term.getBytes(UTF_8), ISO_8859_1));
+		}
+		return new TermMatcher(encoded);
+
+	}
+
+	private void addTerm(String term, int index) {
+
+		this.termLengths[index] = term.length();
+		if (term.length() == 0) {
+			return;
+		}
+
+		int state = 0;
+		for (int i = 0; i < term.length(); i++) {
+
+			char c = term.charAt(i);
+			int next = this.getChild(state, c);
+			if (next < 0) {
+				next = this.totalStates++;
+				this.putChild(state, c, next);
+			}
+			state = next;
+
+		}
+
+		this.outputs[state] = TermMatcher.append(this.outputs[state], index);
+
+	}
+
+	private static int[] append(int[] values, int value) {
+
+		if (values == null) {
+			return new int[] { value };
+		}
+
+		int[] result = Arrays.copyOf(values, values.length + 1);
+		result[values.length] = value;
+		return result;
+
+	}
+
+	private int getChild(int state, char c) {
+
+		if (this.keys[state] == null) {
+			return -1;
+		}
+
+		int position = Arrays.binarySearch(this.keys[state], 0, this.totalChildren[state], c);
+		return (position < 0) ? -1 : this.children[state][position];
+
+	}
+
+	/**
+	 * Works out where each state falls back to, breadth first, and gathers
+	 * the terms that end at each state.
+	 */
+	private void link() {
+
+		int[] queue = new int[this.totalStates];
+		int head = 0;
+		int tail = 0;
+
+		if (this.outputs[0] == null) {
+			this.outputs[0] = NONE;
+		}
+
+		for (int i = 0; i < this.totalChildren[0]; i++) {
+			int child = this.children[0][i];
+			this.failures[child] = 0;
+			queue[tail++] = child;
+		}
+
+		while (head < tail) {
+
+			int state = queue[head++];
+
+			int[] own = this.outputs[state];
+			int[] inherited = this.outputs[this.failures[state]];
+			if (own == null) {
+				this.outputs[state] = inherited;
+			} else if (inherited.length > 0) {
+				int[] merged = Arrays.copyOf(own, own.length + inherited.length);
+				System.arraycopy(inherited, 0, merged, own.length, inherited.length);
+				this.outputs[state] = merged;
+			}
+
+			for (int i = 0; i < this.totalChildren[state]; i++) {
+
+				char c = this.keys[state][i];
+				int child = this.children[state][i];
+
+				int fallback = this.failures[state];
+				while (fallback > 0 && this.getChild(fallback, c) < 0) {
+					fallback = this.failures[fallback];
+				}
+				int target = this.getChild(fallback, c);
+				this.failures[child] = (target >= 0 && target != child) ? target : 0;
+
+				queue[tail++] = child;
+
+			}
+
+		}
+
+	}
+
+	private void putChild(int state, char c, int child) {
+
+		int total = this.totalChildren[state];
+		if (this.keys[state] == null) {
+			this.keys[state] = new char[2];
+			this.children[state] = new int[2];
+		} else if (total == this.keys[state].length) {
+			this.keys[state] = Arrays.copyOf(this.keys[state], total * 2);
+			this.children[state] = Arrays.copyOf(this.children[state], total * 2);
+		}
+
+		// Keep the keys sorted, for searching.
+		int position = -(Arrays.binarySearch(this.keys[state], 0, total, c) + 1);
+		System.arraycopy(this.keys[state], position, this.keys[state], position + 1, total - position);
+		System.arraycopy(this.children[state], position, this.children[state], position + 1, total - position);
+		this.keys[state][position] = c;
+		this.children[state][position] = child;
+		this.totalChildren[state]++;
+
+	}
+
+	private int step(int state, char c) {
+
+		while (true) {
+
+			int next = this.getChild(state, c);
+			if (next >= 0) {
+				return next;
+			}
+			if (state == 0) {
+				return 0;
+			}
+			state = this.failures[state];
+
+		}
+
+	}
+
+}
@@ -0,0 +1,297 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the translations of card text, so that text appearing in more
+ * than one deck need only be translated once.
+ * 
+ * Each translation is keyed by the original text, the source and target
+ * languages and the fingerprint of the dictionary used, so a cache can be
+ * shared by any number of translations with any number of dictionaries. When
+ * full, the least recently used translations are forgotten first.
+ * 
+ * Safe to use from any number of threads at once. The cache is split into
+ * segments, each locked separately, so threads seldom wait for each other.
+ * 
+ * @author Sheila Thomson
+ */
+public class TranslationCache {
+
+	/**
+	 * What a translation is remembered by.
+	 */
+	private static final class Key {
+
+		private final long dictionary;
+
+		private final int hash;
+
+		private final String sourceLanguage;
+
+		private final String targetLanguage;
+
+		private final String text;
+
+		private Key(String text, String sourceLanguage, String targetLanguage, long dictionary) {
+
+			this.text = text;
+			this.sourceLanguage = sourceLanguage;
+			this.targetLanguage = targetLanguage;
+			this.dictionary = dictionary;
+
+			int hash = text.hashCode();
+			hash = 31 * hash + sourceLanguage.hashCode();
+			hash = 31 * hash + targetLanguage.hashCode();
+			hash = 31 * hash + (int) (dictionary ^ (dictionary >>> 32));
+			this.hash = hash;
+
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+
+			if (this == obj) {
+				return true;
+			}
+
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+
+			Key other = (Key) obj;
+			return this.hash == other.hash && this.dictionary == other.dictionary && this.text.equals(other.text) && this.sourceLanguage.equals(other.sourceLanguage) && this.targetLanguage.equals(other.targetLanguage);
+
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+	}
+
+	/**
+	 * A part of the cache, in order of use, least recent first.
+	 */
+	private static final class Segment extends LinkedHashMap<Key, String> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final LongAdder evictions;
+
+		private final int maximumSize;
+
+		private Segment(int maximumSize, LongAdder evictions) {
+			super(16, 0.75f, true);
+			this.maximumSize = maximumSize;
+			this.evictions = evictions;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, String> eldest) {
+
+			if (this.size() > this.maximumSize) {
+				this.evictions.increment();
+				return true;
+			}
+			return false;
+
+		}
+
+	}
+
+	/**
+	 * The number of translations held by default.
+	 */
+	public static final int DEFAULT_MAXIMUM_SIZE = 65536;
+
+	private static final int TOTAL_SEGMENTS = 16;
+
+	private final LongAdder evictions;
+
+	private final LongAdder hits;
+
+	private final int maximumSize;
+
+	private final LongAdder misses;
+
+	private final Segment[] segments;
+
+	public TranslationCache() {
+		this(TranslationCache.DEFAULT_MAXIMUM_SIZE);
+	}
+
+	/**
+	 * @param maximumSize the most translations to hold at once.
+	 */
+	public TranslationCache(int maximumSize) {
+
+		if (maximumSize < 1) {
+			throw new IllegalArgumentException("Maximum size must be at least 1.");
+		}
+
+		this.evictions = new LongAdder();
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+		this.maximumSize = maximumSize;
+
+		// Fewer segments for a small cache, so that it can hold as many as
+		// asked for.
+		int totalSegments = Math.min(TranslationCache.TOTAL_SEGMENTS, Integer.highestOneBit(maximumSize));
+		this.segments = new Segment[totalSegments];
+		for (int i = 0; i < totalSegments; i++) {
+			this.segments[i] = new Segment(maximumSize / totalSegments, this.evictions);
+		}
+
+	}
+
+	/**
+	 * Forgets every translation, but not the statistics.
+	 */
+	public void clear() {
+
+		for (Segment segment : this.segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+
+	}
+
+	/**
+	 * @param text the original text.
+	 * @param sourceLanguage the language of the text, eg. en-us
+	 * @param targetLanguage the language translated into, eg. en-gb
+	 * @param dictionary the fingerprint of the dictionary used.
+	 * @return the translation, or null if not known.
+	 */
+	public String get(String text, String sourceLanguage, String targetLanguage, long dictionary) {
+
+		Key key = new Key(text, sourceLanguage, targetLanguage, dictionary);
+		Segment segment = this.getSegment(key);
+
+		String result;
+		synchronized (segment) {
+			result = segment.get(key);
+		}
+
+		if (result == null) {
+			this.misses.increment();
+		} else {
+			this.hits.increment();
+		}
+		return result;
+
+	}
+
+	/**
+	 * @return the number of translations forgotten to make room for others.
+	 */
+	public long getEvictions() {
+		return this.evictions.sum();
+	}
+
+	/**
+	 * @return the fraction of look-ups that found a translation, from 0 to 1.
+	 */
+	public double getHitRate() {
+
+		long hits = this.hits.sum();
+		long total = hits + this.misses.sum();
+		if (total == 0) {
+			return 0;
+		}
+		return hits / (double) total;
+
+	}
+
+	public long getHits() {
+		return this.hits.sum();
+	}
+
+	public int getMaximumSize() {
+		return this.maximumSize;
+	}
+
+	public long getMisses() {
+		return this.misses.sum();
+	}
+
+	/**
+	 * @param text the original text.
+	 * @param sourceLanguage the language of the text, eg. en-us
+	 * @param targetLanguage the language translated into, eg. en-gb
+	 * @param dictionary the fingerprint of the dictionary used.
+	 * @param translation the translation.
+	 */
+	public void put(String text, String sourceLanguage, String targetLanguage, long dictionary, String translation) {
+
+		if (text == null || sourceLanguage == null || targetLanguage == null || translation == null) {
+			throw new IllegalArgumentException("Translation required.");
+		}
+
+		Key key = new Key(text, sourceLanguage, targetLanguage, dictionary);
+		Segment segment = this.getSegment(key);
+		synchronized (segment) {
+			segment.put(key, translation);
+		}
+
+	}
+
+	/**
+	 * @return the number of translations held.
+	 */
+	public int size() {
+
+		int total = 0;
+		for (Segment segment : this.segments) {
+			synchronized (segment) {
+				total = total + segment.size();
+			}
+		}
+		return total;
+
+	}
+
+	/**
+	 * @return a one-line summary of the statistics.
+	 */
+	@Override
+	public String toString() {
+		return "translations: " + this.size() + " of " + this.maximumSize + "; hits: " + this.getHits() + ", misses: " + this.getMisses() + " (" + Math.round(this.getHitRate() * 100) + "%); evictions: " + this.getEvictions();
+	}
+
+	private Segment getSegment(Key key) {
+
+		if (this.segments.length == 1) {
+			return this.segments[0];
+		}
+
+		// Chosen by the top bits of the mixed hash, as each segment uses the
+		// bottom bits to choose a bucket.
+		int bits = Integer.numberOfTrailingZeros(this.segments.length);
+		return this.segments[(key.hashCode() * 0x9e3779b9) >>> (32 - bits)];
+
+	}
+
+}
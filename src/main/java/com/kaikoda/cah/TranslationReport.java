@@ -0,0 +1,399 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Describes the effect a dictionary would have on a deck if used to translate
+ * it: which entries match which cards, which cards would be left untouched
+ * and which entries would never be used.
+ * 
+ * All the entries are matched against all the cards in a single pass. As
+ * with translate.xsl, terms are matched exactly, including case, within each
+ * run of text between blanks. Each entry is matched against the original
+ * text, rather than the text as changed by the entries before it.
+ * 
+ * @author Sheila Thomson
+ */
+public class TranslationReport {
+
+	private final List<Card> cards;
+
+	/**
+	 * The entries matched by each card, by position in the list of entries.
+	 */
+	private final int[][] cardMatches;
+
+	/**
+	 * The number of cards matched by each entry.
+	 */
+	private final int[] cardsMatched;
+
+	private final List<Dictionary.Entry> entries;
+
+	/**
+	 * The number of times each entry is matched.
+	 */
+	private final int[] hits;
+
+	private final String sourceLanguage;
+
+	private final String targetLanguage;
+
+	/**
+	 * @param cards the cards to be translated.
+	 * @param dictionary the dictionary to translate with.
+	 * @param sourceLanguage the current language of the cards, eg. en-us
+	 * @param targetLanguage the language to translate into, eg. en-gb
+	 */
+	public TranslationReport(List<Card> cards, Dictionary dictionary, String sourceLanguage, String targetLanguage) {
+
+		this.cards = Collections.unmodifiableList(new ArrayList<Card>(cards));
+		this.sourceLanguage = Dictionary.toLanguageKey(sourceLanguage);
+		this.targetLanguage = Dictionary.toLanguageKey(targetLanguage);
+
+		if (this.sourceLanguage.equals("") || this.targetLanguage.equals("")) {
+			this.entries = Collections.emptyList();
+		} else {
+			this.entries = Collections.unmodifiableList(dictionary.getEntries(this.sourceLanguage, this.targetLanguage));
+		}
+
+		this.hits = new int[this.entries.size()];
+		this.cardsMatched = new int[this.entries.size()];
+		this.cardMatches = new int[this.cards.size()][];
+
+		this.match();
+
+	}
+
+	/**
+	 * Escapes text for use in a JSON string.
+	 */
+	static void appendJson(StringBuilder json, String text) {
+
+		json.append('"');
+		for (int i = 0; i < text.length(); i++) {
+
+			char c = text.charAt(i);
+			switch (c) {
+			case '"':
+				json.append("\\\"");
+				break;
+			case '\\':
+				json.append("\\\\");
+				break;
+			case '\n':
+				json.append("\\n");
+				break;
+			case '\r':
+				json.append("\\r");
+				break;
+			case '\t':
+				json.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					json.append(String.format("\\u%04x", (int) c));
+				} else {
+					json.append(c);
+				}
+			}
+
+		}
+		json.append('"');
+
+	}
+
+	public Card getCard(int card) {
+		return this.cards.get(card);
+	}
+
+	/**
+	 * @param entry the position of an entry in the list of entries.
+	 * @return the number of cards the entry matches.
+	 */
+	public int getCardsMatched(int entry) {
+		return this.cardsMatched[entry];
+	}
+
+	/**
+	 * @return the entries that apply to this translation: those with a term in
+	 *         both languages.
+	 */
+	public List<Dictionary.Entry> getEntries() {
+		return this.entries;
+	}
+
+	/**
+	 * @param entry the position of an entry in the list of entries.
+	 * @return the number of times the entry is matched, across all cards.
+	 */
+	public int getHits(int entry) {
+		return this.hits[entry];
+	}
+
+	/**
+	 * @param card the position of a card in the deck.
+	 * @return the positions of the entries that match the card, in ascending
+	 *         order.
+	 */
+	public int[] getMatches(int card) {
+		return this.cardMatches[card].clone();
+	}
+
+	public String getSourceLanguage() {
+		return this.sourceLanguage;
+	}
+
+	public String getTargetLanguage() {
+		return this.targetLanguage;
+	}
+
+	public int getTotalCards() {
+		return this.cards.size();
+	}
+
+	/**
+	 * @return the cards that no entry matches.
+	 */
+	public List<Card> getUntranslatedCards() {
+
+		ArrayList<Card> result = new ArrayList<Card>();
+		for (int card = 0; card < this.cards.size(); card++) {
+			if (this.cardMatches[card].length == 0) {
+				result.add(this.cards.get(card));
+			}
+		}
+		return result;
+
+	}
+
+	/**
+	 * @return the entries that match no cards.
+	 */
+	public List<Dictionary.Entry> getUnusedEntries() {
+
+		ArrayList<Dictionary.Entry> result = new ArrayList<Dictionary.Entry>();
+		for (int entry = 0; entry < this.entries.size(); entry++) {
+			if (this.hits[entry] == 0) {
+				result.add(this.entries.get(entry));
+			}
+		}
+		return result;
+
+	}
+
+	/**
+	 * @return the report as a JSON object.
+	 */
+	public String toJson() {
+
+		StringBuilder json = new StringBuilder();
+		json.append("{\"sourceLanguage\":");
+		TranslationReport.appendJson(json, this.sourceLanguage);
+		json.append(",\"targetLanguage\":");
+		TranslationReport.appendJson(json, this.targetLanguage);
+
+		json.append(",\"entries\":[");
+		for (int entry = 0; entry < this.entries.size(); entry++) {
+
+			Dictionary.Entry dictionaryEntry = this.entries.get(entry);
+			if (entry > 0) {
+				json.append(',');
+			}
+			json.append("{\"index\":").append(dictionaryEntry.getIndex());
+			json.append(",\"source\":");
+			TranslationReport.appendJson(json, dictionaryEntry.getTerm(this.sourceLanguage));
+			json.append(",\"target\":");
+			TranslationReport.appendJson(json, dictionaryEntry.getTerm(this.targetLanguage));
+			json.append(",\"hits\":").append(this.hits[entry]);
+			json.append(",\"cards\":").append(this.cardsMatched[entry]);
+			json.append('}');
+
+		}
+
+		json.append("],\"cards\":[");
+		for (int card = 0; card < this.cards.size(); card++) {
+
+			if (card > 0) {
+				json.append(',');
+			}
+			json.append("{\"index\":").append(card);
+			json.append(",\"color\":");
+			TranslationReport.appendJson(json, this.cards.get(card).getColor().getValue());
+			json.append(",\"text\":");
+			TranslationReport.appendJson(json, this.cards.get(card).toString());
+			json.append(",\"entries\":[");
+			for (int i = 0; i < this.cardMatches[card].length; i++) {
+				if (i > 0) {
+					json.append(',');
+				}
+				json.append(this.entries.get(this.cardMatches[card][i]).getIndex());
+			}
+			json.append("]}");
+
+		}
+		json.append("]}");
+
+		return json.toString();
+
+	}
+
+	/**
+	 * @return the report as XML.
+	 * @throws ParserConfigurationException when it's not possible to create a
+	 *         new Document.
+	 */
+	public Document toXml() throws ParserConfigurationException {
+
+		Document document = Deck.newDocumentBuilder().newDocument();
+
+		Element report = document.createElement("translation-report");
+		report.setAttribute("source-language", this.sourceLanguage);
+		report.setAttribute("target-language", this.targetLanguage);
+		report.setAttribute("untranslated-cards", Integer.toString(this.getUntranslatedCards().size()));
+		report.setAttribute("unused-entries", Integer.toString(this.getUnusedEntries().size()));
+		document.appendChild(report);
+
+		Element entries = document.createElement("entries");
+		report.appendChild(entries);
+		for (int entry = 0; entry < this.entries.size(); entry++) {
+
+			Dictionary.Entry dictionaryEntry = this.entries.get(entry);
+
+			Element element = document.createElement("entry");
+			element.setAttribute("index", Integer.toString(dictionaryEntry.getIndex()));
+			element.setAttribute("hits", Integer.toString(this.hits[entry]));
+			element.setAttribute("cards", Integer.toString(this.cardsMatched[entry]));
+
+			String[] languages = { this.sourceLanguage, this.targetLanguage };
+			for (String language : languages) {
+				Element term = document.createElement("term");
+				term.setAttribute("xml:lang", language);
+				term.setTextContent(dictionaryEntry.getTerm(language));
+				element.appendChild(term);
+			}
+
+			entries.appendChild(element);
+
+		}
+
+		Element cards = document.createElement("cards");
+		report.appendChild(cards);
+		for (int card = 0; card < this.cards.size(); card++) {
+
+			StringBuilder matches = new StringBuilder();
+			for (int i = 0; i < this.cardMatches[card].length; i++) {
+				if (i > 0) {
+					matches.append(' ');
+				}
+				matches.append(this.entries.get(this.cardMatches[card][i]).getIndex());
+			}
+
+			Element element = this.cards.get(card).toElement(document);
+			element.setAttribute("index", Integer.toString(card));
+			element.setAttribute("color", this.cards.get(card).getColor().getValue());
+			element.setAttribute("entries", matches.toString());
+			cards.appendChild(element);
+
+		}
+
+		return document;
+
+	}
+
+	/**
+	 * Matches every entry against every card.
+	 */
+	private void match() {
+
+		ArrayList<String> terms = new ArrayList<String>(this.entries.size());
+		for (Dictionary.Entry entry : this.entries) {
+			terms.add(entry.getTerm(this.sourceLanguage));
+		}
+
+		TermMatcher matcher = new TermMatcher(terms);
+
+		// Where the last counted match of each entry ended, so that matches
+		// of the same entry don't overlap (as with replace()).
+		final int[] lastEnd = new int[this.entries.size()];
+		final int[] lastFragment = new int[this.entries.size()];
+		Arrays.fill(lastFragment, -1);
+
+		final boolean[] isMatched = new boolean[this.entries.size()];
+
+		// The entries matched by the current card, in the order found. Reused
+		// for each card, as is the handler, so matching allocates nothing
+		// per card but the result.
+		final int[] matched = new int[this.entries.size()];
+		final int[] total = { 0 };
+		final int[] fragmentId = { -1 };
+
+		TermMatcher.MatchHandler handler = new TermMatcher.MatchHandler() {
+
+			public void match(int term, int start, int end) {
+
+				int id = fragmentId[0];
+				if (lastFragment[term] == id && start < lastEnd[term]) {
+					return;
+				}
+				lastFragment[term] = id;
+				lastEnd[term] = end;
+
+				TranslationReport.this.hits[term]++;
+				if (!isMatched[term]) {
+					isMatched[term] = true;
+					matched[total[0]++] = term;
+				}
+
+			}
+
+		};
+
+		for (int card = 0; card < this.cards.size(); card++) {
+
+			total[0] = 0;
+
+			Card current = this.cards.get(card);
+			for (int fragment = 0; fragment <= current.getBlanks(); fragment++) {
+				fragmentId[0]++;
+				matcher.find(current.getFragment(fragment), handler);
+			}
+
+			int[] result = Arrays.copyOf(matched, total[0]);
+			Arrays.sort(result);
+			for (int term : result) {
+				isMatched[term] = false;
+				this.cardsMatched[term]++;
+			}
+			this.cardMatches[card] = result;
+
+		}
+
+	}
+
+}
@@ -0,0 +1,448 @@
+/*
+ * Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Locale;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.dom.DOMSource;
+
+import net.sf.saxon.s9api.Axis;
+import net.sf.saxon.s9api.DOMDestination;
+import net.sf.saxon.s9api.Destination;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.Serializer;
+import net.sf.saxon.s9api.XPathExecutable;
+import net.sf.saxon.s9api.XPathSelector;
+import net.sf.saxon.s9api.XdmAtomicValue;
+import net.sf.saxon.s9api.XdmDestination;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmNodeKind;
+import net.sf.saxon.s9api.XdmSequenceIterator;
+import net.sf.saxon.s9api.XsltExecutable;
+import net.sf.saxon.s9api.XsltTransformer;
+
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * A deck of cards whose data is kept in Saxon's own tree model (TinyTree),
+ * rather than as a DOM.
+ * 
+ * Deck hands Saxon a DOM for each transformation, which Saxon must wrap or
+ * copy, then builds a new DOM from the result. Here the data stays as an
+ * XdmNode from one stage to the next, and where one stage follows another
+ * (eg. translating, then removing duplicates) the transformations are chained
+ * so that the intermediate result is never built at all. A DOM is only built
+ * when getData() is called.
+ * 
+ * The stylesheets are the same as those used by Deck, compiled once and
+ * shared by every instance, as is the Processor. The results are the same as
+ * Deck's, except that blanks are standardised by blank.xsl rather than by
+ * editing serialised XML.
+ * 
+ * @author Sheila Thomson
+ */
+public class XdmDeck {
+
+	/**
+	 * XSLT for replacing underscore blanks with a blank element.
+	 */
+	protected static final String PATH_TO_BLANKING_XSL = "/xsl/blank.xsl";
+
+	/**
+	 * Shared by every instance, as recommended by Saxon.
+	 */
+	private static final Processor PROCESSOR = new Processor(false);
+
+	/**
+	 * Compiled stylesheets, by path.
+	 */
+	private static final HashMap<String, XsltExecutable> STYLESHEETS = new HashMap<String, XsltExecutable>();
+
+	/**
+	 * Matches any underscore blank in the data.
+	 */
+	private static XPathExecutable underscoreBlanks;
+
+	/**
+	 * The card data for this deck.
+	 */
+	private XdmNode data;
+
+	/**
+	 * A DOM copy of the data, built when first asked for.
+	 */
+	private Document document;
+
+	private ErrorListener errorListener;
+
+	/**
+	 * Copies card data held as a DOM.
+	 * 
+	 * @param xml the card data for this deck.
+	 * @throws SaxonApiException when it's not possible to copy the data.
+	 */
+	public XdmDeck(Document xml) throws SaxonApiException {
+
+		if (xml == null) {
+			throw new IllegalArgumentException("Data required.");
+		}
+
+		this.data = PROCESSOR.newDocumentBuilder().build(new DOMSource(xml));
+
+	}
+
+	/**
+	 * @param xml the card data for this deck.
+	 */
+	public XdmDeck(XdmNode xml) {
+
+		if (xml == null) {
+			throw new IllegalArgumentException("Data required.");
+		}
+
+		this.data = xml;
+
+	}
+
+	/**
+	 * @return the Processor shared by every instance, for building data to
+	 *         construct a deck from.
+	 */
+	public static Processor getProcessor() {
+		return PROCESSOR;
+	}
+
+	/**
+	 * Reads card data straight into Saxon's own tree model.
+	 * 
+	 * @param xml the card data file.
+	 * @return the deck.
+	 * @throws SaxonApiException when there's a problem reading or parsing the
+	 *         file.
+	 */
+	public static XdmDeck parse(File xml) throws SaxonApiException {
+
+		if (!xml.exists()) {
+			throw new IllegalArgumentException("File not found: " + xml.getPath());
+		}
+
+		return new XdmDeck(PROCESSOR.newDocumentBuilder().build(xml));
+
+	}
+
+	/**
+	 * @param path a pointer to a file containing the stylesheet required.
+	 * @return the stylesheet, compiled.
+	 * @throws SaxonApiException when it's not possible to compile the
+	 *         stylesheet.
+	 */
+	protected static synchronized XsltExecutable getXsl(String path) throws SaxonApiException {
+
+		XsltExecutable xsl = STYLESHEETS.get(path);
+		if (xsl == null) {
+
+			// Read the stylesheet as Deck does, so that the output is the
+			// same down to the order of attributes.
+			try {
+				xsl = PROCESSOR.newXsltCompiler().compile(Deck.getXsl(path));
+			} catch (SAXException e) {
+				throw new SaxonApiException(e);
+			} catch (IOException e) {
+				throw new SaxonApiException(e);
+			} catch (ParserConfigurationException e) {
+				throw new SaxonApiException(e);
+			}
+			STYLESHEETS.put(path, xsl);
+
+		}
+		return xsl;
+
+	}
+
+	private static synchronized XPathExecutable getUnderscoreBlanks() throws SaxonApiException {
+
+		if (underscoreBlanks == null) {
+			underscoreBlanks = PROCESSOR.newXPathCompiler().compile("//text()[contains(., '__')] | //@*[contains(., '__')]");
+		}
+		return underscoreBlanks;
+
+	}
+
+	/**
+	 * Replace underscore blanks with <blank />, then merge any duplicate cards
+	 * this creates, in a single pass.
+	 * 
+	 * @throws SaxonApiException when it's not possible to complete the
+	 *         transformation.
+	 */
+	public void blank() throws SaxonApiException {
+
+		if (this.isBlanked()) {
+
+			// No underscore blanks found; nothing further to do.
+			return;
+
+		}
+
+		this.transform(this.newTransformer(PATH_TO_BLANKING_XSL), this.newTransformer(Deck.PATH_TO_DEDUPING_XSL));
+
+	}
+
+	/**
+	 * Merge duplicate cards.
+	 * 
+	 * @throws SaxonApiException when it's not possible to complete the
+	 *         transformation.
+	 */
+	public void dedupe() throws SaxonApiException {
+		this.transform(this.newTransformer(Deck.PATH_TO_DEDUPING_XSL));
+	}
+
+	/**
+	 * @return the card data as a DOM, built the first time it's asked for
+	 *         after each change.
+	 * @throws SaxonApiException when it's not possible to copy the data.
+	 * @throws ParserConfigurationException when it's not possible to create a
+	 *         new document.
+	 */
+	public Document getData() throws SaxonApiException, ParserConfigurationException {
+
+		if (this.document == null) {
+			Document document = Deck.newDocumentBuilder().newDocument();
+			PROCESSOR.writeXdmValue(this.data, new DOMDestination(document));
+			this.document = document;
+		}
+		return this.document;
+
+	}
+
+	public ErrorListener getErrorListener() {
+		return this.errorListener;
+	}
+
+	public Locale getLocale() {
+
+		// Retrieve the game language
+		String xmlLang = "";
+		XdmNode game = this.getGame();
+		if (game != null) {
+			String value = game.getAttributeValue(new QName(XMLConstants.XML_NS_URI, "lang"));
+			if (value != null) {
+				xmlLang = value;
+			}
+		}
+
+		if (xmlLang.equals("")) {
+			throw new IllegalArgumentException("The language of the card deck isn't specified.");
+		}
+
+		return Locale.forLanguageTag(xmlLang);
+
+	}
+
+	/**
+	 * @return the card data, in Saxon's tree model.
+	 */
+	public XdmNode getNode() {
+		return this.data;
+	}
+
+	public boolean hasErrorListener() {
+		return this.errorListener != null;
+	}
+
+	/**
+	 * Check whether the data contains any unconverted underscore blanks.
+	 * 
+	 * @return true if all blanks are represented by a <blank /> element.
+	 * @throws SaxonApiException when it's not possible to search the data.
+	 */
+	public boolean isBlanked() throws SaxonApiException {
+
+		XPathSelector selector = XdmDeck.getUnderscoreBlanks().load();
+		selector.setContextItem(this.data);
+		return !selector.iterator().hasNext();
+
+	}
+
+	public void setErrorListener(ErrorListener listener) {
+		this.errorListener = listener;
+	}
+
+	/**
+	 * @return a Deck with a DOM copy of the data.
+	 * @throws SaxonApiException when it's not possible to copy the data.
+	 * @throws ParserConfigurationException when it's not possible to create a
+	 *         new document.
+	 */
+	public Deck toDeck() throws SaxonApiException, ParserConfigurationException {
+
+		Deck deck = new Deck(this.getData());
+		if (this.hasErrorListener()) {
+			deck.setErrorListener(this.getErrorListener());
+		}
+		return deck;
+
+	}
+
+	/**
+	 * @return the current data as an HTML5 String, the same as Deck.toHtml().
+	 * @throws SaxonApiException when it's not possible to complete the
+	 *         transformation.
+	 */
+	public String toHtml() throws SaxonApiException {
+		return this.serialise(Deck.PATH_TO_HTML_XSL);
+	}
+
+	/**
+	 * @return the current data as an XML String, the same as Deck.toString().
+	 */
+	@Override
+	public String toString() {
+
+		try {
+			return this.serialise(Deck.PATH_TO_STRING_XSL);
+		} catch (SaxonApiException e) {
+
+			// Unable to use the stylesheet, fall back.
+			return this.data.toString();
+
+		}
+
+	}
+
+	/**
+	 * Translate from original language into target language, then merge any
+	 * duplicate cards this creates, in a single pass.
+	 * 
+	 * @param targetLanguage the language to translate into.
+	 * @param dictionary the dictionary to translate with.
+	 * @throws SaxonApiException when it's not possible to complete the
+	 *         transformation.
+	 */
+	public void translate(Locale targetLanguage, File dictionary) throws SaxonApiException {
+
+		// Check that a target language has been specified.
+		if (targetLanguage == null) {
+			throw new IllegalArgumentException("New language not specified.");
+		}
+
+		// Check that the data is not already in the target language
+		if (targetLanguage.equals(this.getLocale())) {
+
+			// No translation required.
+			return;
+
+		}
+
+		// Check that a dictionary has been specified
+		if (dictionary == null) {
+			throw new IllegalArgumentException("Dictionary required.");
+		}
+
+		// Check that the dictionary exists
+		if (!dictionary.exists()) {
+			throw new IllegalArgumentException("Dictionary not found.");
+		}
+
+		XsltTransformer translation = this.newTransformer(Deck.PATH_TO_TRANSLATION_XSL);
+		translation.setParameter(new QName("path-to-dictionary"), new XdmAtomicValue(dictionary.getAbsolutePath()));
+		translation.setParameter(new QName("output-language"), new XdmAtomicValue(targetLanguage.toLanguageTag()));
+
+		this.transform(translation, this.newTransformer(Deck.PATH_TO_DEDUPING_XSL));
+
+	}
+
+	/**
+	 * @return the root element of the data, or null if there isn't one.
+	 */
+	private XdmNode getGame() {
+
+		XdmSequenceIterator children = this.data.axisIterator(Axis.CHILD);
+		while (children.hasNext()) {
+			XdmItem child = children.next();
+			if (((XdmNode) child).getNodeKind() == XdmNodeKind.ELEMENT) {
+				return (XdmNode) child;
+			}
+		}
+		return null;
+
+	}
+
+	private XsltTransformer newTransformer(String path) throws SaxonApiException {
+
+		XsltTransformer transformer = XdmDeck.getXsl(path).load();
+		if (this.hasErrorListener()) {
+			transformer.setErrorListener(this.getErrorListener());
+		}
+		return transformer;
+
+	}
+
+	/**
+	 * Transforms the data with the stylesheet specified, serialising the
+	 * result as it directs.
+	 */
+	private String serialise(String path) throws SaxonApiException {
+
+		StringWriter writer = new StringWriter();
+		Serializer serializer = new Serializer();
+		serializer.setOutputWriter(writer);
+
+		XsltTransformer transformer = this.newTransformer(path);
+		transformer.setInitialContextNode(this.data);
+		transformer.setDestination(serializer);
+		transformer.transform();
+
+		return writer.toString();
+
+	}
+
+	/**
+	 * Runs the data through each transformation in turn, passing events
+	 * straight from one to the next, and replaces the data with the result.
+	 */
+	private void transform(XsltTransformer... stages) throws SaxonApiException {
+
+		XdmDestination result = new XdmDestination();
+
+		for (int i = 0; i < stages.length; i++) {
+			Destination next = (i + 1 < stages.length) ? stages[i + 1] : result;
+			stages[i].setDestination(next);
+		}
+
+		stages[0].setInitialContextNode(this.data);
+		stages[0].transform();
+
+		this.data = result.getXdmNode();
+		this.document = null;
+
+	}
+
+}
@@ -0,0 +1,162 @@
+/* Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.PrimitiveIterator;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import com.kaikoda.cah.Card.CardColor;
+
+/**
+ * @author Sheila Thomson
+ */
+public class TestAttributeIndex {
+
+	private AttributeIndex index;
+
+	/**
+	 * Configure the test environment prior to each test.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 */
+	@Before
+	public void setup() throws SAXException, IOException, ParserConfigurationException {
+
+		this.index = new AttributeIndex();
+		this.index.add(new Deck(Deck.parse(this.getFile("/data/control/cards/html5.xml"))));
+		this.index.add(new Deck(Deck.parse(this.getFile("/data/control/cards/usa.xml"))));
+
+	}
+
+	/**
+	 * Check that combining attributes finds the same cards as checking each
+	 * card in turn.
+	 */
+	@Test
+	public void testAttributeIndexAnd() {
+
+		AttributeIndex.Query result = this.index.color(CardColor.BLACK).and(this.index.pick(2)).and(this.index.language(Locale.forLanguageTag("en-GB"))).and(this.index.shorterThan(90));
+
+		List<Integer> expected = new ArrayList<Integer>();
+		for (int card = 0; card < this.index.size(); card++) {
+			Card found = this.index.getCard(card);
+			if (found.getColor() == CardColor.BLACK && found.getPick() == 2 && AttributeIndex.getLength(found) < 90 && this.index.pack("html5.xml").contains(card)) {
+				expected.add(card);
+			}
+		}
+
+		assertTrue(expected.size() > 0);
+		assertEquals(expected, this.toList(result));
+
+	}
+
+	/**
+	 * Check that a range of lengths that doesn't line up with the length
+	 * buckets finds exactly the cards in range.
+	 */
+	@Test
+	public void testAttributeIndexLength() {
+
+		List<Integer> expected = new ArrayList<Integer>();
+		for (int card = 0; card < this.index.size(); card++) {
+			int length = AttributeIndex.getLength(this.index.getCard(card));
+			if (length >= 17 && length <= 43) {
+				expected.add(card);
+			}
+		}
+
+		assertEquals(expected, this.toList(this.index.length(17, 43)));
+		assertEquals(this.index.size(), this.index.length(0, Integer.MAX_VALUE).count());
+		assertTrue(this.index.length(43, 17).isEmpty());
+
+	}
+
+	/**
+	 * Check that either of two attributes, or one without another, can be
+	 * found.
+	 */
+	@Test
+	public void testAttributeIndexOr() {
+
+		AttributeIndex.Query html5 = this.index.pack("html5.xml");
+		AttributeIndex.Query usa = this.index.pack("usa.xml");
+
+		assertEquals(this.index.size(), html5.count() + usa.count());
+		assertArrayEquals(this.index.all().toArray(), html5.or(usa).toArray());
+		assertArrayEquals(usa.toArray(), this.index.all().andNot(html5).toArray());
+		assertArrayEquals(usa.toArray(), this.index.language(Locale.forLanguageTag("en-US")).toArray());
+
+		// Values not in the index match nothing.
+		assertTrue(this.index.pack("uk.xml").isEmpty());
+		assertTrue(this.index.pick(99).isEmpty());
+
+	}
+
+	/**
+	 * Check that cards are grouped by the same size classes as html5.xsl
+	 * gives them.
+	 */
+	@Test
+	public void testAttributeIndexSizeClass() {
+
+		int total = 0;
+		for (String size : new String[] { null, "long", "very-long", "very-very-long", "too-long", "far-too-long" }) {
+
+			AttributeIndex.Query result = this.index.sizeClass(size);
+			for (int card : result.toArray()) {
+				assertEquals(size, HtmlRenderer.getSizeClass(AttributeIndex.getLength(this.index.getCard(card))));
+			}
+			total = total + result.count();
+
+		}
+
+		assertEquals(this.index.size(), total);
+
+	}
+
+	private File getFile(String path) {
+		return new File(this.getClass().getResource(path).getFile());
+	}
+
+	private List<Integer> toList(AttributeIndex.Query query) {
+
+		List<Integer> result = new ArrayList<Integer>();
+		PrimitiveIterator.OfInt cards = query.iterator();
+		while (cards.hasNext()) {
+			result.add(cards.nextInt());
+		}
+		return result;
+
+	}
+
+}
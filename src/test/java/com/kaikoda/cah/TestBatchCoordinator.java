@@ -0,0 +1,439 @@
+/* Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import static org.custommonkey.xmlunit.XMLAssert.assertXMLEqual;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.custommonkey.xmlunit.XMLUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.kaikoda.cah.CardGenerator.CardGeneratorProduct;
+import com.kaikoda.cah.ProgressReporter.ProgressReporterMode;
+import com.kaikoda.cah.ProgressSink.ProgressSinkFormat;
+
+/**
+ * @author Sheila Thomson
+ */
+public class TestBatchCoordinator {
+
+	/**
+	 * The names of the card data files in the batch.
+	 */
+	private static final String[] UNITS = { "html5", "uk", "usa" };
+
+	private BatchCoordinator coordinator;
+
+	/**
+	 * Where the card data files are read from.
+	 */
+	private File input;
+
+	/**
+	 * Where the products are written to.
+	 */
+	private File output;
+
+	/**
+	 * Configure the test environment prior to each test.
+	 * 
+	 * @throws IOException
+	 */
+	@Before
+	public void setup() throws IOException {
+
+		XMLUnit.setIgnoreWhitespace(true);
+		XMLUnit.setIgnoreAttributeOrder(true);
+		XMLUnit.setIgnoreComments(true);
+
+		this.input = this.newTempDirectory();
+		this.output = this.newTempDirectory();
+
+		for (String unit : UNITS) {
+			FileUtils.copyFile(new File(this.getClass().getResource("/data/test/cards/" + unit + ".xml").getFile()), new File(this.input, unit + ".xml"));
+		}
+
+		this.coordinator = new BatchCoordinator(this.input);
+		this.coordinator.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+	}
+
+	/**
+	 * Delete files generated by tests.
+	 * 
+	 * @throws IOException
+	 */
+	@After
+	public void tearDown() throws IOException {
+
+		this.coordinator.close();
+		FileUtils.deleteDirectory(this.input);
+		FileUtils.deleteDirectory(this.output);
+
+	}
+
+	/**
+	 * Check that units completed by an earlier run, as recorded in the
+	 * journal, aren't generated again.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testBatchCoordinator_journal() throws Exception {
+
+		File journal = new File(this.output, "batch.journal");
+		FileUtils.writeStringToFile(journal, new File(this.input, "uk.xml").getAbsolutePath() + "\n", "UTF-8");
+
+		this.coordinator.setJournal(journal);
+		assertEquals(1, this.coordinator.getCompleted());
+
+		assertEquals(2, this.newWorker().work(this.coordinator.getAddress()));
+		assertTrue(this.coordinator.await(10, TimeUnit.SECONDS));
+
+		assertEquals(3, FileUtils.readLines(journal, "UTF-8").size());
+		assertEquals(3, this.coordinator.getCompleted());
+
+	}
+
+	/**
+	 * Check that the products of every completed unit are gathered into a
+	 * single archive, under the directory each was generated in.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testBatchCoordinator_archive() throws Exception {
+
+		assertEquals(3, this.newWorker().work(this.coordinator.getAddress()));
+		assertTrue(this.coordinator.await(10, TimeUnit.SECONDS));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ProductArchive archive = new ProductArchive(out, ProductArchive.ArchiveFormat.TAR_GZ);
+		try {
+			assertEquals(3, this.coordinator.archive(this.output, archive));
+		} finally {
+			archive.close();
+		}
+
+		List<String> entries = new ArrayList<String>();
+		TarArchiveInputStream in = new TarArchiveInputStream(new GzipCompressorInputStream(new ByteArrayInputStream(out.toByteArray())));
+		try {
+			for (ArchiveEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+
+				entries.add(entry.getName());
+
+				String unit = entry.getName().substring(0, entry.getName().indexOf('/'));
+				String control = FileUtils.readFileToString(new File(this.getClass().getResource("/data/control/cards/" + unit + ".xml").getFile()), "UTF-8");
+				assertXMLEqual(control, IOUtils.toString(in, "UTF-8"));
+
+			}
+		} finally {
+			in.close();
+		}
+
+		assertEquals(Arrays.asList("html5/cards_against_humanity.xml", "uk/cards_against_humanity.xml", "usa/cards_against_humanity.xml"), entries);
+
+	}
+
+	/**
+	 * Check that feedback sent to a sink is tagged with the card data file of
+	 * each unit.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testBatchCoordinator_progressSink() throws Exception {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ProgressSink sink = new ProgressSink(out, ProgressSinkFormat.TEXT);
+
+		BatchWorker worker = new BatchWorker(new CardGenerator(), EnumSet.of(CardGeneratorProduct.XML), null, null, this.output);
+		worker.setProgressSink(sink);
+
+		assertEquals(3, worker.work(this.coordinator.getAddress()));
+		sink.close();
+
+		for (String unit : UNITS) {
+			assertTrue(out.toString("UTF-8").contains("[" + unit + ".xml] Card generation complete.\n"));
+		}
+
+		for (String line : out.toString("UTF-8").split("\n")) {
+			assertTrue(line, line.equals("") || line.matches("\\[(html5|uk|usa)\\.xml\\] .*"));
+		}
+
+	}
+
+	/**
+	 * Check that products left by an earlier run, eg. one without a journal,
+	 * are replaced rather than kept.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testBatchCoordinator_existingProducts() throws Exception {
+
+		File stale = new File(new File(this.output, "uk"), "cards_against_humanity.xml");
+		FileUtils.writeStringToFile(stale, "<game/>", "UTF-8");
+
+		assertEquals(3, this.newWorker().work(this.coordinator.getAddress()));
+		assertTrue(this.coordinator.await(10, TimeUnit.SECONDS));
+
+		assertEquals(3, this.coordinator.getCompleted());
+		this.assertProducts();
+
+	}
+
+	/**
+	 * Check that a unit held by a worker that's still busy is given to an
+	 * idle worker once there are no others left, that the batch completes
+	 * without waiting for the straggler, and that the straggler's copy is
+	 * thrown away once it's ready.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testBatchCoordinator_straggler() throws Exception {
+
+		Socket straggler = new Socket();
+		try {
+
+			straggler.connect(this.coordinator.getAddress());
+			String unit = this.requestUnit(straggler);
+
+			assertEquals(3, this.newWorker().work(this.coordinator.getAddress()));
+			assertTrue(this.coordinator.await(10, TimeUnit.SECONDS));
+
+			assertEquals("DISCARD", this.send(straggler, "READY " + unit));
+
+		} finally {
+			straggler.close();
+		}
+
+		assertEquals(1, this.coordinator.getStolen());
+		assertEquals(3, this.coordinator.getCompleted());
+		this.assertProducts();
+
+	}
+
+	/**
+	 * Check that a unit held by a worker that disconnects, eg. because it
+	 * crashed, is handed out again.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testBatchCoordinator_workerDisconnects() throws Exception {
+
+		Socket crashed = new Socket();
+		try {
+			crashed.connect(this.coordinator.getAddress());
+			this.requestUnit(crashed);
+		} finally {
+			crashed.close();
+		}
+
+		// Wait for the coordinator to notice.
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (this.coordinator.getReassigned() == 0 && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, this.coordinator.getReassigned());
+
+		assertEquals(3, this.newWorker().work(this.coordinator.getAddress()));
+		assertTrue(this.coordinator.await(10, TimeUnit.SECONDS));
+
+		assertEquals(0, this.coordinator.getStolen());
+		assertEquals(3, this.coordinator.getCompleted());
+		this.assertProducts();
+
+	}
+
+	/**
+	 * Check that a unit with a stage that fails, eg. translating with a
+	 * dictionary term that isn't a valid regular expression, is reported as
+	 * failed rather than done, and isn't journalled.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testBatchCoordinator_stageFails() throws Exception {
+
+		File journal = new File(this.output, "batch.journal");
+		this.coordinator.setJournal(journal);
+
+		// Only the en-gb units are translated, and fail.
+		File dictionary = File.createTempFile("dictionary", ".xml");
+		dictionary.deleteOnExit();
+		FileUtils.writeStringToFile(dictionary, "<dictionary><entry><term xml:lang=\"en-gb\">(</term><term xml:lang=\"fr\">Parenth\u00e8se</term></entry></dictionary>", "UTF-8");
+
+		CardGenerator generator = new CardGenerator();
+		generator.setVerbosity(ProgressReporterMode.SILENT);
+
+		BatchWorker worker = new BatchWorker(generator, EnumSet.of(CardGeneratorProduct.XML), Locale.FRENCH, dictionary, this.output);
+
+		assertEquals(1, worker.work(this.coordinator.getAddress()));
+		assertTrue(this.coordinator.await(10, TimeUnit.SECONDS));
+
+		assertEquals(1, this.coordinator.getCompleted());
+		assertEquals(2, this.coordinator.getFailed());
+		assertEquals(Arrays.asList(new File(this.input, "usa.xml").getAbsolutePath()), FileUtils.readLines(journal, "UTF-8"));
+
+	}
+
+	/**
+	 * Check that several workers share the batch between them and that every
+	 * unit's products match those generated on their own.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testBatchCoordinator_workers() throws Exception {
+
+		final List<Throwable> errors = new ArrayList<Throwable>();
+		final int[] totals = new int[2];
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < totals.length; i++) {
+
+			final int worker = i;
+			final BatchWorker batchWorker = this.newWorker();
+			Thread thread = new Thread(new Runnable() {
+
+				public void run() {
+					try {
+						totals[worker] = batchWorker.work(TestBatchCoordinator.this.coordinator.getAddress());
+					} catch (Throwable e) {
+						synchronized (errors) {
+							errors.add(e);
+						}
+					}
+				}
+
+			});
+			threads.add(thread);
+			thread.start();
+
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertTrue(errors.toString(), errors.isEmpty());
+		assertTrue(this.coordinator.await(10, TimeUnit.SECONDS));
+
+		assertEquals(3, this.coordinator.getCompleted());
+		assertEquals(0, this.coordinator.getFailed());
+		assertEquals(3, totals[0] + totals[1]);
+		assertTrue(this.coordinator.getBytes() > 0);
+		this.assertProducts();
+
+	}
+
+	/**
+	 * Checks that every unit has been generated, with nothing left over.
+	 */
+	private void assertProducts() throws Exception {
+
+		assertEquals(UNITS.length, this.output.list().length);
+
+		for (String unit : UNITS) {
+			String control = FileUtils.readFileToString(new File(this.getClass().getResource("/data/control/cards/" + unit + ".xml").getFile()), "UTF-8");
+			String result = FileUtils.readFileToString(new File(new File(this.output, unit), "cards_against_humanity.xml"), "UTF-8");
+			assertXMLEqual(control, result);
+		}
+
+	}
+
+	private BatchWorker newWorker() throws CardGeneratorConfigurationException {
+
+		CardGenerator generator = new CardGenerator();
+		generator.setVerbosity(ProgressReporterMode.SILENT);
+
+		return new BatchWorker(generator, EnumSet.of(CardGeneratorProduct.XML), null, null, this.output);
+
+	}
+
+	/**
+	 * @return a new, empty directory.
+	 * @throws IOException when it's not possible to create the directory.
+	 */
+	private File newTempDirectory() throws IOException {
+
+		File directory = File.createTempFile("cah", "");
+		directory.delete();
+		directory.mkdir();
+		return directory;
+
+	}
+
+	/**
+	 * Asks for a unit as a worker would, but doesn't generate it.
+	 * 
+	 * @return the id of the unit.
+	 */
+	private String requestUnit(Socket socket) throws IOException {
+
+		String reply = this.send(socket, "NEXT");
+		assertTrue(reply.startsWith("UNIT "));
+
+		return reply.split(" ")[1];
+
+	}
+
+	/**
+	 * Sends a message to the coordinator, as a worker would.
+	 * 
+	 * @return the reply.
+	 */
+	private String send(Socket socket, String message) throws IOException {
+
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"), true);
+		BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+
+		out.println(message);
+		return in.readLine();
+
+	}
+
+}
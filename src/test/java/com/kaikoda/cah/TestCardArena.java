@@ -0,0 +1,184 @@
+/* Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.TransformerException;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import com.kaikoda.cah.Card.CardColor;
+
+/**
+ * @author Sheila Thomson
+ */
+public class TestCardArena {
+
+	/**
+	 * Check that duplicates are only stored once, and that the cards come out
+	 * the same as they went in.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 * @throws TransformerException
+	 * @throws XMLStreamException
+	 */
+	@Test
+	public void testCardArenaAdd_duplicates() throws SAXException, IOException, ParserConfigurationException, TransformerException, XMLStreamException {
+
+		File xml = this.getFile("/data/test/cards/duplicates.xml");
+
+		Deck deck = new Deck(Deck.parse(xml));
+		deck.blank();
+
+		CardArena arena = CardArena.load(xml);
+		assertEquals(deck.getCards().size(), arena.getTotalCards());
+		assertEquals(4, arena.getTotalDuplicates());
+
+		assertEquals(this.getCards(deck, CardColor.BLACK), this.getCards(arena, CardColor.BLACK));
+		assertEquals(this.getCards(deck, CardColor.WHITE), this.getCards(arena, CardColor.WHITE));
+
+		// Underscores are stored as a blank, so match the card already held.
+		Card first = arena.toCard(0);
+		StringBuilder text = new StringBuilder(first.getFragment(0));
+		for (int i = 1; i <= first.getBlanks(); i++) {
+			text.append("___").append(first.getFragment(i));
+		}
+		assertEquals(0, arena.add(first.getColor(), text));
+		assertEquals(0, arena.add(first));
+		assertEquals(6, arena.getTotalDuplicates());
+
+	}
+
+	/**
+	 * Check that the HTML written from an arena, memory-mapped across several
+	 * segments, is the same as that written from a blanked and de-duped
+	 * Deck.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 * @throws TransformerException
+	 * @throws XMLStreamException
+	 */
+	@Test
+	public void testCardArenaRender_mapped() throws SAXException, IOException, ParserConfigurationException, TransformerException, XMLStreamException {
+
+		File xml = this.getFile("/data/test/cards/html5.xml");
+		File backingFile = File.createTempFile("cards", ".arena");
+		backingFile.deleteOnExit();
+
+		Deck deck = new Deck(Deck.parse(xml));
+		deck.blank();
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		deck.toHtml(expected);
+
+		CardArena arena = new CardArena(backingFile, 1024);
+		try {
+
+			arena.read(xml);
+
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			new HtmlRenderer().render(arena, result);
+
+			assertEquals(expected.toString("UTF-8"), result.toString("UTF-8"));
+
+		} finally {
+			arena.close();
+		}
+
+	}
+
+	/**
+	 * Check that translating an arena gives the same cards as translating a
+	 * Deck.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 * @throws TransformerException
+	 * @throws XMLStreamException
+	 */
+	@Test
+	public void testCardArenaTranslate() throws SAXException, IOException, ParserConfigurationException, TransformerException, XMLStreamException {
+
+		File xml = this.getFile("/data/test/cards/usa.xml");
+		File dictionary = this.getFile("/data/control/dictionaries/english.xml");
+
+		Deck deck = new Deck(Deck.parse(xml));
+		deck.translate(Locale.forLanguageTag("en-GB"), dictionary);
+		deck.blank();
+
+		CardArena arena = CardArena.load(xml);
+		CardArena result = new CardArena();
+
+		assertEquals(4, arena.translate(Dictionary.load(dictionary), "en-gb", result));
+		assertEquals("en-gb", result.getLanguage());
+		assertEquals(deck.getCards().size(), result.getTotalCards());
+
+		assertEquals(this.getCards(deck, CardColor.BLACK), this.getCards(result, CardColor.BLACK));
+		assertEquals(this.getCards(deck, CardColor.WHITE), this.getCards(result, CardColor.WHITE));
+
+	}
+
+	/**
+	 * @return the cards of one color, in order.
+	 */
+	private List<Card> getCards(CardArena arena, CardColor color) {
+
+		ArrayList<Card> cards = new ArrayList<Card>();
+		for (int card = 0; card < arena.getTotalCards(); card++) {
+			if (arena.getColor(card) == color) {
+				cards.add(arena.toCard(card));
+			}
+		}
+		return cards;
+
+	}
+
+	/**
+	 * @return the cards of one color, in order.
+	 */
+	private List<Card> getCards(Deck deck, CardColor color) {
+
+		ArrayList<Card> cards = new ArrayList<Card>();
+		for (Card card : deck.getCards()) {
+			if (card.getColor() == color) {
+				cards.add(card);
+			}
+		}
+		return cards;
+
+	}
+
+	private File getFile(String path) {
+		return new File(this.getClass().getResource(path).getFile());
+	}
+
+}
@@ -18,11 +18,30 @@ package com.kaikoda.cah;
 
 import static org.custommonkey.xmlunit.XMLAssert.assertXMLEqual;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.EnumSet;
 import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.ParserConfigurationException;
@@ -30,7 +49,11 @@ import javax.xml.transform.TransformerException;
 
 import org.apache.commons.cli.MissingArgumentException;
 import org.apache.commons.cli.ParseException;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.custommonkey.xmlunit.XMLUnit;
 import org.junit.After;
 import org.junit.Before;
@@ -41,7 +64,9 @@ import org.junit.rules.ExpectedException;
 import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
 
+import com.kaikoda.cah.CardGenerator.CardGeneratorCompression;
 import com.kaikoda.cah.CardGenerator.CardGeneratorProduct;
+import com.kaikoda.cah.CardGenerator.CardGeneratorStage;
 import com.kaikoda.cah.ProgressReporter.ProgressReporterMode;
 
 /**
@@ -208,6 +233,111 @@ public class TestCardGenerator {
 
 	}
 
+	/**
+	 * Check that the products of several generations can be written to a
+	 * single archive, each in a directory of its own, with the assets needed
+	 * to style the HTML.
+	 * 
+	 * @throws SAXException if an error occurs while building one of the test or
+	 *         control documents.
+	 * @throws IOException if an error occurs while reading one of the test or
+	 *         control documents.
+	 * @throws ParserConfigurationException
+	 */
+	@Test
+	public void testCardGeneratorGenerate_archive() throws SAXException, IOException, ParserConfigurationException {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ProductArchive archive = new ProductArchive(out, ProductArchive.ArchiveFormat.ZIP);
+		try {
+
+			Map<CardGeneratorProduct, String> result = generator.generate(this.getFile("/data/test/cards/html5.xml"), null, null, EnumSet.of(CardGeneratorProduct.HTML, CardGeneratorProduct.XML), archive);
+			assertEquals("html5/cards_against_humanity.xml", result.get(CardGeneratorProduct.XML));
+
+			generator.generate(this.getFile("/data/test/cards/usa.xml"), null, null, EnumSet.of(CardGeneratorProduct.XML), archive);
+
+		} finally {
+			archive.close();
+		}
+
+		TreeMap<String, String> entries = new TreeMap<String, String>();
+		ZipArchiveInputStream in = new ZipArchiveInputStream(new ByteArrayInputStream(out.toByteArray()));
+		try {
+			for (ArchiveEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+				entries.put(entry.getName(), IOUtils.toString(in, "UTF-8"));
+			}
+		} finally {
+			in.close();
+		}
+
+		assertTrue(entries.containsKey("html5/assets/style.css"));
+		assertFalse(entries.containsKey("usa/assets/style.css"));
+		assertXMLEqual(this.getXmlString("/data/control/cards/html5.html"), entries.get("html5/cards_against_humanity.html"));
+		assertXMLEqual(this.getXmlString("/data/control/cards/html5.xml"), entries.get("html5/cards_against_humanity.xml"));
+		assertXMLEqual(this.getXmlString("/data/control/cards/usa.xml"), entries.get("usa/cards_against_humanity.xml"));
+
+	}
+
+	/**
+	 * Check that a product can be compressed with gzip.
+	 * 
+	 * @throws SAXException if an error occurs while building one of the test or
+	 *         control documents.
+	 * @throws IOException if an error occurs while reading one of the test or
+	 *         control documents.
+	 * @throws ParserConfigurationException
+	 */
+	@Test
+	public void testCardGeneratorGenerate_gzip() throws SAXException, IOException, ParserConfigurationException {
+
+		generator.setCompression(CardGeneratorCompression.GZIP);
+		File result = generator.generate(this.getFile("/data/test/cards/html5.xml"), null, null, CardGeneratorProduct.XML);
+		try {
+
+			assertEquals("cards_against_humanity.xml.gz", result.getName());
+
+			InputStream in = new GzipCompressorInputStream(new FileInputStream(result));
+			try {
+				assertXMLEqual(this.getXmlString("/data/control/cards/html5.xml"), IOUtils.toString(in, "UTF-8"));
+			} finally {
+				in.close();
+			}
+
+		} finally {
+			result.delete();
+		}
+
+	}
+
+	/**
+	 * Check that several products can be generated from a single run, each
+	 * the same as if it had been generated alone.
+	 * 
+	 * @throws SAXException if an error occurs while building one of the test or
+	 *         control documents.
+	 * @throws IOException if an error occurs while reading one of the test or
+	 *         control documents.
+	 * @throws TransformerException is an unrecoverable error occurs during the
+	 *         transformation.
+	 * @throws ParserConfigurationException
+	 */
+	@Test
+	public void testCardGeneratorGenerate_severalProducts() throws SAXException, IOException, TransformerException, ParserConfigurationException {
+
+		File xml = this.getFile("/data/test/cards/html5.xml");
+
+		Map<CardGeneratorProduct, File> result = generator.generate(xml, null, null, EnumSet.of(CardGeneratorProduct.HTML, CardGeneratorProduct.XML, CardGeneratorProduct.PDF));
+
+		assertEquals(3, result.size());
+
+		// PDF is printed from the HTML.
+		assertEquals(result.get(CardGeneratorProduct.HTML), result.get(CardGeneratorProduct.PDF));
+
+		assertXMLEqual(this.getXmlString(this.getFile("/data/control/cards/html5.html")), this.getXmlString(result.get(CardGeneratorProduct.HTML)));
+		assertXMLEqual(this.getXmlString(this.getFile("/data/control/cards/html5.xml")), this.getXmlString(result.get(CardGeneratorProduct.XML)));
+
+	}
+
 	/**
 	 * Check that the Card Generator correctly translates from American to
 	 * British English.
@@ -355,6 +485,223 @@ public class TestCardGenerator {
 
 	}
 
+	/**
+	 * Check that generating asynchronously produces the same HTML as
+	 * generating synchronously, in the directory specified.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testCardGeneratorGenerateAsync() throws Exception {
+
+		File directory = this.newTempDirectory();
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+
+			File xml = this.getFile("/data/test/cards/duplicates.xml");
+
+			File result = generator.generateAsync(xml, null, null, CardGeneratorProduct.HTML, directory, executor).get(30, TimeUnit.SECONDS);
+
+			assertEquals(directory, result.getParentFile());
+			assertEquals(true, new File(directory, "assets" + File.separator + "style.css").exists());
+
+			String expected = this.getXmlString("/data/control/cards/no_duplicates.html");
+			assertXMLEqual(expected, this.getXmlString(result));
+
+		} finally {
+			executor.shutdown();
+			FileUtils.deleteDirectory(directory);
+		}
+
+	}
+
+	/**
+	 * Check that generating asynchronously compresses the product, just as
+	 * generating synchronously does.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testCardGeneratorGenerateAsync_compressed() throws Exception {
+
+		File directory = this.newTempDirectory();
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+
+			File xml = this.getFile("/data/test/cards/html5.xml");
+
+			generator.setCompression(CardGeneratorCompression.GZIP);
+			File result = generator.generateAsync(xml, null, null, CardGeneratorProduct.XML, directory, executor).get(30, TimeUnit.SECONDS);
+
+			assertEquals(new File(directory, "cards_against_humanity.xml.gz"), result);
+
+			InputStream in = new GzipCompressorInputStream(new FileInputStream(result));
+			try {
+				assertXMLEqual(this.getXmlString("/data/control/cards/html5.xml"), IOUtils.toString(in, "UTF-8"));
+			} finally {
+				in.close();
+			}
+
+		} finally {
+			executor.shutdown();
+			FileUtils.deleteDirectory(directory);
+		}
+
+	}
+
+	/**
+	 * Check that generating asynchronously reads a card pack, just as
+	 * generating synchronously does.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testCardGeneratorGenerateAsync_pack() throws Exception {
+
+		File directory = this.newTempDirectory();
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+
+			File pack = new File(directory, "html5.pack");
+			OutputStream out = new FileOutputStream(pack);
+			try {
+				CardPack.write(new Deck(Deck.parse(this.getFile("/data/control/cards/html5.xml"))).snapshot(), out);
+			} finally {
+				out.close();
+			}
+
+			File result = generator.generateAsync(pack, null, null, CardGeneratorProduct.XML, directory, executor).get(30, TimeUnit.SECONDS);
+
+			assertXMLEqual(this.getXmlString("/data/control/cards/html5.xml"), this.getXmlString(result));
+
+		} finally {
+			executor.shutdown();
+			FileUtils.deleteDirectory(directory);
+		}
+
+	}
+
+	/**
+	 * Check that a cancelled generation runs no further stages.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testCardGeneratorGenerateAsync_cancelled() throws Exception {
+
+		File directory = this.newTempDirectory();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+
+			// Hold up the executor until the generation has been cancelled.
+			final CountDownLatch latch = new CountDownLatch(1);
+			executor.execute(new Runnable() {
+
+				public void run() {
+					try {
+						latch.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+
+			});
+
+			File xml = this.getFile("/data/test/cards/duplicates.xml");
+			Future<File> result = generator.generateAsync(xml, null, null, CardGeneratorProduct.HTML, directory, executor);
+
+			assertEquals(true, result.cancel(true));
+			latch.countDown();
+
+			executor.shutdown();
+			executor.awaitTermination(30, TimeUnit.SECONDS);
+
+			assertEquals(true, result.isCancelled());
+			assertEquals(false, new File(directory, "cards_against_humanity.html").exists());
+
+		} finally {
+			executor.shutdownNow();
+			FileUtils.deleteDirectory(directory);
+		}
+
+	}
+
+	/**
+	 * Check that a failed stage is identified.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testCardGeneratorGenerateAsync_stageFailure() throws Exception {
+
+		File directory = this.newTempDirectory();
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+
+			File xml = this.getFile("/data/test/cards/usa.xml");
+			Future<File> result = generator.generateAsync(xml, Locale.UK, new File("missing.xml"), CardGeneratorProduct.HTML, directory, executor);
+
+			try {
+				result.get(30, TimeUnit.SECONDS);
+				fail("Expected the translation to fail.");
+			} catch (ExecutionException e) {
+				assertEquals(CardGeneratorStageException.class, e.getCause().getClass());
+				assertEquals(CardGeneratorStage.TRANSLATING, ((CardGeneratorStageException) e.getCause()).getStage());
+				assertEquals("Dictionary not found.", e.getCause().getCause().getMessage());
+			}
+
+		} finally {
+			executor.shutdown();
+			FileUtils.deleteDirectory(directory);
+		}
+
+	}
+
+	/**
+	 * Check that a generation that takes too long times out.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testCardGeneratorGenerateAsync_timeout() throws Exception {
+
+		File directory = this.newTempDirectory();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		final CountDownLatch latch = new CountDownLatch(1);
+		try {
+
+			// Hold up the executor for longer than the timeout.
+			executor.execute(new Runnable() {
+
+				public void run() {
+					try {
+						latch.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+
+			});
+
+			File xml = this.getFile("/data/test/cards/duplicates.xml");
+			Future<File> result = generator.generateAsync(xml, null, null, CardGeneratorProduct.HTML, directory, executor, 50, TimeUnit.MILLISECONDS);
+
+			try {
+				result.get(30, TimeUnit.SECONDS);
+				fail("Expected the generation to time out.");
+			} catch (ExecutionException e) {
+				assertEquals(TimeoutException.class, e.getCause().getClass());
+			}
+
+		} finally {
+			latch.countDown();
+			executor.shutdown();
+			executor.awaitTermination(30, TimeUnit.SECONDS);
+			FileUtils.deleteDirectory(directory);
+		}
+
+	}
+
 	/**
 	 * Check that the Card Generator correctly saves a file
 	 * 
@@ -683,4 +1030,17 @@ public class TestCardGenerator {
 		return this.getXmlString(this.getFile(input));
 	}
 
+	/**
+	 * @return a new, empty directory for output.
+	 * @throws IOException when it's not possible to create the directory.
+	 */
+	private File newTempDirectory() throws IOException {
+
+		File directory = File.createTempFile("cah", "");
+		directory.delete();
+		directory.mkdir();
+		return directory;
+
+	}
+
 }
@@ -0,0 +1,116 @@
+/* Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import com.kaikoda.cah.Card.CardColor;
+
+/**
+ * @author Sheila Thomson
+ */
+public class TestCardIndex {
+
+	/**
+	 * An index of the British cards.
+	 */
+	private CardIndex index;
+
+	/**
+	 * Configure the test environment prior to each test.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 */
+	@Before
+	public void setup() throws SAXException, IOException, ParserConfigurationException {
+
+		File xml = new File(this.getClass().getResource("/data/control/cards/html5.xml").getFile());
+		this.index = new CardIndex(new Deck(Deck.parse(xml)));
+
+	}
+
+	@Test
+	public void testCardIndexFindPhrase() {
+
+		int[] result = this.index.findPhrase("the British  SOLDIER", null, null);
+
+		assertEquals(1, result.length);
+		assertEquals("The British soldier can stand up to anything except .", this.index.getCard(result[0]).getText());
+
+		// Both terms are on the card, but not next to each other.
+		assertEquals(0, this.index.findPhrase("soldier British", null, null).length);
+
+	}
+
+	@Test
+	public void testCardIndexFindPrefix() {
+
+		assertEquals(2, this.index.findPrefix("Brit", CardColor.BLACK, null).length);
+		assertEquals(0, this.index.findPrefix("Brit", CardColor.WHITE, null).length);
+
+	}
+
+	@Test
+	public void testCardIndexFindTerm() {
+
+		int[] result = this.index.findTerm("thatcher", CardColor.WHITE, Locale.forLanguageTag("en-GB"));
+		assertEquals(2, result.length);
+
+		for (int card : result) {
+			assertTrue(this.index.getCard(card).getText().startsWith("Margaret Thatcher"));
+		}
+
+		assertEquals(0, this.index.findTerm("thatcher", null, Locale.forLanguageTag("nl-NL")).length);
+		assertEquals(0, this.index.findTerm("thatcher", CardColor.BLACK, null).length);
+
+	}
+
+	/**
+	 * Check that the index is kept up to date as cards are changed.
+	 */
+	@Test
+	public void testCardIndexUpdate() {
+
+		int size = this.index.size();
+		int[] found = this.index.findTerm("Thatcher", null, null);
+
+		int updated = this.index.update(found[0], new Card(CardColor.WHITE, "Margaret Thatcher's handbag"));
+		this.index.remove(found[1]);
+
+		assertEquals(size - 1, this.index.size());
+		assertNull(this.index.getCard(found[0]));
+		assertTrue(Arrays.equals(new int[] { updated }, this.index.findTerm("thatcher", null, Locale.forLanguageTag("en-gb"))));
+		assertTrue(Arrays.equals(new int[] { updated }, this.index.findPhrase("thatcher's handbag", null, null)));
+
+	}
+
+}
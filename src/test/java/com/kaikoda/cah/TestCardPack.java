@@ -0,0 +1,199 @@
+/* Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.xml.sax.SAXException;
+
+/**
+ * @author Sheila Thomson
+ */
+public class TestCardPack {
+
+	/**
+	 * For declaring what kind of exception is expected, when one is expected.
+	 */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	/**
+	 * Check that every card can be read back by ID, with its blanks and the
+	 * number of cards to pick and draw.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 */
+	@Test
+	public void testCardPackGetCard() throws SAXException, IOException, ParserConfigurationException {
+
+		DeckSnapshot deck = new Deck(Deck.parse(this.getFile("/data/control/cards/html5.xml"))).snapshot();
+		CardPack pack = new CardPack(this.toPack(deck));
+
+		List<Card> expected = deck.getCards();
+		assertEquals(expected.size(), pack.getTotalCards());
+
+		for (int id = 0; id < expected.size(); id++) {
+
+			Card card = expected.get(id);
+			assertEquals(card, pack.getCard(id));
+			assertEquals(card.getText(), pack.getText(id));
+			assertEquals(card.getColor(), pack.getColor(id));
+			assertEquals(card.getBlanks(), pack.getBlanks(id));
+			assertEquals(card.getPick(), pack.getPick(id));
+			assertEquals(card.getDraw(), pack.getDraw(id));
+
+		}
+
+	}
+
+	/**
+	 * Check that a card that isn't in the pack can't be read.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 */
+	@Test
+	public void testCardPackGetCard_unknownCard() throws SAXException, IOException, ParserConfigurationException {
+
+		DeckSnapshot deck = new Deck(Deck.parse(this.getFile("/data/control/cards/usa.xml"))).snapshot();
+		CardPack pack = new CardPack(this.toPack(deck));
+
+		exception.expect(IndexOutOfBoundsException.class);
+		exception.expectMessage("Unknown card: " + pack.getTotalCards());
+
+		pack.getCard(pack.getTotalCards());
+
+	}
+
+	/**
+	 * Check that a card with more blanks than the index can hold is rejected,
+	 * rather than read back with the wrong fragments.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 */
+	@Test
+	public void testCardPackWrite_tooManyBlanks() throws SAXException, IOException, ParserConfigurationException {
+
+		StringBuilder card = new StringBuilder();
+		for (int i = 0; i < 256; i++) {
+			card.append("<blank/>,");
+		}
+
+		DeckSnapshot deck = new Deck(Deck.parse("<game xml:lang=\"en\"><deck><suit color=\"black\"><card>" + card + "</card></suit></deck></game>")).snapshot();
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Too many blanks on a single card: ");
+
+		CardPack.write(deck, new ByteArrayOutputStream());
+
+	}
+
+	/**
+	 * Check that data that isn't a pack is rejected.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testCardPack_notAPack() throws IOException {
+
+		assertFalse(CardPack.isPack(this.getFile("/data/control/cards/usa.xml")));
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Not a card pack.");
+
+		new CardPack(ByteBuffer.wrap("<game xml:lang=\"en\"><deck></deck></game>".getBytes("UTF-8")));
+
+	}
+
+	/**
+	 * Check that a Deck read from a memory-mapped pack holds the same card
+	 * data as one read from the original XML.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 * @throws TransformerException
+	 */
+	@Test
+	public void testCardPackOpen() throws SAXException, IOException, ParserConfigurationException, TransformerException {
+
+		File xml = this.getFile("/data/control/cards/merged.xml");
+		Deck expected = new Deck(Deck.parse(xml));
+
+		File file = File.createTempFile("cards", ".pack");
+		file.deleteOnExit();
+
+		OutputStream out = new FileOutputStream(file);
+		try {
+			CardPack.write(expected.snapshot(), out);
+		} finally {
+			out.close();
+		}
+
+		assertTrue(CardPack.isPack(file));
+
+		CardPack pack = CardPack.open(file);
+		try {
+			assertEquals(expected.snapshot().getLanguage(), pack.getLanguage());
+			assertEquals(expected.snapshot().getLicence(), pack.getLicence());
+			assertEquals(expected.snapshot().getLicenceHref(), pack.getLicenceHref());
+		} finally {
+			pack.close();
+		}
+
+		Deck result = new Deck(Deck.parse(file));
+
+		assertEquals(file.getName(), result.getName());
+		assertEquals(expected.getCards(), result.getCards());
+		assertEquals(expected.toHtml(), result.toHtml());
+
+	}
+
+	private File getFile(String path) {
+		return new File(this.getClass().getResource(path).getFile());
+	}
+
+	private ByteBuffer toPack(DeckSnapshot deck) throws IOException {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CardPack.write(deck, out);
+		return ByteBuffer.wrap(out.toByteArray());
+
+	}
+
+}
@@ -0,0 +1,141 @@
+/* Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.TransformerException;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import com.kaikoda.cah.Card.CardColor;
+import com.kaikoda.cah.DeckSnapshot.Suit;
+
+/**
+ * @author Sheila Thomson
+ */
+public class TestCardSorter {
+
+	/**
+	 * Check that cards are sorted by the rules of their language, rather than
+	 * by character code, and that each suit is sorted separately.
+	 */
+	@Test
+	public void testCardSorterSort() {
+
+		List<Suit> suits = new ArrayList<Suit>();
+		suits.add(new Suit(CardColor.BLACK, Arrays.asList(this.newCard(CardColor.BLACK, "Zebra crossings."), this.newCard(CardColor.BLACK, "\u00c9clairs."), this.newCard(CardColor.BLACK, "apples."))));
+		suits.add(new Suit(CardColor.WHITE, Arrays.asList(this.newCard(CardColor.WHITE, "banana"), this.newCard(CardColor.WHITE, "Apple"))));
+
+		List<List<Suit>> decks = new ArrayList<List<Suit>>();
+		decks.add(suits);
+
+		DeckSnapshot result = new CardSorter().sort(new DeckSnapshot("en-gb", null, null, decks));
+
+		List<Card> expected = Arrays.asList(this.newCard(CardColor.BLACK, "apples."), this.newCard(CardColor.BLACK, "\u00c9clairs."), this.newCard(CardColor.BLACK, "Zebra crossings."), this.newCard(CardColor.WHITE, "Apple"), this.newCard(CardColor.WHITE, "banana"));
+		assertEquals(expected, result.getCards());
+		assertEquals("en-gb", result.getLanguage());
+
+	}
+
+	/**
+	 * Check that sorting again after a change only works out the collation
+	 * key of the card that changed.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 * @throws TransformerException
+	 */
+	@Test
+	public void testCardSorterSort_cachedKeys() throws SAXException, IOException, ParserConfigurationException, TransformerException {
+
+		Deck deck = new Deck(Deck.parse(this.getFile("/data/control/cards/html5.xml")));
+		int total = deck.getCards().size();
+
+		CardSorter sorter = new CardSorter();
+		deck.sort(sorter);
+		assertEquals(total, sorter.getKeysComputed());
+
+		this.assertSorted(deck, sorter);
+
+		Card card = deck.getCards().get(0);
+		Card replacement = new Card(card.getColor(), "Aardvarks.");
+		deck.updateCard(card, replacement);
+		deck.sort(sorter);
+
+		assertEquals(total + 1, sorter.getKeysComputed());
+		assertTrue(deck.getCards().contains(replacement));
+		this.assertSorted(deck, sorter);
+
+	}
+
+	/**
+	 * Check that sorting from file, in several runs, gives the same order as
+	 * sorting in memory.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 * @throws XMLStreamException
+	 */
+	@Test
+	public void testCardSorterSort_file() throws SAXException, IOException, ParserConfigurationException, XMLStreamException {
+
+		File xml = this.getFile("/data/control/cards/html5.xml");
+		List<Card> expected = new CardSorter().sort(new Deck(Deck.parse(xml)).snapshot()).getCards();
+
+		CardSorter sorter = new CardSorter(null, 5, null);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		sorter.sort(xml, out);
+
+		assertTrue(sorter.getTotalRuns() > 2);
+		assertEquals(expected, new Deck(Deck.parse(out.toString("UTF-8"))).getCards());
+
+	}
+
+	private void assertSorted(Deck deck, CardSorter sorter) {
+
+		List<Card> cards = deck.getCards();
+		for (int i = 1; i < cards.size(); i++) {
+			if (cards.get(i - 1).getColor() == cards.get(i).getColor()) {
+				assertTrue(sorter.getKey(cards.get(i - 1), deck.getLocale()).compareTo(sorter.getKey(cards.get(i), deck.getLocale())) <= 0);
+			}
+		}
+
+	}
+
+	private File getFile(String path) {
+		return new File(this.getClass().getResource(path).getFile());
+	}
+
+	private Card newCard(CardColor color, String text) {
+		return new Card(color, text);
+	}
+
+}
@@ -0,0 +1,217 @@
+/* Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.xml.sax.SAXException;
+
+/**
+ * @author Sheila Thomson
+ */
+public class TestDealer {
+
+	/**
+	 * For declaring what kind of exception is expected, when one is expected.
+	 */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	/**
+	 * A deck with enough cards for several hands.
+	 */
+	private Deck deck;
+
+	/**
+	 * Configure the test environment prior to each test.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 */
+	@Before
+	public void setup() throws SAXException, IOException, ParserConfigurationException {
+
+		File xml = new File(this.getClass().getResource("/data/control/cards/html5.xml").getFile());
+		this.deck = new Deck(Deck.parse(xml));
+
+	}
+
+	/**
+	 * Check that every card is dealt exactly once before any are re-used.
+	 */
+	@Test
+	public void testDealerDeal_everyCardOnce() {
+
+		Dealer dealer = new Dealer(this.deck, 42L);
+		int total = dealer.getTotalWhiteCards();
+
+		int[] hand = new int[total + 10];
+		assertEquals(total, dealer.deal(hand, 0, hand.length));
+
+		boolean[] seen = new boolean[total];
+		for (int i = 0; i < total; i++) {
+			assertFalse(seen[hand[i]]);
+			seen[hand[i]] = true;
+		}
+
+		assertEquals(0, dealer.getWhiteCardsRemaining());
+
+	}
+
+	/**
+	 * Check that discarded cards are shuffled back in once the draw pile runs
+	 * out.
+	 */
+	@Test
+	public void testDealerDeal_reshuffleDiscards() {
+
+		Dealer dealer = new Dealer(this.deck, 42L);
+		int total = dealer.getTotalWhiteCards();
+
+		int[] hand = new int[total];
+		dealer.deal(hand, 0, total);
+		assertEquals(-1, dealer.drawWhite());
+
+		dealer.discardWhite(hand[3]);
+		dealer.discardWhite(hand[7]);
+
+		int first = dealer.drawWhite();
+		int second = dealer.drawWhite();
+		assertTrue((first == hand[3] && second == hand[7]) || (first == hand[7] && second == hand[3]));
+		assertEquals(-1, dealer.drawWhite());
+
+	}
+
+	/**
+	 * Check that the same seed results in the same order of play, even for a
+	 * Dealer sharing the cards of another.
+	 */
+	@Test
+	public void testDealerDeal_seeded() {
+
+		Dealer original = new Dealer(this.deck, 1234L);
+		Dealer copy = new Dealer(original, 1234L);
+
+		int[] expected = new int[10];
+		int[] result = new int[10];
+		original.deal(expected, 0, 10);
+		copy.deal(result, 0, 10);
+
+		assertArrayEquals(expected, result);
+		assertEquals(original.drawBlack(), copy.drawBlack());
+
+	}
+
+	/**
+	 * Check that the number of cards to pick and draw match those printed on
+	 * the HTML cards.
+	 */
+	@Test
+	public void testDealerGetPick() {
+
+		Dealer dealer = new Dealer(this.deck, 7L);
+
+		int checked = 0;
+		for (int card = 0; card < dealer.getTotalBlackCards(); card++) {
+
+			Card black = dealer.getBlackCard(card);
+			if (black.getText().startsWith("\"I'm not asking anybody,\"")) {
+				assertEquals(3, dealer.getPick(card));
+				assertEquals(2, dealer.getDraw(card));
+				checked++;
+			} else if (black.getText().startsWith("The British soldier")) {
+				assertEquals(1, dealer.getPick(card));
+				assertEquals(0, dealer.getDraw(card));
+				checked++;
+			} else if (black.getText().startsWith("To cure the British disease")) {
+				assertEquals(2, dealer.getPick(card));
+				assertEquals(0, dealer.getDraw(card));
+				checked++;
+			}
+
+		}
+
+		assertEquals(3, checked);
+
+	}
+
+	/**
+	 * Check that a card can't be discarded twice, so the discard pile can't
+	 * fill up with copies of it.
+	 */
+	@Test
+	public void testDealerDiscardWhite_alreadyDiscarded() {
+
+		Dealer dealer = new Dealer(this.deck, 7L);
+
+		int card = dealer.drawWhite();
+		dealer.discardWhite(card);
+
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Card not in play: " + card);
+
+		dealer.discardWhite(card);
+
+	}
+
+	/**
+	 * Check that a card still waiting to be drawn can't be discarded.
+	 */
+	@Test
+	public void testDealerDiscardWhite_notDrawn() {
+
+		Dealer dealer = new Dealer(this.deck, 7L);
+
+		int card = dealer.drawWhite();
+		dealer.reset();
+
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Card not in play: " + card);
+
+		dealer.discardWhite(card);
+
+	}
+
+	/**
+	 * Check that a card that isn't part of the deck can't be discarded.
+	 */
+	@Test
+	public void testDealerDiscardWhite_unknownCard() {
+
+		Dealer dealer = new Dealer(this.deck, 7L);
+
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Unknown card: " + dealer.getTotalWhiteCards());
+
+		dealer.discardWhite(dealer.getTotalWhiteCards());
+
+	}
+
+}
@@ -18,11 +18,16 @@ package com.kaikoda.cah;
 
 import static org.custommonkey.xmlunit.XMLAssert.assertXMLEqual;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FilenameFilter;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
 import java.util.TreeMap;
 
@@ -129,6 +134,62 @@ public class TestDeck {
 
 	}
 
+	/**
+	 * Check that a card is added to the end of its suit, unless it's a
+	 * duplicate, and that the result is the same as adding it and then
+	 * de-duping.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws TransformerException
+	 * @throws ParserConfigurationException
+	 */
+	@Test
+	public void testDeckAddCard() throws SAXException, IOException, TransformerException, ParserConfigurationException {
+
+		Deck customDeck = new Deck(this.getDocument("/data/control/cards/blanks_element.xml"));
+		int total = customDeck.getCards().size();
+
+		Card card = new Card(Card.CardColor.WHITE, "A sausage sandwich.");
+		assertTrue(customDeck.addCard(card));
+		assertFalse(customDeck.addCard(card));
+		assertFalse(customDeck.addCard(new Card(Card.CardColor.BLACK, "\"", "ety ", ".\"")));
+
+		List<Card> cards = customDeck.getCards();
+		assertEquals(total + 1, cards.size());
+		assertEquals(card, cards.get(1));
+
+		Document expected = (Document) customDeck.getData().cloneNode(true);
+		customDeck.dedupe();
+		assertXMLEqual(expected, customDeck.getData());
+
+	}
+
+	/**
+	 * Check that underscore blanks on a card added to a blanked deck are
+	 * replaced, so the deck remains blanked.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws TransformerException
+	 * @throws ParserConfigurationException
+	 */
+	@Test
+	public void testDeckAddCard_underscoreBlanks() throws SAXException, IOException, TransformerException, ParserConfigurationException {
+
+		Deck customDeck = new Deck(this.getDocument("/data/control/cards/blanks_element.xml"));
+		assertTrue(customDeck.isBlanked());
+
+		assertTrue(customDeck.addCard(new Card(Card.CardColor.BLACK, "What's that smell? __.")));
+
+		assertTrue(customDeck.isBlanked());
+		assertTrue(customDeck.getCards().contains(new Card(Card.CardColor.BLACK, "What's that smell? ", ".")));
+
+		// A duplicate, once blanked.
+		assertFalse(customDeck.addCard(new Card(Card.CardColor.BLACK, "What's that smell? ", ".")));
+
+	}
+
 	@Test
 	public void testDeckBlank_elementBlanks() throws SAXException, IOException, TransformerException, ParserConfigurationException {
 
@@ -324,6 +385,33 @@ public class TestDeck {
 
 	}
 
+	/**
+	 * Check that removing the last card with underscore blanks leaves the deck
+	 * blanked.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws TransformerException
+	 * @throws ParserConfigurationException
+	 */
+	@Test
+	public void testDeckRemoveCard() throws SAXException, IOException, TransformerException, ParserConfigurationException {
+
+		String xml = "<game xml:lang=\"en-gb\"><deck><suit color=\"white\"><card>Cheese</card><card>Pickles</card></suit><suit color=\"black\"><card>I like ___.</card></suit></deck></game>";
+
+		Deck customDeck = new Deck(Deck.parse(xml));
+		assertFalse(customDeck.isBlanked());
+
+		assertTrue(customDeck.removeCard(new Card(Card.CardColor.BLACK, "I like ___.")));
+		assertFalse(customDeck.removeCard(new Card(Card.CardColor.BLACK, "I like ___.")));
+		assertFalse(customDeck.removeCard(new Card(Card.CardColor.BLACK, "Cheese")));
+		assertTrue(customDeck.removeCard(new Card(Card.CardColor.WHITE, "Cheese")));
+
+		assertTrue(customDeck.isBlanked());
+		assertEquals(Arrays.asList(new Card(Card.CardColor.WHITE, "Pickles")), customDeck.getCards());
+
+	}
+
 	@Test
 	public void testDeckToHtml() throws IOException, SAXException, ParserConfigurationException, TransformerException {
 
@@ -338,6 +426,46 @@ public class TestDeck {
 
 	}
 
+	/**
+	 * Check that the native HTML renderer produces exactly the same output as
+	 * the XSLT, and the same as the control, for every control file.
+	 * 
+	 * @throws IOException
+	 * @throws SAXException
+	 * @throws ParserConfigurationException
+	 * @throws TransformerException
+	 */
+	@Test
+	public void testDeckToHtml_outputStream() throws IOException, SAXException, ParserConfigurationException, TransformerException {
+
+		File[] controls = this.getFile("/data/control/cards").listFiles(new FilenameFilter() {
+
+			public boolean accept(File directory, String name) {
+				return name.endsWith(".html");
+			}
+
+		});
+		Arrays.sort(controls);
+		assertTrue(controls.length > 0);
+
+		for (File control : controls) {
+
+			String path = "/data/control/cards/" + control.getName().replaceAll("\\.html$", ".xml");
+
+			Deck customDeck = new Deck(this.getDocument(path));
+			String expected = customDeck.toHtml();
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			customDeck.toHtml(out);
+			String result = out.toString("UTF-8");
+
+			assertEquals(path, expected, result);
+			assertXMLEqual(path, this.getXmlString(control), result);
+
+		}
+
+	}
+
 	@Test
 	public void testDeckToString() throws IOException, SAXException, ParserConfigurationException {
 
@@ -445,6 +573,87 @@ public class TestDeck {
 
 	}
 
+	/**
+	 * Check that translating only the cards affected gives the same result as
+	 * translating them all.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws TransformerException
+	 * @throws ParserConfigurationException
+	 */
+	@Test
+	public void testDeckTranslateSelectively() throws SAXException, IOException, TransformerException, ParserConfigurationException {
+
+		Deck expected = new Deck(this.getDocument(TestDeck.DECK_DATA_USA));
+		expected.translate(Locale.forLanguageTag("en-gb"), TestDeck.DICTIONARY_DATA_ENGLISH);
+
+		Deck customDeck = new Deck(this.getDocument(TestDeck.DECK_DATA_USA));
+		customDeck.translateSelectively(Locale.forLanguageTag("en-gb"), Dictionary.load(TestDeck.DICTIONARY_DATA_ENGLISH));
+
+		assertEquals(Locale.forLanguageTag("en-gb"), customDeck.getLocale());
+		assertEquals(expected.getCards(), customDeck.getCards());
+		assertXMLEqual(expected.getData(), customDeck.getData());
+
+	}
+
+	/**
+	 * Check that cards that become duplicates once translated are merged,
+	 * keeping the first in document order, as by a full translation.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws TransformerException
+	 * @throws ParserConfigurationException
+	 */
+	@Test
+	public void testDeckTranslateSelectively_duplicates() throws SAXException, IOException, TransformerException, ParserConfigurationException {
+
+		String xml = "<game xml:lang=\"en-us\"><deck><suit color=\"white\"><card>Jeremy Kyle</card><card>Judge Judy</card><card>TSA</card></suit><suit color=\"black\"><card>Judge Judy says <blank/>.</card><card>Jeremy Kyle says <blank/>.</card></suit></deck></game>";
+
+		Deck expected = new Deck(Deck.parse(xml));
+		expected.translate(Locale.forLanguageTag("en-gb"), TestDeck.DICTIONARY_DATA_ENGLISH);
+
+		Deck customDeck = new Deck(Deck.parse(xml));
+		customDeck.translateSelectively(Locale.forLanguageTag("en-gb"), Dictionary.load(TestDeck.DICTIONARY_DATA_ENGLISH));
+
+		assertEquals(3, customDeck.getCards().size());
+		assertEquals(expected.getCards(), customDeck.getCards());
+		assertXMLEqual(expected.getData(), customDeck.getData());
+
+	}
+
+	/**
+	 * Check that the index of cards kept by addCard() is brought up to date
+	 * by a selective translation, merging cards that become duplicates.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws TransformerException
+	 * @throws ParserConfigurationException
+	 */
+	@Test
+	public void testDeckTranslateSelectively_index() throws SAXException, IOException, TransformerException, ParserConfigurationException {
+
+		String xml = "<game xml:lang=\"en-us\"><deck><suit color=\"white\"><card>Jeremy Kyle</card><card>TSA</card></suit></deck></game>";
+
+		Deck customDeck = new Deck(Deck.parse(xml));
+		assertTrue(customDeck.addCard(new Card(Card.CardColor.WHITE, "Judge Judy")));
+
+		customDeck.translateSelectively(Locale.forLanguageTag("en-gb"), Dictionary.load(TestDeck.DICTIONARY_DATA_ENGLISH));
+
+		Deck expected = new Deck(Deck.parse(xml));
+		expected.addCard(new Card(Card.CardColor.WHITE, "Judge Judy"));
+		expected.translate(Locale.forLanguageTag("en-gb"), TestDeck.DICTIONARY_DATA_ENGLISH);
+
+		assertEquals(expected.getCards(), customDeck.getCards());
+		for (Card card : expected.getCards()) {
+			assertFalse(customDeck.addCard(card));
+		}
+		assertTrue(customDeck.addCard(new Card(Card.CardColor.WHITE, "Judge Judy")));
+
+	}
+
 	/**
 	 * Check that the language and data remain unchanged if the target language
 	 * is the same as the current language.
@@ -471,6 +680,73 @@ public class TestDeck {
 		assertXMLEqual(expected, result);
 	}
 
+	/**
+	 * Check that a card updated to match another card is merged with it,
+	 * keeping the first of the two in document order.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws TransformerException
+	 * @throws ParserConfigurationException
+	 */
+	@Test
+	public void testDeckUpdateCard() throws SAXException, IOException, TransformerException, ParserConfigurationException {
+
+		String xml = "<game xml:lang=\"en-gb\"><deck><suit color=\"white\"><card>Cheese</card><card>Pickles</card><card>Crisps</card></suit></deck></game>";
+
+		Card cheese = new Card(Card.CardColor.WHITE, "Cheese");
+		Card pickles = new Card(Card.CardColor.WHITE, "Pickles");
+		Card crisps = new Card(Card.CardColor.WHITE, "Crisps");
+		Card chutney = new Card(Card.CardColor.WHITE, "Chutney");
+
+		// Updated to match an earlier card
+		Deck customDeck = new Deck(Deck.parse(xml));
+		assertTrue(customDeck.updateCard(pickles, cheese));
+		assertEquals(Arrays.asList(cheese, crisps), customDeck.getCards());
+
+		// Updated to match a later card
+		customDeck = new Deck(Deck.parse(xml));
+		assertTrue(customDeck.updateCard(pickles, crisps));
+		assertEquals(Arrays.asList(cheese, crisps), customDeck.getCards());
+
+		// Updated in place
+		customDeck = new Deck(Deck.parse(xml));
+		assertTrue(customDeck.updateCard(pickles, chutney));
+		assertFalse(customDeck.updateCard(pickles, chutney));
+		assertEquals(Arrays.asList(cheese, chutney, crisps), customDeck.getCards());
+
+		// Moved to another suit
+		assertTrue(customDeck.updateCard(cheese, new Card(Card.CardColor.BLACK, "Cheese")));
+		assertEquals(Arrays.asList(chutney, crisps, new Card(Card.CardColor.BLACK, "Cheese")), customDeck.getCards());
+
+	}
+
+	/**
+	 * Check that a card moved to another suit, onto a duplicate already
+	 * there, leaves the duplicate in place, as adding it and then de-duping
+	 * would.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws TransformerException
+	 * @throws ParserConfigurationException
+	 */
+	@Test
+	public void testDeckUpdateCard_movedOntoDuplicate() throws SAXException, IOException, TransformerException, ParserConfigurationException {
+
+		String xml = "<game xml:lang=\"en-gb\"><deck><suit color=\"black\"><card>Cheese</card></suit><suit color=\"white\"><card>Pickles</card><card>Crisps</card></suit></deck></game>";
+
+		Deck expected = new Deck(Deck.parse(xml.replace("<card>Cheese</card>", "").replace("<card>Crisps</card>", "<card>Crisps</card><card>Pickles</card>")));
+		expected.dedupe();
+
+		Deck customDeck = new Deck(Deck.parse(xml));
+		assertTrue(customDeck.updateCard(new Card(Card.CardColor.BLACK, "Cheese"), new Card(Card.CardColor.WHITE, "Pickles")));
+
+		assertEquals(Arrays.asList(new Card(Card.CardColor.WHITE, "Pickles"), new Card(Card.CardColor.WHITE, "Crisps")), customDeck.getCards());
+		assertEquals(expected.getCards(), customDeck.getCards());
+
+	}
+
 	/**
 	 * Builds a DOM Document from the file specified.
 	 * 
@@ -0,0 +1,186 @@
+/* Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.custommonkey.xmlunit.XMLUnit;
+import org.custommonkey.xmlunit.exceptions.XpathException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+import com.kaikoda.cah.Card.CardColor;
+
+/**
+ * @author Sheila Thomson
+ */
+public class TestDeckDiff {
+
+	/**
+	 * For declaring what kind of exception is expected, when one is expected.
+	 */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	/**
+	 * Check that cards added, removed and moved are found within each suit,
+	 * and that only the fewest cards needed are reported as moved.
+	 */
+	@Test
+	public void testDeckDiff_changes() {
+
+		Card a = new Card(CardColor.WHITE, "A");
+		Card b = new Card(CardColor.WHITE, "B");
+		Card c = new Card(CardColor.WHITE, "C");
+		Card d = new Card(CardColor.WHITE, "D");
+		Card e = new Card(CardColor.WHITE, "E");
+		Card question = new Card(CardColor.BLACK, "Why ", "?");
+
+		List<Card> before = Arrays.asList(a, b, c, d, question);
+		List<Card> after = Arrays.asList(question, b, c, a, e);
+
+		DeckDiff diff = new DeckDiff(before, after);
+
+		assertEquals(1, diff.getAdded(CardColor.WHITE).size());
+		assertEquals(e, diff.getAdded(CardColor.WHITE).get(0).getCard());
+		assertEquals(3, diff.getAdded(CardColor.WHITE).get(0).getNewIndex());
+
+		assertEquals(1, diff.getRemoved(CardColor.WHITE).size());
+		assertEquals(d, diff.getRemoved(CardColor.WHITE).get(0).getCard());
+		assertEquals(3, diff.getRemoved(CardColor.WHITE).get(0).getOldIndex());
+
+		assertEquals(1, diff.getMoved(CardColor.WHITE).size());
+		assertEquals(a, diff.getMoved(CardColor.WHITE).get(0).getCard());
+		assertEquals(0, diff.getMoved(CardColor.WHITE).get(0).getOldIndex());
+		assertEquals(2, diff.getMoved(CardColor.WHITE).get(0).getNewIndex());
+
+		// Suits are compared by color, so the black card hasn't moved.
+		assertTrue(diff.getAdded(CardColor.BLACK).isEmpty());
+		assertTrue(diff.getMoved(CardColor.BLACK).isEmpty());
+		assertTrue(diff.getRemoved(CardColor.BLACK).isEmpty());
+		assertEquals(3, diff.getTotalChanges());
+
+	}
+
+	/**
+	 * Check that each duplicate is matched with only one card.
+	 */
+	@Test
+	public void testDeckDiff_duplicates() {
+
+		Card a = new Card(CardColor.WHITE, "A");
+		Card b = new Card(CardColor.WHITE, "B");
+
+		DeckDiff diff = new DeckDiff(Arrays.asList(a, b, a), Arrays.asList(a, b));
+
+		assertEquals(1, diff.getRemoved(CardColor.WHITE).size());
+		assertEquals(2, diff.getRemoved(CardColor.WHITE).get(0).getOldIndex());
+		assertEquals(1, diff.getTotalChanges());
+
+	}
+
+	/**
+	 * Check that a deck is required to compare with.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 */
+	@Test
+	public void testDeckDiff_nullDeck() throws SAXException, IOException, ParserConfigurationException {
+
+		File xml = new File(this.getClass().getResource("/data/control/cards/usa.xml").getFile());
+
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Deck required.");
+
+		new Deck(Deck.parse(xml)).diff(null);
+
+	}
+
+	/**
+	 * Check that comparing a deck with itself finds no changes.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 */
+	@Test
+	public void testDeckDiff_unchanged() throws SAXException, IOException, ParserConfigurationException {
+
+		File xml = new File(this.getClass().getResource("/data/control/cards/usa.xml").getFile());
+
+		DeckDiff diff = new Deck(Deck.parse(xml)).diff(new Deck(Deck.parse(xml)));
+
+		assertTrue(diff.isEmpty());
+		assertEquals("{\"black\":{\"added\":[],\"removed\":[],\"moved\":[]},\"white\":{\"added\":[],\"removed\":[],\"moved\":[]}}", diff.toJson());
+
+	}
+
+	/**
+	 * Check that fingerprints ignore differences in whitespace, but not in
+	 * color, text or the position of blanks.
+	 */
+	@Test
+	public void testDeckDiffFingerprint() {
+
+		long fingerprint = DeckDiff.fingerprint(new Card(CardColor.BLACK, "I like ", "."));
+
+		assertEquals(fingerprint, DeckDiff.fingerprint(new Card(CardColor.BLACK, "\n\t\tI  like ", ".\n\t")));
+		assertFalse(fingerprint == DeckDiff.fingerprint(new Card(CardColor.WHITE, "I like ", ".")));
+		assertFalse(fingerprint == DeckDiff.fingerprint(new Card(CardColor.BLACK, "I like", " .")));
+		assertFalse(fingerprint == DeckDiff.fingerprint(new Card(CardColor.BLACK, "I like .")));
+
+	}
+
+	/**
+	 * Check that the changes can be written as XML.
+	 * 
+	 * @throws ParserConfigurationException
+	 * @throws XpathException
+	 */
+	@Test
+	public void testDeckDiffToXml() throws ParserConfigurationException, XpathException {
+
+		ArrayList<Card> before = new ArrayList<Card>();
+		before.add(new Card(CardColor.WHITE, "A"));
+
+		ArrayList<Card> after = new ArrayList<Card>();
+		after.add(new Card(CardColor.BLACK, "Why ", "?"));
+
+		Document xml = new DeckDiff(before, after).toXml();
+
+		assertEquals("2", XMLUnit.newXpathEngine().evaluate("/deck-diff/@changes", xml));
+		assertEquals("A", XMLUnit.newXpathEngine().evaluate("/deck-diff/suit[@color = 'white']/card[@change = 'removed' and @from = '0']", xml));
+		assertEquals("1", XMLUnit.newXpathEngine().evaluate("count(/deck-diff/suit[@color = 'black']/card[@change = 'added' and @to = '0']/blank)", xml));
+
+	}
+
+}
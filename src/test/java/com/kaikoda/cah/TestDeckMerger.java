@@ -0,0 +1,171 @@
+/* Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import static org.custommonkey.xmlunit.XMLAssert.assertXMLEqual;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.TransformerException;
+
+import org.apache.commons.io.FileUtils;
+import org.custommonkey.xmlunit.XMLUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.xml.sax.SAXException;
+
+/**
+ * @author Sheila Thomson
+ */
+public class TestDeckMerger {
+
+	/**
+	 * For declaring what kind of exception is expected, when one is expected.
+	 */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	/**
+	 * Configure the test environment prior to each test.
+	 */
+	@Before
+	public void setup() {
+
+		XMLUnit.setIgnoreWhitespace(true);
+		XMLUnit.setIgnoreAttributeOrder(true);
+		XMLUnit.setIgnoreComments(true);
+
+	}
+
+	/**
+	 * Check that several files are merged into a single deck, sorted and
+	 * without duplicates, even when spread across many runs.
+	 * 
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 * @throws SAXException
+	 */
+	@Test
+	public void testDeckMergerMerge_multipleFiles() throws IOException, XMLStreamException, SAXException {
+
+		DeckMerger merger = new DeckMerger(2, null);
+		merger.add(this.getFile("/data/test/cards/bulk/same_language/uk.xml"));
+		merger.add(this.getFile("/data/test/cards/bulk/same_language/no_language.xml"));
+		merger.add(this.getFile("/data/test/cards/bulk/same_language/blanks_mixed.xml"));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		merger.merge(out);
+
+		assertTrue(merger.getTotalRuns() > 3);
+
+		String expected = FileUtils.readFileToString(this.getFile("/data/control/cards/merged.xml"), "UTF-8");
+		assertXMLEqual(expected, out.toString("UTF-8"));
+
+	}
+
+	/**
+	 * Check that merging keeps the same cards as standardising blanks and
+	 * de-duping in memory, for a file with several decks.
+	 * 
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 * @throws SAXException
+	 * @throws ParserConfigurationException
+	 * @throws TransformerException
+	 */
+	@Test
+	public void testDeckMergerMerge_multipleDecks() throws IOException, XMLStreamException, SAXException, ParserConfigurationException, TransformerException {
+
+		File xml = this.getFile("/data/test/cards/duplicates.xml");
+
+		Deck expected = new Deck(Deck.parse(xml));
+		expected.blank();
+		expected.dedupe();
+
+		DeckMerger merger = new DeckMerger(3, null);
+		merger.add(xml);
+		merger.add(this.getFile("/data/test/cards/bulk/same_language/multiple_decks.xml"));
+		Deck result = merger.merge();
+
+		List<Card> cards = expected.getCards();
+		cards.add(new Card(Card.CardColor.WHITE, "Judge Judy"));
+		cards.add(new Card(Card.CardColor.WHITE, "GoGurt\u2122"));
+		cards.add(new Card(Card.CardColor.BLACK, "Major League Baseball has banned ", " for giving players an unfair advantage."));
+
+		assertEquals(this.sort(cards), result.getCards());
+
+	}
+
+	/**
+	 * Check that decks in different languages can't be merged.
+	 * 
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	@Test
+	public void testDeckMergerAdd_multipleLanguages() throws IOException, XMLStreamException {
+
+		DeckMerger merger = new DeckMerger();
+		merger.add(this.getFile("/data/test/cards/bulk/same_language/multiple_decks.xml"));
+
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Decks must all be in the same language.");
+
+		merger.add(this.getFile("/data/test/cards/bulk/same_language/uk.xml"));
+
+	}
+
+	private File getFile(String path) {
+		return new File(this.getClass().getResource(path).getFile());
+	}
+
+	/**
+	 * Puts cards in the order expected of a merge: by suit in order of first
+	 * appearance, then by text.
+	 */
+	private List<Card> sort(List<Card> cards) {
+
+		List<Card> black = new ArrayList<Card>();
+		List<Card> white = new ArrayList<Card>();
+		for (Card card : cards) {
+			if (card.getColor() == Card.CardColor.BLACK) {
+				black.add(card);
+			} else {
+				white.add(card);
+			}
+		}
+		Collections.sort(black, CardRun.CARD_ORDER);
+		Collections.sort(white, CardRun.CARD_ORDER);
+
+		List<Card> result = new ArrayList<Card>(black);
+		result.addAll(white);
+		return result;
+
+	}
+
+}
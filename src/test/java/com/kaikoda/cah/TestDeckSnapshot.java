@@ -0,0 +1,182 @@
+/* Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+/**
+ * @author Sheila Thomson
+ */
+public class TestDeckSnapshot {
+
+	/**
+	 * Check that blanking and de-duping a snapshot gives the same cards as
+	 * blanking and de-duping a Deck, without changing the original snapshot.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 * @throws TransformerException
+	 */
+	@Test
+	public void testDeckSnapshotBlank() throws SAXException, IOException, ParserConfigurationException, TransformerException {
+
+		Deck deck = new Deck(Deck.parse(this.getFile("/data/test/cards/duplicates.xml")));
+		DeckSnapshot original = deck.snapshot();
+		List<Card> before = original.getCards();
+
+		DeckSnapshot result = original.blank();
+		deck.blank();
+
+		assertEquals(deck.getCards(), result.getCards());
+		assertEquals(before, original.getCards());
+
+		// Nothing left to change.
+		assertSame(result, result.blank());
+		assertSame(result, result.dedupe());
+
+	}
+
+	/**
+	 * Check that many threads can render the same snapshot at once, with the
+	 * same result as the Deck.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testDeckSnapshotToHtml_concurrent() throws Exception {
+
+		Deck deck = new Deck(Deck.parse(this.getFile("/data/control/cards/html5.xml")));
+		final DeckSnapshot snapshot = deck.snapshot();
+		String expected = deck.toHtml();
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for (int i = 0; i < 64; i++) {
+				results.add(executor.submit(new Callable<String>() {
+
+					public String call() throws IOException {
+						return snapshot.toHtml();
+					}
+
+				}));
+			}
+
+			for (Future<String> result : results) {
+				assertEquals(expected, result.get());
+			}
+
+		} finally {
+			executor.shutdown();
+		}
+
+	}
+
+	/**
+	 * Check that rendering the pages of each suit at the same time gives the
+	 * same result as rendering them in order, with one thread or several.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 * @throws TransformerException
+	 */
+	@Test
+	public void testDeckSnapshotToHtml_parallel() throws SAXException, IOException, ParserConfigurationException, TransformerException {
+
+		Deck deck = new Deck(Deck.parse(this.getFile("/data/control/cards/html5.xml")));
+		DeckSnapshot snapshot = deck.snapshot();
+		String expected = deck.toHtml();
+
+		for (int parallelism : new int[] { 1, 4 }) {
+
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+
+				ByteArrayOutputStream result = new ByteArrayOutputStream();
+				snapshot.toHtml(result, pool);
+				assertEquals(expected, result.toString("UTF-8"));
+
+				result = new ByteArrayOutputStream();
+				deck.toHtml(result, pool);
+				assertEquals(expected, result.toString("UTF-8"));
+
+			} finally {
+				pool.shutdown();
+			}
+
+		}
+
+	}
+
+	/**
+	 * Check that translating a snapshot gives the same cards as translating
+	 * a Deck, sharing those that don't change.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 * @throws TransformerException
+	 */
+	@Test
+	public void testDeckSnapshotTranslate() throws SAXException, IOException, ParserConfigurationException, TransformerException {
+
+		File dictionary = this.getFile("/data/control/dictionaries/english.xml");
+
+		Deck deck = new Deck(Deck.parse(this.getFile("/data/control/cards/no_duplicates.xml")));
+		DeckSnapshot original = deck.snapshot();
+
+		DeckSnapshot result = original.translate(Locale.UK, dictionary);
+		deck.translate(Locale.UK, dictionary);
+
+		assertEquals(deck.getCards(), result.getCards());
+		assertEquals("en-gb", result.getLanguage());
+
+		// The TSA is translated; a moment of silence is not.
+		assertNotSame(original.getCards().get(1), result.getCards().get(1));
+		assertSame(original.getCards().get(13), result.getCards().get(13));
+		assertEquals("A moment of silence.", result.getCards().get(13).getText());
+
+	}
+
+	private File getFile(String path) {
+		return new File(this.getClass().getResource(path).getFile());
+	}
+
+}
@@ -0,0 +1,133 @@
+/* Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import static org.custommonkey.xmlunit.XMLAssert.assertXMLEqual;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.TransformerException;
+
+import org.custommonkey.xmlunit.XMLUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import com.kaikoda.cah.ExternalDeduper.DedupeOrder;
+
+/**
+ * @author Sheila Thomson
+ */
+public class TestExternalDeduper {
+
+	private File xml;
+
+	/**
+	 * Configure the test environment prior to each test.
+	 */
+	@Before
+	public void setup() {
+
+		XMLUnit.setIgnoreWhitespace(true);
+		XMLUnit.setIgnoreAttributeOrder(true);
+		XMLUnit.setIgnoreComments(true);
+
+		this.xml = new File(this.getClass().getResource("/data/test/cards/duplicates.xml").getFile());
+
+	}
+
+	/**
+	 * Check that the result matches blanking and then de-duping in memory,
+	 * even when the data is spread across many partitions.
+	 * 
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 * @throws SAXException
+	 * @throws ParserConfigurationException
+	 * @throws TransformerException
+	 */
+	@Test
+	public void testExternalDeduperDedupe_documentOrder() throws IOException, XMLStreamException, SAXException, ParserConfigurationException, TransformerException {
+
+		// Underscore blanks are converted as the cards are read.
+		Deck expected = new Deck(Deck.parse(this.xml));
+		expected.blank();
+		expected.dedupe();
+
+		ExternalDeduper deduper = new ExternalDeduper(1024, null, 2);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		deduper.dedupe(this.xml, out, DedupeOrder.DOCUMENT);
+
+		assertTrue(deduper.getTotalPartitions() > 1);
+		assertEquals(24, deduper.getTotalCards());
+		assertEquals(4, deduper.getTotalDuplicates());
+		assertTrue(deduper.getExactChecks() >= 4);
+
+		assertXMLEqual(expected.toString(), out.toString("UTF-8"));
+
+		// XMLUnit tolerates elements out of order, so check that separately.
+		assertEquals(expected.getCards(), new Deck(Deck.parse(out.toString("UTF-8"))).getCards());
+
+	}
+
+	/**
+	 * Check that the cards in each suit can be sorted by text instead.
+	 * 
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 * @throws SAXException
+	 * @throws ParserConfigurationException
+	 * @throws TransformerException
+	 */
+	@Test
+	public void testExternalDeduperDedupe_textOrder() throws IOException, XMLStreamException, SAXException, ParserConfigurationException, TransformerException {
+
+		Deck expected = new Deck(Deck.parse(this.xml));
+		expected.blank();
+
+		List<Card> black = new ArrayList<Card>();
+		List<Card> white = new ArrayList<Card>();
+		for (Card card : expected.getCards()) {
+			if (card.getColor() == Card.CardColor.BLACK) {
+				black.add(card);
+			} else {
+				white.add(card);
+			}
+		}
+		Collections.sort(black, CardRun.CARD_ORDER);
+		Collections.sort(white, CardRun.CARD_ORDER);
+		black.addAll(white);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new ExternalDeduper(1024, null, 3).dedupe(this.xml, out, DedupeOrder.TEXT);
+
+		Deck result = new Deck(Deck.parse(out.toString("UTF-8")));
+		assertEquals(black, result.getCards());
+
+	}
+
+}
@@ -0,0 +1,212 @@
+/* Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.xml.sax.SAXException;
+
+import com.kaikoda.cah.GameSession.GameState;
+
+/**
+ * @author Sheila Thomson
+ */
+public class TestGameServer {
+
+	/**
+	 * For declaring what kind of exception is expected, when one is expected.
+	 */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	/**
+	 * A deck with enough cards for a few players.
+	 */
+	private Deck deck;
+
+	/**
+	 * Configure the test environment prior to each test.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 * @throws TransformerException
+	 */
+	@Before
+	public void setup() throws SAXException, IOException, ParserConfigurationException, TransformerException {
+		this.deck = GameServer.load(new File(this.getClass().getResource("/data/test/cards/html5.xml").getFile()));
+	}
+
+	/**
+	 * Check that many sessions can be dealt at once and held open, sharing the
+	 * same deck, then played to the end.
+	 * 
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testGameServer_load() throws InterruptedException {
+
+		int totalSessions = 10000;
+		int totalRounds = 10;
+
+		ExecutorService executor = GameServer.newDefaultExecutor();
+		GameServer server = new GameServer(this.deck, executor);
+
+		// Deal every session's first round at once, each on a thread of the
+		// server's, before any are played: every one of them is open, with
+		// hands dealt, at the same time.
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch dealt = new CountDownLatch(totalSessions);
+		final List<GameSession> sessions = new ArrayList<GameSession>();
+		for (int i = 0; i < totalSessions; i++) {
+
+			final GameSession session = server.newSession(4, totalRounds);
+			sessions.add(session);
+
+			executor.execute(new Runnable() {
+
+				public void run() {
+					try {
+						start.await();
+						session.deal();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						dealt.countDown();
+					}
+				}
+
+			});
+
+		}
+
+		start.countDown();
+		assertTrue(dealt.await(2, TimeUnit.MINUTES));
+
+		for (GameSession session : sessions) {
+			assertEquals(GameState.SUBMITTING, session.getState());
+			server.start(session);
+		}
+
+		assertTrue(server.awaitTermination(2, TimeUnit.MINUTES));
+
+		GameMetrics metrics = server.getMetrics();
+		assertEquals(totalSessions, metrics.getSessionsFinished());
+		assertEquals(0, metrics.getSessionsFailed());
+		assertEquals(totalSessions * totalRounds, metrics.getRoundsPlayed());
+		assertTrue(metrics.getLatencyPercentile(99) >= metrics.getLatencyPercentile(50));
+
+		for (GameSession session : sessions) {
+			assertEquals(GameState.FINISHED, session.getState());
+		}
+
+	}
+
+	/**
+	 * Check that, without virtual threads, sessions share a pool of threads
+	 * no larger than the number of processors.
+	 */
+	@Test
+	public void testGameServerNewDefaultExecutor() {
+
+		ExecutorService executor = GameServer.newDefaultExecutor();
+		try {
+			if (executor instanceof ThreadPoolExecutor) {
+				assertEquals(Runtime.getRuntime().availableProcessors(), ((ThreadPoolExecutor) executor).getMaximumPoolSize());
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+	}
+
+	/**
+	 * Check that a round moves through each state in turn and that the winner
+	 * scores.
+	 */
+	@Test
+	public void testGameSession_round() {
+
+		GameServer server = new GameServer(this.deck);
+		GameSession session = server.newSession(3, 1, 99L);
+		assertEquals(GameState.DEALING, session.getState());
+
+		session.deal();
+		assertEquals(GameState.SUBMITTING, session.getState());
+		assertEquals(0, session.getJudge());
+
+		int pick = session.getPick();
+		for (int player = 1; player < 3; player++) {
+
+			assertEquals(GameSession.HAND_SIZE + session.getDealer().getDraw(session.getBlackCard()), session.getHandSize(player));
+
+			int[] answer = new int[pick];
+			for (int i = 0; i < pick; i++) {
+				answer[i] = session.getHandCard(player, i);
+			}
+			session.submit(player, answer, pick);
+
+		}
+		assertEquals(GameState.JUDGING, session.getState());
+
+		session.judge(2);
+		session.score();
+
+		assertEquals(GameState.FINISHED, session.getState());
+		assertEquals(1, session.getScore(2));
+		assertEquals(0, session.getScore(1));
+		assertEquals(1, session.getJudge());
+
+		server.shutdown();
+
+	}
+
+	/**
+	 * Check that a step can't be taken out of turn.
+	 */
+	@Test
+	public void testGameSession_outOfTurn() {
+
+		GameServer server = new GameServer(this.deck);
+		GameSession session = server.newSession(3, 1, 99L);
+		server.shutdown();
+
+		exception.expect(IllegalStateException.class);
+		exception.expectMessage("Expected JUDGING but was DEALING.");
+
+		session.judge(1);
+
+	}
+
+}
@@ -0,0 +1,159 @@
+/* Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import com.kaikoda.cah.CardGenerator.CardGeneratorProduct;
+import com.kaikoda.cah.ProgressReporter.ProgressReporterMode;
+
+/**
+ * @author Sheila Thomson
+ */
+public class TestGenerationEvents {
+
+	/**
+	 * Check that each stage is recorded, with the details of the deck.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 * @throws TransformerException
+	 */
+	@Test
+	public void testGenerationEvents_recorded() throws SAXException, IOException, ParserConfigurationException, TransformerException {
+
+		File xml = new File(this.getClass().getResource("/data/test/cards/duplicates.xml").getFile());
+		File dump = File.createTempFile("generation", ".jfr");
+		dump.deleteOnExit();
+
+		Recording recording = new Recording();
+		try {
+
+			recording.enable("com.kaikoda.cah.Parse");
+			recording.enable("com.kaikoda.cah.Dedupe");
+			recording.enable("com.kaikoda.cah.Render");
+			recording.start();
+
+			Deck deck = new Deck(Deck.parse(xml));
+			deck.dedupe();
+			deck.toHtml(new ByteArrayOutputStream());
+
+			recording.stop();
+			recording.dump(dump.toPath());
+
+		} finally {
+			recording.close();
+		}
+
+		List<String> stages = new ArrayList<String>();
+		for (RecordedEvent event : RecordingFile.readAllEvents(dump.toPath())) {
+
+			String stage = event.getEventType().getName();
+			if (!stage.startsWith("com.kaikoda.cah.")) {
+				continue;
+			}
+			stages.add(stage);
+
+			assertEquals("duplicates.xml", event.getString("deck"));
+			assertTrue(event.getInt("cards") > 0);
+
+			if (stage.equals("com.kaikoda.cah.Parse")) {
+				assertEquals(xml.length(), event.getLong("bytes"));
+			} else if (stage.equals("com.kaikoda.cah.Render")) {
+				assertEquals("html", event.getString("product"));
+				assertTrue(event.getLong("bytes") > 0);
+			}
+
+		}
+
+		assertTrue(stages.contains("com.kaikoda.cah.Parse"));
+		assertTrue(stages.contains("com.kaikoda.cah.Dedupe"));
+		assertTrue(stages.contains("com.kaikoda.cah.Render"));
+
+	}
+
+	/**
+	 * Check that reading card data is recorded when generating
+	 * asynchronously too.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testGenerationEvents_recordedAsync() throws Exception {
+
+		File xml = new File(this.getClass().getResource("/data/test/cards/duplicates.xml").getFile());
+		File directory = File.createTempFile("generation", "");
+		directory.delete();
+		File dump = File.createTempFile("generation", ".jfr");
+		dump.deleteOnExit();
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Recording recording = new Recording();
+		try {
+
+			recording.enable("com.kaikoda.cah.Parse");
+			recording.start();
+
+			CardGenerator generator = new CardGenerator();
+			generator.setVerbosity(ProgressReporterMode.SILENT);
+			generator.generateAsync(xml, null, null, CardGeneratorProduct.XML, directory, executor).get(30, TimeUnit.SECONDS);
+
+			recording.stop();
+			recording.dump(dump.toPath());
+
+		} finally {
+			recording.close();
+			executor.shutdown();
+			FileUtils.deleteDirectory(directory);
+		}
+
+		int total = 0;
+		for (RecordedEvent event : RecordingFile.readAllEvents(dump.toPath())) {
+			if (event.getEventType().getName().equals("com.kaikoda.cah.Parse")) {
+				assertEquals("duplicates.xml", event.getString("deck"));
+				assertEquals(xml.length(), event.getLong("bytes"));
+				total++;
+			}
+		}
+
+		assertEquals(1, total);
+
+	}
+
+}
@@ -0,0 +1,197 @@
+/* Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.xml.sax.SAXException;
+
+/**
+ * @author Sheila Thomson
+ */
+public class TestPackLibrary {
+
+	/**
+	 * For declaring what kind of exception is expected, when one is expected.
+	 */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	/**
+	 * A library of three packs, the first two with a card in common.
+	 */
+	private PackLibrary library;
+
+	/**
+	 * Configure the test environment prior to each test.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 */
+	@Before
+	public void setup() throws SAXException, IOException, ParserConfigurationException {
+
+		this.library = new PackLibrary();
+		assertEquals("html5", this.library.load(this.getFile("/data/control/cards/html5.xml")));
+		assertEquals("merged", this.library.load(this.getFile("/data/control/cards/merged.xml")));
+		assertEquals("usa", this.library.load(this.getFile("/data/control/cards/usa.xml")));
+
+	}
+
+	/**
+	 * Check that the same pack can't be loaded twice.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 */
+	@Test
+	public void testPackLibraryLoad_alreadyLoaded() throws SAXException, IOException, ParserConfigurationException {
+
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Pack already loaded: usa");
+
+		this.library.load(this.getFile("/data/control/cards/usa.xml"));
+
+	}
+
+	/**
+	 * Check that each pack is given its own range of IDs, and that a card in
+	 * more than one pack is shared.
+	 */
+	@Test
+	public void testPackLibraryLoad_ranges() {
+
+		int html5 = this.library.getTotalCards("html5");
+		int merged = this.library.getTotalCards("merged");
+
+		assertEquals(0, this.library.getFirstCard("html5"));
+		assertEquals(html5, this.library.getFirstCard("merged"));
+		assertEquals(html5 + merged, this.library.getFirstCard("usa"));
+		assertEquals(html5 + merged + this.library.getTotalCards("usa"), this.library.getTotalCards());
+
+		int shared = 0;
+		for (int i = html5; i < html5 + merged; i++) {
+			for (int j = 0; j < html5; j++) {
+				if (this.library.getCard(i).equals(this.library.getCard(j))) {
+					assertSame(this.library.getCard(j), this.library.getCard(i));
+					shared++;
+				}
+			}
+		}
+		assertEquals(1, shared);
+
+	}
+
+	/**
+	 * Check that a single pack selects the same cards as were loaded.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 */
+	@Test
+	public void testPackLibrarySelect() throws SAXException, IOException, ParserConfigurationException {
+
+		DeckSnapshot expected = DeckSnapshot.fromDocument(Deck.parse(this.getFile("/data/control/cards/usa.xml"))).blank().dedupe();
+		DeckSnapshot result = this.library.select("usa");
+
+		assertEquals(expected.getCards(), result.getCards());
+		assertEquals(expected.getLanguage(), result.getLanguage());
+		assertEquals(expected.getLicence(), result.getLicence());
+
+	}
+
+	/**
+	 * Check that packs are combined as sets of cards.
+	 */
+	@Test
+	public void testPackLibrarySelect_combined() {
+
+		List<Card> html5 = this.library.select("html5").getCards();
+		List<Card> merged = this.library.select("merged").getCards();
+		List<Card> both = this.library.select("html5 & merged").getCards();
+		List<Card> either = this.library.select("html5 + merged").getCards();
+		List<Card> html5Only = this.library.select("html5 - merged").getCards();
+
+		assertFalse(both.isEmpty());
+		assertEquals(html5.size() + merged.size() - both.size(), either.size());
+		assertEquals(new HashSet<Card>(either).size(), either.size());
+		assertEquals(html5.size() - both.size(), html5Only.size());
+		for (Card card : html5Only) {
+			assertFalse(merged.contains(card));
+		}
+
+		assertEquals("en-us", this.library.select("usa + merged").getLanguage());
+		assertEquals("en-gb", this.library.select("merged + usa").getLanguage());
+
+	}
+
+	/**
+	 * Check that a pack name may contain a hyphen, and that parentheses and a
+	 * true minus sign are understood.
+	 */
+	@Test
+	public void testPackLibrarySelect_expression() {
+
+		this.library.add("html5-only", this.library.select("html5 - merged"));
+
+		assertEquals(this.library.select("html5 - merged").getCards(), this.library.select("html5-only").getCards());
+		assertEquals(this.library.select("html5 & merged").getCards(), this.library.select("html5 \u2212 html5-only").getCards());
+		assertEquals(this.library.select("merged").getCards(), this.library.select("(html5+merged)-(html5-only)").getCards());
+
+	}
+
+	/**
+	 * Check that a pack must be loaded before it's selected.
+	 */
+	@Test
+	public void testPackLibrarySelect_unknownPack() {
+
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Unknown pack: tech");
+
+		this.library.select("html5 + tech");
+
+	}
+
+	/**
+	 * Finds a file that matches the path specified.
+	 * 
+	 * @param path a potential path to the file sought.
+	 * @return the file sought.
+	 */
+	private File getFile(String path) {
+		return new File(this.getClass().getResource(path).getFile());
+	}
+
+}
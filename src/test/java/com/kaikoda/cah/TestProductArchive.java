@@ -0,0 +1,144 @@
+/* Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * @author Sheila Thomson
+ */
+public class TestProductArchive {
+
+	/**
+	 * For declaring what kind of exception is expected, when one is expected.
+	 */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	/**
+	 * Check that entries written to a tar.gz archive, whether copied or
+	 * streamed, can be read back in the order they were added.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testProductArchive_tarGz() throws IOException {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ProductArchive archive = new ProductArchive(out, ProductArchive.ArchiveFormat.TAR_GZ);
+		try {
+
+			assertEquals(5, archive.add("a/copied.txt", new ByteArrayInputStream("Hello".getBytes("UTF-8"))));
+
+			OutputStream entry = archive.newEntry("a/streamed.txt");
+			entry.write("Goodbye".getBytes("UTF-8"));
+			entry.close();
+
+			assertTrue(archive.contains("a/streamed.txt"));
+
+		} finally {
+			archive.close();
+		}
+
+		TarArchiveInputStream in = new TarArchiveInputStream(new GzipCompressorInputStream(new ByteArrayInputStream(out.toByteArray())));
+		try {
+
+			ArchiveEntry entry = in.getNextEntry();
+			assertEquals("a/copied.txt", entry.getName());
+			assertEquals("Hello", IOUtils.toString(in, "UTF-8"));
+
+			entry = in.getNextEntry();
+			assertEquals("a/streamed.txt", entry.getName());
+			assertEquals("Goodbye", IOUtils.toString(in, "UTF-8"));
+
+			assertNull(in.getNextEntry());
+
+		} finally {
+			in.close();
+		}
+
+	}
+
+	/**
+	 * Check that a file with an unsupported extension is rejected before it's
+	 * created.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testProductArchive_unsupportedFormat() throws IOException {
+
+		File directory = File.createTempFile("cah", "");
+		directory.delete();
+		directory.mkdirs();
+		directory.deleteOnExit();
+
+		File file = new File(directory, "editions.rar");
+		try {
+			new ProductArchive(file).close();
+			fail("Unsupported format accepted.");
+		} catch (IllegalArgumentException e) {
+			assertEquals("Unsupported archive format: editions.rar", e.getMessage());
+		}
+
+		assertFalse(file.exists());
+
+	}
+
+	/**
+	 * Check that the same name can't be used for two entries.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testProductArchiveNewEntry_duplicate() throws IOException {
+
+		ProductArchive archive = new ProductArchive(new ByteArrayOutputStream(), ProductArchive.ArchiveFormat.ZIP);
+		try {
+
+			archive.add("cards.xml", new ByteArrayInputStream(new byte[0]));
+
+			exception.expect(IllegalArgumentException.class);
+			exception.expectMessage("Entry already added: cards.xml");
+
+			archive.newEntry("cards.xml");
+
+		} finally {
+			archive.close();
+		}
+
+	}
+
+}
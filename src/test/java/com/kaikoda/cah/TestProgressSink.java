@@ -0,0 +1,236 @@
+/* Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.kaikoda.cah.ProgressSink.ProgressSinkFormat;
+
+/**
+ * @author Sheila Thomson
+ */
+public class TestProgressSink {
+
+	/**
+	 * For declaring what kind of exception is expected, when one is expected.
+	 */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	/**
+	 * Check that messages from several threads are all written, each tagged
+	 * with its job and in the order the job gave them.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testProgressSinkOffer_concurrentJobs() throws Exception {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final ProgressSink sink = new ProgressSink(out, ProgressSinkFormat.TEXT, 16, 0);
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 4; i++) {
+
+			final String job = "job" + i;
+			Thread thread = new Thread(new Runnable() {
+
+				public void run() {
+					for (int message = 0; message < 500; message++) {
+						sink.offer(job, Integer.toString(message), false);
+					}
+				}
+
+			});
+			threads.add(thread);
+			thread.start();
+
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		sink.close();
+
+		assertEquals(2000, sink.getWritten());
+
+		int[] next = new int[4];
+		for (String line : out.toString("UTF-8").split("\n")) {
+
+			assertTrue(line, line.matches("\\[job[0-3]\\] [0-9]+"));
+
+			int job = line.charAt(4) - '0';
+			assertEquals(next[job], Integer.parseInt(line.substring(7)));
+			next[job]++;
+
+		}
+
+		for (int job = 0; job < 4; job++) {
+			assertEquals(500, next[job]);
+		}
+
+	}
+
+	/**
+	 * Check that every message accepted is written, even when the sink is
+	 * closed while messages are still being offered.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testProgressSinkClose_concurrentOffers() throws Exception {
+
+		for (int attempt = 0; attempt < 20; attempt++) {
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final ProgressSink sink = new ProgressSink(out, ProgressSinkFormat.TEXT, 16, 0);
+			final AtomicLong accepted = new AtomicLong();
+
+			List<Thread> threads = new ArrayList<Thread>();
+			for (int i = 0; i < 4; i++) {
+
+				Thread thread = new Thread(new Runnable() {
+
+					public void run() {
+						while (sink.offer("job", "message", false)) {
+							accepted.incrementAndGet();
+						}
+					}
+
+				});
+				threads.add(thread);
+				thread.start();
+
+			}
+
+			Thread.sleep(5);
+			sink.close();
+
+			for (Thread thread : threads) {
+				thread.join();
+			}
+
+			assertEquals(accepted.get(), sink.getWritten());
+			assertFalse(sink.offer("job", "message", false));
+
+		}
+
+	}
+
+	/**
+	 * Check that messages are written as JSON lines, escaped where necessary.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testProgressSinkOffer_json() throws Exception {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ProgressSink sink = new ProgressSink(out, ProgressSinkFormat.JSON);
+
+		sink.offer("uk.xml", "...data read.\n", false);
+		sink.offer("uk.xml", "Unable to \"read\" card data.", true);
+		sink.close();
+
+		String[] lines = out.toString("UTF-8").split("\n");
+		assertEquals(2, lines.length);
+		assertTrue(lines[0], lines[0].matches("\\{\"time\":[0-9]+,\"job\":\"uk.xml\",\"level\":\"info\",\"message\":\"\\.\\.\\.data read\\.\\\\n\"\\}"));
+		assertTrue(lines[1], lines[1].matches("\\{\"time\":[0-9]+,\"job\":\"uk.xml\",\"level\":\"error\",\"message\":\"Unable to \\\\\"read\\\\\" card data\\.\"\\}"));
+
+	}
+
+	/**
+	 * Check that messages over the rate limit are dropped and counted, but
+	 * errors never are.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testProgressSinkOffer_rateLimited() throws Exception {
+
+		final AtomicLong now = new AtomicLong();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ProgressSink sink = new ProgressSink(out, ProgressSinkFormat.TEXT, 64, 3, new ProgressSink.Clock() {
+
+			public long nanoTime() {
+				return now.get();
+			}
+
+		});
+
+		int accepted = 0;
+		for (int i = 0; i < 10; i++) {
+			if (sink.offer("usa.xml", "Message " + i, false)) {
+				accepted++;
+			}
+		}
+		assertTrue(sink.offer("usa.xml", "Something went wrong.", true));
+
+		// A second later, there's a new allowance.
+		now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+		assertTrue(sink.offer("usa.xml", "Message 10", false));
+
+		sink.close();
+
+		assertEquals(3, accepted);
+		assertEquals(7, sink.getDropped());
+
+		String result = out.toString("UTF-8");
+		assertTrue(result.contains("[usa.xml] Error: Something went wrong.\n"));
+		assertTrue(result.contains("[usa.xml] Message 10\n"));
+
+		// The writer may report the drops in more than one notice.
+		long reported = 0;
+		Matcher notice = Pattern.compile("^([0-9]+) messages dropped\\.$", Pattern.MULTILINE).matcher(result);
+		while (notice.find()) {
+			reported = reported + Long.parseLong(notice.group(1));
+		}
+		assertEquals(7, reported);
+
+		assertFalse(sink.offer("usa.xml", "Too late.", false));
+
+	}
+
+	/**
+	 * Check that a batch must hold at least one message.
+	 */
+	@Test
+	public void testProgressSink_invalidBatchSize() {
+
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Batch size must be at least 1.");
+
+		new ProgressSink(new ByteArrayOutputStream(), ProgressSinkFormat.TEXT, 0, 0);
+
+	}
+
+}
@@ -0,0 +1,141 @@
+/* Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import static org.custommonkey.xmlunit.XMLAssert.assertXMLEqual;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.xml.sax.SAXException;
+
+/**
+ * @author Sheila Thomson
+ */
+public class TestTranslationCache {
+
+	/**
+	 * For declaring what kind of exception is expected, when one is expected.
+	 */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	/**
+	 * Check that a cache must be able to hold at least one translation.
+	 */
+	@Test
+	public void testTranslationCache_tooSmall() {
+
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Maximum size must be at least 1.");
+
+		new TranslationCache(0);
+
+	}
+
+	/**
+	 * Check that translations are told apart by language and dictionary, and
+	 * that hits and misses are counted.
+	 */
+	@Test
+	public void testTranslationCacheGet() {
+
+		TranslationCache cache = new TranslationCache();
+		cache.put("Color", "en-us", "en-gb", 1L, "Colour");
+
+		assertEquals("Colour", cache.get("Color", "en-us", "en-gb", 1L));
+		assertNull(cache.get("Color", "en-us", "en-gb", 2L));
+		assertNull(cache.get("Color", "en-us", "en-au", 1L));
+		assertNull(cache.get("Colour", "en-gb", "en-us", 1L));
+
+		assertEquals(1, cache.getHits());
+		assertEquals(3, cache.getMisses());
+		assertEquals(0.25, cache.getHitRate(), 0);
+
+	}
+
+	/**
+	 * Check that the least recently used translations are forgotten first,
+	 * once the cache is full.
+	 */
+	@Test
+	public void testTranslationCachePut_evictions() {
+
+		TranslationCache cache = new TranslationCache(1);
+		cache.put("Color", "en-us", "en-gb", 1L, "Colour");
+		cache.put("Flavor", "en-us", "en-gb", 1L, "Flavour");
+
+		assertEquals(1, cache.size());
+		assertEquals(1, cache.getEvictions());
+		assertNull(cache.get("Color", "en-us", "en-gb", 1L));
+		assertEquals("Flavour", cache.get("Flavor", "en-us", "en-gb", 1L));
+
+		cache = new TranslationCache(64);
+		for (int i = 0; i < 1000; i++) {
+			cache.put("Text " + i, "en-us", "en-gb", 1L, "Text " + i);
+		}
+		assertTrue(cache.size() <= 64);
+		assertEquals(1000 - cache.size(), cache.getEvictions());
+
+	}
+
+	/**
+	 * Check that translating with a cache gives the same result as without,
+	 * and that a second deck re-uses the translations of the first.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws TransformerException
+	 * @throws ParserConfigurationException
+	 */
+	@Test
+	public void testTranslationCacheTranslateSelectively() throws SAXException, IOException, TransformerException, ParserConfigurationException {
+
+		File xml = new File(this.getClass().getResource("/data/control/cards/usa.xml").getFile());
+		Dictionary dictionary = Dictionary.load(new File(this.getClass().getResource("/data/control/dictionaries/english.xml").getFile()));
+		Locale targetLanguage = Locale.forLanguageTag("en-gb");
+
+		Deck expected = new Deck(Deck.parse(xml));
+		expected.translateSelectively(targetLanguage, dictionary);
+
+		TranslationCache cache = new TranslationCache();
+
+		Deck first = new Deck(Deck.parse(xml));
+		first.translateSelectively(targetLanguage, dictionary, cache);
+		assertXMLEqual(expected.getData(), first.getData());
+		assertEquals(0, cache.getHits());
+		assertFalse(cache.getMisses() == 0);
+
+		Deck second = new Deck(Deck.parse(xml));
+		second.translateSelectively(targetLanguage, dictionary, cache);
+		assertXMLEqual(expected.getData(), second.getData());
+		assertEquals(cache.getMisses(), cache.getHits());
+
+	}
+
+}
@@ -0,0 +1,168 @@
+/* Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.custommonkey.xmlunit.XMLUnit;
+import org.custommonkey.xmlunit.exceptions.XpathException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * @author Sheila Thomson
+ */
+public class TestTranslationReport {
+
+	/**
+	 * For declaring what kind of exception is expected, when one is expected.
+	 */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	private Deck deck;
+
+	private File dictionary;
+
+	/**
+	 * Configure the test environment prior to each test.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 */
+	@Before
+	public void setup() throws SAXException, IOException, ParserConfigurationException {
+
+		File xml = new File(this.getClass().getResource("/data/control/cards/usa.xml").getFile());
+		this.deck = new Deck(Deck.parse(xml));
+		this.dictionary = new File(this.getClass().getResource("/data/control/dictionaries/english.xml").getFile());
+
+	}
+
+	/**
+	 * Check that the report lists the entries that match each card, and the
+	 * cards and entries left over.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 */
+	@Test
+	public void testTranslationReport_matches() throws SAXException, IOException, ParserConfigurationException {
+
+		String before = this.deck.toString();
+
+		TranslationReport report = this.deck.reportTranslation(Locale.UK, this.dictionary);
+
+		assertEquals("en-us", report.getSourceLanguage());
+		assertEquals("en-gb", report.getTargetLanguage());
+		assertEquals(4, report.getTotalCards());
+
+		// Judge Judy
+		assertEquals("Judge Judy", report.getCard(0).getText());
+		assertArrayEquals(new int[] { 1 }, report.getMatches(0));
+		assertEquals(1, report.getHits(1));
+
+		// TSA
+		assertArrayEquals(new int[] { 0 }, report.getMatches(2));
+		assertEquals(1, report.getCardsMatched(0));
+
+		// GoGurt (TM) and Major League Baseball
+		assertEquals(0, report.getUntranslatedCards().size());
+		assertEquals(report.getEntries().size() - 4, report.getUnusedEntries().size());
+
+		// Reporting mustn't change the deck.
+		assertEquals(before, this.deck.toString());
+
+	}
+
+	/**
+	 * Check that cards no entry matches are reported as untranslated.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 */
+	@Test
+	public void testTranslationReport_untranslated() throws SAXException, IOException, ParserConfigurationException {
+
+		List<Card> cards = this.deck.getCards();
+		cards.add(new Card(Card.CardColor.WHITE, "A tsa agent."));
+
+		TranslationReport report = new TranslationReport(cards, Dictionary.load(this.dictionary), "en-US", "en-GB");
+
+		List<Card> untranslated = report.getUntranslatedCards();
+		assertEquals(1, untranslated.size());
+		assertEquals("A tsa agent.", untranslated.get(0).getText());
+
+	}
+
+	/**
+	 * Check that the report can be output as XML and as JSON.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 * @throws XpathException
+	 */
+	@Test
+	public void testTranslationReport_output() throws SAXException, IOException, ParserConfigurationException, XpathException {
+
+		TranslationReport report = this.deck.reportTranslation(Locale.UK, this.dictionary);
+
+		Document xml = report.toXml();
+		assertEquals("1", XMLUnit.newXpathEngine().evaluate("/translation-report/entries/entry[term = 'TSA']/@hits", xml));
+		assertEquals("0", XMLUnit.newXpathEngine().evaluate("/translation-report/@untranslated-cards", xml));
+		assertEquals("1", XMLUnit.newXpathEngine().evaluate("/translation-report/cards/card[1]/@entries", xml));
+
+		String json = report.toJson();
+		assertTrue(json.startsWith("{\"sourceLanguage\":\"en-us\",\"targetLanguage\":\"en-gb\",\"entries\":[{\"index\":0,\"source\":\"TSA\",\"target\":\"UK Border Agency\",\"hits\":1,\"cards\":1}"));
+
+	}
+
+	/**
+	 * Check that a dictionary is required.
+	 * 
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 */
+	@Test
+	public void testTranslationReport_noDictionary() throws SAXException, IOException, ParserConfigurationException {
+
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Dictionary required.");
+
+		this.deck.reportTranslation(Locale.UK, null);
+
+	}
+
+}
@@ -0,0 +1,140 @@
+/* Cards Against Humanity Card Generator
+ * Copyright (C) 2012  Sheila Thomson
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.kaikoda.cah;
+
+import static org.custommonkey.xmlunit.XMLAssert.assertXMLEqual;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+
+import net.sf.saxon.s9api.SaxonApiException;
+
+import org.custommonkey.xmlunit.XMLUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * @author Sheila Thomson
+ */
+public class TestXdmDeck {
+
+	/**
+	 * Configure the test environment prior to each test.
+	 */
+	@Before
+	public void setup() {
+
+		XMLUnit.setIgnoreWhitespace(true);
+		XMLUnit.setIgnoreAttributeOrder(true);
+		XMLUnit.setIgnoreComments(true);
+
+	}
+
+	/**
+	 * Check that blanks are standardised and duplicates removed, with the
+	 * same result as Deck.
+	 * 
+	 * @throws SaxonApiException
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 * @throws TransformerException
+	 */
+	@Test
+	public void testXdmDeckBlank() throws SaxonApiException, SAXException, IOException, ParserConfigurationException, TransformerException {
+
+		File xml = this.getFile("/data/test/cards/blanks_mixed.xml");
+
+		XdmDeck customDeck = XdmDeck.parse(xml);
+		assertFalse(customDeck.isBlanked());
+
+		customDeck.blank();
+		assertTrue(customDeck.isBlanked());
+
+		Document expected = Deck.parse(this.getFile("/data/control/cards/blanks_element.xml"));
+		assertXMLEqual(expected, customDeck.getData());
+
+		Deck deck = new Deck(Deck.parse(xml));
+		deck.blank();
+		assertEquals(deck.toString(), customDeck.toString());
+		assertEquals(deck.toHtml(), customDeck.toHtml());
+
+	}
+
+	/**
+	 * Check that a DOM is only built when asked for, and rebuilt after the
+	 * data changes.
+	 * 
+	 * @throws SaxonApiException
+	 * @throws ParserConfigurationException
+	 */
+	@Test
+	public void testXdmDeckGetData() throws SaxonApiException, ParserConfigurationException {
+
+		XdmDeck customDeck = XdmDeck.parse(this.getFile("/data/test/cards/duplicates.xml"));
+
+		Document before = customDeck.getData();
+		assertSame(before, customDeck.getData());
+
+		customDeck.dedupe();
+		assertNotSame(before, customDeck.getData());
+		assertEquals(customDeck.toString(), customDeck.toDeck().toString());
+
+	}
+
+	/**
+	 * Check that translating gives the same result as Deck.
+	 * 
+	 * @throws SaxonApiException
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 * @throws TransformerException
+	 */
+	@Test
+	public void testXdmDeckTranslate() throws SaxonApiException, SAXException, IOException, ParserConfigurationException, TransformerException {
+
+		File xml = this.getFile("/data/test/cards/usa.xml");
+		File dictionary = this.getFile("/data/control/dictionaries/english.xml");
+
+		XdmDeck customDeck = new XdmDeck(Deck.parse(xml));
+		customDeck.translate(Locale.UK, dictionary);
+		assertEquals(Locale.forLanguageTag("en-GB"), customDeck.getLocale());
+
+		Deck deck = new Deck(Deck.parse(xml));
+		deck.translate(Locale.UK, dictionary);
+		assertXMLEqual(deck.getData(), customDeck.getData());
+		assertEquals(deck.toString(), customDeck.toString());
+
+	}
+
+	private File getFile(String path) {
+		return new File(this.getClass().getResource(path).getFile());
+	}
+
+}